@@ -0,0 +1,33 @@
+package karaoke.bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks in this package and writes the results as JSON,
+ * so that runs can be compared to catch regressions.
+ */
+public class BenchmarkMain {
+
+    private static final String DEFAULT_RESULTS = "bench-results.json";
+
+    /**
+     * Run the benchmarks.
+     * @param args optionally, the results file (default bench-results.json)
+     *             followed by a regular expression selecting benchmarks (default all)
+     * @throws RunnerException if a benchmark fails
+     */
+    public static void main(String[] args) throws RunnerException {
+        final String results = args.length > 0 ? args[0] : DEFAULT_RESULTS;
+        final String include = args.length > 1 ? args[1] : BenchmarkMain.class.getPackage().getName() + ".*Benchmark";
+        Options options = new OptionsBuilder()
+                .include(include)
+                .resultFormat(ResultFormatType.JSON)
+                .result(results)
+                .build();
+        new Runner(options).run();
+    }
+}
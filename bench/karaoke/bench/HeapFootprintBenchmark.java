@@ -0,0 +1,105 @@
+package karaoke.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.sound.Music;
+import karaoke.sound.NormalizedMusic;
+
+/**
+ * Measures how much heap a parsed song catalog keeps alive.
+ * 
+ * Parses every file in sample-abc a number of times (default 20, or the first
+ * argument), keeps all of the resulting Music objects reachable, and reports the
+ * growth in used heap after garbage collection, then does the same with every song
+ * normalized by NormalizedMusic and reports how many nodes that removed. Run from the
+ * project root with assertions disabled so checkRep does not dominate parse time.
+ */
+public class HeapFootprintBenchmark {
+
+    private static final int DEFAULT_COPIES = 20;
+    private static final int GC_ROUNDS = 5;
+    private static final long GC_PAUSE_MILLIS = 100;
+
+    /**
+     * Runs the benchmark and prints the results.
+     * @param args optionally, the number of times to load the catalog
+     * @throws IOException if a sample file cannot be read
+     * @throws UnableToParseException if a sample file does not parse
+     * @throws InterruptedException if interrupted while waiting for garbage collection
+     */
+    public static void main(String[] args) throws IOException, UnableToParseException, InterruptedException {
+        final int copies = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_COPIES;
+        final List<File> files = catalog();
+
+        // warm up the parser and normalizer so their own classes and caches are not counted,
+        // and count the nodes of the catalog before and after normalizing
+        long nodesBefore = 0;
+        long nodesAfter = 0;
+        for (Music song : load(files, false)) {
+            final NormalizedMusic normalized = NormalizedMusic.of(song);
+            nodesBefore += normalized.nodesBefore();
+            nodesAfter += normalized.nodesAfter();
+        }
+
+        report("parsed", copies, files, false);
+        report("normalized", copies, files, true);
+        System.out.println("catalog nodes:  " + nodesBefore + ", normalized to " + nodesAfter);
+    }
+
+    private static void report(String label, int copies, List<File> files, boolean normalize)
+            throws IOException, UnableToParseException, InterruptedException {
+        final long before = usedHeap();
+        final List<Music> retained = new ArrayList<>();
+        for (int i = 0; i < copies; i++) {
+            retained.addAll(load(files, normalize));
+        }
+        final long after = usedHeap();
+
+        final long bytes = after - before;
+        System.out.println(label + ":");
+        System.out.println("songs loaded:   " + retained.size());
+        System.out.println("retained bytes: " + bytes);
+        System.out.println("bytes per song: " + bytes / Math.max(1, retained.size()));
+    }
+
+    /**
+     * @return every sample file that parses, in name order
+     */
+    private static List<File> catalog() {
+        final File[] all = new File("sample-abc").listFiles((dir, name) -> name.endsWith(".abc"));
+        Arrays.sort(all);
+        final List<File> files = new ArrayList<>();
+        for (File file : all) {
+            try {
+                Music.parseFromFile(file).getVoices();
+                files.add(file);
+            } catch (UnableToParseException | IOException | RuntimeException e) {
+                System.err.println("skipping " + file.getName() + ": " + e);
+            }
+        }
+        return files;
+    }
+
+    private static List<Music> load(List<File> files, boolean normalize) throws IOException, UnableToParseException {
+        final List<Music> songs = new ArrayList<>();
+        for (File file : files) {
+            final Music song = Music.parseFromFile(file);
+            songs.add(normalize ? NormalizedMusic.of(song).music() : song);
+        }
+        return songs;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < GC_ROUNDS; i++) {
+            System.gc();
+            Thread.sleep(GC_PAUSE_MILLIS);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
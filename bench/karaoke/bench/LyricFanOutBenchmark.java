@@ -0,0 +1,161 @@
+package karaoke.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.sound.CompiledMusic;
+import karaoke.sound.LyricTimingListener;
+import karaoke.sound.MidiSequencePlayer;
+import karaoke.sound.Music;
+import karaoke.sound.RecordingSequencePlayer;
+import karaoke.web.OverflowPolicy;
+import karaoke.web.SubscriberStream;
+
+/**
+ * Cost of streaming every lyric line of a song to many in-memory subscribers,
+ * with callbacks fired immediately rather than in real time.
+ * fanOut schedules the song once per subscriber, as a player per subscriber would, and fanOutShared schedules
+ * its lyrics once for all of them, as a room does.
+ * fanOutQueued measures only the time spent on the timing thread, which should not grow
+ * when some subscribers stop reading.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LyricFanOutBenchmark {
+
+    @Param({ "piece3.abc", "synthetic-500" })
+    public String song;
+
+    @Param({ "1", "50", "500" })
+    public int subscribers;
+
+    // one subscriber in this many never reads in fanOutQueued
+    private static final int STALLED_EVERY = 10;
+
+    private CompiledMusic compiled;
+    private ExecutorService senders;
+
+    /**
+     * Parse and compile the song.
+     * @throws IOException if the song cannot be read
+     * @throws UnableToParseException if the song does not parse
+     */
+    @Setup
+    public void setUp() throws IOException, UnableToParseException {
+        Music music = Songs.parse(song);
+        compiled = CompiledMusic.compile(music, Songs.firstVoice(music), MidiSequencePlayer.DEFAULT_TICKS_PER_BEAT);
+        senders = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Stop the sender threads.
+     */
+    @TearDown
+    public void tearDown() {
+        senders.shutdown();
+    }
+
+    /**
+     * Schedule the song once per subscriber and fire every lyric.
+     * @param blackhole sink for the bytes written to each subscriber
+     */
+    @Benchmark
+    public void fanOut(Blackhole blackhole) {
+        RecordingSequencePlayer player = new RecordingSequencePlayer();
+        ByteArrayOutputStream[] streams = new ByteArrayOutputStream[subscribers];
+        for (int i = 0; i < subscribers; i++) {
+            streams[i] = new ByteArrayOutputStream();
+            player.addCompiled(compiled, 0, streams[i]);
+        }
+        player.play();
+        for (ByteArrayOutputStream stream : streams) {
+            blackhole.consume(stream.size());
+        }
+    }
+
+    /**
+     * Schedule the song's lyrics once for every subscriber together, as a room does, and fire every lyric.
+     * @param blackhole sink for the bytes written to each subscriber
+     */
+    @Benchmark
+    public void fanOutShared(Blackhole blackhole) {
+        RecordingSequencePlayer player = new RecordingSequencePlayer();
+        Map<OutputStream, LyricTimingListener> streams = new LinkedHashMap<>();
+        for (int i = 0; i < subscribers; i++) {
+            streams.put(new ByteArrayOutputStream(), LyricTimingListener.NONE);
+        }
+        player.addLyrics(compiled, 0, streams);
+        player.play();
+        for (OutputStream stream : streams.keySet()) {
+            blackhole.consume(((ByteArrayOutputStream) stream).size());
+        }
+    }
+
+    /**
+     * Schedule the song once per subscriber, each behind its own bounded queue, and fire every lyric
+     * while every tenth subscriber's connection is stalled. The stalled connections are released afterwards
+     * so that their sender threads can be reused.
+     * @param blackhole sink for the number of lines each subscriber skipped
+     */
+    @Benchmark
+    public void fanOutQueued(Blackhole blackhole) {
+        RecordingSequencePlayer player = new RecordingSequencePlayer();
+        CountDownLatch unstall = new CountDownLatch(1);
+        SubscriberStream[] streams = new SubscriberStream[subscribers];
+        for (int i = 0; i < subscribers; i++) {
+            final OutputStream connection = i % STALLED_EVERY == 0 ? new StalledStream(unstall) : new ByteArrayOutputStream();
+            streams[i] = new SubscriberStream(connection, SubscriberStream.DEFAULT_CAPACITY,
+                    OverflowPolicy.SKIP_TO_LATEST, senders, nanos -> {});
+            player.addCompiled(compiled, 0, streams[i]);
+        }
+        player.play();
+        for (SubscriberStream stream : streams) {
+            blackhole.consume(stream.skipped());
+        }
+        unstall.countDown();
+    }
+
+    /**
+     * Connection whose writes block until released.
+     */
+    private static class StalledStream extends OutputStream {
+        private final CountDownLatch unstall;
+
+        StalledStream(CountDownLatch unstall) {
+            this.unstall = unstall;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                unstall.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,429 @@
+package karaoke.bench;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import javax.sound.midi.MidiUnavailableException;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.WebServer;
+import karaoke.sound.CompiledMusic;
+import karaoke.sound.MidiSequencePlayer;
+import karaoke.sound.Music;
+import karaoke.web.OverflowPolicy;
+import karaoke.web.PlaybackPosition;
+import karaoke.web.Room;
+
+/**
+ * Measures how many phones one server can keep in time with a song.
+ *
+ * Starts a WebServer on this machine, opens a room playing a song (default synthetic-8, or the second argument,
+ * named as for Songs), and connects a number of clients (default 500, or the first argument) to its first voice
+ * at /room/load/{voice}/. Once they are all waiting it starts the room's playback, timestamps every lyric line each
+ * client receives, and reports how late the lines arrived after they were due, per client and overall, along with
+ * the CPU time, heap and threads the server used. The port is 4567, or the third argument.
+ *
+ * The clients all run on one thread with non-blocking sockets, whose own CPU time is left out of the server's.
+ * Run from the project root with assertions disabled, and with a file descriptor limit above the number of clients.
+ */
+public class LyricLoadGenerator {
+
+    private static final int DEFAULT_CLIENTS = 500;
+    private static final String DEFAULT_SONG = Songs.SYNTHETIC_PREFIX + 8;
+    private static final int DEFAULT_PORT = 4567;
+    private static final String ROOM = "load";
+
+    // how long to wait for the clients that connected to subscribe before starting playback
+    private static final long SETTLE_MILLIS = 1000;
+    // how long after the end of the song to wait for the last lines
+    private static final long GRACE_MILLIS = 5000;
+    private static final long SAMPLE_MILLIS = 250;
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+    private static final double NANOS_PER_MINUTE = 60e9;
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final double BYTES_PER_MEGABYTE = 1 << 20;
+
+    /**
+     * Runs the load test and prints the results.
+     * @param args optionally, the number of clients, the song, and the port
+     * @throws IOException if the server cannot start or a song cannot be read
+     * @throws UnableToParseException if the song does not parse
+     * @throws MidiUnavailableException if the synthesizer cannot be opened
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static void main(String[] args)
+            throws IOException, UnableToParseException, MidiUnavailableException, InterruptedException {
+        final int clientCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CLIENTS;
+        final String song = args.length > 1 ? args[1] : DEFAULT_SONG;
+        final int port = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PORT;
+
+        final Music music = Songs.parse(song);
+        final String voice = Songs.firstVoice(music);
+        MidiSequencePlayer.warmUp();
+        final WebServer server = new WebServer(port, OverflowPolicy.SKIP_TO_LATEST);
+        final Room room = server.openRoom(ROOM, music);
+        final CompiledMusic compiled = room.compiled(voice);
+        final byte[] request = ("GET /room/" + ROOM + "/" + URLEncoder.encode(voice, "UTF-8") + "/ HTTP/1.1\r\n"
+                + "Host: localhost:" + port + "\r\n\r\n").getBytes(US_ASCII);
+
+        final Selector selector = Selector.open();
+        final Client[] clients = new Client[clientCount];
+        for (int i = 0; i < clientCount; i++) {
+            final SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            clients[i] = new Client(channel, request, compiled.lyricCount());
+            channel.connect(new InetSocketAddress("localhost", port));
+            channel.register(selector, SelectionKey.OP_CONNECT, clients[i]);
+        }
+
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+
+        // connect every client, and wait for the server to subscribe them
+        long generatorCpuNanos = 0;
+        final long connectStart = System.nanoTime();
+        while (count(clients, State.CONNECTING) > 0) {
+            final long cpuStart = threads.getCurrentThreadCpuTime();
+            poll(selector, buffer);
+            generatorCpuNanos += threads.getCurrentThreadCpuTime() - cpuStart;
+        }
+        System.out.println("clients connected: " + count(clients, State.STREAMING) + " of " + clientCount + " in "
+                + format((System.nanoTime() - connectStart) / NANOS_PER_MILLI) + " ms");
+        Thread.sleep(SETTLE_MILLIS);
+
+        final Sampler sampler = new Sampler();
+        sampler.start();
+        room.startPlayback();
+        final PlaybackPosition position = room.getPosition().get();
+        final double nanosPerBeat = NANOS_PER_MINUTE / position.getBeatsPerMinute();
+        final long[] dueNanos = new long[compiled.lyricCount()];
+        for (int i = 0; i < dueNanos.length; i++) {
+            final double beat = compiled.lyricTick(i) / (double) compiled.ticksPerBeat();
+            dueNanos[i] = position.getNanos() + Math.round((beat - position.getBeat()) * nanosPerBeat);
+        }
+        final long deadline = position.getNanos() + Math.round(music.duration() * nanosPerBeat)
+                + Math.round(GRACE_MILLIS * NANOS_PER_MILLI);
+
+        // read every client's lyrics until the song is over
+        while (count(clients, State.STREAMING) > 0 && System.nanoTime() < deadline) {
+            final long cpuStart = threads.getCurrentThreadCpuTime();
+            poll(selector, buffer);
+            generatorCpuNanos += threads.getCurrentThreadCpuTime() - cpuStart;
+        }
+        sampler.finish();
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+        server.stop();
+
+        report(clients, dueNanos, sampler, generatorCpuNanos);
+        System.exit(0);
+    }
+
+    /**
+     * Wait up to SAMPLE_MILLIS for the clients' sockets and handle whatever is ready.
+     * @param selector selector of the clients' sockets
+     * @param buffer scratch buffer for reads
+     * @throws IOException if the selector fails
+     */
+    private static void poll(Selector selector, ByteBuffer buffer) throws IOException {
+        selector.select(SAMPLE_MILLIS);
+        final long now = System.nanoTime();
+        for (Iterator<SelectionKey> ready = selector.selectedKeys().iterator(); ready.hasNext(); ) {
+            final SelectionKey key = ready.next();
+            ready.remove();
+            ((Client) key.attachment()).ready(key, buffer, now);
+        }
+    }
+
+    /**
+     * @return the number of clients in a state
+     */
+    private static int count(Client[] clients, State state) {
+        int count = 0;
+        for (Client client : clients) {
+            if (client.state == state) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Print the lateness of the clients' lines and the server's use of the machine.
+     * @param clients the clients, done reading
+     * @param dueNanos System.nanoTime() at which each lyric line was due
+     * @param sampler finished sampling the server
+     * @param generatorCpuNanos CPU time of the clients' thread
+     */
+    private static void report(Client[] clients, long[] dueNanos, Sampler sampler, long generatorCpuNanos) {
+        final long[] medians = new long[clients.length];
+        final long[] tails = new long[clients.length];
+        final long[] worsts = new long[clients.length];
+        final long[][] latenesses = new long[clients.length][];
+        int received = 0;
+        for (int i = 0; i < clients.length; i++) {
+            latenesses[i] = clients[i].lateness(dueNanos);
+            received += latenesses[i].length;
+        }
+        final long[] overall = new long[received];
+        int complete = 0;
+        int measured = 0;
+        int copied = 0;
+        for (long[] lateness : latenesses) {
+            if (lateness.length == dueNanos.length) {
+                complete++;
+            }
+            if (lateness.length > 0) {
+                Arrays.sort(lateness);
+                medians[measured] = lateness[quantileIndex(lateness.length, 0.5)];
+                tails[measured] = lateness[quantileIndex(lateness.length, 0.99)];
+                worsts[measured] = lateness[lateness.length - 1];
+                measured++;
+                System.arraycopy(lateness, 0, overall, copied, lateness.length);
+                copied += lateness.length;
+            }
+        }
+        System.out.println("clients failed:   " + count(clients, State.FAILED));
+        System.out.println("clients complete: " + complete + " of " + clients.length + " got all " + dueNanos.length
+                + " lines; " + overall.length + " lines received in all");
+        System.out.println("lateness in ms at                 p50 / p90 / p99 / max");
+        System.out.println("  every line:    " + percentiles(overall));
+        System.out.println("  per client, of the clients'");
+        System.out.println("    median line: " + percentiles(Arrays.copyOf(medians, measured)));
+        System.out.println("    p99 line:    " + percentiles(Arrays.copyOf(tails, measured)));
+        System.out.println("    latest line: " + percentiles(Arrays.copyOf(worsts, measured)));
+        final double serverCpuNanos = sampler.cpuNanos - generatorCpuNanos;
+        System.out.println("server CPU:       " + format(serverCpuNanos / NANOS_PER_MILLI) + " ms, "
+                + format(serverCpuNanos / sampler.wallNanos) + " cores on average (load generator's "
+                + format(generatorCpuNanos / NANOS_PER_MILLI) + " ms left out)");
+        System.out.println("heap used:        " + format(sampler.maxHeapBytes / BYTES_PER_MEGABYTE) + " MB at most");
+        System.out.println("threads:          " + sampler.maxThreads + " at most");
+    }
+
+    /**
+     * @param nanos durations, which are sorted
+     * @return the p50, p90 and p99 and largest of nanos in milliseconds
+     */
+    private static String percentiles(long[] nanos) {
+        if (nanos.length == 0) {
+            return "none";
+        }
+        Arrays.sort(nanos);
+        return format(nanos[quantileIndex(nanos.length, 0.5)] / NANOS_PER_MILLI)
+                + " / " + format(nanos[quantileIndex(nanos.length, 0.9)] / NANOS_PER_MILLI)
+                + " / " + format(nanos[quantileIndex(nanos.length, 0.99)] / NANOS_PER_MILLI)
+                + " / " + format(nanos[nanos.length - 1] / NANOS_PER_MILLI);
+    }
+
+    private static int quantileIndex(int length, double quantile) {
+        return Math.max(0, (int) Math.ceil(quantile * length) - 1);
+    }
+
+    private static String format(double value) {
+        return String.format("%.2f", value);
+    }
+
+    /**
+     * Samples the process's CPU time, heap and threads while the song plays.
+     */
+    private static class Sampler extends Thread {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private final long startNanos = System.nanoTime();
+        private final long startCpuNanos = processCpuNanos();
+        private volatile boolean running = true;
+        private long maxHeapBytes = 0;
+        private int maxThreads = 0;
+        private long cpuNanos;
+        private long wallNanos;
+
+        Sampler() {
+            super("load-sampler");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                maxHeapBytes = Math.max(maxHeapBytes, memory.getHeapMemoryUsage().getUsed());
+                maxThreads = Math.max(maxThreads, threads.getThreadCount());
+                try {
+                    Thread.sleep(SAMPLE_MILLIS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Stop sampling and total the CPU time since the sampler was made.
+         * @throws InterruptedException if interrupted while waiting for the last sample
+         */
+        void finish() throws InterruptedException {
+            running = false;
+            join();
+            cpuNanos = processCpuNanos() - startCpuNanos - threads.getThreadCpuTime(getId());
+            wallNanos = System.nanoTime() - startNanos;
+        }
+
+        /**
+         * @return CPU time of this whole process so far, in nanoseconds, or 0 if the JVM does not report it
+         */
+        private static long processCpuNanos() {
+            final java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            if (os instanceof com.sun.management.OperatingSystemMXBean) {
+                return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Where a client is in its request.
+     */
+    private enum State { CONNECTING, STREAMING, FINISHED, FAILED }
+
+    /**
+     * One phone: a connection that sends its request, then reads the chunked reply and finds the lyric lines in it.
+     */
+    private static class Client {
+        private static final byte[] LINE_END = "<br>".getBytes(US_ASCII);
+        private static final byte[] HEADERS_END = "\r\n\r\n".getBytes(US_ASCII);
+        private static final int RADIX = 16;
+
+        private final SocketChannel channel;
+        private final ByteBuffer request;
+        private State state = State.CONNECTING;
+        // System.nanoTime() at which each line was received
+        private final long[] receivedNanos;
+        private int lines = 0;
+
+        private boolean inHeaders = true;
+        private int headersMatched = 0;
+        // bytes left in the current chunk, or -1 while reading a chunk size line
+        private long chunkLeft = -1;
+        private final StringBuilder sizeLine = new StringBuilder();
+        private int lineEndMatched = 0;
+
+        Client(SocketChannel channel, byte[] request, int lyricCount) {
+            this.channel = channel;
+            this.request = ByteBuffer.wrap(request);
+            this.receivedNanos = new long[lyricCount];
+        }
+
+        /**
+         * Connect, write the request, or read the reply, whichever the socket is ready for.
+         */
+        void ready(SelectionKey key, ByteBuffer buffer, long now) {
+            try {
+                if (key.isConnectable()) {
+                    channel.finishConnect();
+                    key.interestOps(SelectionKey.OP_WRITE);
+                } else if (key.isWritable()) {
+                    channel.write(request);
+                    if (!request.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                } else if (key.isReadable()) {
+                    buffer.clear();
+                    if (channel.read(buffer) < 0) {
+                        end(key);
+                        return;
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        if (!parse(buffer.get(), now)) {
+                            end(key);
+                            return;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                fail(key);
+            }
+        }
+
+        /**
+         * @return false iff the reply is over
+         */
+        private boolean parse(byte b, long now) {
+            if (inHeaders) {
+                headersMatched = b == HEADERS_END[headersMatched] ? headersMatched + 1 : b == HEADERS_END[0] ? 1 : 0;
+                if (headersMatched == HEADERS_END.length) {
+                    inHeaders = false;
+                    state = State.STREAMING;
+                }
+                return true;
+            }
+            if (chunkLeft < 0) {
+                if (b != '\n') {
+                    sizeLine.append((char) b);
+                    return true;
+                }
+                final String size = sizeLine.toString().trim();
+                sizeLine.setLength(0);
+                if (size.isEmpty()) {
+                    // the line ending the previous chunk's data
+                    return true;
+                }
+                chunkLeft = Long.parseLong(size.split(";")[0], RADIX);
+                return chunkLeft > 0;
+            }
+            chunkLeft--;
+            if (chunkLeft == 0) {
+                chunkLeft = -1;
+            }
+            lineEndMatched = b == LINE_END[lineEndMatched] ? lineEndMatched + 1 : b == LINE_END[0] ? 1 : 0;
+            if (lineEndMatched == LINE_END.length) {
+                lineEndMatched = 0;
+                if (lines < receivedNanos.length) {
+                    receivedNanos[lines] = now;
+                }
+                lines++;
+            }
+            return true;
+        }
+
+        /**
+         * @param dueNanos System.nanoTime() at which each line was due
+         * @return how late each line received arrived, in nanoseconds
+         */
+        long[] lateness(long[] dueNanos) {
+            final long[] lateness = new long[Math.min(lines, receivedNanos.length)];
+            for (int i = 0; i < lateness.length; i++) {
+                lateness[i] = receivedNanos[i] - dueNanos[i];
+            }
+            return lateness;
+        }
+
+        private void end(SelectionKey key) throws IOException {
+            state = inHeaders ? State.FAILED : State.FINISHED;
+            key.cancel();
+            channel.close();
+        }
+
+        private void fail(SelectionKey key) {
+            state = inHeaders ? State.FAILED : State.FINISHED;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // already failed
+            }
+        }
+    }
+}
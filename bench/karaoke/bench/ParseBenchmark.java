@@ -0,0 +1,63 @@
+package karaoke.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.parser.AbcParser;
+import karaoke.parser.MusicParser;
+import karaoke.sound.Music;
+
+/**
+ * Time to parse a file into Music, with the grammar-based parser (including compiling the grammar)
+ * and with the one-pass recursive-descent parser.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParseBenchmark {
+
+    @Param({ "piece1.abc", "paddy.abc", "fur_elise.abc", "invention.abc", "waxies_dargle.abc", "synthetic-500" })
+    public String song;
+
+    private File file;
+
+    /**
+     * Locate or generate the song.
+     * @throws IOException if a synthetic song cannot be written
+     */
+    @Setup
+    public void setUp() throws IOException {
+        file = Songs.file(song);
+    }
+
+    /**
+     * @return the parsed song
+     * @throws IOException if the file cannot be read
+     * @throws UnableToParseException if the file does not parse
+     */
+    @Benchmark
+    public Music parseFromFile() throws IOException, UnableToParseException {
+        return new MusicParser().parseFromFile(file);
+    }
+
+    /**
+     * @return the song parsed in one pass, without a grammar or parse tree
+     * @throws IOException if the file cannot be read
+     * @throws UnableToParseException if the file does not parse
+     */
+    @Benchmark
+    public Music parseOnePass() throws IOException, UnableToParseException {
+        return AbcParser.parseFromFile(file);
+    }
+}
@@ -0,0 +1,87 @@
+package karaoke.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.sound.CompiledMusic;
+import karaoke.sound.MidiSequencePlayer;
+import karaoke.sound.Music;
+import karaoke.sound.NormalizedMusic;
+import karaoke.sound.RecordingSequencePlayer;
+
+/**
+ * Cost of walking the Music tree: playing it into a player that only records,
+ * and compiling it into arrays, as parsed and after NormalizedMusic.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlayBenchmark {
+
+    @Param({ "paddy.abc", "fur_elise.abc", "invention.abc", "waxies_dargle.abc", "synthetic-2000" })
+    public String song;
+
+    private Music music;
+    private Music normalized;
+    private String voice;
+
+    /**
+     * Parse and normalize the song.
+     * @throws IOException if the song cannot be read
+     * @throws UnableToParseException if the song does not parse
+     */
+    @Setup
+    public void setUp() throws IOException, UnableToParseException {
+        music = Songs.parse(song);
+        voice = Songs.firstVoice(music);
+        normalized = NormalizedMusic.of(music).music();
+    }
+
+    /**
+     * @return the player with the first voice's notes and lyrics scheduled
+     * @throws InterruptedException never
+     */
+    @Benchmark
+    public RecordingSequencePlayer play() throws InterruptedException {
+        RecordingSequencePlayer player = new RecordingSequencePlayer();
+        music.play(player, 0, Songs.NULL_STREAM, voice);
+        return player;
+    }
+
+    /**
+     * @return the first voice compiled into arrays
+     */
+    @Benchmark
+    public CompiledMusic compile() {
+        return CompiledMusic.compile(music, voice, MidiSequencePlayer.DEFAULT_TICKS_PER_BEAT);
+    }
+
+    /**
+     * @return the player with the first voice's notes and lyrics scheduled from the normalized song
+     * @throws InterruptedException never
+     */
+    @Benchmark
+    public RecordingSequencePlayer playNormalized() throws InterruptedException {
+        RecordingSequencePlayer player = new RecordingSequencePlayer();
+        normalized.play(player, 0, Songs.NULL_STREAM, voice);
+        return player;
+    }
+
+    /**
+     * @return the first voice of the normalized song compiled into arrays
+     */
+    @Benchmark
+    public CompiledMusic compileNormalized() {
+        return CompiledMusic.compile(normalized, voice, MidiSequencePlayer.DEFAULT_TICKS_PER_BEAT);
+    }
+}
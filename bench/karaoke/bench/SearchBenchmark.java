@@ -0,0 +1,64 @@
+package karaoke.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.sound.Music;
+import karaoke.web.LyricIndex;
+
+/**
+ * Cost of finding a line of lyrics in a large catalog: every sample song, added many times under different names.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchBenchmark {
+
+    private static final int COPIES = 1000;
+    private static final int LIMIT = 100;
+
+    @Param({ "say can you see", "the", "ask him for a half a crown", "no such line" })
+    public String query;
+
+    private LyricIndex index;
+
+    /**
+     * Index the catalog.
+     * @throws IOException if a song cannot be read
+     * @throws UnableToParseException if a song does not parse
+     */
+    @Setup
+    public void setUp() throws IOException, UnableToParseException {
+        final List<Music> songs = new ArrayList<>();
+        for (File file : new File("sample-abc").listFiles((dir, name) -> name.endsWith(".abc"))) {
+            songs.add(Music.parseFromFile(file));
+        }
+        index = new LyricIndex();
+        for (int copy = 0; copy < COPIES; copy++) {
+            for (Music song : songs) {
+                index.add("song-" + copy, song);
+            }
+        }
+    }
+
+    /**
+     * @return the first matches of the query
+     */
+    @Benchmark
+    public List<LyricIndex.Match> search() {
+        return index.search(query, LIMIT);
+    }
+}
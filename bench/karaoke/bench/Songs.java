@@ -0,0 +1,97 @@
+package karaoke.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.sound.Music;
+
+/**
+ * Songs shared by the benchmarks: files from sample-abc, and synthetic songs of any length.
+ */
+final class Songs {
+
+    /**
+     * Prefix of a song name that is generated rather than read from sample-abc;
+     * the rest of the name is the number of bars, e.g. "synthetic-1000".
+     */
+    static final String SYNTHETIC_PREFIX = "synthetic-";
+
+    /**
+     * Stream that discards everything written to it.
+     */
+    static final OutputStream NULL_STREAM = new OutputStream() {
+        @Override public void write(int b) {}
+        @Override public void write(byte[] b, int off, int len) {}
+    };
+
+    private static final String[] BAR = { "C D E F", "G A B c", "c B A G", "F E D C" };
+    private static final String[] SYLLABLES = { "la", "di", "da", "dum" };
+    private static final int BARS_PER_LINE = 4;
+
+    private Songs() {}
+
+    /**
+     * @param name a file name in sample-abc, or SYNTHETIC_PREFIX followed by a number of bars
+     * @return a file containing the song in abc notation
+     * @throws IOException if a synthetic song cannot be written
+     */
+    static File file(String name) throws IOException {
+        if (name.startsWith(SYNTHETIC_PREFIX)) {
+            return synthetic(Integer.parseInt(name.substring(SYNTHETIC_PREFIX.length())));
+        }
+        return new File("sample-abc", name);
+    }
+
+    /**
+     * @param name as for file()
+     * @return the parsed song
+     * @throws IOException if the song cannot be read
+     * @throws UnableToParseException if the song does not parse
+     */
+    static Music parse(String name) throws IOException, UnableToParseException {
+        return Music.parseFromFile(file(name));
+    }
+
+    /**
+     * @param music a parsed song
+     * @return the first voice of the song
+     */
+    static String firstVoice(Music music) {
+        return music.getVoices()[0];
+    }
+
+    /**
+     * Write a single-voice song with a lyric under every note.
+     * @param bars number of bars, > 0
+     * @return a temporary file, deleted when the JVM exits
+     * @throws IOException if the file cannot be written
+     */
+    static File synthetic(int bars) throws IOException {
+        File file = File.createTempFile("karaoke-synthetic-" + bars + "-", ".abc");
+        file.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("X:1");
+            out.println("T:Synthetic " + bars + " bars");
+            out.println("M:4/4");
+            out.println("L:1/4");
+            out.println("Q:1/4=120");
+            out.println("K:C");
+            for (int bar = 0; bar < bars; bar += BARS_PER_LINE) {
+                StringBuilder notes = new StringBuilder();
+                StringBuilder words = new StringBuilder("w:");
+                for (int i = bar; i < Math.min(bars, bar + BARS_PER_LINE); i++) {
+                    notes.append(BAR[i % BAR.length]).append(" |");
+                    for (int beat = 0; beat < BAR.length; beat++) {
+                        words.append(' ').append(SYLLABLES[(i + beat) % SYLLABLES.length]);
+                    }
+                }
+                out.println(notes);
+                out.println(words);
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,81 @@
+package karaoke.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.sound.CompiledMusic;
+import karaoke.sound.MidiSequencePlayer;
+import karaoke.sound.Music;
+
+/**
+ * Cost of building a MidiSequencePlayer's track, from the tree and from compiled arrays.
+ * Needs a MIDI synthesizer; the player is created outside the measured region.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TrackBuildBenchmark {
+
+    @Param({ "paddy.abc", "fur_elise.abc", "invention.abc", "synthetic-2000" })
+    public String song;
+
+    private Music music;
+    private String voice;
+    private CompiledMusic compiled;
+    private MidiSequencePlayer player;
+
+    /**
+     * Parse and compile the song.
+     * @throws IOException if the song cannot be read
+     * @throws UnableToParseException if the song does not parse
+     */
+    @Setup
+    public void setUp() throws IOException, UnableToParseException {
+        music = Songs.parse(song);
+        voice = Songs.firstVoice(music);
+        compiled = CompiledMusic.compile(music, voice, MidiSequencePlayer.DEFAULT_TICKS_PER_BEAT);
+    }
+
+    /**
+     * Start each invocation with an empty track.
+     * @throws MidiUnavailableException if there is no synthesizer
+     * @throws InvalidMidiDataException if the sequence cannot be created
+     */
+    @Setup(Level.Invocation)
+    public void newPlayer() throws MidiUnavailableException, InvalidMidiDataException {
+        player = new MidiSequencePlayer();
+    }
+
+    /**
+     * @return the player with the first voice scheduled by walking the tree
+     * @throws InterruptedException never
+     */
+    @Benchmark
+    public MidiSequencePlayer fromTree() throws InterruptedException {
+        music.play(player, 0, Songs.NULL_STREAM, voice);
+        return player;
+    }
+
+    /**
+     * @return the player with the first voice scheduled from compiled arrays
+     */
+    @Benchmark
+    public MidiSequencePlayer fromCompiled() {
+        player.addCompiled(compiled, 0, Songs.NULL_STREAM);
+        return player;
+    }
+}
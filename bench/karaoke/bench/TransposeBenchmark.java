@@ -0,0 +1,56 @@
+package karaoke.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.sound.Music;
+
+/**
+ * Cost of changing the key of a parsed song.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TransposeBenchmark {
+
+    @Param({ "paddy.abc", "fur_elise.abc", "invention.abc", "synthetic-2000" })
+    public String song;
+
+    private Music music;
+
+    /**
+     * Parse the song.
+     * @throws IOException if the song cannot be read
+     * @throws UnableToParseException if the song does not parse
+     */
+    @Setup
+    public void setUp() throws IOException, UnableToParseException {
+        music = Songs.parse(song);
+    }
+
+    /**
+     * @return the song a major third up
+     */
+    @Benchmark
+    public Music transpose() {
+        return music.transpose(4);
+    }
+
+    /**
+     * @return the song up and back down again, as when a singer tries a key and reverts
+     */
+    @Benchmark
+    public Music transposeAndBack() {
+        return music.transpose(2).transpose(-2);
+    }
+}
@@ -0,0 +1,57 @@
+package karaoke.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.parser.AbcWriter;
+import karaoke.sound.Music;
+
+/**
+ * Cost of writing a parsed song out as text: its toString, and ABC notation of it transposed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WriteBenchmark {
+
+    @Param({ "paddy.abc", "fur_elise.abc", "waxies_dargle.abc", "synthetic-2000" })
+    public String song;
+
+    private Music music;
+
+    /**
+     * Parse the song.
+     * @throws IOException if the song cannot be read
+     * @throws UnableToParseException if the song does not parse
+     */
+    @Setup
+    public void setUp() throws IOException, UnableToParseException {
+        music = Songs.parse(song).transpose(2);
+    }
+
+    /**
+     * @return the song's toString
+     */
+    @Benchmark
+    public String text() {
+        return music.toString();
+    }
+
+    /**
+     * @return the song as ABC notation
+     */
+    @Benchmark
+    public String abc() {
+        return AbcWriter.toAbc(music);
+    }
+}
@@ -8,7 +8,8 @@ import java.util.NoSuchElementException;
 import java.util.Queue;
 
 import edu.mit.eecs.parserlib.UnableToParseException;
-import karaoke.sound.Music;
+import karaoke.web.OverflowPolicy;
+import karaoke.web.StartupTimer;
 
 /**
  * Main entry point of your application.
@@ -18,31 +19,58 @@ public class Main {
     /**
      * Parses a given music file and displays instructions on how to access the karaoke player for this music 
      * 
-     * @param args Array should include an abc music file to parse
+     * @param args Array should include a port and an abc music file to parse, optionally followed by
+     *             the overflow policy for clients that fall behind: SKIP_TO_LATEST (default) or DISCONNECT
      * Prints the title and composer (if any)
      * Prints instructions about how to view lyrics streams with a web browser
      * Prints instructions about how to start music playback
+     * 
+     * The server binds its port and starts serving first, then parses the song while the MIDI synthesizer
+     * is loaded on another thread; the time each phase of startup is done is logged.
      * @throws IOException 
      */
     public static void main(String[] args) throws IOException {
+        final StartupTimer startup = new StartupTimer();
         final Queue<String> arguments = new LinkedList<>(Arrays.asList(args));
         final int port;
-        final Music music;
+        final String filename;
+        final WebServer webServer;
         
         try {
             port = Integer.parseInt(arguments.remove());
             System.out.println("Port: " + port);
-            final String filename = arguments.remove().trim();
+            filename = arguments.remove().trim();
             System.out.println("fileName: " + filename);
-            music = karaoke.sound.Music.parseFromFile(new File(filename));
-            WebServer webServer = new WebServer(music, port);
-            webServer.startPlayback();
+            final OverflowPolicy overflowPolicy = arguments.isEmpty()
+                    ? OverflowPolicy.SKIP_TO_LATEST
+                    : parseOverflowPolicy(arguments.remove());
+            webServer = new WebServer(port, overflowPolicy, startup);
         } catch (NoSuchElementException | NumberFormatException e) {
             throw new IllegalArgumentException("missing or invalid PORT", e);
+        }
+        webServer.warmUpSynthesizer();
+        try {
+            webServer.openDefaultRoom(new File(filename));
         } catch (UnableToParseException e) {
+            webServer.stop();
             throw new RuntimeException ("Could not parse file");
+        } catch (IOException e) {
+            webServer.stop();
+            throw e;
+        }
+        webServer.startPlayback();
+    }
+    
+    /**
+     * @param name name of an overflow policy, in any case
+     * @return the policy with that name
+     * @throws IllegalArgumentException if there is no such policy
+     */
+    private static OverflowPolicy parseOverflowPolicy(String name) {
+        try {
+            return OverflowPolicy.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid overflow policy, expected SKIP_TO_LATEST or DISCONNECT", e);
         }
-        
-
     }
 }
@@ -2,127 +2,711 @@ package karaoke;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiUnavailableException;
 
 import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.sound.CompiledMusic;
 import karaoke.sound.MidiSequencePlayer;
 import karaoke.sound.Music;
-import karaoke.sound.SequencePlayer;
+import karaoke.web.AccessLog;
+import karaoke.web.LogFilter;
+import karaoke.web.LyricIndex;
+import karaoke.web.LyricMetrics;
+import karaoke.web.LyricSchedule;
+import karaoke.web.OverflowPolicy;
+import karaoke.web.PlaybackPosition;
+import karaoke.web.Room;
+import karaoke.web.SongLibrary;
+import karaoke.web.StartupTimer;
+import karaoke.web.SubscriberStream;
 
 /**
- * Class implements the server for lyric streaming
+ * Class implements the server for lyric streaming.
+ * The server hosts any number of rooms, each playing its own song; clients stream a voice of a room's song
+ * from /room/{id}/{voice}/, and find songs by a line of their lyrics from /search?q={line}.
+ * A voice is streamed one lyric line at a time as each is due, or with ?ahead={seconds}, that many seconds of lyrics
+ * at a time ahead of when they are due, for the page to show on time by the client's clock (see LyricSchedule).
+ * Clients synchronize their clocks with a room's playback from /clock?room={id}.
+ * A room's playback is paused, resumed, restarted or played at another tempo while it plays, from the console
+ * or by POST to /control?room={id}&action={pause|resume|restart|tempo}, with &bpm={beats per minute} for tempo.
  */
 
 public class WebServer {
-    
+
     private static final String LOCALHOST = "localhost";
 
-    private final Music music;
+    /**
+     * Name of the room created by the single-song constructors, whose voices are also served from /{voice}/.
+     */
+    public static final String DEFAULT_ROOM = "default";
+
+    private static final String ROOM_PREFIX = "/room/";
+    private static final String SEARCH_PARAMETER = "q";
+    private static final String AHEAD_PARAMETER = "ahead";
+    private static final String ROOM_PARAMETER = "room";
+    private static final String ACTION_PARAMETER = "action";
+    private static final String BPM_PARAMETER = "bpm";
+    // the actions control() takes, which are also console commands
+    private static final List<String> CONTROL_COMMANDS = Arrays.asList("pause", "resume", "restart", "tempo");
+    // the most matches a search replies with
+    private static final int SEARCH_LIMIT = 100;
+    // how long to wait for reverse DNS before printing addresses by number instead
+    private static final long HOST_NAME_TIMEOUT_MILLIS = 500;
+
     private final HttpServer server;
-    
+    // completes with the name clients can reach this machine by, once it is found
+    private final CompletableFuture<String> hostName;
+    private final int port;
+    private final AccessLog log = new AccessLog(System.err);
+    private final LogFilter logFilter = new LogFilter(log);
+    private final StartupTimer startup;
+    // System.nanoTime() at the origin of the clock /clock reports
+    private final long clockOrigin = System.nanoTime();
+    // false until the first request arrives
+    private volatile boolean served = false;
+    // true while openDefaultRoom is loading the song of DEFAULT_ROOM
+    private volatile boolean loadingDefaultRoom = false;
+    private final SongLibrary library = new SongLibrary();
+    private final Map<String, Room> rooms = new ConcurrentSkipListMap<>();
+    private final OverflowPolicy overflowPolicy;
+    // writes queued lyric lines to subscribers, off the sequencer's timing thread
+    private final ExecutorService senders = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "lyric-sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     // Abstraction function:
-    //    AF(music, port) = a web server listening on the given port for clients who want to stream lyrics for the given music.
+    //    AF(server, rooms, port) = a web server listening on the given port for clients who want to stream lyrics
+    //       for the song of one of the rooms, with the songs and their compiled voices shared through library
     // Rep invariant:
     //    port >= 0
+    //    every key of rooms is the id of its room
     // Safety from rep exposure
-    //    All fields are private, final, and immutable
+    //    All fields are private and final
+    //    rooms and library are never returned to the client; Room is thread safe
     // Thread safety argument:
     //    Playback is confined to local machine
-    //    This class is thread safe because it is immutable:
-    //       - There are no mutator methods in this class
-    //       - All fields are private, final, and immutable, so both the fields' object types and references are immutable
-    //       - The rep is not exposed to the client
-    //       - No mutation of any kind occurs
-    
+    //    rooms is a thread safe map, and openRoom is synchronized so that a room's id is checked and added atomically
+    //    SongLibrary, Room, LyricMetrics, StartupTimer, and CompletableFuture are thread safe
+    //    served and loadingDefaultRoom are volatile flags that no invariant relates to other fields
+    //    each subscriber's lyrics go through its own SubscriberStream, which is thread safe, so the sequencer's
+    //       timing thread only queues lines and a slow connection cannot delay other subscribers
+
     private static final int DEFAULT_BPM = 50;
-    private static final int DEFAULT_TPB = 64;
-    
+
     /**
      * Creates a new Web Server used to stream lyrics of given song to clients
-     * 
-     * @param music The music file whose lyrics will be streamed 
+     *
+     * @param music The music file whose lyrics will be streamed
      * @param port server port number
-     * @throws IOException 
+     * @throws IOException
      */
     public WebServer(Music music, int port) throws IOException {
-        this.music = music;
+        this(music, port, OverflowPolicy.SKIP_TO_LATEST);
+    }
+
+    /**
+     * Creates a new Web Server used to stream lyrics of given song to clients.
+     * The song is played in the room DEFAULT_ROOM, whose voices are served from both /{voice}/ and /room/default/{voice}/.
+     *
+     * @param music The music file whose lyrics will be streamed
+     * @param port server port number
+     * @param overflowPolicy what to do when a client falls so far behind that its queue of unsent lyrics is full
+     * @throws IOException
+     */
+    public WebServer(Music music, int port, OverflowPolicy overflowPolicy) throws IOException {
+        this(port, overflowPolicy);
+        serveDefaultVoices(openRoom(DEFAULT_ROOM, music));
+    }
+
+    /**
+     * Creates a new Web Server with no rooms; rooms are added with openRoom
+     *
+     * @param port server port number
+     * @param overflowPolicy what to do when a client falls so far behind that its queue of unsent lyrics is full
+     * @throws IOException
+     */
+    public WebServer(int port, OverflowPolicy overflowPolicy) throws IOException {
+        this(port, overflowPolicy, new StartupTimer());
+    }
+
+    /**
+     * Creates a new Web Server with no rooms, serving as soon as it returns; rooms are added with openRoom
+     * and openDefaultRoom. The name of this machine is looked up in the background, and the phases of
+     * startup are logged as they are done.
+     *
+     * @param port server port number
+     * @param overflowPolicy what to do when a client falls so far behind that its queue of unsent lyrics is full
+     * @param startup times the startup of the program running this server
+     * @throws IOException if the port cannot be bound
+     */
+    public WebServer(int port, OverflowPolicy overflowPolicy, StartupTimer startup) throws IOException {
+        this.port = port;
+        this.overflowPolicy = overflowPolicy;
+        this.startup = startup;
         this.server = HttpServer.create(new InetSocketAddress(port), 0);
-        
+
         // handle concurrent requests with multiple threads
         server.setExecutor(Executors.newCachedThreadPool());
+        createContext("/metrics", exchange -> handleMetrics(exchange));
+        createContext(ROOM_PREFIX, exchange -> handleRoom(exchange));
+        createContext("/search", exchange -> handleSearch(exchange));
+        createContext("/clock", exchange -> handleClock(exchange));
+        createContext("/control", exchange -> handleControl(exchange));
+        createContext("/", exchange -> handleUnknown(exchange));
         server.start();
-        String hostName = LOCALHOST;
-        for (NetworkInterface iface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
-            for (InetAddress address: Collections.list(iface.getInetAddresses())) {
-                if (address instanceof Inet4Address) {                   
+        done("bind");
+        this.hostName = findHostName();
+        hostName.thenAccept(name -> done("host name"));
+        checkRep();
+        }
+
+    /**
+     * Find the name clients can reach this machine by on background threads, since each reverse DNS lookup blocks.
+     * @return completes with the name of the last IPv4 address whose name is not localhost; or if looking up
+     *         names takes longer than HOST_NAME_TIMEOUT_MILLIS, with the last IPv4 address that is not a loopback
+     *         address; or else with localhost
+     */
+    private static CompletableFuture<String> findHostName() {
+        final CompletableFuture<String> hostName = new CompletableFuture<>();
+        startDaemon("host-name", () -> {
+            final List<InetAddress> addresses = new ArrayList<>();
+            try {
+                for (NetworkInterface iface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                    for (InetAddress address: Collections.list(iface.getInetAddresses())) {
+                        if (address instanceof Inet4Address) {
+                            addresses.add(address);
+                        }
+                    }
+                }
+            } catch (SocketException e) {
+                hostName.complete(LOCALHOST);
+                return;
+            }
+            final Thread lookup = startDaemon("host-name-lookup", () -> {
+                String name = LOCALHOST;
+                for (InetAddress address : addresses) {
                     if (!address.getHostName().equals(LOCALHOST)) {
                         System.out.println("Address: " + address.getHostName());
-                        hostName = address.getHostName();
+                        name = address.getHostName();
                     }
                 }
+                hostName.complete(name);
+            });
+            try {
+                lookup.join(HOST_NAME_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                // fall through to the address without its name
+            }
+            String number = LOCALHOST;
+            for (InetAddress address : addresses) {
+                if (!address.isLoopbackAddress()) {
+                    number = address.getHostAddress();
+                }
+            }
+            // does nothing if the lookup finished in time
+            hostName.complete(number);
+        });
+        return hostName;
+    }
+
+    /**
+     * @param name name of the thread
+     * @param task what the thread runs
+     * @return a daemon thread, already started, running task
+     */
+    private static Thread startDaemon(String name, Runnable task) {
+        final Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Serve requests for a path and everything under it, logging them
+     * @param path context path
+     * @param handler handles the requests
+     */
+    private void createContext(String path, HttpHandler handler) {
+        server.createContext(path, exchange -> {
+            if (!served) {
+                served = true;
+                done("first request");
+            }
+            handler.handle(exchange);
+        }).getFilters().add(logFilter);
+    }
+
+    /**
+     * Record and log that a phase of startup is done
+     * @param phase name of the phase
+     */
+    private void done(String phase) {
+        log.message("startup: " + phase + " after " + startup.done(phase) + " ms");
+    }
+
+    /**
+     * Print a line for the user, with the address of this server in place of {address}, once the name of this
+     * machine is found
+     * @param line the line to print
+     */
+    private void announce(String line) {
+        hostName.thenAccept(name -> System.out.println(line.replace("{address}", name + ":" + port)));
+    }
+
+    private void checkRep() {
+        assert server != null;
+        assert port >= 0;
+        for (Map.Entry<String, Room> entry : rooms.entrySet()) {
+            assert entry.getKey().equals(entry.getValue().getId());
+        }
+    }
+
+    /**
+     * Open a room playing a song from a file.
+     * Rooms that open the same file share the parsed song and its compiled voices.
+     * @param id name of the room, nonempty, without '/', and not already open on this server
+     * @param file abc file of the song
+     * @return the new room
+     * @throws UnableToParseException if the file does not match the grammar
+     * @throws IOException if the file cannot be read
+     */
+    public Room openRoom(String id, File file) throws UnableToParseException, IOException {
+        return openRoom(id, library.load(file));
+    }
+
+    /**
+     * Open the room DEFAULT_ROOM playing a song from a file, and also serve its voices from /{voice}/.
+     * Until the song is loaded, requests for /{voice}/ are answered 503, so the server can already be serving
+     * while the song is parsed.
+     * @param file abc file of the song
+     * @return the new room
+     * @throws UnableToParseException if the file does not match the grammar
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if DEFAULT_ROOM is already open
+     */
+    public Room openDefaultRoom(File file) throws UnableToParseException, IOException {
+        loadingDefaultRoom = true;
+        try {
+            final Room room = openRoom(DEFAULT_ROOM, file);
+            serveDefaultVoices(room);
+            done("default room");
+            return room;
+        } finally {
+            loadingDefaultRoom = false;
+        }
+    }
+
+    /**
+     * Serve the voices of a room from /{voice}/
+     * @param room the room
+     */
+    private void serveDefaultVoices(Room room) {
+        for (String voice : room.getMusic().getVoices()) {
+            announce(" In your web browser, navigate to\n{address}/" + voice + "/" + "\n to access the lyrics stream for this voice.");
+            createContext("/" + voice + "/", exchange -> handleVoice(exchange, room, voice));
+        }
+    }
+
+    /**
+     * Start opening and loading the MIDI synthesizer on a background thread, so that the first playback
+     * does not wait for it. If it cannot be opened, the error is logged, and playback will report it.
+     */
+    public void warmUpSynthesizer() {
+        startDaemon("synthesizer-warm-up", () -> {
+            try {
+                MidiSequencePlayer.warmUp();
+                done("synthesizer");
+            } catch (MidiUnavailableException e) {
+                log.error("startup: MIDI synthesizer unavailable", e);
             }
+        });
+    }
+
+    /**
+     * Open a room playing a song.
+     * Rooms that open the same Music object share its compiled voices.
+     * @param id name of the room, nonempty, without '/', and not already open on this server
+     * @param music the song
+     * @return the new room
+     * @throws IllegalArgumentException if id is invalid or already open
+     */
+    public synchronized Room openRoom(String id, Music music) {
+        if (id.isEmpty() || id.contains("/")) {
+            throw new IllegalArgumentException("invalid room name: " + id);
+        }
+        if (rooms.containsKey(id)) {
+            throw new IllegalArgumentException("room " + id + " is already open");
         }
-        
+        final Room room = new Room(id, music, library, DEFAULT_BPM, log);
+        rooms.put(id, room);
+        // a song loaded from a file is already in the library's catalog under its path
+        library.add(ROOM_PREFIX + id + "/", music);
         for (String voice : music.getVoices()) {
-            //handle requests for paths that start with /look/
-            System.out.println(" In your web browser, navigate to\n" + hostName + ":" + port + "/" + voice + "/" + "\n to access the lyrics stream for this voice.");  
-            server.createContext("/" + voice + "/", exchange -> {
-                try {
-                    handleClient(exchange);
-                } catch (MidiUnavailableException e) {
-                    throw new RuntimeException("Midi Unavailable");
-                } catch (InvalidMidiDataException e) {
-                    throw new RuntimeException("Invalid Midi Data");
-                } catch (InterruptedException e) {
-                    throw new RuntimeException("Interrupted");
-                }
-            });
+            announce(" Room " + id + ": {address}" + ROOM_PREFIX + id + "/" + voice + "/");
         }
+        log.message("room " + id + " opened");
         checkRep();
-        }
-    
-    private void checkRep() {
-        assert server != null;
+        return room;
     }
-    
+
+    /**
+     * @param id name of a room
+     * @return the room with that name, or null if it is not open
+     */
+    public Room getRoom(String id) {
+        return rooms.get(id);
+    }
+
     /**
      * Stop the server. It cannot be restarted.
      */
     public void stop() {
-        System.err.println("Server will stop");
+        log.message("Server will stop");
         server.stop(0);
+        senders.shutdown();
+        log.close();
         }
-    
+
     /**
-     * Streams the lyrics to the client
+     * Reports lyric timing for the current playback session of every room in the Prometheus text format
+     * @param exchange request/reply object
+     * @throws IOException if the response cannot be written
+     */
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        final List<LyricMetrics> metrics = new ArrayList<>();
+        for (Room room : rooms.values()) {
+            metrics.add(room.getMetrics());
+        }
+        final byte[] body = LyricMetrics.toPrometheus(metrics).getBytes(UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        final int successCode = 200;
+        exchange.sendResponseHeaders(successCode, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    /**
+     * Replies with the places in the library's songs that sing the line in the query parameter q,
+     * one per line as tab-separated song, title, voice, and lyric line, or 400 if there is no q
+     * @param exchange request/reply object
+     * @throws IOException if the response cannot be written
+     */
+    private void handleSearch(HttpExchange exchange) throws IOException {
+        final String query = queryParameter(exchange.getRequestURI().getRawQuery(), SEARCH_PARAMETER);
+        final StringBuilder reply = new StringBuilder();
+        final int code;
+        if (query == null) {
+            reply.append("Expected /search?q=words of a line\n");
+            final int badRequestCode = 400;
+            code = badRequestCode;
+        } else {
+            for (LyricIndex.Match match : library.search(query, SEARCH_LIMIT)) {
+                reply.append(match).append('\n');
+            }
+            final int successCode = 200;
+            code = successCode;
+        }
+        final byte[] body = reply.toString().getBytes(UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(code, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    /**
+     * Replies to a clock synchronization request for the room in the query parameter room, or DEFAULT_ROOM if there
+     * is none, or 404 if that room is not open. The reply is a JSON object with times on this server's monotonic
+     * clock, in nanoseconds since the server was made: received and sent, when the request was received and the reply
+     * was sent; and positionNanos, when the room's current playback session was at beat positionBeat, or null if it
+     * has never played; and beatsPerMinute, the tempo it has played at since, unless paused; and baseBeatsPerMinute,
+     * the tempo that times in the room's lyric schedules are at.
+     * A client that reads its own clock at t0 before the request and t3 after the reply can estimate that the server's
+     * clock is ahead of its own by ((received - t0) + (sent - t3)) / 2, give or take half the round trip
+     * (t3 - t0) - (sent - received).
+     * @param exchange request/reply object
+     * @throws IOException if the response cannot be written
+     */
+    private void handleClock(HttpExchange exchange) throws IOException {
+        final long received = System.nanoTime() - clockOrigin;
+        final String id = queryParameter(exchange.getRequestURI().getRawQuery(), ROOM_PARAMETER);
+        final Room room = rooms.get(id == null ? DEFAULT_ROOM : id);
+        if (room == null) {
+            final int notFoundCode = 404;
+            replyText(exchange, notFoundCode, "No such room: " + id + "\n");
+            return;
+        }
+        final Optional<PlaybackPosition> position = room.getPosition();
+        final String session = position.isPresent()
+                ? "\"positionNanos\": " + (position.get().getNanos() - clockOrigin)
+                        + ", \"positionBeat\": " + position.get().getBeat()
+                        + ", \"beatsPerMinute\": " + position.get().getBeatsPerMinute()
+                        + ", \"paused\": " + position.get().isPaused() + ", "
+                : "\"positionNanos\": null, \"positionBeat\": 0, \"beatsPerMinute\": " + room.getBeatsPerMinute()
+                        + ", \"paused\": false, ";
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.getResponseHeaders().add("Cache-Control", "no-store");
+        final byte[] body = ("{\"received\": " + received + ", " + session
+                + "\"baseBeatsPerMinute\": " + room.getBeatsPerMinute()
+                + ", \"sent\": " + (System.nanoTime() - clockOrigin) + "}\n").getBytes(UTF_8);
+        final int successCode = 200;
+        exchange.sendResponseHeaders(successCode, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    /**
+     * Controls the playback of the room in the query parameter room, or DEFAULT_ROOM if there is none,
+     * with the query parameters action and bpm as control() takes them, and replies with what was done;
+     * or replies 405 unless the method is POST, 404 if the room is not open, 400 if the control is not valid,
+     * or 409 if the room has not played yet or has finished playing
+     * @param exchange request/reply object
+     * @throws IOException if the response cannot be written
+     */
+    private void handleControl(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            exchange.getResponseHeaders().add("Allow", "POST");
+            final int methodNotAllowedCode = 405;
+            replyText(exchange, methodNotAllowedCode, "Expected POST /control?room=id&action=pause|resume|restart|tempo&bpm=n\n");
+            return;
+        }
+        final String rawQuery = exchange.getRequestURI().getRawQuery();
+        final String id = queryParameter(rawQuery, ROOM_PARAMETER);
+        final Room room = rooms.get(id == null ? DEFAULT_ROOM : id);
+        if (room == null) {
+            final int notFoundCode = 404;
+            replyText(exchange, notFoundCode, "No such room: " + id + "\n");
+            return;
+        }
+        try {
+            final int successCode = 200;
+            replyText(exchange, successCode, control(room, queryParameter(rawQuery, ACTION_PARAMETER),
+                    queryParameter(rawQuery, BPM_PARAMETER)) + "\n");
+        } catch (IllegalArgumentException e) {
+            final int badRequestCode = 400;
+            replyText(exchange, badRequestCode, e.getMessage() + "\n");
+        } catch (IllegalStateException e) {
+            final int conflictCode = 409;
+            replyText(exchange, conflictCode, e.getMessage() + "\n");
+        }
+    }
+
+    /**
+     * Control the playback of a room.
+     * @param room the room
+     * @param action "pause", "resume", "restart", or "tempo"
+     * @param bpm for "tempo", the new tempo in beats per minute, a positive whole number; ignored otherwise
+     * @return what was done
+     * @throws IllegalArgumentException if action or bpm is not valid
+     * @throws IllegalStateException if the room has not played yet or has finished playing
+     */
+    private static String control(Room room, String action, String bpm) {
+        if ("pause".equals(action)) {
+            room.pause();
+        } else if ("resume".equals(action)) {
+            room.resume();
+        } else if ("restart".equals(action)) {
+            room.restart();
+        } else if ("tempo".equals(action)) {
+            final int beatsPerMinute;
+            try {
+                beatsPerMinute = Integer.parseInt(String.valueOf(bpm));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Expected a tempo in beats per minute, not " + bpm);
+            }
+            if (beatsPerMinute <= 0) {
+                throw new IllegalArgumentException("Expected a positive tempo, not " + bpm);
+            }
+            room.setTempo(beatsPerMinute);
+        } else {
+            throw new IllegalArgumentException("Expected action pause, resume, restart or tempo, not " + action);
+        }
+        return "room " + room.getId() + " " + room.getPosition().get();
+    }
+
+    /**
+     * Reply with a plain text body and close the exchange
+     * @param exchange request/reply object
+     * @param code HTTP status code
+     * @param text the body
+     * @throws IOException if the response cannot be written
+     */
+    private static void replyText(HttpExchange exchange, int code, String text) throws IOException {
+        final byte[] body = text.getBytes(UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(code, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    /**
+     * @param rawQuery the query string of a request URI, still encoded, or null if there is none
+     * @param name name of a parameter
+     * @return the decoded value of the first parameter with that name, or null if there is none
+     */
+    private static String queryParameter(String rawQuery, String name) {
+        if (rawQuery == null) {
+            return null;
+        }
+        final String prefix = name + "=";
+        for (String parameter : rawQuery.split("&")) {
+            if (parameter.startsWith(prefix)) {
+                try {
+                    return URLDecoder.decode(parameter.substring(prefix.length()), UTF_8.name());
+                } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Replies to a request no other context serves: 503 if it may be for a voice of DEFAULT_ROOM, which is
+     * still loading, or else 404
+     * @param exchange request/reply object
+     * @throws IOException if the response cannot be written
+     */
+    private void handleUnknown(HttpExchange exchange) throws IOException {
+        final byte[] body;
+        final int code;
+        if (loadingDefaultRoom) {
+            body = "The song is still loading, try again in a moment\n".getBytes(UTF_8);
+            exchange.getResponseHeaders().add("Retry-After", "1");
+            final int unavailableCode = 503;
+            code = unavailableCode;
+        } else {
+            body = ("Not found: " + exchange.getRequestURI().getPath() + "\n").getBytes(UTF_8);
+            final int notFoundCode = 404;
+            code = notFoundCode;
+        }
+        exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(code, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    /**
+     * Routes a request for /room/{id}/{voice}/ to the room's voice, or replies 404 if there is no such room or voice
      * @param exchange request/reply object
-     * @throws InvalidMidiDataException 
-     * @throws MidiUnavailableException 
-     * @throws InterruptedException 
-     * @throws IOException 
+     * @throws IOException if the response cannot be written
      */
-    public void handleClient(HttpExchange exchange) throws MidiUnavailableException, InvalidMidiDataException, InterruptedException, IOException {
+    private void handleRoom(HttpExchange exchange) throws IOException {
         final String path = exchange.getRequestURI().getPath();
-        final String base = exchange.getHttpContext().getPath();
-        final String voice = path.substring(1, path.length()-1);
-        SequencePlayer player = new MidiSequencePlayer(DEFAULT_BPM, DEFAULT_TPB);
-        System.err.println("received request " + path);
-        
+        final String[] parts = path.substring(ROOM_PREFIX.length()).split("/", -1);
+        // a well-formed path splits into the room, the voice, and the empty string after the trailing slash
+        final int wellFormedParts = 3;
+        final Room room = parts.length == wellFormedParts && parts[2].isEmpty() ? rooms.get(parts[0]) : null;
+        if (room == null || !room.hasVoice(parts[1])) {
+            final byte[] body = ("No such room and voice: " + path + "\n").getBytes(UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+            final int notFoundCode = 404;
+            exchange.sendResponseHeaders(notFoundCode, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+            return;
+        }
+        handleVoice(exchange, room, parts[1]);
+    }
+
+    /**
+     * Streams a voice of a room to the client, translating failures to unchecked exceptions,
+     * or replies 400 if the ahead parameter is not a positive number of seconds
+     * @param exchange request/reply object
+     * @param room the room
+     * @param voice a voice of the room's song
+     * @throws IOException if the response cannot be written
+     */
+    private void handleVoice(HttpExchange exchange, Room room, String voice) throws IOException {
+        final String ahead = queryParameter(exchange.getRequestURI().getRawQuery(), AHEAD_PARAMETER);
+        double aheadSeconds = 0;
+        if (ahead != null) {
+            try {
+                aheadSeconds = Double.parseDouble(ahead);
+            } catch (NumberFormatException e) {
+                aheadSeconds = Double.NaN;
+            }
+            if (!(aheadSeconds > 0 && aheadSeconds < Double.POSITIVE_INFINITY)) {
+                final byte[] body = "Expected ?ahead=seconds of lyrics to send at a time\n".getBytes(UTF_8);
+                exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+                final int badRequestCode = 400;
+                exchange.sendResponseHeaders(badRequestCode, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+                return;
+            }
+        }
+        try {
+            handleClient(exchange, room, voice, aheadSeconds);
+        } catch (MidiUnavailableException e) {
+            throw new RuntimeException("Midi Unavailable");
+        } catch (InvalidMidiDataException e) {
+            throw new RuntimeException("Invalid Midi Data");
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted");
+        }
+    }
+
+    /**
+     * Streams the lyrics to the client, each line as it is due
+     * @param exchange request/reply object
+     * @param room the room the client joined
+     * @param voice the voice of the room's song to stream
+     * @throws InvalidMidiDataException
+     * @throws MidiUnavailableException
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public void handleClient(HttpExchange exchange, Room room, String voice) throws MidiUnavailableException, InvalidMidiDataException, InterruptedException, IOException {
+        handleClient(exchange, room, voice, 0);
+    }
+
+    /**
+     * Streams the lyrics to the client
+     * @param exchange request/reply object
+     * @param room the room the client joined
+     * @param voice the voice of the room's song to stream
+     * @param aheadSeconds 0 to write each lyric line as it is due, or else how many seconds of lyrics to send
+     *                     at a time, ahead of when they are due, through a LyricSchedule
+     * @throws InvalidMidiDataException
+     * @throws MidiUnavailableException
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public void handleClient(HttpExchange exchange, Room room, String voice, double aheadSeconds) throws MidiUnavailableException, InvalidMidiDataException, InterruptedException, IOException {
+        final Music music = room.getMusic();
+        final CompiledMusic compiled = room.compiled(voice);
 
         // plain text response
         exchange.getResponseHeaders().add("Content-Type", "text/html; charset=utf-8");
@@ -132,99 +716,125 @@ public class WebServer {
         final int lengthNotKnownYet = 0;
         exchange.sendResponseHeaders(successCode, lengthNotKnownYet);
 
-        
-        music.play(player, 0, exchange.getResponseBody(), voice);
-        
+
+        final LyricMetrics.Subscriber timing = room.getMetrics().subscriber(voice);
+        final SubscriberStream lyricStream = new SubscriberStream(exchange.getResponseBody(),
+                SubscriberStream.DEFAULT_CAPACITY, overflowPolicy, senders, timing::recordWrite);
+        // the room's player plays the voice's notes once for all its clients, and writes this client's lyrics,
+        // as they are due to every subscriber at once, or with aheadSeconds in batches
+
         PrintWriter out = new PrintWriter(new OutputStreamWriter(exchange.getResponseBody(), UTF_8), true);
-        
+
         final int enoughBytesToStartStreaming = 2048;
         for (int i = 0; i < enoughBytesToStartStreaming; ++i) {
             out.print(' ');
         }
         out.flush();
-        
-        if (music.getLyrics(voice).equals("")) {
+
+        if (!music.hasLyrics(voice)) {
             out.println("This song has has no lyrics");
+        } else if (aheadSeconds > 0) {
+            out.print(LyricSchedule.script("/clock?" + ROOM_PARAMETER + "=" + URLEncoder.encode(room.getId(), UTF_8.name())));
+            out.flush();
         }
-        
-        synchronized(this.music) {
-        music.wait();
-        }
-        System.err.println("past wait");
-        Object lock = new Object();
-        player.addEvent(music.duration(), (Double beat) -> {
-            synchronized (lock) {
-                lock.notifyAll();
-            }
-        });
-        player.play();
-        synchronized (lock) {
+
+        // a page that shows lyrics by its own clock synchronizes again whenever playback is controlled
+        final Runnable resync = () -> {
             try {
-                lock.wait();
-            } catch (InterruptedException e) {
-                return;
+                lyricStream.write(LyricSchedule.RESYNC.getBytes(UTF_8));
+                lyricStream.flush();
+            } catch (IOException e) {
+                // SubscriberStream does not throw
             }
-        }               
-        exchange.close();
-        checkRep();                
+        };
+
+        final int session;
+        if (aheadSeconds > 0) {
+            room.addControlListener(resync);
+            session = room.subscribeAhead(voice,
+                    new LyricSchedule(compiled, room.getBeatsPerMinute(), aheadSeconds), lyricStream);
+        } else {
+            session = room.subscribe(voice, lyricStream, timing);
+        }
+        // the client is done when the song ends, or as soon as it is dropped for falling behind
+        final CountDownLatch done = new CountDownLatch(1);
+        lyricStream.setDropListener(done::countDown);
+        room.whenEnded(session, done::countDown);
+        try {
+            room.awaitPlayback(session);
+            log.message("room " + room.getId() + " streaming voice " + voice);
+            done.await();
+        } catch (InterruptedException e) {
+            // the server is stopping this handler: let its caller see the interrupt, but still end the response
+            Thread.currentThread().interrupt();
+        } finally {
+            room.removeControlListener(resync);
+            final boolean connected = lyricStream.isOpen();
+            lyricStream.close();
+            if (!connected) {
+                log.message("room " + room.getId() + " voice " + voice + " client disconnected before the end of the song");
+            } else if (lyricStream.skipped() > 0) {
+                log.message("room " + room.getId() + " voice " + voice + " client fell behind, skipped "
+                        + lyricStream.skipped() + " lyric lines");
+            }
+            exchange.close();
+        }
+        checkRep();
     }
-    
+
     /**
-     * Starts the playback for the web server. 
+     * Starts the playback for the web server, reading commands from the console:
+     * "p" plays the default room, "p ROOM" plays another room, "open ROOM FILE" opens a room, and "q" quits;
+     * "pause", "resume", "restart" and "tempo BPM" control the default room's playback, or with ROOM after them,
+     * another room's.
      */
     public void startPlayback() {
         Scanner userInput = new Scanner(System.in);
         while(true) {
-            System.out.println("Please press the \"p\" key when you are ready to begin playback");
-            String input = userInput.next();
-            if (input.equals("p")) {
-                new Thread(() -> {
+            System.out.println("Please press the \"p\" key when you are ready to begin playback"
+                    + " (\"p ROOM\" to play another room, \"open ROOM FILE\" to open a room, \"q\" to quit;"
+                    + " \"pause\", \"resume\", \"restart\" or \"tempo BPM\", then optionally ROOM, to control playback)");
+            if (!userInput.hasNextLine()) {
+                break;
+            }
+            final String[] command = userInput.nextLine().trim().split("\\s+");
+            if ((command[0].equals("p") || command[0].equals("r")) && command.length <= 2) {
+                final String id = command.length == 2 ? command[1] : DEFAULT_ROOM;
+                final Room room = rooms.get(id);
+                if (room == null) {
+                    System.out.println("No room named " + id);
+                } else {
+                    room.startPlayback();
+                }
+            } else if (command[0].equals("open") && command.length == 3) {
+                try {
+                    openRoom(command[1], new File(command[2]));
+                } catch (IllegalArgumentException | UnableToParseException | IOException e) {
+                    System.out.println("Could not open room: " + e.getMessage());
+                }
+            } else if (CONTROL_COMMANDS.contains(command[0]) && command.length <= (command[0].equals("tempo") ? 3 : 2)) {
+                // "tempo" takes the tempo before the optional room
+                final int roomIndex = command[0].equals("tempo") ? 2 : 1;
+                final String bpm = roomIndex == 2 && command.length > 1 ? command[1] : null;
+                final String id = command.length > roomIndex ? command[roomIndex] : DEFAULT_ROOM;
+                final Room room = rooms.get(id);
+                if (room == null) {
+                    System.out.println("No room named " + id);
+                } else {
                     try {
-                        
-                            SequencePlayer musicPlayer = new MidiSequencePlayer(DEFAULT_BPM, DEFAULT_TPB);
-                            try {
-                                music.play(musicPlayer, 0, new ByteArrayOutputStream(), "");
-                            } catch (InterruptedException e1) {
-                                throw new RuntimeException("error");
-                            }
-                            synchronized(this.music) {
-                            music.notifyAll();
-                            }
-                            Object lock = new Object();
-                            musicPlayer.addEvent(music.duration(), (Double beat) -> {
-                                synchronized (lock) {
-                                    lock.notify();
-                                }
-                            });
-                            musicPlayer.play();
-                            synchronized (lock) {
-                                try {
-                                    lock.wait();
-                                } catch (InterruptedException e) {
-                                    return;
-                                }
-                            }                        
-                    } catch (MidiUnavailableException e) {
-                        throw new RuntimeException("MidiSequencePlayer could not be created");
-                    } catch (InvalidMidiDataException e) {
-                        throw new RuntimeException("MidiSequencePlayer could not be created");
+                        System.out.println(control(room, command[0], bpm));
+                    } catch (IllegalArgumentException | IllegalStateException e) {
+                        System.out.println(e.getMessage());
                     }
-                    
-                }).start();
-            } else {
-                System.out.println("Invalid Input.");
-            }
-            System.out.println("If you would like to play the music again, please type \"r\" followed by the Enter key. \n Otherwise type \"q\" followed by the Enter key.");
-            input = userInput.nextLine();
-            if (input.equals("q")) {
+                }
+            } else if (command[0].equals("q")) {
                 System.out.println("Goodbye");
                 break;
-            } else if (!input.equals("r")) {
-                System.out.println("Invalid Input");
-                break;
+            } else {
+                System.out.println("Invalid Input.");
             }
         }
         userInput.close();
     }
-    
+
 }
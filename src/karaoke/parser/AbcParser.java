@@ -0,0 +1,580 @@
+package karaoke.parser;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.sound.Chord;
+import karaoke.sound.Header;
+import karaoke.sound.Instrument;
+import karaoke.sound.Music;
+import karaoke.sound.Note;
+import karaoke.sound.Piece;
+import karaoke.sound.Pitch;
+import karaoke.sound.Rational;
+import karaoke.sound.Rest;
+import karaoke.sound.Tuplet;
+
+/**
+ * A recursive-descent parser for the subset of ABC notation described by Abc.g.
+ *
+ * Unlike MusicParser, it neither compiles the grammar nor builds a parse tree: it reads the text once,
+ * creating each note, rest, chord and tuplet as soon as it is scanned and handing the elements of each voice
+ * to the same VoiceAssembler, so it produces the same Music as MusicParser for every file the grammar accepts.
+ */
+public class AbcParser {
+
+    private static final int OCTAVE_LENGTH = 12;
+    private static final int ASCII = 128;
+    private static final Music NO_SOUND = new Rest(0);
+
+    private final String input;
+    // index of the next character to scan
+    private int pos = 0;
+
+    private Header header;
+    // semitones each base note is raised by in the key signature, indexed by the base note character
+    private final int[] keySignature = new int[ASCII];
+    private final Map<String, Voice> voices = new HashMap<>();
+
+    /**
+     * The music of one voice read so far, and the accidentals in effect in its current bar.
+     */
+    private static class Voice {
+        private final VoiceAssembler assembler = new VoiceAssembler();
+        private final int[] accidentals;
+
+        Voice(int[] keySignature) {
+            this.accidentals = Arrays.copyOf(keySignature, keySignature.length);
+        }
+    }
+
+    private AbcParser(String input) {
+        this.input = input;
+    }
+
+    /**
+     * Parse a file of ABC notation.
+     * Like the grammar-based parser, the file is read line by line, so every line of it,
+     * including the last, ends with a single "\n".
+     * @param file the file containing the abc notation to be parsed into music
+     * @return a music object corresponding to the file
+     * @throws UnableToParseException if notation does not match the grammar
+     * @throws IOException if the file cannot be read
+     */
+    public static Music parseFromFile(File file) throws UnableToParseException, IOException {
+        final StringBuilder input = new StringBuilder();
+        for (String line : Files.readAllLines(file.toPath(), UTF_8)) {
+            input.append(line).append('\n');
+        }
+        return parse(input.toString());
+    }
+
+    /**
+     * Parse ABC notation.
+     * @param input the abc notation to be parsed into music
+     * @return a music object corresponding to input
+     * @throws UnableToParseException if notation does not match the grammar
+     */
+    public static Music parse(String input) throws UnableToParseException {
+        return new AbcParser(input).parseAbc();
+    }
+
+    private Music parseAbc() throws UnableToParseException {
+        parseHeader();
+        final Map<Character, Integer> accidentalMap = MusicParser.keySignature(header.getKey());
+        for (Map.Entry<Character, Integer> entry : accidentalMap.entrySet()) {
+            keySignature[entry.getKey()] = entry.getValue();
+        }
+        parseBody();
+        final Map<String, Music> voiceToMusic = new HashMap<>();
+        for (Map.Entry<String, Voice> entry : voices.entrySet()) {
+            voiceToMusic.put(entry.getKey(), entry.getValue().assembler.toMusic());
+        }
+        return new Piece(voiceToMusic, header);
+    }
+
+    //
+    // Header
+
+    private void parseHeader() throws UnableToParseException {
+        final Map<Character, String> headerMap = new HashMap<>();
+        skipSpaces();
+        headerMap.put('X', field("X:"));
+        skipSpaces();
+        while (peek() == '%') {
+            comment();
+            skipSpaces();
+        }
+        headerMap.put('T', field("T:"));
+        while (true) {
+            skipSpaces();
+            if (peek() == '%') {
+                comment();
+                continue;
+            }
+            final char fieldKey = peek();
+            if (peek(1) != ':' || "CLMQV".indexOf(fieldKey) < 0) {
+                break;
+            }
+            final String fieldVal = field(fieldKey + ":");
+            if (fieldKey == 'V' && headerMap.containsKey('V')) {
+                headerMap.put('V', headerMap.get('V') + "\n" + fieldVal);
+            } else {
+                headerMap.put(fieldKey, fieldVal);
+            }
+        }
+        headerMap.put('K', field("K:"));
+        headerMap.putIfAbsent('V', "default");
+        this.header = new Header(headerMap);
+    }
+
+    /**
+     * Read a header field.
+     * @param name the field name and colon
+     * @return the value of the field: its text after the colon, including any trailing comment, trimmed
+     * @throws UnableToParseException if the field is missing or its value does not match the grammar
+     */
+    private String field(String name) throws UnableToParseException {
+        final int start = pos;
+        expect(name);
+        skipSpaces();
+        switch (name.charAt(0)) {
+            case 'X':
+                digits();
+                endOfLine();
+                break;
+            case 'L':
+                fraction();
+                endOfLine();
+                break;
+            case 'M':
+                if (accept('C')) {
+                    accept('|');
+                } else {
+                    fraction();
+                }
+                endOfLine();
+                break;
+            case 'Q':
+                fraction();
+                skipSpaces();
+                expect("=");
+                skipSpaces();
+                digits();
+                endOfLine();
+                break;
+            case 'K':
+                baseNote();
+                skipSpaces();
+                if (!accept('#')) {
+                    accept('b');
+                }
+                skipSpaces();
+                accept('m');
+                endOfLine();
+                break;
+            default:
+                text();
+                newline();
+                break;
+        }
+        return input.substring(start + name.length(), pos - 1).trim();
+    }
+
+    private void fraction() throws UnableToParseException {
+        digits();
+        skipSpaces();
+        expect("/");
+        skipSpaces();
+        digits();
+    }
+
+    //
+    // Body
+
+    private void parseBody() throws UnableToParseException {
+        String voiceName = "default";
+        do {
+            skipSpaces();
+            if (input.startsWith("V:", pos)) {
+                final int start = pos + 2;
+                text();
+                voiceName = input.substring(start, pos).trim();
+                newline();
+            } else if (peek() == '%') {
+                comment();
+                voice(voiceName).assembler.add(VoiceAssembler.Element.OTHER, NO_SOUND);
+            } else {
+                musicLine(voice(voiceName));
+            }
+        } while (pos < input.length());
+    }
+
+    private Voice voice(String name) {
+        Voice voice = voices.get(name);
+        if (voice == null) {
+            // put, unlike computeIfAbsent, keeps voices in the same order as MusicParser's map
+            voice = new Voice(keySignature);
+            voices.put(name, voice);
+        }
+        return voice;
+    }
+
+    /**
+     * Read a line of bars, and the lyric line under it if any.
+     * @param voice the voice the line belongs to
+     * @throws UnableToParseException if the line does not match the grammar
+     */
+    private void musicLine(Voice voice) throws UnableToParseException {
+        boolean barred = false;
+        while (true) {
+            final boolean opened = openingBar(voice);
+            skipSpaces();
+            measure(voice);
+            if (!closingBar(voice)) {
+                if (barred || opened) {
+                    throw error("barline");
+                }
+                // a line of a single measure without barlines cannot have lyrics
+                endOfLine();
+                voice.assembler.add(VoiceAssembler.Element.OTHER, NO_SOUND);
+                return;
+            }
+            barred = true;
+            skipSpaces();
+            if (atEndOfLine()) {
+                break;
+            }
+        }
+        endOfLine();
+        voice.assembler.add(VoiceAssembler.Element.OTHER, NO_SOUND);
+        skipSpaces();
+        if (input.startsWith("w:", pos)) {
+            pos += 2;
+            lyric(voice);
+        }
+    }
+
+    private boolean openingBar(Voice voice) {
+        if (input.startsWith("|:", pos)) {
+            pos += 2;
+            voice.assembler.add(VoiceAssembler.Element.START_REPEAT, NO_SOUND);
+            return true;
+        } else if (input.startsWith("[1", pos)) {
+            pos += 2;
+            voice.assembler.add(VoiceAssembler.Element.FIRST_REPEAT, NO_SOUND);
+            return true;
+        } else if (input.startsWith("[2", pos)) {
+            pos += 2;
+            voice.assembler.add(VoiceAssembler.Element.OTHER, NO_SOUND);
+            return true;
+        }
+        return barline(voice);
+    }
+
+    private boolean closingBar(Voice voice) {
+        if (input.startsWith(":|", pos)) {
+            pos += 2;
+            voice.assembler.add(VoiceAssembler.Element.FINISH_REPEAT, NO_SOUND);
+            return true;
+        }
+        return barline(voice);
+    }
+
+    private boolean barline(Voice voice) {
+        final VoiceAssembler.Element element;
+        if (input.startsWith("||", pos) || input.startsWith("[|", pos) || input.startsWith("|]", pos)) {
+            pos += 2;
+            element = VoiceAssembler.Element.MAJOR_BARLINE;
+        } else if (peek() == '|') {
+            pos++;
+            element = VoiceAssembler.Element.BARLINE;
+        } else {
+            return false;
+        }
+        System.arraycopy(keySignature, 0, voice.accidentals, 0, ASCII);
+        voice.assembler.add(element, NO_SOUND);
+        return true;
+    }
+
+    /**
+     * Read the notes, rests and tuplets of a bar, and the spaces after them.
+     * @param voice the voice the bar belongs to
+     * @throws UnableToParseException if there are none
+     */
+    private void measure(Voice voice) throws UnableToParseException {
+        int elements = 0;
+        for (;; elements++) {
+            final char c = peek();
+            if (c == 'z') {
+                pos++;
+                skipSpaces();
+                voice.assembler.add(VoiceAssembler.Element.OTHER, new Rest(noteLength().times(header.getExactNoteLength())));
+            } else if (c == '(') {
+                pos++;
+                digits();
+                final List<Music> notes = new ArrayList<>();
+                do {
+                    notes.add(noteElement(voice.accidentals));
+                } while (atNoteElement());
+                voice.assembler.add(VoiceAssembler.Element.OTHER, new Tuplet(notes));
+            } else if (atNoteElement()) {
+                voice.assembler.add(VoiceAssembler.Element.NOTE, noteElement(voice.accidentals));
+            } else {
+                break;
+            }
+            skipSpaces();
+        }
+        if (elements == 0) {
+            throw error("note, rest or tuplet");
+        }
+    }
+
+    private boolean atNoteElement() {
+        skipSpaces();
+        final char c = peek();
+        if (c == '[') {
+            final char next = peek(1);
+            return next != '1' && next != '2' && next != '|';
+        }
+        return c == '^' || c == '_' || c == '=' || isBaseNote(c);
+    }
+
+    private Music noteElement(int[] accidentals) throws UnableToParseException {
+        skipSpaces();
+        if (!accept('[')) {
+            return note(accidentals);
+        }
+        final List<Music> notes = new ArrayList<>();
+        do {
+            notes.add(note(accidentals));
+            skipSpaces();
+        } while (!accept(']'));
+        return new Chord(notes);
+    }
+
+    /**
+     * Read a note and the spaces after it.
+     * @param accidentals accidentals in effect for the current bar, updated by the note's accidental if it has one
+     * @return the note
+     * @throws UnableToParseException if the text is not a note
+     */
+    private Note note(int[] accidentals) throws UnableToParseException {
+        skipSpaces();
+        int sharpen = 0;
+        boolean natural = false;
+        final char accidental = peek();
+        if (accidental == '^' || accidental == '_') {
+            pos++;
+            sharpen = accidental == '^' ? 1 : -1;
+            if (accept(accidental)) {
+                sharpen *= 2;
+            }
+            skipSpaces();
+        } else if (accidental == '=') {
+            pos++;
+            natural = true;
+            skipSpaces();
+        }
+        final char baseNote = baseNote();
+        if (natural) {
+            accidentals[baseNote] = 0;
+        } else {
+            accidentals[baseNote] += sharpen;
+        }
+        skipSpaces();
+        int transposeBy = Character.isLowerCase(baseNote) ? OCTAVE_LENGTH : 0;
+        final char octave = peek();
+        if (octave == '\'' || octave == ',') {
+            // like the grammar, count the spaces between octave marks as marks
+            final int start = pos;
+            int end = pos;
+            while (peek() == octave) {
+                pos++;
+                end = pos;
+                skipSpaces();
+            }
+            transposeBy += OCTAVE_LENGTH * (end - start) * (octave == ',' ? -1 : 1);
+        }
+        transposeBy += accidentals[baseNote];
+        final Rational relativeNoteLength = noteLength();
+        final Pitch pitch = Pitch.valueOf(Character.toUpperCase(baseNote)).transpose(transposeBy);
+        return Note.of(relativeNoteLength.times(header.getExactNoteLength()), pitch, Instrument.PIANO);
+    }
+
+    private char baseNote() throws UnableToParseException {
+        final char c = peek();
+        if (!isBaseNote(c)) {
+            throw error("note letter");
+        }
+        pos++;
+        return c;
+    }
+
+    private static boolean isBaseNote(char c) {
+        return (c >= 'A' && c <= 'G') || (c >= 'a' && c <= 'g');
+    }
+
+    /**
+     * Read an optional note length and the spaces after it.
+     * @return the multiple of the default note length it denotes, 1 if there is none
+     */
+    private Rational noteLength() throws UnableToParseException {
+        final int numerator = peekDigit() ? digits() : 1;
+        Rational relativeNoteLength = Rational.of(numerator);
+        if (accept('/')) {
+            final int denominator = peekDigit() ? digits() : 2;
+            if (denominator == 0) {
+                throw error("nonzero note length denominator");
+            }
+            relativeNoteLength = Rational.of(numerator, denominator);
+        }
+        skipSpaces();
+        return relativeNoteLength;
+    }
+
+    /**
+     * Read the lyrical elements of a lyric line after "w:", and its end.
+     * @param voice the voice the lyrics belong to
+     * @throws UnableToParseException if the line does not match the grammar
+     */
+    private void lyric(Voice voice) throws UnableToParseException {
+        while (pos < input.length()) {
+            final int start = pos;
+            final char c = peek();
+            if (c == ' ' || c == '-' || c == '_' || c == '*' || c == '~') {
+                pos++;
+            } else if (input.startsWith("\\-", pos)
+                    || input.startsWith("||", pos) || input.startsWith("[|", pos) || input.startsWith("|]", pos)) {
+                pos += 2;
+            } else if (c == '|') {
+                pos++;
+            } else {
+                while (pos < input.length() && "-_*~|\\ \t\n\u000B\f\r".indexOf(peek()) < 0) {
+                    pos++;
+                }
+                if (pos == start) {
+                    break;
+                }
+            }
+            voice.assembler.addLyric(input.substring(start, pos));
+        }
+        newline();
+        voice.assembler.addLyric("\n");
+    }
+
+    //
+    // General
+
+    private char peek() {
+        return peek(0);
+    }
+
+    private char peek(int ahead) {
+        return pos + ahead < input.length() ? input.charAt(pos + ahead) : '\0';
+    }
+
+    private boolean peekDigit() {
+        final char c = peek();
+        return c >= '0' && c <= '9';
+    }
+
+    private boolean accept(char c) {
+        if (peek() == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String token) throws UnableToParseException {
+        if (!input.startsWith(token, pos)) {
+            throw error("\"" + token + "\"");
+        }
+        pos += token.length();
+    }
+
+    private void skipSpaces() {
+        while (peek() == ' ' || peek() == '\t') {
+            pos++;
+        }
+    }
+
+    private int digits() throws UnableToParseException {
+        if (!peekDigit()) {
+            throw error("digit");
+        }
+        int value = 0;
+        while (peekDigit()) {
+            value = value * 10 + (input.charAt(pos++) - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Skip text up to the end of the line.
+     * @throws UnableToParseException if the text contains a double quote
+     */
+    private void text() throws UnableToParseException {
+        while (pos < input.length() && peek() != '\n') {
+            if (peek() == '"') {
+                throw error("text without double quotes");
+            }
+            pos++;
+        }
+    }
+
+    private void comment() throws UnableToParseException {
+        skipSpaces();
+        expect("%");
+        text();
+        newline();
+    }
+
+    private boolean atEndOfLine() {
+        final char c = peek();
+        return c == '\n' || c == '\r' || c == '%' || pos == input.length();
+    }
+
+    private void endOfLine() throws UnableToParseException {
+        skipSpaces();
+        if (peek() == '%') {
+            comment();
+        } else {
+            newline();
+        }
+    }
+
+    private void newline() throws UnableToParseException {
+        if (accept('\r')) {
+            accept('\n');
+        } else if (!accept('\n')) {
+            throw error("end of line");
+        }
+    }
+
+    /**
+     * @param expected description of what was expected at the current position
+     * @return an exception reporting the line and column at which parsing failed
+     */
+    private UnableToParseException error(String expected) {
+        int line = 1;
+        int lineStart = 0;
+        for (int i = 0; i < pos && i < input.length(); i++) {
+            if (input.charAt(i) == '\n') {
+                line++;
+                lineStart = i + 1;
+            }
+        }
+        return new UnableToParseException("expected " + expected + " at line " + line + " column " + (pos - lineStart + 1));
+    }
+}
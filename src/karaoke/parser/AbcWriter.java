@@ -0,0 +1,778 @@
+package karaoke.parser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.sound.Header;
+import karaoke.sound.Instrument;
+import karaoke.sound.Music;
+import karaoke.sound.MusicWriter;
+import karaoke.sound.Piece;
+import karaoke.sound.Pitch;
+import karaoke.sound.Rational;
+
+/**
+ * Writes music as ABC notation in the subset described by Abc.g, streaming it to an Appendable
+ * in time linear in the length of the music.
+ *
+ * Reading the notation back with AbcParser or MusicParser gives music that plays the same notes at the same beats
+ * for the same lengths, with the same header, voices and repeats, and with every marked lyric syllable sung on the
+ * same note. Pitches are respelled for the key signature, notes are grouped into bars and lines of the writer's
+ * choosing, and the text around each marked syllable is rebuilt from the lines written.
+ */
+public class AbcWriter implements MusicWriter {
+
+    private static final int OCTAVE_LENGTH = 12;
+    // the pitch of each base note in the octave above middle C, in the order of LETTERS
+    private static final String LETTERS = "CDEFGAB";
+    private static final int[] NATURAL = { 0, 2, 4, 5, 7, 9, 11 };
+    // the largest numerator or denominator Header reads from the L, M and Q fields
+    private static final int LARGEST_HEADER_DIGIT = 9;
+    private static final double DEFAULT_BPM = 100.0;
+    private static final Rational THREE_QUARTERS = Rational.of(3, 4);
+    private static final Rational DEFAULT_NOTE_LENGTH = Rational.of(1, 8);
+    private static final String DEFAULT_VOICE = "default";
+    private static final String UNKNOWN_COMPOSER = "Unknown";
+    // a line of a voice without lyrics is ended before the first element written after it is this long
+    private static final int LINE_LENGTH = 72;
+    private static final String MARK = "<mark>";
+    private static final String END_MARK = "</mark>";
+    // characters the grammar does not allow in a lyric syllable
+    private static final String NOT_IN_SYLLABLE = "-_*~|\\";
+
+    private final Appendable out;
+    private final Map<Character, Integer> keySignature;
+    private final Rational noteLength;
+    private final Rational meter;
+
+    // the voice being written
+    private Map<Character, Integer> accidentals;
+    private NavigableMap<Rational, Syllable> syllables;
+    private Rational beat;
+    private int semitonesUp;
+    private int repeats;
+    // the text of the chord or tuplet being written, or null
+    private StringBuilder element;
+    private boolean inChord;
+    private boolean afterTuplet;
+
+    // the line being written: its text, and for each element the parsers will read from it,
+    // the lyric token sung with the element, or null if the element does not sound
+    private final StringBuilder line = new StringBuilder();
+    private final List<String> slots = new ArrayList<>();
+    private boolean firstLine;
+    private boolean inBar;
+    private Rational barStart;
+    private String opening;
+
+    /**
+     * A marked syllable of a lyric, from the beat it is sung at until end.
+     */
+    private static class Syllable {
+        private final String text;
+        private final Rational end;
+        private final boolean startsLine;
+
+        Syllable(String text, Rational end, boolean startsLine) {
+            this.text = text;
+            this.end = end;
+            this.startsLine = startsLine;
+        }
+    }
+
+    private AbcWriter(Appendable out, String key, Rational noteLength, Rational meter) {
+        this.out = out;
+        this.noteLength = noteLength;
+        this.meter = meter;
+        try {
+            this.keySignature = MusicParser.keySignature(key);
+        } catch (UnableToParseException e) {
+            throw new IllegalArgumentException("key " + key + " cannot be written", e);
+        }
+    }
+
+    /**
+     * Write music as ABC notation.
+     * A music that is not a Piece is written as the only voice of a piece in C with a default header.
+     * @param music the music to write
+     * @param out where to append the notation
+     * @throws IOException if appending to out fails
+     * @throws IllegalArgumentException if a voice of music plays music in parallel other than as chords or lyrics,
+     *                                  or if music contains a piece inside another music
+     */
+    public static void write(Music music, Appendable out) throws IOException {
+        if (music instanceof Piece) {
+            final Header header = ((Piece) music).getHeader();
+            music.write(new AbcWriter(out, header.getKey(), header.getExactNoteLength(), Rational.valueOf(header.getMeter())));
+        } else {
+            out.append("X:1\nT:untitled\nL:").append(DEFAULT_NOTE_LENGTH.toString()).append("\nK:C\n");
+            new AbcWriter(out, "C", DEFAULT_NOTE_LENGTH, Rational.of(1)).voice(music);
+        }
+    }
+
+    /**
+     * @param music the music to write
+     * @return music as ABC notation, as written by write(music, out)
+     * @throws IllegalArgumentException if music cannot be written, as for write(music, out)
+     */
+    public static String toAbc(Music music) {
+        final StringBuilder abc = new StringBuilder();
+        try {
+            write(music, abc);
+        } catch (IOException e) {
+            throw new AssertionError("appending to a StringBuilder cannot fail", e);
+        }
+        return abc.toString();
+    }
+
+    //
+    // Header
+
+    @Override
+    public void piece(Header header, Map<String, Music> voiceToMusic) throws IOException {
+        if (beat != null) {
+            throw new IllegalArgumentException("a piece inside another music cannot be written");
+        }
+        final List<String> declared = header.getVoices();
+        final boolean named = !(declared.size() == 1 && declared.get(0).equals(DEFAULT_VOICE));
+        writeHeader(header, named);
+        for (String voice : declared) {
+            if (voiceToMusic.containsKey(voice)) {
+                if (named) {
+                    out.append("V:").append(voice).append('\n');
+                }
+                voice(voiceToMusic.get(voice));
+            }
+        }
+        // voices that only appear in the body
+        for (Map.Entry<String, Music> voice : voiceToMusic.entrySet()) {
+            if (!declared.contains(voice.getKey())) {
+                out.append("V:").append(voice.getKey()).append('\n');
+                voice(voice.getValue());
+            }
+        }
+    }
+
+    private void writeHeader(Header header, boolean named) throws IOException {
+        out.append("X:").append(Integer.toString(header.getIndex())).append('\n');
+        out.append("T:").append(header.getTitle()).append('\n');
+        if (!header.getComposer().equals(UNKNOWN_COMPOSER)) {
+            out.append("C:").append(header.getComposer()).append('\n');
+        }
+        String meterText = meter.equals(Rational.of(1)) ? "4/4" : headerFraction(meter);
+        final String lengthText = headerFraction(noteLength);
+        if (lengthText == null && (meterText == null || meter.compareTo(THREE_QUARTERS) >= 0)) {
+            // the only note length Header cannot read from an L field is the default for a meter under 3/4
+            meterText = "1/2";
+        }
+        if (meterText != null) {
+            out.append("M:").append(meterText).append('\n');
+        }
+        if (lengthText != null) {
+            out.append("L:").append(lengthText).append('\n');
+        }
+        final String tempoText = tempo(header.getBPM());
+        if (tempoText != null) {
+            out.append("Q:").append(tempoText).append('\n');
+        }
+        if (named) {
+            for (String voice : header.getVoices()) {
+                out.append("V:").append(voice).append('\n');
+            }
+        }
+        out.append("K:").append(header.getKey()).append('\n');
+    }
+
+    /**
+     * @param fraction a positive fraction
+     * @return fraction as n/d if Header can read it from a field, otherwise null
+     */
+    private static String headerFraction(Rational fraction) {
+        if (fraction.numerator() < 1 || fraction.numerator() > LARGEST_HEADER_DIGIT
+                || fraction.denominator() > LARGEST_HEADER_DIGIT) {
+            return null;
+        }
+        return fraction.numerator() + "/" + fraction.denominator();
+    }
+
+    /**
+     * @param bpm beats per minute of the piece
+     * @return a Q field value that Header reads as bpm, preferring the default note length as the beat,
+     *         or null if bpm is the default or cannot be written exactly
+     */
+    private String tempo(double bpm) {
+        if (bpm == DEFAULT_BPM) {
+            return null;
+        }
+        final Rational exact;
+        try {
+            exact = Rational.valueOf(bpm);
+        } catch (ArithmeticException e) {
+            return null;
+        }
+        final List<Rational> beats = new ArrayList<>();
+        beats.add(noteLength);
+        for (int numerator = 1; numerator <= LARGEST_HEADER_DIGIT; numerator++) {
+            for (int denominator = 1; denominator <= LARGEST_HEADER_DIGIT; denominator++) {
+                beats.add(Rational.of(numerator, denominator));
+            }
+        }
+        for (Rational beatLength : beats) {
+            final String beatText = headerFraction(beatLength);
+            if (beatText == null) {
+                continue;
+            }
+            // Header computes bpm = (beat / noteLength) * count
+            final Rational count = exact.times(noteLength).times(beatLength.denominator()).dividedBy(beatLength.numerator());
+            if (count.denominator() == 1 && count.numerator() > 0) {
+                return beatText + "=" + count.numerator();
+            }
+        }
+        return null;
+    }
+
+    //
+    // Body
+
+    /**
+     * Write the lines of one voice.
+     * @param music the music of the voice
+     */
+    private void voice(Music music) throws IOException {
+        final LyricCollector lyrics = new LyricCollector();
+        music.write(lyrics);
+        syllables = lyrics.syllables.isEmpty() ? null : lyrics.syllables;
+        accidentals = new HashMap<>(keySignature);
+        beat = Rational.ZERO;
+        semitonesUp = 0;
+        repeats = 0;
+        afterTuplet = false;
+        firstLine = true;
+        inBar = false;
+        opening = "|";
+        music.write(this);
+        endLine();
+        if (firstLine) {
+            // a voice needs at least one line
+            out.append("z0|\n");
+        }
+        beat = null;
+    }
+
+    @Override
+    public void note(Pitch pitch, Rational duration, Instrument instrument) throws IOException {
+        if (element != null) {
+            element.append(spell(pitch)).append(length(duration));
+            return;
+        }
+        if (duration.equals(Rational.ZERO)) {
+            // the parsers drop elements that do not sound
+            return;
+        }
+        startElement(true);
+        endElement(spell(pitch) + length(duration), duration);
+    }
+
+    @Override
+    public void rest(Rational duration) throws IOException {
+        if (element != null) {
+            throw new IllegalArgumentException("a chord or tuplet of rests cannot be written");
+        }
+        if (duration.equals(Rational.ZERO)) {
+            return;
+        }
+        startElement(false);
+        endElement("z" + length(duration), duration);
+    }
+
+    @Override
+    public void lyric(String lyric, Rational duration) {
+        // lyrics are written from the syllables collected before the voice
+    }
+
+    @Override
+    public void chord(List<Music> notes) throws IOException {
+        if (inChord) {
+            // a chord of chords is written as a single chord
+            for (Music note : notes) {
+                note.write(this);
+            }
+            return;
+        }
+        final boolean inTuplet = element != null;
+        final Rational duration = notes.get(0).exactDuration();
+        if (!inTuplet) {
+            if (duration.equals(Rational.ZERO)) {
+                return;
+            }
+            startElement(true);
+            element = new StringBuilder();
+        }
+        element.append('[');
+        inChord = true;
+        for (Music note : notes) {
+            note.write(this);
+        }
+        inChord = false;
+        element.append(']');
+        if (!inTuplet) {
+            final String text = element.toString();
+            element = null;
+            endElement(text, duration);
+        }
+    }
+
+    @Override
+    public void tuplet(List<Music> notes, Rational duration) throws IOException {
+        if (element != null) {
+            throw new IllegalArgumentException("a tuplet inside a chord or tuplet cannot be written");
+        }
+        if (duration.equals(Rational.ZERO)) {
+            return;
+        }
+        startElement(false);
+        element = new StringBuilder("(").append(notes.size());
+        for (Music note : notes) {
+            note.write(this);
+        }
+        final String text = element.toString();
+        element = null;
+        endElement(text, duration);
+        // a tuplet takes every note that follows it in its bar
+        afterTuplet = true;
+    }
+
+    @Override
+    public void concat(List<Music> parts) throws IOException {
+        if (element != null) {
+            throw new IllegalArgumentException("music in sequence inside a chord or tuplet cannot be written");
+        }
+        for (Music part : parts) {
+            part.write(this);
+        }
+    }
+
+    @Override
+    public void component(List<Music> parts) throws IOException {
+        if (element != null) {
+            throw new IllegalArgumentException("a component inside a chord or tuplet cannot be written");
+        }
+        boolean written = false;
+        for (Music part : parts) {
+            // lyrics were collected before the voice, and have repeats of their own that must not be written
+            if (ElementFinder.hasElements(part)) {
+                if (written) {
+                    throw new IllegalArgumentException("music played in parallel cannot be written in one voice");
+                }
+                part.write(this);
+                written = true;
+            }
+        }
+    }
+
+    @Override
+    public void transposed(Music music, int semitonesUp) throws IOException {
+        this.semitonesUp += semitonesUp;
+        music.write(this);
+        this.semitonesUp -= semitonesUp;
+    }
+
+    @Override
+    public void repeat(Music body) throws IOException {
+        repeat(body, null);
+    }
+
+    @Override
+    public void repeat(Music body, Music firstEnding) throws IOException {
+        if (element != null) {
+            throw new IllegalArgumentException("a repeat inside a chord or tuplet cannot be written");
+        }
+        final Rational bodyDuration = body.exactDuration();
+        if (repeats > 0 || bodyDuration.equals(Rational.ZERO)) {
+            // repeat signs do not nest, so an inner repeat is written out in full
+            body.write(this);
+            if (firstEnding != null) {
+                firstEnding.write(this);
+            }
+            body.write(this);
+            return;
+        }
+        closeBar("|");
+        opening = "|:";
+        repeats++;
+        body.write(this);
+        if (firstEnding != null && !firstEnding.exactDuration().equals(Rational.ZERO)) {
+            closeBar("|");
+            opening = "[1";
+            firstEnding.write(this);
+        }
+        repeats--;
+        closeBar(":|");
+        // the second pass of the body is played, not written
+        beat = beat.plus(bodyDuration);
+    }
+
+    /**
+     * Start a line or a bar if the element about to be written needs one.
+     * @param noteOrChord true if the element is a note or chord, which cannot follow a tuplet in its bar
+     */
+    private void startElement(boolean noteOrChord) throws IOException {
+        final boolean newLine;
+        if (syllables != null) {
+            final Syllable syllable = syllables.get(beat);
+            newLine = syllable != null && syllable.startsLine;
+        } else {
+            newLine = line.length() >= LINE_LENGTH;
+        }
+        if (newLine && line.length() > 0) {
+            endLine();
+        } else if (inBar && (afterTuplet && noteOrChord || beat.compareTo(barStart.plus(meter)) >= 0)) {
+            // a bar is closed once it is full, so that a repeat can still close it with its own barline
+            closeBar("|");
+        }
+        afterTuplet = false;
+        if (!inBar) {
+            openBar();
+        }
+    }
+
+    /**
+     * Append an element to the current bar and move past it.
+     * @param text the notation of the element
+     * @param duration the exact number of beats the element lasts, > 0
+     */
+    private void endElement(String text, Rational duration) {
+        final char last = line.charAt(line.length() - 1);
+        if (last != '|' && last != ':' && last != '1') {
+            line.append(' ');
+        }
+        line.append(text);
+        slots.add(lyricToken());
+        beat = beat.plus(duration);
+    }
+
+    /**
+     * @return the lyric token sung with the element at the current beat: its syllable,
+     *         "_" if the previous syllable is held over it, or "*" if there is none
+     */
+    private String lyricToken() {
+        if (syllables == null) {
+            return "*";
+        }
+        final Syllable syllable = syllables.get(beat);
+        if (syllable != null) {
+            return syllable.text;
+        }
+        final Map.Entry<Rational, Syllable> previous = syllables.lowerEntry(beat);
+        return previous != null && previous.getValue().end.compareTo(beat) > 0 ? "_" : "*";
+    }
+
+    private void openBar() {
+        if (line.length() == 0) {
+            // every line starts with a barline, which the end of the previous lyric line is aligned with
+            line.append(opening);
+            slots.add(null);
+            if (opening.equals("|")) {
+                resetAccidentals();
+            }
+        } else if (!opening.equals("|")) {
+            // a plain barline is already there, closing the previous bar
+            line.append(' ').append(opening);
+            slots.add(null);
+        }
+        opening = "|";
+        inBar = true;
+        barStart = beat;
+    }
+
+    private void closeBar(String barline) {
+        if (!inBar) {
+            return;
+        }
+        line.append(barline);
+        slots.add(null);
+        if (barline.equals("|")) {
+            resetAccidentals();
+        }
+        inBar = false;
+    }
+
+    private void resetAccidentals() {
+        accidentals.putAll(keySignature);
+    }
+
+    /**
+     * Write the current line and its lyrics, if it has any elements.
+     */
+    private void endLine() throws IOException {
+        closeBar("|");
+        if (line.length() == 0) {
+            return;
+        }
+        out.append(line).append('\n');
+        // the end of the line is read as an element too
+        slots.add(null);
+        if (syllables != null) {
+            out.append("w:");
+            // each space fills the next silent element; the end of the previous lyric line filled this line's opening
+            boolean afterToken = false;
+            for (int i = firstLine ? 0 : 1; i < slots.size() - 1; i++) {
+                final String token = slots.get(i);
+                if (token == null) {
+                    out.append(' ');
+                    afterToken = false;
+                } else {
+                    if (afterToken) {
+                        out.append(' ');
+                    }
+                    out.append(token);
+                    afterToken = true;
+                }
+            }
+            out.append('\n');
+        }
+        line.setLength(0);
+        slots.clear();
+        firstLine = false;
+    }
+
+    /**
+     * @param pitch a pitch before this writer's transposition
+     * @return the transposed pitch as a base note with accidental and octave, updating the accidentals in effect
+     */
+    private String spell(Pitch pitch) {
+        final int value = pitch.transpose(semitonesUp).difference(Pitch.MIDDLE_C);
+        // prefer a spelling the accidentals in effect already give: natural, then sharp, then flat
+        for (int offset : new int[] { 0, 1, -1 }) {
+            for (int letter = 0; letter < LETTERS.length(); letter++) {
+                if (Math.floorMod(value - offset, OCTAVE_LENGTH) == NATURAL[letter]) {
+                    final int octave = Math.floorDiv(value - offset, OCTAVE_LENGTH);
+                    final char baseNote = baseNote(letter, octave);
+                    if (accidentals.get(baseNote) == offset) {
+                        return baseNote + octaveMarks(octave);
+                    }
+                }
+            }
+        }
+        // otherwise write the natural, or else the sharp, of a base note
+        for (int offset : new int[] { 0, 1 }) {
+            for (int letter = 0; letter < LETTERS.length(); letter++) {
+                if (Math.floorMod(value - offset, OCTAVE_LENGTH) == NATURAL[letter]) {
+                    final int octave = Math.floorDiv(value - offset, OCTAVE_LENGTH);
+                    final char baseNote = baseNote(letter, octave);
+                    // "=" sets the base note to natural; "^" raises it from the accidental in effect
+                    final String accidental = offset == 0 ? "=" : offset - accidentals.get(baseNote) == 2 ? "^^" : "^";
+                    accidentals.put(baseNote, offset);
+                    return accidental + baseNote + octaveMarks(octave);
+                }
+            }
+        }
+        throw new AssertionError("every pitch is a natural or a sharp");
+    }
+
+    private static char baseNote(int letter, int octave) {
+        final char upper = LETTERS.charAt(letter);
+        return octave >= 1 ? Character.toLowerCase(upper) : upper;
+    }
+
+    private static String octaveMarks(int octave) {
+        final StringBuilder marks = new StringBuilder();
+        for (int i = 1; i < octave; i++) {
+            marks.append('\'');
+        }
+        for (int i = 0; i > octave; i--) {
+            marks.append(',');
+        }
+        return marks.toString();
+    }
+
+    /**
+     * @param duration exact number of beats
+     * @return the note length that gives duration as a multiple of the default note length
+     */
+    private String length(Rational duration) {
+        final Rational relative = duration.times(Rational.of(noteLength.denominator(), noteLength.numerator()));
+        if (relative.denominator() == 1) {
+            return relative.numerator() == 1 ? "" : Long.toString(relative.numerator());
+        }
+        return (relative.numerator() == 1 ? "" : Long.toString(relative.numerator())) + "/" + relative.denominator();
+    }
+
+    /**
+     * MusicWriter that finds whether a music has any note, rest, chord or tuplet that lasts, without writing anything.
+     */
+    private static class ElementFinder implements MusicWriter {
+
+        private boolean found = false;
+
+        static boolean hasElements(Music music) throws IOException {
+            final ElementFinder finder = new ElementFinder();
+            music.write(finder);
+            return finder.found;
+        }
+
+        @Override
+        public void note(Pitch pitch, Rational duration, Instrument instrument) {
+            found |= !duration.equals(Rational.ZERO);
+        }
+
+        @Override
+        public void rest(Rational duration) {
+            found |= !duration.equals(Rational.ZERO);
+        }
+
+        @Override
+        public void lyric(String lyric, Rational duration) {}
+
+        @Override
+        public void chord(List<Music> notes) {
+            found |= !notes.get(0).exactDuration().equals(Rational.ZERO);
+        }
+
+        @Override
+        public void tuplet(List<Music> notes, Rational duration) {
+            found |= !duration.equals(Rational.ZERO);
+        }
+
+        @Override
+        public void concat(List<Music> parts) throws IOException {
+            for (Music part : parts) {
+                if (!found) {
+                    part.write(this);
+                }
+            }
+        }
+
+        @Override
+        public void component(List<Music> parts) throws IOException {
+            for (Music part : parts) {
+                if (!found) {
+                    part.write(this);
+                }
+            }
+        }
+
+        @Override
+        public void transposed(Music music, int semitonesUp) throws IOException {
+            music.write(this);
+        }
+
+        @Override
+        public void repeat(Music body) throws IOException {
+            body.write(this);
+        }
+
+        @Override
+        public void repeat(Music body, Music firstEnding) throws IOException {
+            body.write(this);
+            if (!found) {
+                firstEnding.write(this);
+            }
+        }
+
+        @Override
+        public void piece(Header header, Map<String, Music> voiceToMusic) {
+            throw new IllegalArgumentException("a piece inside another music cannot be written");
+        }
+    }
+
+    /**
+     * MusicWriter that finds the beat each marked lyric syllable of a voice is sung at, without writing anything.
+     */
+    private static class LyricCollector implements MusicWriter {
+
+        private Rational beat = Rational.ZERO;
+        private final NavigableMap<Rational, Syllable> syllables = new TreeMap<>();
+
+        @Override
+        public void note(Pitch pitch, Rational duration, Instrument instrument) {
+            beat = beat.plus(duration);
+        }
+
+        @Override
+        public void rest(Rational duration) {
+            beat = beat.plus(duration);
+        }
+
+        @Override
+        public void lyric(String lyric, Rational duration) {
+            final int mark = lyric.indexOf(MARK);
+            final int end = lyric.indexOf(END_MARK, mark + 1);
+            if (mark >= 0 && end >= 0 && !syllables.containsKey(beat)) {
+                final String text = syllable(lyric.substring(mark + MARK.length(), end));
+                if (!text.isEmpty()) {
+                    syllables.put(beat, new Syllable(text, beat.plus(duration), lyric.substring(0, mark).trim().isEmpty()));
+                }
+            }
+            beat = beat.plus(duration);
+        }
+
+        private static String syllable(String marked) {
+            final StringBuilder text = new StringBuilder();
+            for (char c : marked.toCharArray()) {
+                if (!Character.isWhitespace(c) && NOT_IN_SYLLABLE.indexOf(c) < 0) {
+                    text.append(c);
+                }
+            }
+            return text.toString();
+        }
+
+        @Override
+        public void chord(List<Music> notes) {
+            beat = beat.plus(notes.get(0).exactDuration());
+        }
+
+        @Override
+        public void tuplet(List<Music> notes, Rational duration) {
+            beat = beat.plus(duration);
+        }
+
+        @Override
+        public void concat(List<Music> parts) throws IOException {
+            for (Music part : parts) {
+                part.write(this);
+            }
+        }
+
+        @Override
+        public void component(List<Music> parts) throws IOException {
+            final Rational start = beat;
+            Rational end = start;
+            for (Music part : parts) {
+                beat = start;
+                part.write(this);
+                end = end.compareTo(beat) >= 0 ? end : beat;
+            }
+            beat = end;
+        }
+
+        @Override
+        public void transposed(Music music, int semitonesUp) throws IOException {
+            music.write(this);
+        }
+
+        @Override
+        public void repeat(Music body) throws IOException {
+            body.write(this);
+            body.write(this);
+        }
+
+        @Override
+        public void repeat(Music body, Music firstEnding) throws IOException {
+            body.write(this);
+            firstEnding.write(this);
+            body.write(this);
+        }
+
+        @Override
+        public void piece(Header header, Map<String, Music> voiceToMusic) {
+            throw new IllegalArgumentException("a piece inside another music cannot be written");
+        }
+    }
+}
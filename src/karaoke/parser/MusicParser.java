@@ -3,7 +3,6 @@ package karaoke.parser;
 import java.io.File; 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -14,15 +13,14 @@ import edu.mit.eecs.parserlib.ParseTree;
 import edu.mit.eecs.parserlib.Parser;
 import edu.mit.eecs.parserlib.UnableToParseException;
 import karaoke.sound.Chord;
-import karaoke.sound.Component;
 import karaoke.sound.Concat;
 import karaoke.sound.Header;
 import karaoke.sound.Instrument;
-import karaoke.sound.Lyric;
 import karaoke.sound.Music;
 import karaoke.sound.Note;
 import karaoke.sound.Piece;
 import karaoke.sound.Pitch;
+import karaoke.sound.Rational;
 import karaoke.sound.Rest;
 import karaoke.sound.Tuplet;
 
@@ -32,10 +30,11 @@ import karaoke.sound.Tuplet;
 public class MusicParser {
     
     private Header header;
-    private Map<Character, Integer> accidentalMap = new HashMap<Character, Integer>();
+    // accidentals implied by the key signature; each voice starts every bar from a copy of this
+    private final Map<Character, Integer> keySignature = new HashMap<Character, Integer>();
      
     private static final int OCTAVE_LENGTH = 12;
-    private static final double HALF = 0.5;
+    private static final Rational HALF = Rational.of(1, 2);
     
     // the nonterminals of the grammar
     private static enum MusicGrammar {
@@ -96,20 +95,20 @@ public class MusicParser {
      * Creates a new MusicParser
      */
     public MusicParser() {
-        accidentalMap.put('A', 0);
-        accidentalMap.put('B', 0);
-        accidentalMap.put('C', 0);
-        accidentalMap.put('D', 0);
-        accidentalMap.put('E', 0);
-        accidentalMap.put('F', 0);
-        accidentalMap.put('G', 0);
-        accidentalMap.put('a', 0);
-        accidentalMap.put('b', 0);
-        accidentalMap.put('c', 0);
-        accidentalMap.put('d', 0);
-        accidentalMap.put('e', 0);
-        accidentalMap.put('f', 0);
-        accidentalMap.put('g', 0);
+        keySignature.put('A', 0);
+        keySignature.put('B', 0);
+        keySignature.put('C', 0);
+        keySignature.put('D', 0);
+        keySignature.put('E', 0);
+        keySignature.put('F', 0);
+        keySignature.put('G', 0);
+        keySignature.put('a', 0);
+        keySignature.put('b', 0);
+        keySignature.put('c', 0);
+        keySignature.put('d', 0);
+        keySignature.put('e', 0);
+        keySignature.put('f', 0);
+        keySignature.put('g', 0);
     }
     
     /**
@@ -125,19 +124,35 @@ public class MusicParser {
                                MusicGrammar.ABC);
         ParseTree<MusicGrammar> parseTree = parser.parse(file);
         parseHeader(parseTree);
-        setAccidentalMap();
+        setAccidentalMap(keySignature, header.getKey());
         return parseBody(parseTree);
     }
     
     /**
-     * Updates the accidental map according to the key signature
-     * @throws UnableToParseException
+     * @param key the key signature from the header
+     * @return map from every base note to the semitones the key signature raises it by
+     * @throws UnableToParseException if key is not a supported key signature
      */
-    private void setAccidentalMap() throws UnableToParseException {
-        for (Character key : accidentalMap.keySet()) {
-            accidentalMap.replace(key, 0);
+    static Map<Character, Integer> keySignature(String key) throws UnableToParseException {
+        final Map<Character, Integer> accidentalMap = new HashMap<Character, Integer>();
+        for (char baseNote : "ABCDEFGabcdefg".toCharArray()) {
+            accidentalMap.put(baseNote, 0);
         }
-        switch (this.header.getKey().trim()) {
+        setAccidentalMap(accidentalMap, key);
+        return accidentalMap;
+    }
+    
+    /**
+     * Updates an accidental map according to the key signature
+     * @param accidentalMap map from every base note to the semitones it is raised by, reset by this method
+     * @param key the key signature from the header
+     * @throws UnableToParseException if key is not a supported key signature
+     */
+    static void setAccidentalMap(Map<Character, Integer> accidentalMap, String key) throws UnableToParseException {
+        for (Character baseNote : accidentalMap.keySet()) {
+            accidentalMap.replace(baseNote, 0);
+        }
+        switch (key.trim()) {
             case "C":
             {
                break;
@@ -517,115 +532,32 @@ public class MusicParser {
      * @param parseTree a tree representing the music written according to the ABC grammar
      * @return a Music object which is an abstract syntax tree representing the given parse tree
      */
-    public Music parseBody(ParseTree<MusicGrammar> parseTree) {   
+    public Music parseBody(ParseTree<MusicGrammar> parseTree) {
+        return parseBody(parseTree, new HashMap<Character, Integer>(keySignature));
+    }
+    
+    /**
+     * Convert a parse tree into an abstract syntax tree
+     * 
+     * @param parseTree a tree representing the music written according to the ABC grammar
+     * @param accidentalMap the accidentals in effect for the current voice and bar, updated as notes and barlines are parsed
+     * @return a Music object which is an abstract syntax tree representing the given parse tree
+     */
+    private Music parseBody(ParseTree<MusicGrammar> parseTree, Map<Character, Integer> accidentalMap) {
         switch (parseTree.name()) {
             case ABC:
                 {
                     final List<ParseTree<MusicGrammar>> children = parseTree.children();
-                    return parseBody(children.get(1));
+                    return parseBody(children.get(1), accidentalMap);
                 } 
             case ABC_BODY:
                 {
                     final List<ParseTree<MusicGrammar>> children = parseTree.children();
                     List<ParseTree<MusicGrammar>> noComments = children.stream().filter(c -> c.name() != MusicGrammar.COMMENT).collect(Collectors.toList());
                     Map<String, ArrayList<ParseTree<MusicGrammar>>> byVoice = organizeByVoice(noComments);
-                    Map<String, Music> voiceToMusic = new HashMap<String, Music>();
-                    for (String voice: byVoice.keySet()) {
-                        List<ParseTree<MusicGrammar>> voiceElements = byVoice.get(voice);
-                        List<ParseTree<MusicGrammar>> musicElements = new ArrayList<>();
-                        List<ParseTree<MusicGrammar>> lyricElements = new ArrayList<>();
-                        for (ParseTree<MusicGrammar> element : voiceElements) {
-                            if (element.name() == MusicGrammar.LYRIC) {
-                                lyricElements.addAll(element.children());
-                            } else {
-                                if (element.name().equals(MusicGrammar.MEASURE)) {
-                                    musicElements.addAll(element.children());
-                                } else {
-                                    musicElements.add(element);
-                                }
-                            }
-                        }
-                        // if voice has no lyrics
-                        if (lyricElements.size() == 0) {
-                            // create list of indices of notes which allows for a one to one mapping between a syllable and an element (representing the index of the note in musicElements) in the list
-                            List<Integer> indexListAfterRepeats = createNoteIndexListAfterRepeats(musicElements);
-                            List<Music> musicNoRepeats = musicElements.stream().map(tree -> parseBody(tree)).collect(Collectors.toList());
-                            List<Music> musicWithRepeats = indexListAfterRepeats.stream().map(index -> musicNoRepeats.get(index)).collect(Collectors.toList());
-                            Music pieceMusic = musicWithRepeats.stream().filter(music -> music.duration() > 0).reduce(new Rest(0), (m1, m2) -> new Concat(m1, m2));
-                            Component newComponent = new Component(Arrays.asList(pieceMusic));
-                            voiceToMusic.put(voice, newComponent);
-                        } else {
-                            // create list of indices of notes which allows for a one to one mapping between a syllable and an element (representing the index of the note in musicElements) in the list
-                            List<Integer> indexListAfterRepeats = createNoteIndexListAfterRepeats(musicElements);
-                            List<Music> musicNoRepeats = musicElements.stream().map(tree -> parseBody(tree)).collect(Collectors.toList());
-                            // lyric at index i in lyricsNoRepeats corresponds to note at index i in musicNoRepeats
-                            List<String> lyricsNoRepeats = createAlignedLyricList(lyricElements, musicElements);
-                            List<String> lyricsWithRepeats = indexListAfterRepeats.stream().map(index -> lyricsNoRepeats.get(index)).collect(Collectors.toList());
-                            List<Music> musicWithRepeats = indexListAfterRepeats.stream().map(index -> musicNoRepeats.get(index)).collect(Collectors.toList());
-                            List<Music> pieceLyricsList = new ArrayList<Music>();
-                            int m = 0;
-                            
-                            while (m < lyricsWithRepeats.size()-1) {
-     
-                                double duration = musicWithRepeats.get(m).duration();
-                                String lyric = lyricsWithRepeats.get(m);
-                                
-                                int underscoreCount = 1;
-                                while (lyricsWithRepeats.get(m+underscoreCount).equals("_")) {
-                                    duration = duration + musicWithRepeats.get(m+underscoreCount).duration();
-                                    underscoreCount++;
-                            }
-                                
-                            // expand left till newline
-                            boolean searchingLeft = true;
-                            String leftElement = "";
-                            int l = m-1;
-                            while (searchingLeft) {
-                                if (l >= 0) {
-                                    if (lyricsWithRepeats.get(l).equals("\n")) {
-                                        break;
-                                    } else {
-                                        String lyricToAddLeft = lyricsWithRepeats.get(l).equals("_") ? " " : lyricsWithRepeats.get(l);
-                                        leftElement = lyricToAddLeft + " " + leftElement;
-                                    }
-                                } else {
-                                    break;
-                                }
-                                l--;
-                            }
-                                
-                            // expand right till newline
-                            boolean searchingRight = true;
-                            String rightElement = "";
-                            int r = m+1;
-                            while (searchingRight) {
-                                if (r < lyricsWithRepeats.size()) {
-                                    if (lyricsWithRepeats.get(r).equals("\n")) {
-                                        break;
-                                    } else {
-                                        String lyricToAddRight = lyricsWithRepeats.get(r).equals("_") ? " " : lyricsWithRepeats.get(r);
-                                        rightElement = rightElement + " " + lyricToAddRight;
-                                    }
-                                } else {
-                                    break;
-                                }
-                                r++;
-                            }
-                            if (lyric.equals(" ")) {
-                                pieceLyricsList.add(new Lyric(lyric, duration));
-                            } else if (lyric.equals("_") | lyric.equals("\n")) {
-                                pieceLyricsList.add(new Lyric(" ", 0));
-                            }
-                            else {
-                                pieceLyricsList.add(new Lyric(leftElement + " <mark>" + lyric + "</mark> " + rightElement, duration));
-                            }
-                               m++;
-                            }
-                            Music pieceLyric = pieceLyricsList.stream().reduce(new Rest(0), (m1, m2) -> new Concat(m1, m2));
-                            Music pieceMusic = musicWithRepeats.stream().filter(music -> music.duration() > 0).reduce(new Rest(0), (m1, m2) -> new Concat(m1, m2));
-                            voiceToMusic.put(voice, new Component(Arrays.asList(pieceLyric, pieceMusic)));
-                        }
-                    }
+                    // voices are independent once split, so convert them in parallel on the common ForkJoinPool
+                    Map<String, Music> voiceToMusic = byVoice.entrySet().parallelStream()
+                            .collect(Collectors.toMap(entry -> entry.getKey(), entry -> parseVoice(entry.getValue())));
                     return new Piece(voiceToMusic, header);
                 } 
             case ABC_LINE:
@@ -641,32 +573,32 @@ public class MusicParser {
                         }
                         i++;
                     }
-                    return parseBody(parseTree.children().get(0));
+                    return parseBody(parseTree.children().get(0), accidentalMap);
                 } 
             case MEASURE:
                 {
-                    Stream<Music> musicStream = (parseTree.children().stream().map(x -> parseBody(x)));
+                    Stream<Music> musicStream = (parseTree.children().stream().map(x -> parseBody(x, accidentalMap)));
                     return musicStream.reduce(new Rest(0), (music1, music2) -> new Concat(music1, music2));
                 }
             case NOTE_ELEMENT:
                 {
-                    return parseBody(parseTree.children().get(0));
+                    return parseBody(parseTree.children().get(0), accidentalMap);
                 } 
             case NOTE:
                 {
                     // dealing with noteLength
                     List<ParseTree<MusicGrammar>> children = parseTree.children();
-                    final double relativeNoteLength = parseMultiplicativeFactor(children.get(1).text());
+                    final Rational relativeNoteLength = parseMultiplicativeFactor(children.get(1).text());
                     // dealing with pitch
                     List<ParseTree<MusicGrammar>> pitchChildren = children.get(0).children();
                     Pitch pitch = null;
                     Character baseNote = 'X';
                     if (pitchChildren.size() == 1) {
                         baseNote = pitchChildren.get(0).text().charAt(0);
-                        pitch = new Pitch(Character.toUpperCase(baseNote));
+                        pitch = Pitch.valueOf(Character.toUpperCase(baseNote));
                         int n = baseNote.equals(Character.toUpperCase(baseNote)) ? 0 : OCTAVE_LENGTH;
                         Pitch newPitch = pitch.transpose(accidentalMap.get(baseNote) + n);
-                        return new Note(relativeNoteLength * header.getNoteLength(), newPitch, Instrument.PIANO);
+                        return Note.of(relativeNoteLength.times(header.getExactNoteLength()), newPitch, Instrument.PIANO);
                     } else {
                         int transposeBy = 0;
                         if (pitchChildren.get(0).name() == MusicGrammar.ACCIDENTAL) {
@@ -697,40 +629,35 @@ public class MusicParser {
                             final int numOctaves = pitchChildren.get(pitchChildren.size()-1).text().trim().length();
                             transposeBy += OCTAVE_LENGTH*numOctaves*octavesUpOrDown;
                         }
-                        pitch = new Pitch(Character.toUpperCase(baseNote));
+                        pitch = Pitch.valueOf(Character.toUpperCase(baseNote));
                         int n = baseNote.equals(Character.toUpperCase(baseNote)) ? 0 : OCTAVE_LENGTH;
                         transposeBy += n + accidentalMap.get(baseNote);
                         Pitch newPitch = pitch.transpose(transposeBy);
-                        return new Note(relativeNoteLength * header.getNoteLength(), newPitch, Instrument.PIANO);
+                        return Note.of(relativeNoteLength.times(header.getExactNoteLength()), newPitch, Instrument.PIANO);
                     }
                 } 
             case REST_ELEMENT:
                 {
-                    final double relativeRestLength = parseMultiplicativeFactor(parseTree.children().get(0).text());
-                    return new Rest(relativeRestLength*header.getNoteLength());
+                    final Rational relativeRestLength = parseMultiplicativeFactor(parseTree.children().get(0).text());
+                    return new Rest(relativeRestLength.times(header.getExactNoteLength()));
                 } 
             case TUPLET_ELEMENT:
                 {
                     List<ParseTree<MusicGrammar>> tupletNotes = parseTree.children().subList(1, parseTree.children().size());
-                    return new Tuplet(tupletNotes.stream().map(x -> parseBody(x)).collect(Collectors.toList()));
+                    return new Tuplet(tupletNotes.stream().map(x -> parseBody(x, accidentalMap)).collect(Collectors.toList()));
                 } 
             case CHORD:
                 {
                     List<Music> notes = new ArrayList<Music>();
                     List<ParseTree<MusicGrammar>> children = parseTree.children();
                     for (ParseTree<MusicGrammar> note : children) {
-                        notes.add(parseBody(note));
+                        notes.add(parseBody(note, accidentalMap));
                     }
                     return new Chord(notes);
                 } 
             case BARLINE:
                 {
-                    try {
-                        setAccidentalMap();    
-                    } catch (UnableToParseException e) {
-                        System.err.println("invalid key signature");
-                        e.printStackTrace();
-                    }
+                    accidentalMap.putAll(keySignature);
                     return new Rest(0);
                 } 
             default: 
@@ -740,8 +667,55 @@ public class MusicParser {
         }
     }
     
-    private static double parseMultiplicativeFactor(String factorText) {
-        double relativeNoteLength = 1;
+    /**
+     * Convert the elements of one voice into music, tracking accidentals separately from every other voice
+     * 
+     * @param voiceElements the lines and lyrics of a single voice, in order
+     * @return a Component of the voice's music, together with its lyrics if it has any
+     */
+    private Music parseVoice(List<ParseTree<MusicGrammar>> voiceElements) {
+        Map<Character, Integer> accidentals = new HashMap<Character, Integer>(keySignature);
+        VoiceAssembler voice = new VoiceAssembler();
+        for (ParseTree<MusicGrammar> element : voiceElements) {
+            if (element.name() == MusicGrammar.LYRIC) {
+                for (ParseTree<MusicGrammar> lyricElement : element.children()) {
+                    voice.addLyric(lyricElement.text());
+                }
+            } else if (element.name() == MusicGrammar.MEASURE) {
+                for (ParseTree<MusicGrammar> measureElement : element.children()) {
+                    voice.add(elementKind(measureElement), parseBody(measureElement, accidentals));
+                }
+            } else {
+                voice.add(elementKind(element), parseBody(element, accidentals));
+            }
+        }
+        return voice.toMusic();
+    }
+    
+    /**
+     * @param element a music element of a voice
+     * @return what kind of element it is
+     */
+    private static VoiceAssembler.Element elementKind(ParseTree<MusicGrammar> element) {
+        switch (element.name()) {
+            case NOTE_ELEMENT:
+                return VoiceAssembler.Element.NOTE;
+            case BARLINE:
+                return element.children().get(0).name() == MusicGrammar.MAJOR_BARLINE
+                        ? VoiceAssembler.Element.MAJOR_BARLINE : VoiceAssembler.Element.BARLINE;
+            case START_REPEAT:
+                return VoiceAssembler.Element.START_REPEAT;
+            case FIRST_REPEAT:
+                return VoiceAssembler.Element.FIRST_REPEAT;
+            case FINISH_REPEAT:
+                return VoiceAssembler.Element.FINISH_REPEAT;
+            default:
+                return VoiceAssembler.Element.OTHER;
+        }
+    }
+    
+    private static Rational parseMultiplicativeFactor(String factorText) {
+        Rational relativeNoteLength = Rational.of(1);
         factorText = factorText.trim();
         if (!factorText.equals("")) {
             if (factorText.contains("/")) {
@@ -751,158 +725,22 @@ public class MusicParser {
                     relativeNoteLength = HALF;
                 } else if (noteLength.length == 1) {
                     if (factorText.startsWith("/")) {
-                        relativeNoteLength = 1.0 / Integer.parseInt(noteLength[0]);
+                        relativeNoteLength = Rational.of(1, Integer.parseInt(noteLength[0]));
                     } else {
-                        relativeNoteLength = Integer.parseInt(noteLength[0]) / 2.0;
+                        relativeNoteLength = HALF.times(Integer.parseInt(noteLength[0]));
                     }
                 } else {
-                    final double lengthNumerator = noteLength[0].equals("") ? 1 : Integer.parseInt(noteLength[0]);
-                    final double lengthDenominator = noteLength[1].equals("") ? 2 : Integer.parseInt(noteLength[1]);
-                    relativeNoteLength = lengthNumerator / lengthDenominator;           
+                    final int lengthNumerator = noteLength[0].equals("") ? 1 : Integer.parseInt(noteLength[0]);
+                    final int lengthDenominator = noteLength[1].equals("") ? 2 : Integer.parseInt(noteLength[1]);
+                    relativeNoteLength = Rational.of(lengthNumerator, lengthDenominator);           
                 }
             } else {
-                relativeNoteLength = Integer.parseInt(factorText);
+                relativeNoteLength = Rational.of(Integer.parseInt(factorText));
             }
         }
         return relativeNoteLength;
     }
     
-    private static List<Integer> fromAtoB(int a, int b) {
-        List<Integer> indexList = new ArrayList<Integer>();
-        for (int i = a ; i < b; i++) {
-            indexList.add(i);
-        }
-        return indexList;
-    }
-    
-    private static List<Integer> createNoteIndexListAfterRepeats(List<ParseTree<MusicGrammar>> musicElements) {
-        List<Integer> indexListAfterRepeats = new ArrayList<Integer>();
-        int startRepeat = 0;
-        int finishRepeat = -1;
-        int firstRepeat = -1;
-        boolean differentEnding = false;
-        boolean startRepeatCompleted = false;
-        for (int i = 0; i < musicElements.size(); i++) {
-            indexListAfterRepeats.add(i);
-            ParseTree<MusicGrammar> element = musicElements.get(i);
-            if (element.name() == MusicGrammar.START_REPEAT) {
-                startRepeat = i;
-                startRepeatCompleted = false;
-            }
-            else if (element.name() == MusicGrammar.FINISH_REPEAT) {
-                finishRepeat = i;
-                startRepeatCompleted = true;
-                if (!differentEnding) {
-                    indexListAfterRepeats.addAll(fromAtoB(startRepeat+1,finishRepeat));
-                } else {
-                    indexListAfterRepeats.addAll(fromAtoB(startRepeat,firstRepeat));
-                    differentEnding = false;
-                }
-            } 
-            else if (element.name() == MusicGrammar.FIRST_REPEAT) {
-                differentEnding = true;
-                firstRepeat = i;
-            } 
-            else if (element.name() == MusicGrammar.BARLINE) {
-                if (element.children().get(0).name() == MusicGrammar.MAJOR_BARLINE) { //Looking at the name of the barline at the end of a bar to see if it denotes the end of a major section
-                    startRepeat = startRepeatCompleted ? i : startRepeat;
-                }
-            }
-        }
-        return indexListAfterRepeats;
-    }
-    
-    private List<String> createAlignedLyricList(List<ParseTree<MusicGrammar>> lyricElements, List<ParseTree<MusicGrammar>> musicElements) {
-        List<String> alignedLyricList = new ArrayList<String>();
-        int i = 0;
-        while (i < lyricElements.size()) {
-            ParseTree<MusicGrammar> element = lyricElements.get(i);
-            if (musicElements.size() == alignedLyricList.size()) {
-                return alignedLyricList;
-            } else if (alignedLyricList.size() < musicElements.size()) {    
-                //case for when next music element is  a barline/repeat symbol
-                if (parseBody(musicElements.get(alignedLyricList.size())).duration() == 0.0) {
-                    alignedLyricList.add(" ");
-                }
-            }
-            switch (element.text()) {
-                case "-":
-                    {
-                        if (lyricElements.get(lyricElements.size()-1).text().equals(" ") || lyricElements.get(lyricElements.size()-1).text().equals("-")) {
-                            alignedLyricList.add(" ");
-                        }
-                        break;
-                    }
-                case " ":
-                    {
-                        break;
-                    }
-                case "_":
-                    {
-                        alignedLyricList.add("_");
-                        break;
-                    }
-                case "*":
-                    {
-                        alignedLyricList.add(" ");
-                        break;
-                    }
-                case "~":
-                    {   
-                        i++;
-                        while (lyricElements.get(i).text().equals(" ")) {
-                            i++;
-                        }
-                        if (alignedLyricList.get(alignedLyricList.size()-1).equals(" ")) {
-                            alignedLyricList.set(alignedLyricList.size()-2, alignedLyricList.get(alignedLyricList.size()-2) + lyricElements.get(i).text());
-                        } else {
-                            alignedLyricList.set(alignedLyricList.size()-1, alignedLyricList.get(alignedLyricList.size()-1) + lyricElements.get(i).text());
-                        }
-                        break;
-                    }
-                case "\\-":
-                    {
-                        i++;
-                        while (lyricElements.get(i).text().equals(" ")) {
-                            i++;
-                        }
-                        alignedLyricList.set(alignedLyricList.size()-1, alignedLyricList.get(alignedLyricList.size()-1) + "-" + lyricElements.get(i).text());
-                        break;
-                    }
-                case "|":
-                    {
-                        while (musicElements.get(alignedLyricList.size()-1).name() == MusicGrammar.NOTE_ELEMENT) {
-                            alignedLyricList.add(" ");
-                        }
-                        break;
-                    }
-                case "\n":
-                    {
-                        alignedLyricList.add("\n");
-                        break;
-                    }
-                default:
-                    {
-                        alignedLyricList.add(element.text());
-                        break;
-                    }
-            }
-            i++;
-        }
-        
-        while (alignedLyricList.size() < musicElements.size()) {    
-            //case for when next music element is  a barline/repeat symbol
-            alignedLyricList.add(" ");
-        }
-        // adds empty lyrics to the end if neccessary so that alignedList is aligned with musicElements
-        if (alignedLyricList.size() < musicElements.size()) {
-            if (parseBody(musicElements.get(alignedLyricList.size())).duration() == 0.0) {
-                alignedLyricList.add(" ");
-            }
-        }
-        return alignedLyricList;
-    }
-    
     private static Map<String, ArrayList<ParseTree<MusicGrammar>>> organizeByVoice(List<ParseTree<MusicGrammar>> body) {
 
         Map<String, ArrayList<ParseTree<MusicGrammar>>> byVoice = new HashMap<String, ArrayList<ParseTree<MusicGrammar>>>(); // Maps the name of a voice to the parseTrees holding the music associated with it.
@@ -0,0 +1,428 @@
+package karaoke.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import karaoke.sound.Component;
+import karaoke.sound.Concat;
+import karaoke.sound.Lyric;
+import karaoke.sound.Music;
+import karaoke.sound.Rational;
+import karaoke.sound.Repeat;
+import karaoke.sound.Rest;
+
+/**
+ * The elements and lyric tokens of one voice in written order, assembled into the voice's music
+ * once every line has been read.
+ * Both parsers feed the same assembler, so repeats and lyric alignment do not depend on how the text was parsed.
+ */
+class VoiceAssembler {
+
+    /**
+     * What a music element of a voice is, as far as repeats and lyric alignment are concerned.
+     */
+    enum Element {
+        NOTE,
+        BARLINE,
+        MAJOR_BARLINE,
+        START_REPEAT,
+        FIRST_REPEAT,
+        FINISH_REPEAT,
+        OTHER
+    }
+
+    private final List<Element> elements = new ArrayList<>();
+    private final List<Music> music = new ArrayList<>();
+    private final List<String> lyrics = new ArrayList<>();
+
+    // Abstraction function:
+    //    AF(elements, music, lyrics) = a voice whose i-th written element is of kind elements[i] and sounds music[i],
+    //       sung to the lyric tokens lyrics in written order
+    // Rep invariant:
+    //    elements and music have the same length
+    // Safety from rep exposure:
+    //    All fields are private; the lists are never returned
+    // Thread safety argument:
+    //    Not thread safe; each voice is assembled by one thread
+
+    private void checkRep() {
+        assert elements.size() == music.size();
+    }
+
+    /**
+     * Append a music element.
+     * @param element the kind of element
+     * @param elementMusic the music of the element, with duration 0 if it does not sound
+     */
+    void add(Element element, Music elementMusic) {
+        elements.add(element);
+        music.add(elementMusic);
+        checkRep();
+    }
+
+    /**
+     * Append a lyric token.
+     * @param token the text of a lyrical element or the end of a lyric line
+     */
+    void addLyric(String token) {
+        lyrics.add(token);
+    }
+
+    /**
+     * @return a Component of the voice's music, together with its lyrics if it has any
+     */
+    Music toMusic() {
+        // music elements in playing order, with each repeated section listed once
+        List<Section> sections = createSections(elements);
+        Music pieceMusic = concatSections(sections, music);
+        // if voice has no lyrics
+        if (lyrics.size() == 0) {
+            Component newComponent = new Component(Arrays.asList(pieceMusic));
+            return newComponent;
+        } else {
+            // create list of indices of notes which allows for a one to one mapping between a syllable and an element (representing the index of the note in music) in the list
+            List<Integer> indexListAfterRepeats = expandSections(sections);
+            // lyric at index i in lyricsNoRepeats corresponds to note at index i in music
+            List<String> lyricsNoRepeats = createAlignedLyricList();
+            List<String> lyricsWithRepeats = indexListAfterRepeats.stream().map(index -> lyricsNoRepeats.get(index)).collect(Collectors.toList());
+            List<Music> musicWithRepeats = indexListAfterRepeats.stream().map(index -> music.get(index)).collect(Collectors.toList());
+            List<Music> pieceLyricsList = new ArrayList<Music>();
+            for (int m = 0; m < lyricsWithRepeats.size()-1; m++) {
+                pieceLyricsList.add(createLyric(m, lyricsWithRepeats, musicWithRepeats));
+            }
+            Music pieceLyric = concatLyricSections(sections, pieceLyricsList);
+            return new Component(Arrays.asList(pieceLyric, pieceMusic));
+        }
+    }
+
+    /**
+     * @param m index into lyricsWithRepeats, 0 <= m < lyricsWithRepeats.size()-1
+     * @param lyricsWithRepeats the syllable sung with each music element, in playing order
+     * @param musicWithRepeats the music elements, in playing order
+     * @return the lyric for syllable m: its line with the syllable marked, lasting until the next syllable
+     */
+    private static Music createLyric(int m, List<String> lyricsWithRepeats, List<Music> musicWithRepeats) {
+        Rational duration = musicWithRepeats.get(m).exactDuration();
+        String lyric = lyricsWithRepeats.get(m);
+
+        int underscoreCount = 1;
+        while (lyricsWithRepeats.get(m+underscoreCount).equals("_")) {
+            duration = duration.plus(musicWithRepeats.get(m+underscoreCount).exactDuration());
+            underscoreCount++;
+        }
+
+        // expand left till newline
+        boolean searchingLeft = true;
+        String leftElement = "";
+        int l = m-1;
+        while (searchingLeft) {
+            if (l >= 0) {
+                if (lyricsWithRepeats.get(l).equals("\n")) {
+                    break;
+                } else {
+                    String lyricToAddLeft = lyricsWithRepeats.get(l).equals("_") ? " " : lyricsWithRepeats.get(l);
+                    leftElement = lyricToAddLeft + " " + leftElement;
+                }
+            } else {
+                break;
+            }
+            l--;
+        }
+
+        // expand right till newline
+        boolean searchingRight = true;
+        String rightElement = "";
+        int r = m+1;
+        while (searchingRight) {
+            if (r < lyricsWithRepeats.size()) {
+                if (lyricsWithRepeats.get(r).equals("\n")) {
+                    break;
+                } else {
+                    String lyricToAddRight = lyricsWithRepeats.get(r).equals("_") ? " " : lyricsWithRepeats.get(r);
+                    rightElement = rightElement + " " + lyricToAddRight;
+                }
+            } else {
+                break;
+            }
+            r++;
+        }
+        if (lyric.equals(" ")) {
+            return new Lyric(lyric, duration);
+        } else if (lyric.equals("_") | lyric.equals("\n")) {
+            return new Lyric(" ", Rational.ZERO);
+        }
+        else {
+            return new Lyric(leftElement + " <mark>" + lyric + "</mark> " + rightElement, duration);
+        }
+    }
+
+    /**
+     * A run of music elements in playing order: elements start..end-1 once, or, if repeated,
+     * elements start..end-1, then the first ending end..endingEnd-1, then start..end-1 again.
+     */
+    private static class Section {
+        private final int start;
+        private final int end;
+        private final int endingEnd;
+
+        Section(int start, int end, int endingEnd) {
+            this.start = start;
+            this.end = end;
+            this.endingEnd = endingEnd;
+        }
+
+        static Section once(int start, int end) {
+            return new Section(start, end, -1);
+        }
+
+        boolean repeated() {
+            return endingEnd >= 0;
+        }
+
+        /**
+         * @return the number of elements played, counting repeated elements each time they are played
+         */
+        int playedLength() {
+            return repeated() ? 2 * (end - start) + (endingEnd - end) : end - start;
+        }
+    }
+
+    /**
+     * Finds the repeats of a voice.
+     * A repeat with a first ending plays from its start through the element before [1, then the ending through :|;
+     * otherwise the body after |: (or after the last major barline) up to :| is played again.
+     * @param elements the kinds of the music elements of a voice, in written order
+     * @return the sections of the voice in playing order, which together cover every element
+     */
+    private static List<Section> createSections(List<Element> elements) {
+        List<Section> sections = new ArrayList<Section>();
+        int emitted = 0;
+        int startRepeat = 0;
+        int firstRepeat = -1;
+        boolean differentEnding = false;
+        boolean startRepeatCompleted = false;
+        for (int i = 0; i < elements.size(); i++) {
+            Element element = elements.get(i);
+            if (element == Element.START_REPEAT) {
+                startRepeat = i;
+                startRepeatCompleted = false;
+            }
+            else if (element == Element.FINISH_REPEAT) {
+                startRepeatCompleted = true;
+                final int bodyStart = differentEnding ? startRepeat : startRepeat + 1;
+                final int bodyEnd = Math.max(bodyStart, differentEnding ? firstRepeat : i);
+                differentEnding = false;
+                if (bodyStart >= emitted) {
+                    if (emitted < bodyStart) {
+                        sections.add(Section.once(emitted, bodyStart));
+                    }
+                    sections.add(new Section(bodyStart, bodyEnd, i + 1));
+                } else {
+                    // the body overlaps music already placed in another section, so it is played again as a copy
+                    sections.add(Section.once(emitted, i + 1));
+                    sections.add(Section.once(bodyStart, bodyEnd));
+                }
+                emitted = i + 1;
+            }
+            else if (element == Element.FIRST_REPEAT) {
+                differentEnding = true;
+                firstRepeat = i;
+            }
+            else if (element == Element.MAJOR_BARLINE) {
+                // a major barline at the end of a bar denotes the end of a major section
+                startRepeat = startRepeatCompleted ? i : startRepeat;
+            }
+        }
+        if (emitted < elements.size()) {
+            sections.add(Section.once(emitted, elements.size()));
+        }
+        return sections;
+    }
+
+    /**
+     * @param sections sections of a voice in playing order
+     * @return the index of every element played, in playing order, with repeated elements listed each time
+     */
+    private static List<Integer> expandSections(List<Section> sections) {
+        List<Integer> indexListAfterRepeats = new ArrayList<Integer>();
+        for (Section section : sections) {
+            addRange(indexListAfterRepeats, section.start, section.end);
+            if (section.repeated()) {
+                addRange(indexListAfterRepeats, section.end, section.endingEnd);
+                addRange(indexListAfterRepeats, section.start, section.end);
+            }
+        }
+        return indexListAfterRepeats;
+    }
+
+    private static void addRange(List<Integer> indexList, int a, int b) {
+        for (int i = a ; i < b; i++) {
+            indexList.add(i);
+        }
+    }
+
+    /**
+     * @param sections sections of a voice in playing order
+     * @param musicNoRepeats the music of each element, in written order
+     * @return the music of the voice, with each repeated body shared by both of its passes
+     */
+    private static Music concatSections(List<Section> sections, List<Music> musicNoRepeats) {
+        Music music = new Rest(0);
+        for (Section section : sections) {
+            if (section.repeated()) {
+                music = appendRepeat(music, sounding(musicNoRepeats.subList(section.start, section.end)),
+                        sounding(musicNoRepeats.subList(section.end, section.endingEnd)));
+            } else {
+                for (Music element : sounding(musicNoRepeats.subList(section.start, section.end))) {
+                    music = new Concat(music, element);
+                }
+            }
+        }
+        return music;
+    }
+
+    /**
+     * @param music music elements
+     * @return the elements of music that have a duration, in order
+     */
+    private static List<Music> sounding(List<Music> music) {
+        return music.stream().filter(element -> element.duration() > 0).collect(Collectors.toList());
+    }
+
+    /**
+     * @param music the music so far
+     * @param body the elements of a repeated body
+     * @param firstEnding the elements of the repeat's first ending
+     * @return music followed by body, firstEnding, and body again, with body shared by both passes
+     */
+    private static Music appendRepeat(Music music, List<Music> body, List<Music> firstEnding) {
+        if (body.isEmpty()) {
+            for (Music element : firstEnding) {
+                music = new Concat(music, element);
+            }
+            return music;
+        }
+        final Music bodyMusic = body.stream().reduce((m1, m2) -> new Concat(m1, m2)).get();
+        if (firstEnding.isEmpty()) {
+            return new Concat(music, new Repeat(bodyMusic));
+        }
+        final Music endingMusic = firstEnding.stream().reduce((m1, m2) -> new Concat(m1, m2)).get();
+        return new Concat(music, new Repeat(bodyMusic, endingMusic));
+    }
+
+    /**
+     * @param sections sections of a voice in playing order
+     * @param lyrics the lyric of each element played, in playing order; may be shorter than the sections
+     * @return the lyrics concatenated, sharing a repeated body's lyrics between its passes when they are the same
+     */
+    private static Music concatLyricSections(List<Section> sections, List<Music> lyrics) {
+        Music music = new Rest(0);
+        int played = 0;
+        for (Section section : sections) {
+            final int length = section.playedLength();
+            final int bodyLength = section.end - section.start;
+            final int secondPass = played + section.endingEnd - section.start;
+            if (section.repeated() && played + length <= lyrics.size()
+                    && lyrics.subList(played, played + bodyLength).equals(lyrics.subList(secondPass, secondPass + bodyLength))) {
+                music = appendRepeat(music, lyrics.subList(played, played + bodyLength),
+                        lyrics.subList(played + bodyLength, secondPass));
+            } else {
+                for (Music lyric : lyrics.subList(Math.min(played, lyrics.size()), Math.min(played + length, lyrics.size()))) {
+                    music = new Concat(music, lyric);
+                }
+            }
+            played += length;
+        }
+        return music;
+    }
+
+    /**
+     * @return the syllable sung with each music element, in written order
+     */
+    private List<String> createAlignedLyricList() {
+        List<String> alignedLyricList = new ArrayList<String>();
+        int i = 0;
+        while (i < lyrics.size()) {
+            String token = lyrics.get(i);
+            if (music.size() == alignedLyricList.size()) {
+                return alignedLyricList;
+            } else if (alignedLyricList.size() < music.size()) {
+                //case for when next music element is  a barline/repeat symbol
+                if (music.get(alignedLyricList.size()).duration() == 0.0) {
+                    alignedLyricList.add(" ");
+                }
+            }
+            switch (token) {
+                case "-":
+                    {
+                        if (lyrics.get(lyrics.size()-1).equals(" ") || lyrics.get(lyrics.size()-1).equals("-")) {
+                            alignedLyricList.add(" ");
+                        }
+                        break;
+                    }
+                case " ":
+                    {
+                        break;
+                    }
+                case "_":
+                    {
+                        alignedLyricList.add("_");
+                        break;
+                    }
+                case "*":
+                    {
+                        alignedLyricList.add(" ");
+                        break;
+                    }
+                case "~":
+                    {
+                        i++;
+                        while (lyrics.get(i).equals(" ")) {
+                            i++;
+                        }
+                        if (alignedLyricList.get(alignedLyricList.size()-1).equals(" ")) {
+                            alignedLyricList.set(alignedLyricList.size()-2, alignedLyricList.get(alignedLyricList.size()-2) + lyrics.get(i));
+                        } else {
+                            alignedLyricList.set(alignedLyricList.size()-1, alignedLyricList.get(alignedLyricList.size()-1) + lyrics.get(i));
+                        }
+                        break;
+                    }
+                case "\\-":
+                    {
+                        i++;
+                        while (lyrics.get(i).equals(" ")) {
+                            i++;
+                        }
+                        alignedLyricList.set(alignedLyricList.size()-1, alignedLyricList.get(alignedLyricList.size()-1) + "-" + lyrics.get(i));
+                        break;
+                    }
+                case "|":
+                    {
+                        while (elements.get(alignedLyricList.size()-1) == Element.NOTE) {
+                            alignedLyricList.add(" ");
+                        }
+                        break;
+                    }
+                case "\n":
+                    {
+                        alignedLyricList.add("\n");
+                        break;
+                    }
+                default:
+                    {
+                        alignedLyricList.add(token);
+                        break;
+                    }
+            }
+            i++;
+        }
+
+        while (alignedLyricList.size() < music.size()) {
+            //case for when next music element is  a barline/repeat symbol
+            alignedLyricList.add(" ");
+        }
+        return alignedLyricList;
+    }
+}
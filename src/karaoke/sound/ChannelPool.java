@@ -0,0 +1,100 @@
+package karaoke.sound;
+
+/**
+ * The MIDI channels of one synthesizer, given out to the players that share it, so that a player's instruments
+ * are not changed by another player's while both are playing.
+ * A player holds a channel of its own while one is free; after that, a channel can only be shared by players that
+ * play the same instrument on it.
+ */
+class ChannelPool {
+
+    // General MIDI plays drums on this channel whatever instrument it is given
+    private static final int PERCUSSION_CHANNEL = 9;
+
+    // the instrument last patched into each channel, or null if none has been
+    private final Instrument[] instruments;
+    // the number of players holding each channel
+    private final int[] holders;
+
+    // Abstraction function:
+    //    AF(instruments, holders) = the channels 0..instruments.length-1 but PERCUSSION_CHANNEL, of which channel c
+    //       is held by holders[c] players, all playing instruments[c] on it
+    // Rep invariant:
+    //    instruments.length == holders.length
+    //    holders[c] >= 0, and holders[c] > 0 implies instruments[c] != null
+    //    holders[PERCUSSION_CHANNEL] == 0
+    // Safety from rep exposure:
+    //    All fields are private, and the arrays are never returned
+    // Thread safety argument:
+    //    Every method is synchronized on this object, which guards both arrays
+
+    /**
+     * Make a pool with every channel free.
+     * @param channels the number of channels of the synthesizer, > 0
+     */
+    ChannelPool(int channels) {
+        this.instruments = new Instrument[channels];
+        this.holders = new int[channels];
+        checkRep();
+    }
+
+    private synchronized void checkRep() {
+        assert instruments.length == holders.length;
+        for (int c = 0; c < holders.length; c++) {
+            assert holders[c] >= 0 && (holders[c] == 0 || instruments[c] != null);
+        }
+        assert holders.length <= PERCUSSION_CHANNEL || holders[PERCUSSION_CHANNEL] == 0;
+    }
+
+    /**
+     * Take a channel to play an instrument on, until it is released: a free channel, preferring one that last
+     * played the instrument, or if none is free, a channel other players hold for the same instrument.
+     * @param instrument the instrument the caller patches into the channel
+     * @return the channel
+     * @throws RuntimeException if every channel is held for other instruments
+     */
+    synchronized int acquire(Instrument instrument) {
+        int chosen = -1;
+        for (int c = 0; c < holders.length; c++) {
+            if (c == PERCUSSION_CHANNEL || holders[c] > 0) {
+                continue;
+            }
+            if (chosen < 0 || instruments[c] == instrument) {
+                chosen = c;
+            }
+        }
+        if (chosen < 0) {
+            for (int c = 0; c < holders.length && chosen < 0; c++) {
+                if (holders[c] > 0 && instruments[c] == instrument) {
+                    chosen = c;
+                }
+            }
+        }
+        if (chosen < 0) {
+            throw new RuntimeException("Tried to use too many instruments: limited to " + holders.length
+                    + " channels, shared by every player");
+        }
+        instruments[chosen] = instrument;
+        holders[chosen]++;
+        checkRep();
+        return chosen;
+    }
+
+    /**
+     * Give back a channel.
+     * @param channel a channel acquired and not yet released by the caller
+     */
+    synchronized void release(int channel) {
+        assert holders[channel] > 0;
+        holders[channel]--;
+        checkRep();
+    }
+
+    /**
+     * @param channel a channel
+     * @return the number of players holding it
+     */
+    synchronized int holders(int channel) {
+        return holders[channel];
+    }
+}
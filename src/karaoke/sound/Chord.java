@@ -1,5 +1,6 @@
 package karaoke.sound;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -55,8 +56,17 @@ public class Chord implements Music {
     }
     
     @Override
-    public double duration() {
-        return this.music.get(0).duration();
+    public Rational exactDuration() {
+        return this.music.get(0).exactDuration();
+    }
+
+    @Override
+    public long ticksPerBeat() {
+        long ticksPerBeat = 1;
+        for (Music item : this.music) {
+            ticksPerBeat = Rational.lcm(ticksPerBeat, item.ticksPerBeat());
+        }
+        return ticksPerBeat;
     }
 
     @Override
@@ -68,22 +78,19 @@ public class Chord implements Music {
 
     @Override
     public Music transpose(int semitonesUp) {
-        List<Music> newMusic = new ArrayList<>();
-        for (Music chord: this.music) {
-            newMusic.add(chord.transpose(semitonesUp));
-        }
         checkRep();
-        return new Component(newMusic);
+        return semitonesUp == 0 ? this : new Transposed(this, semitonesUp);
     }
     
+    @Override
+    public void write(MusicWriter writer) throws IOException {
+        writer.chord(this.music);
+    }
+
     @Override
     public String toString() {
-        String result = "[";
-        for (Music note : this.music) {
-            result += note.toString();
-        }
         checkRep();
-        return result + "]";
+        return MusicText.of(this);
     }
 
     @Override
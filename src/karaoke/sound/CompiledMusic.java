@@ -0,0 +1,512 @@
+package karaoke.sound;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The notes and lyrics of one voice of a music, flattened into parallel primitive arrays
+ * of MIDI ticks so that it can be scheduled without walking the Music tree.
+ */
+public class CompiledMusic {
+
+    // MIDI note number representing middle C
+    private static final int MIDI_NOTE_MIDDLE_C = 60;
+    private static final int MAX_MIDI_NOTE = 127;
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Largest resolution compile(music, voice) chooses, the most a standard MIDI file can store.
+     */
+    public static final int MAX_TICKS_PER_BEAT = 0x7FFF;
+    /**
+     * Resolution compile(music, voice) falls back to when a music needs more than MAX_TICKS_PER_BEAT;
+     * it divides evenly into halves, thirds, quarters, fifths, sixths and eighths of a beat.
+     */
+    public static final int FALLBACK_TICKS_PER_BEAT = 960;
+
+    private final int ticksPerBeat;
+
+    // note i starts at startTick[i], lasts durationTicks[i], and plays midiKey[i] on channel[i]
+    private final long[] startTick;
+    private final int[] durationTicks;
+    private final byte[] midiKey;
+    private final byte[] channel;
+    private final Instrument[] channelInstrument;
+
+    // lyric line i is lyricText[lyricRef[i]], written at lyricTick[i]
+    private final long[] lyricTick;
+    private final int[] lyricRef;
+    private final String[] lyricText;
+
+    // Abstraction function:
+    //    AF(ticksPerBeat, startTick, durationTicks, midiKey, channel, channelInstrument, lyricTick, lyricRef, lyricText) =
+    //       a schedule at ticksPerBeat ticks per beat that plays, for each i, MIDI note midiKey[i] with instrument
+    //       channelInstrument[channel[i]] from tick startTick[i] for durationTicks[i] ticks, and writes, for each j,
+    //       the lyric line lyricText[lyricRef[j]] at tick lyricTick[j]
+    // Rep invariant:
+    //    ticksPerBeat > 0
+    //    startTick, durationTicks, midiKey, channel have the same length; likewise lyricTick and lyricRef
+    //    startTick and lyricTick are sorted in nondecreasing order and are >= 0
+    //    durationTicks[i] >= 0, 0 <= midiKey[i] <= 127, 0 <= channel[i] < channelInstrument.length
+    //    0 <= lyricRef[j] < lyricText.length
+    // Safety from rep exposure:
+    //    All fields are private and final
+    //    The arrays are created by compile() and never returned; accessors return single elements;
+    //    withoutLyrics() shares them with another CompiledMusic, which never mutates them either
+    // Thread safety argument:
+    //    This class is thread safe because it is immutable:
+    //       - There are no mutator methods in this class
+    //       - The arrays are filled before the constructor returns and never mutated afterwards
+    //       - The rep is not exposed to the client
+
+    private CompiledMusic(int ticksPerBeat, long[] startTick, int[] durationTicks, byte[] midiKey, byte[] channel,
+            Instrument[] channelInstrument, long[] lyricTick, int[] lyricRef, String[] lyricText) {
+        this.ticksPerBeat = ticksPerBeat;
+        this.startTick = startTick;
+        this.durationTicks = durationTicks;
+        this.midiKey = midiKey;
+        this.channel = channel;
+        this.channelInstrument = channelInstrument;
+        this.lyricTick = lyricTick;
+        this.lyricRef = lyricRef;
+        this.lyricText = lyricText;
+        checkRep();
+    }
+
+    /**
+     * Checks the rep invariant
+     */
+    private void checkRep() {
+        assert ticksPerBeat > 0;
+        assert durationTicks.length == startTick.length;
+        assert midiKey.length == startTick.length;
+        assert channel.length == startTick.length;
+        assert lyricRef.length == lyricTick.length;
+        for (int i = 1; i < startTick.length; i++) {
+            assert startTick[i - 1] <= startTick[i];
+        }
+        for (int i = 1; i < lyricTick.length; i++) {
+            assert lyricTick[i - 1] <= lyricTick[i];
+        }
+    }
+
+    /**
+     * Compile one voice of a music at a resolution that represents every note and lyric exactly.
+     * @param music the music to compile
+     * @param voice the voice whose lyrics are included, or "" for every voice without lyrics
+     * @return the notes and lyrics that music.play(player, 0, lyricStream, voice) would schedule,
+     *         at ticksPerBeat(music) ticks per beat
+     * @throws IllegalArgumentException if a note is outside the MIDI range
+     */
+    public static CompiledMusic compile(Music music, String voice) {
+        return compile(music, voice, ticksPerBeat(music));
+    }
+
+    /**
+     * @param music a music
+     * @return the smallest multiple of music.ticksPerBeat() that is at least
+     *         MidiSequencePlayer.DEFAULT_TICKS_PER_BEAT, so that the sequencer's clock is no coarser than before,
+     *         or FALLBACK_TICKS_PER_BEAT if that multiple is more than MAX_TICKS_PER_BEAT
+     */
+    public static int ticksPerBeat(Music music) {
+        final long exact;
+        try {
+            exact = music.ticksPerBeat();
+        } catch (ArithmeticException e) {
+            return FALLBACK_TICKS_PER_BEAT;
+        }
+        if (exact > MAX_TICKS_PER_BEAT) {
+            return FALLBACK_TICKS_PER_BEAT;
+        }
+        final long minimum = MidiSequencePlayer.DEFAULT_TICKS_PER_BEAT;
+        final long multiple = (minimum + exact - 1) / exact * exact;
+        return multiple <= MAX_TICKS_PER_BEAT ? (int) multiple : (int) exact;
+    }
+
+    /**
+     * Compile one voice of a music.
+     * Each note's start and end are summed exactly as rationals and converted to the nearest tick, a half tick
+     * rounded up as MidiSequencePlayer rounds; at a multiple of music.ticksPerBeat() every note starts and ends on
+     * a whole tick, so no note is moved or shortened.
+     * @param music the music to compile
+     * @param voice the voice whose lyrics are included, or "" for every voice without lyrics
+     * @param ticksPerBeat the number of MIDI ticks per beat, > 0
+     * @return the notes and lyrics that music.play(player, 0, lyricStream, voice) would schedule
+     * @throws IllegalArgumentException if a note is outside the MIDI range
+     */
+    public static CompiledMusic compile(Music music, String voice, int ticksPerBeat) {
+        Compiler compiler = new Compiler(ticksPerBeat, voice);
+        compiler.walk(music, Rational.ZERO);
+        return compiler.build();
+    }
+
+    /**
+     * @return the number of MIDI ticks per beat
+     */
+    public int ticksPerBeat() {
+        return this.ticksPerBeat;
+    }
+
+    /**
+     * @return the number of notes, which are indexed in order of start tick
+     */
+    public int noteCount() {
+        return this.startTick.length;
+    }
+
+    /**
+     * @param i note index, 0 <= i < noteCount()
+     * @return the tick at which note i starts
+     */
+    public long startTick(int i) {
+        return this.startTick[i];
+    }
+
+    /**
+     * @param i note index, 0 <= i < noteCount()
+     * @return the number of ticks note i lasts
+     */
+    public int durationTicks(int i) {
+        return this.durationTicks[i];
+    }
+
+    /**
+     * @param i note index, 0 <= i < noteCount()
+     * @return the MIDI note number of note i, where middle C is 60
+     */
+    public int midiKey(int i) {
+        return this.midiKey[i];
+    }
+
+    /**
+     * @param i note index, 0 <= i < noteCount()
+     * @return the pitch of note i
+     */
+    public Pitch pitch(int i) {
+        return Pitch.MIDDLE_C.transpose(this.midiKey[i] - MIDI_NOTE_MIDDLE_C);
+    }
+
+    /**
+     * @param i note index, 0 <= i < noteCount()
+     * @return the channel of note i, 0 <= channel < channelCount()
+     */
+    public int channel(int i) {
+        return this.channel[i];
+    }
+
+    /**
+     * @return the number of channels, one for each distinct instrument in order of first use
+     */
+    public int channelCount() {
+        return this.channelInstrument.length;
+    }
+
+    /**
+     * @param channel 0 <= channel < channelCount()
+     * @return the instrument played on channel
+     */
+    public Instrument instrument(int channel) {
+        return this.channelInstrument[channel];
+    }
+
+    /**
+     * @return the number of lyric lines, which are indexed in order of tick
+     */
+    public int lyricCount() {
+        return this.lyricTick.length;
+    }
+
+    /**
+     * @param i lyric index, 0 <= i < lyricCount()
+     * @return the tick at which lyric line i is written
+     */
+    public long lyricTick(int i) {
+        return this.lyricTick[i];
+    }
+
+    /**
+     * @param i lyric index, 0 <= i < lyricCount()
+     * @return lyric line i
+     */
+    public String lyric(int i) {
+        return this.lyricText[this.lyricRef[i]];
+    }
+
+    /**
+     * @param i lyric index, 0 <= i < lyricCount()
+     * @return the index after the last lyric line at the same tick as line i, so that lines i until the result
+     *         are written together
+     */
+    public int lyricTickEnd(int i) {
+        int end = i + 1;
+        while (end < this.lyricTick.length && this.lyricTick[end] == this.lyricTick[i]) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * @param from lyric index, 0 <= from <= to
+     * @param to lyric index, to <= lyricCount()
+     * @return lyric lines from until to, each followed by "<br>", encoded in UTF-8 as a subscriber is sent them
+     */
+    public byte[] lyricBytes(int from, int to) {
+        final StringBuilder lines = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            lines.append(lyric(i)).append("<br>");
+        }
+        return lines.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * @return the same notes as this, with no lyrics
+     */
+    public CompiledMusic withoutLyrics() {
+        return new CompiledMusic(ticksPerBeat, startTick, durationTicks, midiKey, channel, channelInstrument,
+                new long[0], new int[0], new String[0]);
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledMusic(" + noteCount() + " notes, " + lyricCount() + " lyrics, "
+                + channelCount() + " channels, " + this.ticksPerBeat + " ticks per beat)";
+    }
+
+    /**
+     * MusicWriter that walks one voice of a music, recording the notes and lyrics that playing it would schedule
+     * into growable primitive arrays.
+     */
+    private static class Compiler implements MusicWriter {
+
+        private final int ticksPerBeat;
+        private final String voice;
+
+        // the beat at which the music being walked starts
+        private Rational at = Rational.ZERO;
+        // the number of semitones every note of the music being walked is raised by
+        private int semitonesUp = 0;
+
+        private int notes = 0;
+        private long[] startTick = new long[INITIAL_CAPACITY];
+        private int[] durationTicks = new int[INITIAL_CAPACITY];
+        private byte[] midiKey = new byte[INITIAL_CAPACITY];
+        private byte[] channel = new byte[INITIAL_CAPACITY];
+        private final Map<Instrument, Integer> channelForInstrument = new HashMap<>();
+        private final List<Instrument> channelInstrument = new ArrayList<>();
+
+        private int lyrics = 0;
+        private long[] lyricTick = new long[INITIAL_CAPACITY];
+        private int[] lyricRef = new int[INITIAL_CAPACITY];
+        private final Map<String, Integer> refForLyric = new HashMap<>();
+        private final List<String> lyricText = new ArrayList<>();
+
+        /**
+         * @param ticksPerBeat the number of MIDI ticks per beat, > 0
+         * @param voice the voice whose lyrics are recorded, or "" for every voice without lyrics
+         */
+        Compiler(int ticksPerBeat, String voice) {
+            this.ticksPerBeat = ticksPerBeat;
+            this.voice = voice;
+        }
+
+        /**
+         * Record the notes and lyrics of a music.
+         * @param music the music
+         * @param start the beat at which it starts
+         */
+        void walk(Music music, Rational start) {
+            final Rational outer = at;
+            at = start;
+            try {
+                music.write(this);
+            } catch (IOException e) {
+                throw new AssertionError("compiling writes no output", e);
+            } finally {
+                at = outer;
+            }
+        }
+
+        @Override
+        public void note(Pitch pitch, Rational duration, Instrument instrument) {
+            final int key = MIDI_NOTE_MIDDLE_C + pitch.difference(Pitch.MIDDLE_C) + semitonesUp;
+            if (key < 0 || key > MAX_MIDI_NOTE) {
+                throw new IllegalArgumentException("pitch " + pitch.transpose(semitonesUp)
+                        + " is outside the MIDI range");
+            }
+            if (notes == startTick.length) {
+                final int capacity = notes * 2;
+                startTick = Arrays.copyOf(startTick, capacity);
+                durationTicks = Arrays.copyOf(durationTicks, capacity);
+                midiKey = Arrays.copyOf(midiKey, capacity);
+                channel = Arrays.copyOf(channel, capacity);
+            }
+            final long start = tick(at);
+            final long end = tick(at.plus(duration));
+            startTick[notes] = start;
+            durationTicks[notes] = (int) (end - start);
+            midiKey[notes] = (byte) key;
+            channel[notes] = (byte) channelFor(instrument);
+            notes++;
+        }
+
+        /**
+         * @param beat a beat >= 0
+         * @return the tick nearest beat, a half tick rounded up as MidiSequencePlayer rounds, computed exactly
+         */
+        private long tick(Rational beat) {
+            final Rational ticks = beat.times(ticksPerBeat);
+            final long whole = Math.floorDiv(ticks.numerator(), ticks.denominator());
+            final long remainder = Math.floorMod(ticks.numerator(), ticks.denominator());
+            return remainder >= ticks.denominator() - remainder ? whole + 1 : whole;
+        }
+
+        private int channelFor(Instrument instr) {
+            Integer existing = channelForInstrument.get(instr);
+            if (existing != null) {
+                return existing;
+            }
+            final int next = channelInstrument.size();
+            channelInstrument.add(instr);
+            channelForInstrument.put(instr, next);
+            return next;
+        }
+
+        @Override
+        public void rest(Rational duration) {
+            // nothing sounds
+        }
+
+        @Override
+        public void lyric(String lyric, Rational duration) {
+            if (voice.isEmpty() || lyric.isEmpty() || lyric.equals(" ")) {
+                return;
+            }
+            if (lyrics == lyricTick.length) {
+                final int capacity = lyrics * 2;
+                lyricTick = Arrays.copyOf(lyricTick, capacity);
+                lyricRef = Arrays.copyOf(lyricRef, capacity);
+            }
+            Integer ref = refForLyric.get(lyric);
+            if (ref == null) {
+                ref = lyricText.size();
+                lyricText.add(lyric);
+                refForLyric.put(lyric, ref);
+            }
+            lyricTick[lyrics] = tick(at);
+            lyricRef[lyrics] = ref;
+            lyrics++;
+        }
+
+        @Override
+        public void chord(List<Music> notes) {
+            component(notes);
+        }
+
+        @Override
+        public void tuplet(List<Music> notes, Rational duration) {
+            final Rational length = duration.dividedBy(notes.size());
+            for (int i = 0; i < notes.size(); i++) {
+                walk(notes.get(i), at.plus(length.times(i)));
+            }
+        }
+
+        @Override
+        public void concat(List<Music> parts) {
+            Rational start = at;
+            for (Music part : parts) {
+                walk(part, start);
+                start = start.plus(part.exactDuration());
+            }
+        }
+
+        @Override
+        public void component(List<Music> parts) {
+            for (Music part : parts) {
+                walk(part, at);
+            }
+        }
+
+        @Override
+        public void transposed(Music music, int semitonesUp) {
+            this.semitonesUp += semitonesUp;
+            try {
+                walk(music, at);
+            } finally {
+                this.semitonesUp -= semitonesUp;
+            }
+        }
+
+        @Override
+        public void repeat(Music body) {
+            walk(body, at);
+            walk(body, at.plus(body.exactDuration()));
+        }
+
+        @Override
+        public void repeat(Music body, Music firstEnding) {
+            final Rational endingStart = at.plus(body.exactDuration());
+            walk(body, at);
+            walk(firstEnding, endingStart);
+            walk(body, endingStart.plus(firstEnding.exactDuration()));
+        }
+
+        @Override
+        public void piece(Header header, Map<String, Music> voiceToMusic) {
+            if (!voice.isEmpty()) {
+                walk(voiceToMusic.get(voice), at);
+            } else {
+                for (Music music : voiceToMusic.values()) {
+                    walk(music, at);
+                }
+            }
+        }
+
+        /**
+         * @return the recorded notes and lyrics, each sorted stably by tick
+         */
+        CompiledMusic build() {
+            final Integer[] noteOrder = sortedOrder(startTick, notes);
+            final long[] sortedStart = new long[notes];
+            final int[] sortedDuration = new int[notes];
+            final byte[] sortedKey = new byte[notes];
+            final byte[] sortedChannel = new byte[notes];
+            for (int i = 0; i < notes; i++) {
+                final int from = noteOrder[i];
+                sortedStart[i] = startTick[from];
+                sortedDuration[i] = durationTicks[from];
+                sortedKey[i] = midiKey[from];
+                sortedChannel[i] = channel[from];
+            }
+
+            final Integer[] lyricOrder = sortedOrder(lyricTick, lyrics);
+            final long[] sortedLyricTick = new long[lyrics];
+            final int[] sortedLyricRef = new int[lyrics];
+            for (int i = 0; i < lyrics; i++) {
+                final int from = lyricOrder[i];
+                sortedLyricTick[i] = lyricTick[from];
+                sortedLyricRef[i] = lyricRef[from];
+            }
+
+            return new CompiledMusic(ticksPerBeat, sortedStart, sortedDuration, sortedKey, sortedChannel,
+                    channelInstrument.toArray(new Instrument[channelInstrument.size()]),
+                    sortedLyricTick, sortedLyricRef, lyricText.toArray(new String[lyricText.size()]));
+        }
+
+        private static Integer[] sortedOrder(long[] ticks, int size) {
+            final Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            // object sort is stable, so events at the same tick keep the order they were scheduled in
+            Arrays.sort(order, Comparator.comparingLong(i -> ticks[i]));
+            return order;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package karaoke.sound;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -47,8 +48,17 @@ private final boolean hasLyrics;
     }
     
     @Override
-    public double duration() {
-        return this.music.get(0).duration();
+    public Rational exactDuration() {
+        return this.music.get(0).exactDuration();
+    }
+
+    @Override
+    public long ticksPerBeat() {
+        long ticksPerBeat = 1;
+        for (Music item : this.music) {
+            ticksPerBeat = Rational.lcm(ticksPerBeat, item.ticksPerBeat());
+        }
+        return ticksPerBeat;
     }
 
     @Override
@@ -60,22 +70,19 @@ private final boolean hasLyrics;
 
     @Override
     public Music transpose(int semitonesUp) {
-        List<Music> newMusic = new ArrayList<>();
-        for (Music component: this.music) {
-            newMusic.add(component.transpose(semitonesUp));
-        }
         checkRep();
-        return new Component(newMusic);
+        return semitonesUp == 0 ? this : new Transposed(this, semitonesUp);
     }
     
+    @Override
+    public void write(MusicWriter writer) throws IOException {
+        writer.component(this.music);
+    }
+
     @Override
     public String toString() {
-        String result = "{";
-        for (Music note : this.music) {
-            result += note.toString();
-        }
         checkRep();
-        return result + "}";
+        return MusicText.of(this);
     }
 
     @Override
@@ -94,11 +101,7 @@ private final boolean hasLyrics;
     
     @Override
     public String getLyrics(String voice) {
-        String lyrics = "";
-        for (Music element: this.music) {
-            lyrics += element.getLyrics(voice);
-        }
-        return lyrics;
+        return LyricText.of(this, voice);
     }
     
     /**
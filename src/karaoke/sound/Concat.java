@@ -1,7 +1,11 @@
 package karaoke.sound;
 
+import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
 
 /**
@@ -45,26 +49,61 @@ public class Concat implements Music {
     }
 
     @Override
-    public double duration() {
-        return music1.duration() + music2.duration();
+    public Rational exactDuration() {
+        return music1.exactDuration().plus(music2.exactDuration());
+    }
+
+    @Override
+    public long ticksPerBeat() {
+        return Rational.lcm(music1.ticksPerBeat(), music2.ticksPerBeat());
     }
     
     @Override
     public void play(SequencePlayer player, double atBeat, OutputStream lyricStream, String voice) throws InterruptedException {
-        this.music1.play(player, atBeat, lyricStream, voice);
-        this.music2.play(player, atBeat + this.music1.duration(), lyricStream, voice);
+        // each part's offset is summed exactly and converted to beats once, so a song of thirds and fifths does not
+        // accumulate rounding error along the chain
+        Rational offset = Rational.ZERO;
+        for (Music part : this.parts()) {
+            part.play(player, atBeat + offset.doubleValue(), lyricStream, voice);
+            offset = offset.plus(part.exactDuration());
+        }
     }
 
     @Override
     public Music transpose(int semitonesUp) {
         checkRep();
-        return new Concat(this.music1.transpose(semitonesUp), this.music2.transpose(semitonesUp));
+        return semitonesUp == 0 ? this : new Transposed(this, semitonesUp);
+    }
+
+    @Override
+    public void write(MusicWriter writer) throws IOException {
+        writer.concat(Collections.unmodifiableList(this.parts()));
     }
 
-    @Override 
+    /**
+     * @return the music played one after another, none of which is itself a concatenation
+     */
+    private List<Music> parts() {
+        // a song is a chain of Concats as long as the song, so flatten it without recursing
+        final List<Music> parts = new ArrayList<>();
+        final Deque<Music> toFlatten = new ArrayDeque<>();
+        toFlatten.push(this);
+        while (!toFlatten.isEmpty()) {
+            final Music music = toFlatten.pop();
+            if (music instanceof Concat) {
+                toFlatten.push(((Concat) music).music2);
+                toFlatten.push(((Concat) music).music1);
+            } else {
+                parts.add(music);
+            }
+        }
+        return parts;
+    }
+
+    @Override
     public String toString() {
         checkRep();
-        return this.music1.toString() + this.music2.toString();
+        return MusicText.of(this);
     }
     
     @Override
@@ -82,7 +121,7 @@ public class Concat implements Music {
 
     @Override
     public String getLyrics(String voice) {
-        return this.music1.getLyrics(voice) + this.music2.getLyrics(voice);
+        return LyricText.of(this, voice);
     }
     
 }
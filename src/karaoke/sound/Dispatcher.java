@@ -0,0 +1,402 @@
+package karaoke.sound;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.time.Duration;
+import java.util.LongSummaryStatistics;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Plays a timeline of MIDI short messages and actions in real time, on a thread of its own.
+ * The timeline is read a window of ticks at a time, as a sorted EventBuffer. Each event is due at a
+ * System.nanoTime() computed from where playback was last anchored, so lateness never accumulates; the thread
+ * parks until shortly before an event is due and spins for the rest.
+ */
+class Dispatcher implements Runnable {
+
+    /**
+     * Something to do at a tick.
+     */
+    interface Action {
+        /**
+         * Do it, on the dispatcher's thread.
+         * @param tick the tick it was scheduled at
+         * @param dueNanos the value of System.nanoTime() at which it was due
+         */
+        void run(long tick, long dueNanos);
+    }
+
+    /**
+     * The events a dispatcher plays.
+     */
+    interface Timeline {
+        /**
+         * Move to the first event at or after a tick. Called with the dispatcher's lock held.
+         * @param tick tick >= 0
+         */
+        void seek(long tick);
+
+        /**
+         * Add every event before a tick that has not been added since the last seek, in any order, except that
+         * events at the same tick are added in the order they should run. Called with the dispatcher's lock held.
+         * @param window buffer to add them to
+         * @param until tick
+         * @return false iff there is no event at or after until
+         */
+        boolean fill(EventBuffer window, long until);
+    }
+
+    // how long before an event is due the thread stops parking and spins
+    private static final long SPIN_NANOS = 300_000;
+    // how long the thread lets the last notes ring before closing the receiver
+    private static final long FINISH_MILLIS = Duration.ofSeconds(1).toMillis();
+    // Thread.onSpinWait(), which tells the processor the thread is spinning so that it can yield to other threads on
+    // the same core, or null on Java 8, which does not have it
+    private static final MethodHandle ON_SPIN_WAIT = findOnSpinWait();
+    private static final int MIDI_CHANNELS = 16;
+    private static final int MIDI_KEYS = 128;
+
+    private final Receiver receiver;
+    private final Timeline timeline;
+    private final long windowTicks;
+    private final Consumer<RuntimeException> failed;
+    private final Thread thread;
+
+    // the events of the current window, sorted, and the next one to dispatch
+    private final EventBuffer window = new EventBuffer();
+    private int next = 0;
+    // every event before this tick has been added to a window since the last seek
+    private long windowEnd;
+    private boolean more = true;
+
+    private Anchor anchor;
+    private boolean paused;
+    private boolean finished = false;
+    // how many times each key of each channel, at index channel * MIDI_KEYS + key, has been turned on by this
+    // dispatcher and not yet off
+    private final int[] sounding = new int[MIDI_CHANNELS * MIDI_KEYS];
+    // incremented by every change of anchor or pause, so that the thread looks again at what it is waiting for
+    private volatile long generation = 0;
+
+    private final LongSummaryStatistics lateness = new LongSummaryStatistics();
+
+    // Abstraction function:
+    //    AF(receiver, timeline, windowTicks, failed, window, next, windowEnd, more, anchor, paused, finished,
+    //       sounding, lateness) =
+    //       playback of timeline to receiver, which has dispatched window's events before next and will dispatch
+    //       the rest of them, then the events of timeline from windowEnd on if more, each when anchor says it is
+    //       due, unless paused; finished iff it has dispatched them all; sounding counts the notes it has playing
+    //       on receiver; failed is told of every action that throws; lateness summarizes how late each dispatch
+    //       started, in nanoseconds
+    // Rep invariant:
+    //    0 <= next <= window.size()
+    //    windowTicks > 0
+    //    every event of window is before windowEnd
+    //    every element of sounding >= 0
+    // Safety from rep exposure:
+    //    All fields are private; getLateness() returns a copy
+    // Thread safety argument:
+    //    Every field but the final ones and generation is guarded by this object's lock, and timeline is only
+    //    called with it held; generation is volatile, so that the thread can see a change while it waits without
+    //    the lock. Messages are sent with the lock held, so that sounding always matches what receiver has been
+    //    sent; actions run without it, so that an action can take as long as it must.
+
+    /**
+     * Tick that was reached at a moment, and the time each tick takes from then on. Immutable.
+     */
+    private static class Anchor {
+        private final long nanos;
+        private final double tick;
+        private final double nanosPerTick;
+
+        Anchor(long nanos, double tick, double nanosPerTick) {
+            this.nanos = nanos;
+            this.tick = tick;
+            this.nanosPerTick = nanosPerTick;
+        }
+
+        long dueNanos(long tick) {
+            return nanos + Math.round((tick - this.tick) * nanosPerTick);
+        }
+
+        double tickAt(long nanos) {
+            return tick + (nanos - this.nanos) / nanosPerTick;
+        }
+    }
+
+    /**
+     * Make a dispatcher, which does nothing until started.
+     * @param receiver receives the MIDI short messages, and is closed when playback finishes
+     * @param timeline the events to play
+     * @param windowTicks number > 0 of ticks of the timeline to read at a time
+     * @param failed told, on the dispatcher's thread, of every exception an action throws; playback goes on
+     */
+    Dispatcher(Receiver receiver, Timeline timeline, long windowTicks, Consumer<RuntimeException> failed) {
+        this.receiver = receiver;
+        this.timeline = timeline;
+        this.windowTicks = windowTicks;
+        this.failed = failed;
+        this.thread = new Thread(this, "Karaoke Dispatcher");
+        // as the JDK's sequencer does
+        thread.setPriority(Thread.NORM_PRIORITY + (Thread.MAX_PRIORITY - Thread.NORM_PRIORITY) * 3 / 4);
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert 0 <= next && next <= window.size();
+        assert windowTicks > 0;
+    }
+
+    private static MethodHandle findOnSpinWait() {
+        try {
+            return MethodHandles.lookup().findStatic(Thread.class, "onSpinWait", MethodType.methodType(void.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Call Thread.onSpinWait() if the JDK has it, once per turn of a spin loop.
+     */
+    private static void onSpinWait() {
+        if (ON_SPIN_WAIT == null) {
+            return;
+        }
+        try {
+            ON_SPIN_WAIT.invokeExact();
+        } catch (Throwable t) {
+            throw new AssertionError("Thread.onSpinWait() throws nothing", t);
+        }
+    }
+
+    /**
+     * @param status status byte of a MIDI short message, with its channel
+     * @param data1 first data byte
+     * @param data2 second data byte
+     * @return the message packed into an int, for EventBuffer
+     */
+    static int shortMessage(int status, int data1, int data2) {
+        return status | data1 << 8 | data2 << 16;
+    }
+
+    /**
+     * Start playback. May be called only once.
+     * @param tick tick >= 0 to start from
+     * @param nanosPerTick time > 0 each tick takes
+     * @param paused true to wait for resume() before dispatching anything
+     */
+    synchronized void start(long tick, double nanosPerTick, boolean paused) {
+        this.paused = paused;
+        moveTo(tick, nanosPerTick);
+        thread.start();
+    }
+
+    /**
+     * Stop dispatching where playback is, until resume(), and silence every note this dispatcher has playing.
+     * Does nothing if already paused or if playback has finished.
+     * @return false iff playback has finished
+     */
+    synchronized boolean pause() {
+        if (paused || finished) {
+            return !finished;
+        }
+        final long now = System.nanoTime();
+        anchor = new Anchor(now, anchor.tickAt(now), anchor.nanosPerTick);
+        paused = true;
+        changed();
+        silence();
+        return true;
+    }
+
+    /**
+     * Continue dispatching from where playback was paused. Does nothing if not paused or if playback has finished.
+     * @return false iff playback has finished
+     */
+    synchronized boolean resume() {
+        if (!paused || finished) {
+            return !finished;
+        }
+        anchor = new Anchor(System.nanoTime(), anchor.tick, anchor.nanosPerTick);
+        paused = false;
+        changed();
+        return true;
+    }
+
+    /**
+     * Change how long a tick takes, from where playback is on. Does nothing if playback has finished.
+     * @param nanosPerTick time > 0 each tick takes
+     * @return false iff playback has finished
+     */
+    synchronized boolean setNanosPerTick(double nanosPerTick) {
+        if (finished) {
+            return false;
+        }
+        final long now = System.nanoTime();
+        anchor = new Anchor(now, paused ? anchor.tick : anchor.tickAt(now), nanosPerTick);
+        changed();
+        return true;
+    }
+
+    /**
+     * Move playback to a tick, silencing every note this dispatcher has playing, and dispatch the timeline's events from there on, even those
+     * dispatched before. Does nothing if playback has finished.
+     * @param tick tick >= 0
+     * @return false iff playback has finished
+     */
+    synchronized boolean seek(long tick) {
+        if (finished) {
+            return false;
+        }
+        moveTo(tick, anchor.nanosPerTick);
+        changed();
+        silence();
+        return true;
+    }
+
+    /**
+     * @return how late each dispatch so far started, in nanoseconds
+     */
+    synchronized LongSummaryStatistics getLateness() {
+        final LongSummaryStatistics copy = new LongSummaryStatistics();
+        copy.combine(lateness);
+        return copy;
+    }
+
+    /**
+     * Requires the lock.
+     */
+    private void moveTo(long tick, double nanosPerTick) {
+        timeline.seek(tick);
+        window.clear();
+        next = 0;
+        windowEnd = tick;
+        more = true;
+        anchor = new Anchor(System.nanoTime(), tick, nanosPerTick);
+        checkRep();
+    }
+
+    /**
+     * Make the thread look again at what it is waiting for. Requires the lock.
+     */
+    private void changed() {
+        generation++;
+        notifyAll();
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Turn off every note this dispatcher has playing, and no other, since other dispatchers may be playing on the
+     * same receiver and channels. Requires the lock.
+     */
+    private void silence() {
+        for (int i = 0; i < sounding.length; i++) {
+            while (sounding[i] > 0) {
+                send(shortMessage(ShortMessage.NOTE_OFF | i / MIDI_KEYS, i % MIDI_KEYS, 0));
+            }
+        }
+    }
+
+    /**
+     * Send a message, counting the notes it turns on or off. Requires the lock.
+     */
+    private void send(int message) {
+        final int command = message & 0xF0;
+        final int key = message >> 8 & 0xFF;
+        final int velocity = message >> 16 & 0xFF;
+        final int note = (message & 0x0F) * MIDI_KEYS + key;
+        if (command == ShortMessage.NOTE_ON && velocity > 0) {
+            sounding[note]++;
+        } else if ((command == ShortMessage.NOTE_OFF || command == ShortMessage.NOTE_ON) && sounding[note] > 0) {
+            sounding[note]--;
+        }
+        try {
+            receiver.send(new ShortMessage(message & 0xFF, message >> 8 & 0xFF, message >> 16 & 0xFF), -1);
+        } catch (InvalidMidiDataException imde) {
+            throw new AssertionError("messages are checked when they are scheduled", imde);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (dispatchNext()) {
+                // until every event is dispatched
+            }
+            Thread.sleep(FINISH_MILLIS);
+        } catch (InterruptedException ie) {
+            // finish now
+        } finally {
+            receiver.close();
+        }
+    }
+
+    /**
+     * Wait until the next event is due and dispatch it, or just return if something changes meanwhile.
+     * @return false iff every event has been dispatched
+     * @throws InterruptedException if interrupted while paused
+     */
+    private boolean dispatchNext() throws InterruptedException {
+        final long tick;
+        final int message;
+        final Action action;
+        final long dueNanos;
+        final long waitingFor;
+        synchronized (this) {
+            while (paused) {
+                wait();
+            }
+            while (next == window.size()) {
+                if (!more) {
+                    finished = true;
+                    return false;
+                }
+                window.clear();
+                next = 0;
+                more = timeline.fill(window, windowEnd + windowTicks);
+                windowEnd += windowTicks;
+                window.sort();
+            }
+            tick = window.tick(next);
+            message = window.message(next);
+            action = window.action(next);
+            dueNanos = anchor.dueNanos(tick);
+            waitingFor = generation;
+        }
+
+        for (long remaining = dueNanos - System.nanoTime(); remaining > 0; remaining = dueNanos - System.nanoTime()) {
+            if (generation != waitingFor) {
+                return true;
+            }
+            if (remaining > SPIN_NANOS) {
+                LockSupport.parkNanos(this, remaining - SPIN_NANOS);
+            } else {
+                onSpinWait();
+            }
+        }
+
+        synchronized (this) {
+            if (generation != waitingFor) {
+                return true;
+            }
+            next++;
+            lateness.accept(System.nanoTime() - dueNanos);
+            if (action == null) {
+                send(message);
+                return true;
+            }
+        }
+        try {
+            action.run(tick, dueNanos);
+        } catch (RuntimeException re) {
+            // keep playing for everyone else, as the JDK's sequencer does for its listeners
+            failed.accept(re);
+        }
+        return true;
+    }
+}
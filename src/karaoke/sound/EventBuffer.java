@@ -0,0 +1,180 @@
+package karaoke.sound;
+
+import java.util.Arrays;
+
+/**
+ * Events at ticks, in growable primitive arrays. Each event is either a MIDI short message packed into an int by
+ * Dispatcher.shortMessage(), or an action.
+ * Mutable and not thread safe.
+ */
+class EventBuffer {
+
+    // bits of a sort key that hold the index of an event, below its tick
+    private static final int INDEX_BITS = 24;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] ticks = new long[INITIAL_CAPACITY];
+    private int[] messages = new int[INITIAL_CAPACITY];
+    private Dispatcher.Action[] actions = new Dispatcher.Action[INITIAL_CAPACITY];
+    private int size = 0;
+
+    // Abstraction function:
+    //    AF(ticks, messages, actions, size) = the events i in [0, size), in order, each at ticks[i], which run
+    //       actions[i] if it is non-null and otherwise send messages[i]
+    // Rep invariant:
+    //    ticks, messages and actions are non-null and have the same length >= size
+    //    ticks[i] >= 0 for i in [0, size)
+    //    actions[i] is null for i in [size, actions.length)
+    // Safety from rep exposure:
+    //    All fields are private, and no array is returned or taken from a client
+    // Thread safety argument:
+    //    This class is not thread safe; its users guard it
+
+    private void checkRep() {
+        assert ticks.length == messages.length && ticks.length == actions.length;
+        assert size <= ticks.length;
+    }
+
+    /**
+     * Add a MIDI short message as the last event.
+     * @param tick tick >= 0 of the event
+     * @param message message packed by Dispatcher.shortMessage()
+     */
+    void add(long tick, int message) {
+        add(tick, message, null);
+    }
+
+    /**
+     * Add an action as the last event.
+     * @param tick tick >= 0 of the event
+     * @param action action to run at tick
+     */
+    void add(long tick, Dispatcher.Action action) {
+        add(tick, 0, action);
+    }
+
+    /**
+     * Add a copy of an event of another buffer as the last event.
+     * @param from buffer
+     * @param i index in [0, from.size()) of the event
+     */
+    void add(EventBuffer from, int i) {
+        add(from.ticks[i], from.messages[i], from.actions[i]);
+    }
+
+    private void add(long tick, int message, Dispatcher.Action action) {
+        assert tick >= 0 : "should be at a nonnegative tick";
+        if (size == ticks.length) {
+            ticks = Arrays.copyOf(ticks, size * 2);
+            messages = Arrays.copyOf(messages, size * 2);
+            actions = Arrays.copyOf(actions, size * 2);
+        }
+        ticks[size] = tick;
+        messages[size] = message;
+        actions[size] = action;
+        size++;
+    }
+
+    /**
+     * @return the number of events
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param i index in [0, size())
+     * @return the tick of event i
+     */
+    long tick(int i) {
+        return ticks[i];
+    }
+
+    /**
+     * @param i index in [0, size()) of an event that has no action
+     * @return the packed MIDI short message of event i
+     */
+    int message(int i) {
+        return messages[i];
+    }
+
+    /**
+     * @param i index in [0, size())
+     * @return the action of event i, or null if it is a MIDI short message
+     */
+    Dispatcher.Action action(int i) {
+        return actions[i];
+    }
+
+    /**
+     * Remove every event.
+     */
+    void clear() {
+        Arrays.fill(actions, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Sort the events by tick, keeping events at the same tick in the order they were added.
+     */
+    void sort() {
+        assert size <= 1 << INDEX_BITS : "too many events to sort";
+        final long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            assert ticks[i] < 1L << (Long.SIZE - 1 - INDEX_BITS) : "tick too large to sort";
+            keys[i] = ticks[i] << INDEX_BITS | i;
+        }
+        Arrays.sort(keys);
+        final int[] sortedMessages = new int[messages.length];
+        final Dispatcher.Action[] sortedActions = new Dispatcher.Action[actions.length];
+        for (int i = 0; i < size; i++) {
+            final int from = (int) (keys[i] & ((1 << INDEX_BITS) - 1));
+            ticks[i] = keys[i] >>> INDEX_BITS;
+            sortedMessages[i] = messages[from];
+            sortedActions[i] = actions[from];
+        }
+        messages = sortedMessages;
+        actions = sortedActions;
+        checkRep();
+    }
+
+    /**
+     * Requires the events to be sorted by tick.
+     * @param tick tick >= 0
+     * @return the index of the first event at or after tick, or size() if there is none
+     */
+    int firstAt(long tick) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (ticks[middle] < tick) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Move the events before a tick to the end of another buffer, in order, keeping the rest in order.
+     * @param until tick
+     * @param to buffer to add them to, not this one
+     */
+    void moveBefore(long until, EventBuffer to) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (ticks[i] < until) {
+                to.add(ticks[i], messages[i], actions[i]);
+            } else {
+                ticks[kept] = ticks[i];
+                messages[kept] = messages[i];
+                actions[kept] = actions[i];
+                kept++;
+            }
+        }
+        Arrays.fill(actions, kept, size, null);
+        size = kept;
+    }
+}
@@ -15,7 +15,7 @@ public class Header {
     private final String key;
     private final String title;
     private final List<String> voices;
-    private final double noteLength;
+    private final Rational noteLength;
     private final double meter;
     private final int index;
     private final double bpm;
@@ -41,8 +41,8 @@ public class Header {
     private static final double DEFAULT_BPM = 100.0;
     private static final int DENOM = 3;
     private static final double THREE_QUARTERS = 0.75;
-    private static final double SIXTEEN = 16.0;
-    private static final double EIGHT = 8.0;
+    private static final int SIXTEEN = 16;
+    private static final int EIGHT = 8;
     private static final int LAST = 4;
     
     /**
@@ -72,9 +72,9 @@ public class Header {
            String noteLengthFractionString = headerMap.get('L');
            int noteLengthNumerator = Integer.parseInt(noteLengthFractionString.substring(0, 1));
            int noteLengthDenominator = Integer.parseInt(noteLengthFractionString.substring(2, DENOM));
-           this.noteLength = (double) noteLengthNumerator / (double) noteLengthDenominator;
+           this.noteLength = Rational.of(noteLengthNumerator, noteLengthDenominator);
        } else {
-           this.noteLength = this.meter < THREE_QUARTERS ? 1.0/SIXTEEN : 1.0/EIGHT;
+           this.noteLength = Rational.of(1, this.meter < THREE_QUARTERS ? SIXTEEN : EIGHT);
        }
        
        if (headerMap.containsKey('Q')) {
@@ -82,7 +82,7 @@ public class Header {
            int tempoNumerator = Integer.parseInt(tempoFractionString.substring(0, 1));
            int tempoDenominator = Integer.parseInt(tempoFractionString.substring(2, DENOM));
            double tempo = (double) tempoNumerator / (double) tempoDenominator;
-           this.bpm = (tempo/this.noteLength) * ((double) Integer.parseInt(tempoFractionString.substring(LAST)));
+           this.bpm = (tempo/this.getNoteLength()) * ((double) Integer.parseInt(tempoFractionString.substring(LAST)));
        } else {
            this.bpm = DEFAULT_BPM;
        }  
@@ -136,6 +136,13 @@ public class Header {
     * @return the default note length
     */
    public double getNoteLength() {
+       return this.noteLength.doubleValue();
+   }
+   
+   /**
+    * @return the default note length, exactly
+    */
+   public Rational getExactNoteLength() {
        return this.noteLength;
    }
    
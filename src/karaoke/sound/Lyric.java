@@ -1,11 +1,8 @@
 package karaoke.sound;
 
 
+import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-
-import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * Music Object that only holds lyrics 
@@ -14,7 +11,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 public class Lyric implements Music {
 
     private final String lyric;
-    private final double duration;
+    private final Rational duration;
 
     // Abstraction Function:
     //    AF(lyric, duration) = A Lyric object that represents a lyric for a certain duration of beats
@@ -37,6 +34,15 @@ public class Lyric implements Music {
      * @param beats the duration of the syllable in s
      */
     public Lyric(String lyric, double beats) {
+        this(lyric, Rational.valueOf(beats));
+    }
+
+    /**
+     * 
+     * @param lyric the lyric syllable
+     * @param beats the exact duration of the syllable in beats
+     */
+    public Lyric(String lyric, Rational beats) {
         this.lyric = lyric;
         this.duration = beats;
         checkRep();
@@ -51,32 +57,50 @@ public class Lyric implements Music {
     }
     
     @Override
-    public double duration() {
+    public Rational exactDuration() {
         return this.duration;
     }
 
+    @Override
+    public long ticksPerBeat() {
+        return this.duration.denominator();
+    }
+
     @Override
     public void play(SequencePlayer player, double atBeat, OutputStream lyricStream, String voice) {
         if (!voice.isEmpty()) {
-            PrintWriter lyricOut = new PrintWriter(new OutputStreamWriter(lyricStream, UTF_8), true);
-            player.addEvent(atBeat, x -> {
-                if(!this.lyric.isEmpty()  && !this.lyric.equals(" ")) {
-                    lyricOut.write(this.lyric + "<br>");
-                    lyricOut.flush();
-                }
-            });
+            player.addLyric(atBeat, this.lyric, lyricStream);
         }
     }
 
     @Override
     public Music transpose(int semitonesUp) {
         checkRep();
-        return new Lyric(this.lyric, this.duration);
+        return this;
     }
     
+    @Override
+    public void write(MusicWriter writer) throws IOException {
+        writer.lyric(this.lyric, this.duration);
+    }
+
     @Override
     public String toString() {
-        return this.lyric + this.duration();
+        return MusicText.of(this);
+    }
+    
+    @Override
+    public boolean equals(Object that) {
+        return that instanceof Lyric && sameVal((Lyric)that);
+    }
+    
+    private boolean sameVal(Lyric that) {
+        return this.lyric.equals(that.lyric) && this.duration.equals(that.duration);
+    }
+    
+    @Override
+    public int hashCode() {
+        return this.lyric.hashCode() + this.duration.hashCode();
     }
     
     @Override
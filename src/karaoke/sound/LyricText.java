@@ -0,0 +1,135 @@
+package karaoke.sound;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MusicWriter that builds the text Music.getLyrics(voice) returns, or only finds whether it is empty,
+ * appending each lyric once so that the time taken is linear in the length of the music.
+ */
+class LyricText implements MusicWriter {
+
+    private final String voice;
+    // null if only looking for the first lyric
+    private final StringBuilder text;
+    private boolean found = false;
+
+    // Abstraction function:
+    //    AF(voice, text, found) = the lyrics of voice written so far, which are text if text is not null,
+    //       and are nonempty iff found
+    // Rep invariant:
+    //    text == null || found == (text.length() > 0)
+    // Safety from rep exposure:
+    //    All fields are private; text is only copied out by of()
+    // Thread safety argument:
+    //    Not thread safe; each instance is confined to the call of of() or has() that creates it
+
+    private LyricText(String voice, boolean buildText) {
+        this.voice = voice;
+        this.text = buildText ? new StringBuilder() : null;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert text == null || found == (text.length() > 0);
+    }
+
+    /**
+     * @param music a music
+     * @param voice a voice of music
+     * @return music.getLyrics(voice), built in one pass
+     */
+    static String of(Music music, String voice) {
+        final LyricText writer = new LyricText(voice, true);
+        writer.write(music);
+        return writer.text.toString();
+    }
+
+    /**
+     * @param music a music
+     * @param voice a voice of music
+     * @return true iff music.getLyrics(voice) is not empty, stopping at the first lyric without building any text
+     */
+    static boolean has(Music music, String voice) {
+        final LyricText writer = new LyricText(voice, false);
+        writer.write(music);
+        return writer.found;
+    }
+
+    private void write(Music music) {
+        try {
+            music.write(this);
+        } catch (IOException e) {
+            throw new AssertionError("appending to a StringBuilder cannot fail", e);
+        }
+    }
+
+    private boolean done() {
+        return found && text == null;
+    }
+
+    @Override
+    public void lyric(String lyric, Rational duration) {
+        found |= !lyric.isEmpty();
+        if (text != null) {
+            text.append(lyric);
+        }
+    }
+
+    @Override
+    public void note(Pitch pitch, Rational duration, Instrument instrument) {}
+
+    @Override
+    public void rest(Rational duration) {}
+
+    @Override
+    public void chord(List<Music> notes) {}
+
+    @Override
+    public void tuplet(List<Music> notes, Rational duration) {}
+
+    @Override
+    public void concat(List<Music> parts) throws IOException {
+        for (Music part : parts) {
+            if (!done()) {
+                part.write(this);
+            }
+        }
+    }
+
+    @Override
+    public void component(List<Music> parts) throws IOException {
+        concat(parts);
+    }
+
+    @Override
+    public void transposed(Music music, int semitonesUp) throws IOException {
+        music.write(this);
+    }
+
+    @Override
+    public void repeat(Music body) throws IOException {
+        body.write(this);
+        if (!done()) {
+            body.write(this);
+        }
+    }
+
+    @Override
+    public void repeat(Music body, Music firstEnding) throws IOException {
+        body.write(this);
+        if (!done()) {
+            firstEnding.write(this);
+            body.write(this);
+        }
+    }
+
+    @Override
+    public void piece(Header header, Map<String, Music> voiceToMusic) throws IOException {
+        final Music music = voiceToMusic.get(voice);
+        if (music != null) {
+            music.write(this);
+        }
+    }
+}
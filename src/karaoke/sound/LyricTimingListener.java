@@ -0,0 +1,22 @@
+package karaoke.sound;
+
+/**
+ * Receives timing measurements for each write of lyric lines a player makes, one per tick that has lyrics.
+ * Called on the player's timing thread, so implementations should be quick and thread safe.
+ */
+public interface LyricTimingListener {
+
+    /**
+     * Listener that ignores every measurement.
+     */
+    public static final LyricTimingListener NONE = (dispatchLagNanos, writeNanos, sinceStartNanos) -> {};
+
+    /**
+     * Called after the lyric lines due at a tick have been written and flushed.
+     * @param dispatchLagNanos how late the write started compared to the lines' scheduled time, in nanoseconds;
+     *                         negative if it started early
+     * @param writeNanos how long writing and flushing the lines took, in nanoseconds
+     * @param sinceStartNanos time from the start of playback until the write finished, in nanoseconds
+     */
+    public void lyricWritten(long dispatchLagNanos, long writeNanos, long sinceStartNanos);
+}
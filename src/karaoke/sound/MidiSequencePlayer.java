@@ -1,18 +1,24 @@
 package karaoke.sound;
 
-import java.math.BigInteger;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.text.MessageFormat;
-import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.LongSummaryStatistics;
 import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.function.Consumer;
 
 import javax.sound.midi.*;
 
 /**
  * Schedules and plays a sequence of notes using the MIDI synthesizer.
+ * Notes and callbacks are played on one timeline by a Dispatcher, which sends MIDI messages straight to the
+ * synthesizer's receiver. Every player shares one synthesizer, whose channels each player takes from a shared
+ * ChannelPool and gives back when its playback finishes, so that players do not change each other's instruments.
  */
 public class MidiSequencePlayer implements SequencePlayer {
 
@@ -28,47 +34,157 @@ public class MidiSequencePlayer implements SequencePlayer {
     // the volume
     private static final int DEFAULT_VELOCITY = 100;
 
-    // the generic marker meta message type
-    private static final int META_MARKER = 6;
-    // the "end_of_track" meta message type
-    private static final int META_END_OF_TRACK = 47;
-
     // MIDI note number representing middle C
     private static final int MIDI_NOTE_MIDDLE_C = 60;
-    
-    private final Synthesizer synthesizer;
 
-    // active MIDI channels, assigned to instruments
-    private final Map<Instrument, Integer> channelForInstrument = new HashMap<>();
+    private static final double NANOS_PER_MINUTE = 60e9;
+
+    // how many seconds of the timeline the dispatcher reads at a time, at the starting tempo
+    private static final double WINDOW_SECONDS = 4;
+
+    // opened and loaded with the default soundbank once, by the first player made or by warmUp(); guarded by the class
+    private static Synthesizer sharedSynthesizer = null;
+    // the channels of sharedSynthesizer, made with it; guarded by the class
+    private static ChannelPool sharedChannels = null;
+
+    private final ChannelPool channels;
+    private final Receiver receiver;
 
-    // next available channel number (not assigned to an instrument yet)
-    private int nextChannel = 0;
+    // MIDI channels taken from channels, assigned to instruments; given back when playback finishes
+    private final Map<Instrument, Integer> channelForInstrument = new HashMap<>();
 
-    private final Sequencer sequencer;
-    private final Track track;
     private final int beatsPerMinute;
     private final int ticksPerBeat;
+    private final long windowTicks;
+
+    // events scheduled one at a time, in the order scheduled until play() sorts them by tick
+    private final EventBuffer events = new EventBuffer();
+    // compiled music, whose events are read from its arrays a window at a time
+    private final List<Source> sources = new ArrayList<>();
+
+    // plays events and sources, from play() on
+    private Dispatcher dispatcher = null;
+    // System.nanoTime() when play() was called, read by lyric actions on the dispatcher's thread
+    private volatile long playStartNanos;
+
+    // told of every callback or lyric write that throws during playback
+    private Consumer<RuntimeException> failureListener = failure -> {};
+
+    // playback controls; set before play(), they take effect when it starts
+    private boolean paused = false;
+    private int currentBeatsPerMinute;
+    private long startTick = 0;
 
-    // event callback functions
-    private final SortedMap<Integer, Consumer<Double>> callbacks = new TreeMap<>();
-    private final MetaMessage keepalive = new MetaMessage(META_MARKER, new byte[] { 0 }, 1);
+    // the timeline's position, guarded by the dispatcher's lock: the next of events to read, and the note-offs of
+    // sources that are after every window read so far
+    private int nextEvent = 0;
+    private final EventBuffer noteOffs = new EventBuffer();
+
+    /**
+     * Compiled music whose events are read a window at a time, from its next note and next lyric line on.
+     * Mutable, guarded by the dispatcher's lock once playing.
+     */
+    private static class Source {
+        private final CompiledMusic compiled;
+        private final long offset;
+        // the channel for each of compiled's channels, or null if its notes are not played
+        private final int[] channels;
+        // the subscribers to its lyrics, or null if its lyrics are not sent
+        private final Map<OutputStream, LyricTimingListener> subscribers;
+        private int nextNote = 0;
+        private int nextLyric = 0;
+
+        Source(CompiledMusic compiled, long offset, int[] channels, Map<OutputStream, LyricTimingListener> subscribers) {
+            this.compiled = compiled;
+            this.offset = offset;
+            this.channels = channels;
+            this.subscribers = subscribers;
+        }
+
+        /**
+         * Move to the first note and lyric line at or after a tick.
+         * @param tick tick of the player
+         */
+        void seek(long tick) {
+            nextNote = 0;
+            while (nextNote < compiled.noteCount() && offset + compiled.startTick(nextNote) < tick) {
+                nextNote++;
+            }
+            nextLyric = 0;
+            while (nextLyric < compiled.lyricCount() && offset + compiled.lyricTick(nextLyric) < tick) {
+                nextLyric = compiled.lyricTickEnd(nextLyric);
+            }
+        }
+
+        /**
+         * @return true iff a note or lyric line is left to read
+         */
+        boolean hasMore() {
+            return (channels != null && nextNote < compiled.noteCount())
+                    || (subscribers != null && nextLyric < compiled.lyricCount());
+        }
+    }
 
     /*
      * Rep invariant:
-     *   sequencer and track are non-null,
-     *   beatsPerMinute and ticksPerBeat are positive,
-     *   channels and callbacks are non-null,
-     *   channels does not contain value nextChannel
+     *   channels and receiver are non-null,
+     *   beatsPerMinute, ticksPerBeat and windowTicks are positive,
+     *   channelForInstrument, events and sources are non-null,
+     *   channelForInstrument has distinct values, each held from channels by this player,
+     *   currentBeatsPerMinute is positive, startTick is nonnegative
+     *
+     * Thread safety argument:
+     *   every field but the final ones, playStartNanos and the timeline's position is guarded by this object's lock;
+     *   events and sources are not changed once dispatcher is set, and the dispatcher reads them only through
+     *   the timeline, with its own lock held; playStartNanos is volatile
      */
 
     private void checkRep() {
-        assert sequencer != null : "sequencer should be non-null";
-        assert track != null : "track should be non-null";
+        assert channels != null : "channels should be non-null";
+        assert receiver != null : "receiver should be non-null";
         assert beatsPerMinute >= 0 : "should be positive number of beats per minute";
         assert ticksPerBeat >= 0 : "should be positive number of ticks per beat";
-        assert callbacks != null : "callbacks should be non-null";
-        assert callbacks.keySet().stream().allMatch(n -> n >= 1) : "callback numbers should be positive";
-        assert ! channelForInstrument.values().contains(nextChannel) : "nextChannel should not be assigned";
+        assert windowTicks > 0 : "should read a positive number of ticks at a time";
+        assert events != null && sources != null : "events and sources should be non-null";
+        assert new HashSet<>(channelForInstrument.values()).size() == channelForInstrument.size()
+                : "each instrument should have a channel of its own";
+        assert currentBeatsPerMinute > 0 : "should be positive number of beats per minute";
+        assert startTick >= 0 : "should start at a nonnegative tick";
+    }
+
+    /**
+     * Open the synthesizer shared by every player and load its default soundbank, which takes long enough
+     * that a server should do it before its first playback rather than during it.
+     * Does nothing if it was already done.
+     * @throws MidiUnavailableException if MIDI device unavailable
+     */
+    public static void warmUp() throws MidiUnavailableException {
+        sharedSynthesizer();
+    }
+
+    /**
+     * @return the synthesizer shared by every player, opening it and loading its default soundbank the first time
+     * @throws MidiUnavailableException if MIDI device unavailable
+     */
+    private static synchronized Synthesizer sharedSynthesizer() throws MidiUnavailableException {
+        if (sharedSynthesizer == null) {
+            final Synthesizer synthesizer = MidiSystem.getSynthesizer();
+            synthesizer.open();
+            synthesizer.loadAllInstruments(synthesizer.getDefaultSoundbank());
+            sharedSynthesizer = synthesizer;
+        }
+        return sharedSynthesizer;
+    }
+
+    /**
+     * @return the channels of the synthesizer shared by every player, opening it the first time
+     * @throws MidiUnavailableException if MIDI device unavailable
+     */
+    private static synchronized ChannelPool sharedChannels() throws MidiUnavailableException {
+        if (sharedChannels == null) {
+            sharedChannels = new ChannelPool(sharedSynthesizer().getChannels().length);
+        }
+        return sharedChannels;
     }
 
     /**
@@ -83,28 +199,30 @@ public class MidiSequencePlayer implements SequencePlayer {
     /**
      * Make a new MIDI sequence player.
      * @param beatsPerMinute the number of beats per minute
-     * @param ticksPerBeat the number of ticks per beat; every note plays for an integer number of ticks
+     * @param ticksPerBeat the number of ticks per beat; every note starts and ends on the nearest tick,
+     *                     so music plays exactly at any multiple of music.ticksPerBeat()
      * @throws MidiUnavailableException if MIDI device unavailable
      * @throws InvalidMidiDataException if MIDI play fails
      */
     public MidiSequencePlayer(int beatsPerMinute, int ticksPerBeat)
             throws MidiUnavailableException, InvalidMidiDataException {
-        synthesizer = MidiSystem.getSynthesizer();
-        synthesizer.open();
-        synthesizer.loadAllInstruments(synthesizer.getDefaultSoundbank());
-
-        this.sequencer = MidiSystem.getSequencer();
+        this(sharedChannels(), sharedSynthesizer().getReceiver(), beatsPerMinute, ticksPerBeat);
+    }
 
-        // create a sequence object with with tempo-based timing, where
-        // the resolution of the time step is based on ticks per quarter note
-        Sequence sequence = new Sequence(Sequence.PPQ, ticksPerBeat);
+    /**
+     * Make a new MIDI sequence player that sends its messages to a given receiver.
+     * @param channels the channels of the receiver's synthesizer, shared with every other player sending to it
+     * @param receiver receives every MIDI message played, and is closed when playback finishes
+     * @param beatsPerMinute the number of beats per minute
+     * @param ticksPerBeat the number of ticks per beat
+     */
+    MidiSequencePlayer(ChannelPool channels, Receiver receiver, int beatsPerMinute, int ticksPerBeat) {
+        this.channels = channels;
+        this.receiver = receiver;
         this.beatsPerMinute = beatsPerMinute;
+        this.currentBeatsPerMinute = beatsPerMinute;
         this.ticksPerBeat = ticksPerBeat;
-
-        // create an empty track; notes will be added to this track
-        this.track = sequence.createTrack();
-
-        sequencer.setSequence(sequence);
+        this.windowTicks = Math.max(1, Math.round(WINDOW_SECONDS * beatsPerMinute * ticksPerBeat / 60));
 
         checkRep();
     }
@@ -114,10 +232,10 @@ public class MidiSequencePlayer implements SequencePlayer {
         int channel = getChannel(instr);
         int note = getMidiNote(pitch);
         try {
-            // schedule two events in the track, one for starting a note and
+            // schedule two events, one for starting a note and
             // the other for ending the note.
-            addMidiNoteEvent(ShortMessage.NOTE_ON, channel, note, (int) (startBeat * ticksPerBeat));
-            addMidiNoteEvent(ShortMessage.NOTE_OFF, channel, note, (int) ((startBeat + numBeats) * ticksPerBeat));
+            addMidiEvent(ShortMessage.NOTE_ON, channel, note, Math.round(startBeat * ticksPerBeat));
+            addMidiEvent(ShortMessage.NOTE_OFF, channel, note, Math.round((startBeat + numBeats) * ticksPerBeat));
         } catch (InvalidMidiDataException imde) {
             String msg = MessageFormat.format("Cannot add note with the pitch {0} at beat {1} " +
                                               "for duration {2}", note, startBeat, numBeats);
@@ -126,110 +244,308 @@ public class MidiSequencePlayer implements SequencePlayer {
     }
 
     /**
-     * Schedule a MIDI note event.
-     * @param eventType valid MidiMessage type in ShortMessage
+     * Schedule a MIDI short message.
+     * @param command valid command in ShortMessage
      * @param channel valid channel
-     * @param note valid pitch value
+     * @param data1 valid first data byte for command
      * @param tick tick >= 0
-     * @throws InvalidMidiDataException
+     * @throws InvalidMidiDataException if the message is not valid
      */
-    private void addMidiNoteEvent(int eventType, int channel, int note, int tick) throws InvalidMidiDataException {
-        ShortMessage msg = new ShortMessage(eventType, channel, note, DEFAULT_VELOCITY);
-        this.track.add(new MidiEvent(msg, tick));
+    private synchronized void addMidiEvent(int command, int channel, int data1, long tick)
+            throws InvalidMidiDataException {
+        checkNotPlaying();
+        ShortMessage msg = new ShortMessage(command, channel, data1, DEFAULT_VELOCITY);
+        events.add(tick, Dispatcher.shortMessage(msg.getStatus(), msg.getData1(), msg.getData2()));
     }
 
     @Override
-    public void addEvent(double atBeat, Consumer<Double> callback) {
-        int callbackNumber = saveCallback(callback);
-        try {
-            addMidiMetaEvent(callbackNumber, (int) (atBeat * ticksPerBeat));
-        } catch (InvalidMidiDataException imde) {
-            throw new RuntimeException("Cannot add event at beat " + atBeat, imde);
-        }
+    public synchronized void addEvent(double atBeat, Consumer<Double> callback) {
+        checkNotPlaying();
+        events.add(Math.round(atBeat * ticksPerBeat), (tick, dueNanos) -> callback.accept(tick / (double) ticksPerBeat));
     }
 
-    private int saveCallback(Consumer<Double> callback) {
-        int key = callbacks.isEmpty() ? 1 : callbacks.lastKey() + 1;
-        callbacks.put(key, callback);
-        checkRep();
-        return key;
+    /**
+     * Schedule every note and lyric of a compiled music directly from its arrays, which are read a window at a time
+     * during playback.
+     * @param compiled music compiled with this player's ticks per beat
+     * @param atBeat the beat at which the compiled music starts
+     * @param lyricStream the output stream for lyrics
+     */
+    @Override
+    public void addCompiled(CompiledMusic compiled, double atBeat, OutputStream lyricStream) {
+        addCompiled(compiled, atBeat, lyricStream, LyricTimingListener.NONE);
     }
 
     /**
-     * Schedule a MIDI meta event.
-     * @param callback active callback number
-     * @param tick tick >= 0
-     * @throws InvalidMidiDataException
+     * Schedule every note and lyric of a compiled music directly from its arrays, which are read a window at a time
+     * during playback, reporting how late and how slow each lyric write is.
+     * @param compiled music compiled with this player's ticks per beat
+     * @param atBeat the beat at which the compiled music starts
+     * @param lyricStream the output stream for lyrics
+     * @param listener told about every write of lyric lines to lyricStream, one per tick that has lyrics
      */
-    private void addMidiMetaEvent(int callback, int tick) throws InvalidMidiDataException {
-        byte[] bytes = BigInteger.valueOf(callback).toByteArray();
-        MetaMessage msg = new MetaMessage(META_MARKER, bytes, bytes.length);
-        this.track.add(new MidiEvent(msg, tick));
-        this.track.add(new MidiEvent(keepalive, tick+1));
+    public void addCompiled(CompiledMusic compiled, double atBeat, OutputStream lyricStream, LyricTimingListener listener) {
+        checkTicksPerBeat(compiled);
+        final int[] channels = new int[compiled.channelCount()];
+        for (int c = 0; c < channels.length; c++) {
+            channels[c] = getChannel(compiled.instrument(c));
+        }
+        addSource(new Source(compiled, Math.round(atBeat * ticksPerBeat), channels, null));
+        addLyrics(compiled, atBeat, Collections.singletonMap(lyricStream, listener));
     }
 
+    /**
+     * Schedule every lyric line of a compiled music for several subscribers at once, read from its arrays a window
+     * at a time during playback, with one write per tick that has lyrics, reporting to each subscriber's listener how
+     * late and how slow its write is.
+     * Writes are made on the dispatcher's thread, between MIDI messages, so the streams should not block.
+     * @param compiled music compiled with this player's ticks per beat, whose notes are not scheduled
+     * @param atBeat the beat at which the compiled music starts
+     * @param subscribers the output stream of each subscriber, with the listener told about its writes;
+     *                    an IOException from a stream is ignored, as PrintWriter would
+     */
     @Override
-    public void play() {
-        try {
-            sequencer.open();
-        } catch (MidiUnavailableException mue) {
-            throw new RuntimeException("Unable to open MIDI sequencer", mue);
+    public void addLyrics(CompiledMusic compiled, double atBeat, Map<OutputStream, LyricTimingListener> subscribers) {
+        checkTicksPerBeat(compiled);
+        addSource(new Source(compiled, Math.round(atBeat * ticksPerBeat), null, subscribers));
+    }
+
+    private synchronized void addSource(Source source) {
+        checkNotPlaying();
+        sources.add(source);
+    }
+
+    /**
+     * @param compiled a compiled music
+     * @throws IllegalArgumentException if compiled is not at this player's ticks per beat
+     */
+    private void checkTicksPerBeat(CompiledMusic compiled) {
+        if (compiled.ticksPerBeat() != this.ticksPerBeat) {
+            throw new IllegalArgumentException("compiled at " + compiled.ticksPerBeat()
+                    + " ticks per beat, but player uses " + this.ticksPerBeat);
+        }
+    }
+
+    /**
+     * Requires the lock.
+     * @throws IllegalStateException if play() was called
+     */
+    private void checkNotPlaying() {
+        if (dispatcher != null) {
+            throw new IllegalStateException("cannot schedule music once playing");
         }
-        sequencer.setTempoInBPM(this.beatsPerMinute);
-
-        sequencer.addMetaEventListener(meta -> {
-            if (meta.getType() == META_MARKER) {
-                // trigger event callback
-                int callbackNumber = new BigInteger(meta.getData()).intValue();
-                if (callbackNumber > 0) {
-                    callbacks.remove(callbackNumber).accept(sequencer.getTickPosition() / (double)ticksPerBeat);
+    }
+
+    /**
+     * @param lines the lyric lines at a tick, encoded
+     * @param subscribers the output stream of each subscriber, with the listener told about its writes
+     * @return action that writes lines to every subscriber
+     */
+    private Dispatcher.Action lyricAction(byte[] lines, Map<OutputStream, LyricTimingListener> subscribers) {
+        return (tick, dueNanos) -> {
+            final long start = playStartNanos;
+            for (Map.Entry<OutputStream, LyricTimingListener> subscriber : subscribers.entrySet()) {
+                final long dispatched = System.nanoTime();
+                try {
+                    subscriber.getKey().write(lines);
+                    subscriber.getKey().flush();
+                } catch (IOException e) {
+                    continue;
                 }
-            } else if (meta.getType() == META_END_OF_TRACK) {
-                // allow the sequencer to finish
-                try { Thread.sleep(Duration.ofSeconds(1).toMillis()); } catch (InterruptedException ie) { }
-                // stop & close the sequencer
-                sequencer.stop();
-                sequencer.close();
+                final long written = System.nanoTime();
+                subscriber.getValue().lyricWritten(dispatched - dueNanos, written - dispatched, written - start);
             }
-        });
+        };
+    }
 
-        // start playing!
-        System.out.println("Playing...");
-        sequencer.start();
+    /**
+     * The events and sources, read by the dispatcher with its lock held.
+     */
+    private class Timeline implements Dispatcher.Timeline {
+
+        @Override
+        public void seek(long tick) {
+            nextEvent = events.firstAt(tick);
+            noteOffs.clear();
+            for (Source source : sources) {
+                source.seek(tick);
+            }
+        }
+
+        @Override
+        public boolean fill(EventBuffer window, long until) {
+            for (; nextEvent < events.size() && events.tick(nextEvent) < until; nextEvent++) {
+                window.add(events, nextEvent);
+            }
+            noteOffs.moveBefore(until, window);
+            boolean more = nextEvent < events.size() || noteOffs.size() > 0;
+            for (Source source : sources) {
+                fillNotes(source, window, until);
+                fillLyrics(source, window, until);
+                more |= source.hasMore() || noteOffs.size() > 0;
+            }
+            return more;
+        }
+
+        private void fillNotes(Source source, EventBuffer window, long until) {
+            final CompiledMusic compiled = source.compiled;
+            for (; source.channels != null && source.nextNote < compiled.noteCount()
+                    && source.offset + compiled.startTick(source.nextNote) < until; source.nextNote++) {
+                final int i = source.nextNote;
+                final int channel = source.channels[compiled.channel(i)];
+                final long start = source.offset + compiled.startTick(i);
+                final long end = start + compiled.durationTicks(i);
+                window.add(start, Dispatcher.shortMessage(ShortMessage.NOTE_ON | channel,
+                        compiled.midiKey(i), DEFAULT_VELOCITY));
+                (end < until ? window : noteOffs).add(end, Dispatcher.shortMessage(ShortMessage.NOTE_OFF | channel,
+                        compiled.midiKey(i), DEFAULT_VELOCITY));
+            }
+        }
+
+        private void fillLyrics(Source source, EventBuffer window, long until) {
+            final CompiledMusic compiled = source.compiled;
+            for (; source.subscribers != null && source.nextLyric < compiled.lyricCount()
+                    && source.offset + compiled.lyricTick(source.nextLyric) < until;
+                    source.nextLyric = compiled.lyricTickEnd(source.nextLyric)) {
+                final int i = source.nextLyric;
+                final byte[] lines = compiled.lyricBytes(i, compiled.lyricTickEnd(i));
+                window.add(source.offset + compiled.lyricTick(i), lyricAction(lines, source.subscribers));
+            }
+        }
     }
 
     /**
-     * Get a MIDI channel for the given instrument, allocating one if necessary.
+     * Play the scheduled music, from the start or from the beat given to seek, paused if pause was called
+     * and at the tempo given to setBeatsPerMinute. Starts at once, since compiled music is read a window at a time.
+     * @throws IllegalStateException if already called
+     */
+    @Override
+    public synchronized void play() {
+        checkNotPlaying();
+        events.sort();
+        dispatcher = new Dispatcher(new ReleasingReceiver(), new Timeline(), windowTicks, failureListener);
+        playStartNanos = System.nanoTime();
+        dispatcher.start(startTick, nanosPerTick(), paused);
+    }
+
+    /**
+     * Set what is told when a callback throws during playback. Playback goes on without the callback's work.
+     * By default, such failures are ignored.
+     * @param listener told of each exception a callback throws, on the player's timing thread
+     * @throws IllegalStateException if play() was called
+     */
+    public synchronized void setFailureListener(Consumer<RuntimeException> listener) {
+        checkNotPlaying();
+        failureListener = listener;
+    }
+
+    /**
+     * Pause playback where it is, notes and callbacks alike, until resume().
+     * Before play(), makes play() start paused. Does nothing if already paused or if playback has finished.
+     * @return false iff playback has finished
+     */
+    public synchronized boolean pause() {
+        paused = true;
+        return dispatcher == null || dispatcher.pause();
+    }
+
+    /**
+     * Resume playback from where it was paused.
+     * Before play(), undoes pause(). Does nothing if not paused or if playback has finished.
+     * @return false iff playback has finished
+     */
+    public synchronized boolean resume() {
+        paused = false;
+        return dispatcher == null || dispatcher.resume();
+    }
+
+    /**
+     * Change the tempo from where playback is on, without rescheduling anything.
+     * Does nothing if playback has finished.
+     * @param beatsPerMinute the new number of beats per minute, > 0
+     * @return false iff playback has finished
+     */
+    public synchronized boolean setBeatsPerMinute(int beatsPerMinute) {
+        currentBeatsPerMinute = beatsPerMinute;
+        checkRep();
+        return dispatcher == null || dispatcher.setNanosPerTick(nanosPerTick());
+    }
+
+    /**
+     * Move playback to a beat, keeping whether it is paused. Events at or after beat are called again as
+     * playback reaches them, even if they were called before.
+     * Before play(), makes play() start at beat. Does nothing if playback has finished.
+     * @param beat beat to continue from, >= 0
+     * @return false iff playback has finished
+     */
+    public synchronized boolean seek(double beat) {
+        startTick = Math.round(beat * ticksPerBeat);
+        checkRep();
+        return dispatcher == null || dispatcher.seek(startTick);
+    }
+
+    /**
+     * @return how late, in nanoseconds, the dispatch of each MIDI message and callback so far started after it was
+     *         due; empty before play()
+     */
+    public synchronized LongSummaryStatistics getLateness() {
+        return dispatcher == null ? new LongSummaryStatistics() : dispatcher.getLateness();
+    }
+
+    /**
+     * Requires the lock.
+     * @return nanoseconds per tick at the current tempo
+     */
+    private double nanosPerTick() {
+        return NANOS_PER_MINUTE / ((double) currentBeatsPerMinute * ticksPerBeat);
+    }
+
+    /**
+     * Receiver that passes every message on to the player's receiver, and when playback finishes,
+     * gives the player's channels back to the pool and closes it.
+     */
+    private class ReleasingReceiver implements Receiver {
+
+        @Override
+        public void send(MidiMessage message, long timeStamp) {
+            receiver.send(message, timeStamp);
+        }
+
+        @Override
+        public void close() {
+            final List<Integer> held;
+            synchronized (MidiSequencePlayer.this) {
+                held = new ArrayList<>(channelForInstrument.values());
+            }
+            for (int channel : held) {
+                channels.release(channel);
+            }
+            receiver.close();
+        }
+    }
+
+    /**
+     * Get a MIDI channel for the given instrument, taking one from the pool if necessary.
      * @param instr instrument
      * @return channel for the instrument
      */
-    private int getChannel(Instrument instr) {
+    private synchronized int getChannel(Instrument instr) {
         // check whether this instrument already has a channel
         if (channelForInstrument.containsKey(instr)) {
             return channelForInstrument.get(instr);
         }
-        
-        int channel = allocateChannel();
+
+        checkNotPlaying();
+        int channel = channels.acquire(instr);
         patchInstrumentIntoChannel(channel, instr);
         channelForInstrument.put(instr, channel);
         checkRep();
         return channel;
     }
 
-    /**
-     * @return next available channel number
-     */
-    private int allocateChannel() {
-        MidiChannel[] channels = synthesizer.getChannels();
-        if (nextChannel >= channels.length) {
-            throw new RuntimeException("Tried to use too many instruments: limited to " + channels.length);
-        }
-        return nextChannel++;
-    }
-
     private void patchInstrumentIntoChannel(int channel, Instrument instr) {
         try {
-            addMidiNoteEvent(ShortMessage.PROGRAM_CHANGE, channel, instr.ordinal(), 0);
+            addMidiEvent(ShortMessage.PROGRAM_CHANGE, channel, instr.ordinal(), 0);
         } catch (InvalidMidiDataException imde) {
             throw new RuntimeException("Cannot set instrument", imde);
         }
@@ -245,23 +561,26 @@ public class MidiSequencePlayer implements SequencePlayer {
     }
 
     /**
-     * @return a string that displays the entire track information as a
+     * @return a string that displays every event scheduled one at a time as a
      *         sequence of MIDI events, where each event is either turning on
-     *         or off a note at a certain tick, a marker event, or the end of
-     *         the track
+     *         or off a note at a certain tick, or a callback, followed by a
+     *         line for each compiled music scheduled
      */
     @Override
-    public String toString() {
+    public synchronized String toString() {
+        final EventBuffer sorted = new EventBuffer();
+        for (int i = 0; i < events.size(); i++) {
+            sorted.add(events, i);
+        }
+        sorted.sort();
+
         String trackInfo = "";
 
-        for (int i = 0; i < track.size(); i++) {
-            final MidiEvent e = track.get(i);
-            final MidiMessage msg = e.getMessage();
+        for (int i = 0; i < sorted.size(); i++) {
             final String msgString;
 
-            if (msg instanceof ShortMessage) {
-                final ShortMessage smg = (ShortMessage) msg;
-                final int command = smg.getCommand();
+            if (sorted.action(i) == null) {
+                final int command = sorted.message(i) & 0xF0;
                 final String commandName;
 
                 if (command == ShortMessage.NOTE_OFF) {
@@ -272,28 +591,19 @@ public class MidiSequencePlayer implements SequencePlayer {
                     commandName = "Unknown command " + command;
                 }
 
-                msgString = "Event: " + commandName + " Pitch: " + smg.getData1() + " ";
-
-            } else if (msg instanceof MetaMessage) {
-                final MetaMessage mmg = (MetaMessage) msg;
-                final int type = mmg.getType();
-                final String typeName;
-
-                if (type == META_MARKER) {
-                    typeName = "MARKER";
-                } else if (type == META_END_OF_TRACK) {
-                    typeName = "END_OF_TRACK";
-                } else {
-                    typeName = "Unknown type " + type;
-                }
-
-                msgString = "Meta event: " + typeName;
+                msgString = "Event: " + commandName + " Pitch: " + (sorted.message(i) >> 8 & 0xFF) + " ";
 
             } else {
-                msgString = "Unknown event";
+                msgString = "Callback";
             }
 
-            trackInfo += msgString + " Tick: " + e.getTick() + "\n";
+            trackInfo += msgString + " Tick: " + sorted.tick(i) + "\n";
+        }
+
+        for (Source source : sources) {
+            trackInfo += "Compiled music: " + (source.channels == null ? 0 : source.compiled.noteCount()) + " notes, "
+                    + (source.subscribers == null ? 0 : source.compiled.lyricCount()) + " lyric lines"
+                    + " Tick: " + source.offset + "\n";
         }
 
         return trackInfo;
@@ -5,7 +5,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 
 import edu.mit.eecs.parserlib.UnableToParseException;
-import karaoke.parser.MusicParser;
+import karaoke.parser.AbcParser;
 
 /**
  * An interface to represent music as a collection of notes.
@@ -16,32 +16,49 @@ public interface Music {
     
     // ADT Definition:
     //
-    // Music = Note(duration:Double, pitch:Pitch, instrument:Instrument) + 
-    //         Rest(duration:Double) + 
+    // Music = Note(duration:Rational, pitch:Pitch, instrument:Instrument) + 
+    //         Rest(duration:Rational) + 
     //         Chord(notes:List<Note>) + 
     //         Tuplet(notes:List<Music>) + 
     //         Concat(m1:Music, m2:Music) +
     //         Piece(music:Music, lyrics:Music, header:Map) +
-    //         Lyric(lyric:String, duration:Double) +
-    //         Component(music:List<Music>, hasLyrics:Boolean)
+    //         Lyric(lyric:String, duration:Rational) +
+    //         Component(music:List<Music>, hasLyrics:Boolean) +
+    //         Transposed(music:Music, semitonesUp:int) +
+    //         Repeat(body:Music, firstEnding:Music)
     
     /**
-     * Takes in the grammar from a file and creates a music object
+     * Takes in the grammar from a file and creates a music object.
+     * The file is read in one pass by AbcParser, which accepts the same notation as the grammar.
      * @param file The file containing the valid abc notation to be parsed into music 
      * @return a music object corresponding to the grammar
      * @throws UnableToParseException if notation does not match grammar 
      * @throws IOException 
      */
     public static Music parseFromFile(File file) throws UnableToParseException, IOException {
-        MusicParser musicParser = new MusicParser();
-        return musicParser.parseFromFile(file);
+        return AbcParser.parseFromFile(file);
     }
     
     /**
      * Returns the time it takes to play the entire music
      * @return the length of the music in seconds
      */
-    public double duration();
+    public default double duration() {
+        return exactDuration().doubleValue();
+    }
+
+    /**
+     * Returns the time it takes to play the entire music, with no rounding
+     * @return the length of the music in beats
+     */
+    public Rational exactDuration();
+
+    /**
+     * Returns the resolution at which this music can be scheduled exactly
+     * @return the fewest ticks per beat at which every note and lyric of this music starts and ends on a whole tick
+     * @throws ArithmeticException if that number does not fit in a long
+     */
+    public long ticksPerBeat();
     
     /**
      * Plays the music object
@@ -53,10 +70,18 @@ public interface Music {
      */
     public void play(SequencePlayer player, double atBeat, OutputStream lyricStream, String voice) throws InterruptedException;
     
+    /**
+     * Writes the music out part by part, for example as ABC notation or as the text of toString()
+     * @param writer the writer to give this music's parts to; exactly one of its methods is called
+     * @throws IOException if the writer's output fails
+     */
+    public void write(MusicWriter writer) throws IOException;
+
     /**
      * Raises or lowers the pitch of the music by the specified amount
      * @param semitonesUp the number specifying how many semitones to raise the pitch (negative value is equivalent to lowering the pitch)
-     * @return a new music identical to the old music but with the transpose applied
+     * @return a music identical to the old music but with the transpose applied; the old music's notes are
+     *         shared rather than copied, so the cost does not depend on the length of the music
      */
     public Music transpose(int semitonesUp);
 
@@ -68,8 +93,16 @@ public interface Music {
     
     /**
      * @param voice the given voice consisted in a music
-     * @return lyrics the lyrics associated with that voice in this music
+     * @return lyrics the lyrics associated with that voice in this music, built in time linear in the length of the music
      */
     public String getLyrics(String voice);
+
+    /**
+     * @param voice the given voice consisted in a music
+     * @return true iff getLyrics(voice) is not empty, found without building the lyrics
+     */
+    public default boolean hasLyrics(String voice) {
+        return LyricText.has(this, voice);
+    }
 }
 
@@ -0,0 +1,120 @@
+package karaoke.sound;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MusicWriter that builds the text Music.toString() returns, appending each part once so that
+ * the time taken is linear in the length of the text.
+ */
+class MusicText implements MusicWriter {
+
+    private final StringBuilder text = new StringBuilder();
+
+    // Abstraction function:
+    //    AF(text) = the text written so far
+    // Rep invariant:
+    //    true
+    // Safety from rep exposure:
+    //    text is private and final, and only copied out by of()
+    // Thread safety argument:
+    //    Not thread safe; each instance is confined to the call of of() that creates it
+
+    private MusicText() {}
+
+    /**
+     * @param music a music
+     * @return the text of music
+     */
+    static String of(Music music) {
+        final MusicText writer = new MusicText();
+        try {
+            music.write(writer);
+        } catch (IOException e) {
+            throw new AssertionError("appending to a StringBuilder cannot fail", e);
+        }
+        return writer.text.toString();
+    }
+
+    @Override
+    public void note(Pitch pitch, Rational duration, Instrument instrument) {
+        text.append(pitch).append(duration.doubleValue());
+    }
+
+    @Override
+    public void rest(Rational duration) {
+        text.append('z').append(duration.doubleValue());
+    }
+
+    @Override
+    public void lyric(String lyric, Rational duration) {
+        text.append(lyric).append(duration.doubleValue());
+    }
+
+    @Override
+    public void chord(List<Music> notes) throws IOException {
+        text.append('[');
+        for (Music note : notes) {
+            note.write(this);
+        }
+        text.append(']');
+    }
+
+    @Override
+    public void tuplet(List<Music> notes, Rational duration) throws IOException {
+        text.append('(').append(notes.size());
+        for (Music note : notes) {
+            note.write(this);
+        }
+        text.append(duration.doubleValue());
+    }
+
+    @Override
+    public void concat(List<Music> parts) throws IOException {
+        for (Music part : parts) {
+            part.write(this);
+        }
+    }
+
+    @Override
+    public void component(List<Music> parts) throws IOException {
+        text.append('{');
+        for (Music part : parts) {
+            part.write(this);
+        }
+        text.append('}');
+    }
+
+    @Override
+    public void transposed(Music music, int semitonesUp) throws IOException {
+        text.append('(').append(semitonesUp).append(')');
+        music.write(this);
+    }
+
+    @Override
+    public void repeat(Music body) throws IOException {
+        body.write(this);
+        body.write(this);
+    }
+
+    @Override
+    public void repeat(Music body, Music firstEnding) throws IOException {
+        body.write(this);
+        firstEnding.write(this);
+        body.write(this);
+    }
+
+    @Override
+    public void piece(Header header, Map<String, Music> voiceToMusic) throws IOException {
+        text.append("X:").append(header.getIndex()).append("T:").append(header.getTitle())
+            .append("C:").append(header.getComposer()).append("M:").append(header.getMeter())
+            .append("L:").append(header.getNoteLength()).append("V:").append(header.getVoices())
+            .append("K:").append(header.getKey()).append('\n');
+        for (Map.Entry<String, Music> voice : voiceToMusic.entrySet()) {
+            text.append(voice.getKey()).append(": ");
+            voice.getValue().write(this);
+            text.append('\n');
+        }
+    }
+}
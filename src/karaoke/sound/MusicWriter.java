@@ -0,0 +1,86 @@
+package karaoke.sound;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Receives the parts of a music, so that it can be written out in some notation without exposing its rep.
+ * Music.write(writer) calls exactly one of these methods, with the parts of that music;
+ * the writer decides whether and in what order to write each part, by calling part.write(writer).
+ */
+public interface MusicWriter {
+
+    /**
+     * @param pitch pitch of the note
+     * @param duration exact number of beats the note plays for
+     * @param instrument instrument the note is played with
+     * @throws IOException if the writer's output fails
+     */
+    public void note(Pitch pitch, Rational duration, Instrument instrument) throws IOException;
+
+    /**
+     * @param duration exact number of beats of silence
+     * @throws IOException if the writer's output fails
+     */
+    public void rest(Rational duration) throws IOException;
+
+    /**
+     * @param lyric the lyric line, with the syllable being sung marked
+     * @param duration exact number of beats the lyric is shown for
+     * @throws IOException if the writer's output fails
+     */
+    public void lyric(String lyric, Rational duration) throws IOException;
+
+    /**
+     * @param notes the music played together, lasting as long as the first
+     * @throws IOException if the writer's output fails
+     */
+    public void chord(List<Music> notes) throws IOException;
+
+    /**
+     * @param notes the notes or chords played one after another, evenly spaced
+     * @param duration exact number of beats the whole tuplet lasts
+     * @throws IOException if the writer's output fails
+     */
+    public void tuplet(List<Music> notes, Rational duration) throws IOException;
+
+    /**
+     * @param parts the music played one after another, none of which is itself a concatenation; not modifiable
+     * @throws IOException if the writer's output fails
+     */
+    public void concat(List<Music> parts) throws IOException;
+
+    /**
+     * @param parts the music played together, lasting as long as the first, such as a voice and its lyrics
+     * @throws IOException if the writer's output fails
+     */
+    public void component(List<Music> parts) throws IOException;
+
+    /**
+     * @param music the music before transposing
+     * @param semitonesUp the number of semitones every note of music is raised by, != 0
+     * @throws IOException if the writer's output fails
+     */
+    public void transposed(Music music, int semitonesUp) throws IOException;
+
+    /**
+     * @param body music played twice
+     * @throws IOException if the writer's output fails
+     */
+    public void repeat(Music body) throws IOException;
+
+    /**
+     * @param body music played twice
+     * @param firstEnding music played between the two passes of body
+     * @throws IOException if the writer's output fails
+     */
+    public void repeat(Music body, Music firstEnding) throws IOException;
+
+    /**
+     * @param header the header of the piece
+     * @param voiceToMusic the music of each voice, played together; not modifiable
+     * @throws IOException if the writer's output fails
+     */
+    public void piece(Header header, Map<String, Music> voiceToMusic) throws IOException;
+}
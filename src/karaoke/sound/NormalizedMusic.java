@@ -0,0 +1,415 @@
+package karaoke.sound;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A music rewritten into a smaller tree that plays the same notes and writes the same lyrics at the same beats,
+ * with the number of nodes in the tree before and after.
+ *
+ * The parser leaves zero-length rests and blank lyric placeholders throughout a song, and builds every voice as a
+ * chain of Concats as long as the voice. Normalizing drops the zero-length rests and blank lyrics, merges adjacent
+ * rests, flattens nested concatenations and components, rebuilds each concatenation as a balanced tree,
+ * and shares one node among all equal subtrees, so that playing and compiling the song visit fewer nodes.
+ */
+public class NormalizedMusic {
+
+    private final Music music;
+    private final int nodesBefore;
+    private final int nodesAfter;
+
+    // Abstraction function:
+    //    AF(music, nodesBefore, nodesAfter) = the normalized music, which had nodesBefore distinct nodes before it was
+    //       normalized and has nodesAfter now
+    // Rep invariant:
+    //    nodesBefore > 0, nodesAfter > 0
+    // Safety from rep exposure:
+    //    All fields are private, final, and immutable
+    // Thread safety argument:
+    //    This class is thread safe because it is immutable; the maps used while normalizing are confined to of()
+
+    private NormalizedMusic(Music music, int nodesBefore, int nodesAfter) {
+        this.music = music;
+        this.nodesBefore = nodesBefore;
+        this.nodesAfter = nodesAfter;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert nodesBefore > 0 && nodesAfter > 0;
+    }
+
+    /**
+     * Normalize a music. Zero-length rests and blank lyrics are removed, blank lyrics that last a while become rests,
+     * adjacent rests are merged, nested concatenations and components are flattened, and equal subtrees are shared.
+     * Notes, including notes of no length, and lyrics that are not blank are kept, in the same order and at the same
+     * beats, so the result plays exactly like music and has the same voices and the same lyrics but for blank ones.
+     * @param music a music
+     * @return music normalized, with the number of nodes in music and in the result
+     */
+    public static NormalizedMusic of(Music music) {
+        final Music normalized = new Normalizer().normalize(music);
+        return new NormalizedMusic(normalized, NodeCounter.count(music), NodeCounter.count(normalized));
+    }
+
+    /**
+     * @return the normalized music
+     */
+    public Music music() {
+        return music;
+    }
+
+    /**
+     * @return the number of distinct nodes in the music before it was normalized,
+     *         counting each concatenation of k parts as k - 1 nodes
+     */
+    public int nodesBefore() {
+        return nodesBefore;
+    }
+
+    /**
+     * @return the number of distinct nodes in the normalized music, counted the same way as nodesBefore()
+     */
+    public int nodesAfter() {
+        return nodesAfter;
+    }
+
+    @Override
+    public String toString() {
+        return nodesBefore + " nodes, normalized to " + nodesAfter;
+    }
+
+    /**
+     * @param lyric a lyric line
+     * @return true iff a SequencePlayer writes nothing for the line; the parser uses such lyrics to hold a place
+     */
+    private static boolean isBlank(String lyric) {
+        return lyric.isEmpty() || lyric.equals(" ");
+    }
+
+    /**
+     * MusicWriter that rebuilds each music it is written normalized, sharing one node among equal subtrees.
+     */
+    private static class Normalizer implements MusicWriter {
+
+        // the normalized music built for each node, each identified by its kind and its normalized parts
+        private final Map<List<Object>, Music> interned = new HashMap<>();
+        // the normalized music already built for each music normalized, compared by identity
+        private final Map<Music, Music> done = new IdentityHashMap<>();
+        // the parts of each whole concatenation and component built, compared by identity, so they can be flattened
+        private final Map<Music, List<Music>> concatParts = new IdentityHashMap<>();
+        private final Map<Music, List<Music>> componentParts = new IdentityHashMap<>();
+        // the result of the last music written
+        private Music result;
+
+        // Abstraction function:
+        //    AF(interned, done, concatParts, componentParts, result) = a pass that has normalized each key of done
+        //       into its value, built from the nodes in interned, of which those in concatParts and componentParts
+        //       play their parts one after another and together respectively; result is the music normalized last
+        // Rep invariant:
+        //    every key of concatParts and componentParts is a value of interned,
+        //       and its parts are normalized, with no empty rest after the first part
+        // Safety from rep exposure:
+        //    All fields are private; the lists in concatParts and componentParts are never modified once added
+        // Thread safety argument:
+        //    Not thread safe; each instance is confined to the call of NormalizedMusic.of() that creates it
+
+        /**
+         * @param music a music
+         * @return music normalized, sharing nodes with every music this has normalized
+         */
+        Music normalize(Music music) {
+            final Music known = done.get(music);
+            if (known != null) {
+                return known;
+            }
+            try {
+                music.write(this);
+            } catch (IOException e) {
+                throw new AssertionError("normalizing writes no output", e);
+            }
+            done.put(music, result);
+            return result;
+        }
+
+        /**
+         * @param made a new node
+         * @param kind what kind of node it is
+         * @param parts the normalized parts and the values that made it
+         * @return the node already built from the same kind and parts, or made if there is none
+         */
+        private Music intern(Music made, Object kind, Object... parts) {
+            final List<Object> key = new ArrayList<>(parts.length + 1);
+            key.add(kind);
+            key.addAll(Arrays.asList(parts));
+            final Music known = interned.putIfAbsent(key, made);
+            return known == null ? made : known;
+        }
+
+        private Music internRest(Rational duration) {
+            return intern(new Rest(duration), "rest", duration);
+        }
+
+        private static boolean isEmpty(Music music) {
+            return music instanceof Rest && music.exactDuration().equals(Rational.ZERO);
+        }
+
+        @Override
+        public void note(Pitch pitch, Rational duration, Instrument instrument) {
+            result = Note.of(duration, pitch, instrument);
+        }
+
+        @Override
+        public void rest(Rational duration) {
+            result = internRest(duration);
+        }
+
+        @Override
+        public void lyric(String lyric, Rational duration) {
+            if (isBlank(lyric)) {
+                rest(duration);
+            } else {
+                result = intern(new Lyric(lyric, duration), "lyric", lyric, duration);
+            }
+        }
+
+        @Override
+        public void chord(List<Music> notes) {
+            final List<Music> parts = normalizeAll(notes);
+            result = intern(new Chord(parts), "chord", parts.toArray());
+        }
+
+        @Override
+        public void tuplet(List<Music> notes, Rational duration) {
+            final List<Music> parts = normalizeAll(notes);
+            result = intern(new Tuplet(parts), "tuplet", parts.toArray());
+        }
+
+        @Override
+        public void concat(List<Music> parts) {
+            final List<Music> flat = new ArrayList<>(parts.size());
+            for (Music part : parts) {
+                final Music normalized = normalize(part);
+                final List<Music> spliced = concatParts.get(normalized);
+                for (Music music : spliced != null ? spliced : Collections.singletonList(normalized)) {
+                    append(flat, music);
+                }
+            }
+            if (flat.isEmpty()) {
+                result = internRest(Rational.ZERO);
+            } else {
+                result = balance(flat, 0, flat.size());
+                if (flat.size() > 1) {
+                    concatParts.putIfAbsent(result, Collections.unmodifiableList(flat));
+                }
+            }
+        }
+
+        /**
+         * Append a normalized part to a concatenation, dropping it if it is empty
+         * and merging it with the part before if both are rests.
+         * @param flat normalized parts of a concatenation, none of which is empty and no two adjacent of which are rests
+         * @param part a normalized part to play after them
+         */
+        private void append(List<Music> flat, Music part) {
+            if (isEmpty(part)) {
+                return;
+            }
+            final int last = flat.size() - 1;
+            if (part instanceof Rest && last >= 0 && flat.get(last) instanceof Rest) {
+                flat.set(last, internRest(flat.get(last).exactDuration().plus(part.exactDuration())));
+            } else {
+                flat.add(part);
+            }
+        }
+
+        /**
+         * @param flat normalized parts of a concatenation
+         * @param from index of the first part to concatenate
+         * @param to index after the last part to concatenate, > from
+         * @return flat[from..to) concatenated as a tree of depth about log(to - from)
+         */
+        private Music balance(List<Music> flat, int from, int to) {
+            if (to - from == 1) {
+                return flat.get(from);
+            }
+            final int middle = (from + to) >>> 1;
+            final Music first = balance(flat, from, middle);
+            final Music second = balance(flat, middle, to);
+            return intern(new Concat(first, second), "concat", first, second);
+        }
+
+        @Override
+        public void component(List<Music> parts) {
+            final List<Music> flat = new ArrayList<>(parts.size());
+            for (Music part : parts) {
+                final Music normalized = normalize(part);
+                final List<Music> spliced = componentParts.get(normalized);
+                if (spliced != null) {
+                    flat.addAll(spliced);
+                } else if (flat.isEmpty() || !isEmpty(normalized)) {
+                    // the first part sets how long the component lasts, so it is kept even if empty
+                    flat.add(normalized);
+                }
+            }
+            if (flat.size() == 1) {
+                result = flat.get(0);
+            } else {
+                result = intern(new Component(flat), "component", flat.toArray());
+                componentParts.putIfAbsent(result, Collections.unmodifiableList(flat));
+            }
+        }
+
+        @Override
+        public void transposed(Music music, int semitonesUp) {
+            final Music normalized = normalize(music);
+            final Music transposed = normalized.transpose(semitonesUp);
+            if (transposed instanceof Transposed) {
+                result = intern(transposed, "transposed", normalized, semitonesUp);
+            } else {
+                // a note or rest transposes into another note or rest, which is normalized in turn
+                result = normalize(transposed);
+            }
+        }
+
+        @Override
+        public void repeat(Music body) {
+            final Music normalized = normalize(body);
+            result = isEmpty(normalized) ? normalized : intern(new Repeat(normalized), "repeat", normalized);
+        }
+
+        @Override
+        public void repeat(Music body, Music firstEnding) {
+            final Music ending = normalize(firstEnding);
+            if (isEmpty(ending)) {
+                repeat(body);
+                return;
+            }
+            final Music normalized = normalize(body);
+            result = intern(new Repeat(normalized, ending), "repeat", normalized, ending);
+        }
+
+        @Override
+        public void piece(Header header, Map<String, Music> voiceToMusic) {
+            final Map<String, Music> normalized = new LinkedHashMap<>();
+            for (Map.Entry<String, Music> voice : voiceToMusic.entrySet()) {
+                normalized.put(voice.getKey(), normalize(voice.getValue()));
+            }
+            result = new Piece(normalized, header);
+        }
+
+        private List<Music> normalizeAll(List<Music> musics) {
+            final List<Music> normalized = new ArrayList<>(musics.size());
+            for (Music music : musics) {
+                normalized.add(normalize(music));
+            }
+            return normalized;
+        }
+    }
+
+    /**
+     * MusicWriter that counts the distinct nodes of a music.
+     */
+    private static class NodeCounter implements MusicWriter {
+
+        private final Set<Music> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        private int count = 0;
+
+        // Abstraction function:
+        //    AF(seen, count) = a count of count nodes so far, reached through the musics in seen
+        // Rep invariant:
+        //    count >= seen.size()
+        // Safety from rep exposure:
+        //    All fields are private; seen is never returned
+        // Thread safety argument:
+        //    Not thread safe; each instance is confined to the call of count() that creates it
+
+        /**
+         * @param music a music
+         * @return the number of distinct nodes in music, counting each concatenation of k parts as k - 1 nodes
+         */
+        static int count(Music music) {
+            final NodeCounter counter = new NodeCounter();
+            counter.visit(music);
+            return counter.count;
+        }
+
+        private void visit(Music music) {
+            if (!seen.add(music)) {
+                return;
+            }
+            count++;
+            try {
+                music.write(this);
+            } catch (IOException e) {
+                throw new AssertionError("counting writes no output", e);
+            }
+        }
+
+        private void visitAll(Iterable<Music> musics) {
+            for (Music music : musics) {
+                visit(music);
+            }
+        }
+
+        @Override
+        public void note(Pitch pitch, Rational duration, Instrument instrument) {}
+
+        @Override
+        public void rest(Rational duration) {}
+
+        @Override
+        public void lyric(String lyric, Rational duration) {}
+
+        @Override
+        public void chord(List<Music> notes) {
+            visitAll(notes);
+        }
+
+        @Override
+        public void tuplet(List<Music> notes, Rational duration) {
+            visitAll(notes);
+        }
+
+        @Override
+        public void concat(List<Music> parts) {
+            // the concatenation itself was counted once already
+            count += parts.size() - 2;
+            visitAll(parts);
+        }
+
+        @Override
+        public void component(List<Music> parts) {
+            visitAll(parts);
+        }
+
+        @Override
+        public void transposed(Music music, int semitonesUp) {
+            visit(music);
+        }
+
+        @Override
+        public void repeat(Music body) {
+            visit(body);
+        }
+
+        @Override
+        public void repeat(Music body, Music firstEnding) {
+            visit(body);
+            visit(firstEnding);
+        }
+
+        @Override
+        public void piece(Header header, Map<String, Music> voiceToMusic) {
+            visitAll(voiceToMusic.values());
+        }
+    }
+}
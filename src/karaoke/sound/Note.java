@@ -1,6 +1,8 @@
 package karaoke.sound;
 
+import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Music object describing a single note in the music
@@ -8,7 +10,13 @@ import java.io.OutputStream;
 
 public class Note implements Music {
     
-    private final double duration;
+    // number of notes Note.of remembers, a power of two
+    private static final int CACHE_SIZE = 1 << 12;
+    // notes made by Note.of, each in the slot its hash picks; a note made for a taken slot replaces the one there,
+    // so the cache stays bounded however many distinct notes a long-running server parses
+    private static final AtomicReferenceArray<Note> CACHE = new AtomicReferenceArray<>(CACHE_SIZE);
+    
+    private final Rational duration;
     private final Pitch pitch;
     private final Instrument instrument;
     
@@ -25,6 +33,8 @@ public class Note implements Music {
     //       - All fields are private, final, and immutable, so both the fields' object types and references are immutable
     //       - The rep is not exposed to the client
     //       - No mutation of any kind occurs 
+    //    CACHE is a thread safe array of immutable notes; Note.of calls racing for one slot at worst make an extra
+    //       note, equal to the one they replace
         
     /**
      * Creates a new Note object
@@ -33,12 +43,59 @@ public class Note implements Music {
      * @param instrument instrument used to play note
      */
     public Note(double duration, Pitch pitch, Instrument instrument) {
+        this(Rational.valueOf(duration), pitch, instrument);
+    }
+
+    /**
+     * Creates a new Note object
+     * @param duration the exact number of beats that the note will play for
+     * @param pitch pitch that the note plays
+     * @param instrument instrument used to play note
+     */
+    public Note(Rational duration, Pitch pitch, Instrument instrument) {
         this.duration = duration;
         this.pitch = pitch;
         this.instrument = instrument;
         checkRep();
     }
 
+    /**
+     * Get a note, sharing one instance among equal notes created by this method while it stays in a bounded cache.
+     * Notes are immutable, so a parsed song can reuse a single object for every repetition of the same note.
+     * @param duration the time in seconds that the note will play for
+     * @param pitch pitch that the note plays
+     * @param instrument instrument used to play note
+     * @return a note equal to new Note(duration, pitch, instrument)
+     */
+    public static Note of(double duration, Pitch pitch, Instrument instrument) {
+        return of(Rational.valueOf(duration), pitch, instrument);
+    }
+
+    /**
+     * Get a note, sharing one instance among equal notes created by this method while it stays in a bounded cache,
+     * and making none if it does.
+     * @param duration the exact number of beats that the note will play for
+     * @param pitch pitch that the note plays
+     * @param instrument instrument used to play note
+     * @return a note equal to new Note(duration, pitch, instrument)
+     */
+    public static Note of(Rational duration, Pitch pitch, Instrument instrument) {
+        final int hash = hash(duration, pitch, instrument);
+        final int slot = (hash ^ hash >>> 16) & (CACHE_SIZE - 1);
+        final Note cached = CACHE.get(slot);
+        if (cached != null && cached.duration.equals(duration) && cached.pitch.equals(pitch)
+                && cached.instrument == instrument) {
+            return cached;
+        }
+        final Note note = new Note(duration, pitch, instrument);
+        CACHE.set(slot, note);
+        return note;
+    }
+
+    private static int hash(Rational duration, Pitch pitch, Instrument instrument) {
+        return (duration.hashCode() * 31 + pitch.hashCode()) * 31 + instrument.ordinal();
+    }
+
     /**
      * Checks the rep invariant
      */
@@ -47,26 +104,52 @@ public class Note implements Music {
     }
     
     @Override
-    public double duration() {
+    public Rational exactDuration() {
         return this.duration;
     }
 
+    @Override
+    public long ticksPerBeat() {
+        return this.duration.denominator();
+    }
+
     @Override
     public void play(SequencePlayer player, double atBeat, OutputStream lyricStream, String voice) {
-        player.addNote(this.instrument, this.pitch, atBeat, this.duration);
+        player.addNote(this.instrument, this.pitch, atBeat, this.duration.doubleValue());
     }
 
     @Override
     public Music transpose(int semitonesUp) {
         Pitch newPitch = this.pitch.transpose(semitonesUp);
         checkRep();
-        return new Note(this.duration, newPitch, this.instrument);
+        return Note.of(this.duration, newPitch, this.instrument);
     }
     
+    @Override
+    public void write(MusicWriter writer) throws IOException {
+        writer.note(this.pitch, this.duration, this.instrument);
+    }
+
     @Override
     public String toString() {
         checkRep();
-        return this.pitch.toString() + this.duration();
+        return MusicText.of(this);
+    }
+    
+    @Override
+    public boolean equals(Object that) {
+        return that instanceof Note && sameVal((Note)that);
+    }
+    
+    private boolean sameVal(Note that) {
+        return this.duration.equals(that.duration)
+                && this.pitch.equals(that.pitch)
+                && this.instrument == that.instrument;
+    }
+    
+    @Override
+    public int hashCode() {
+        return hash(this.duration, this.pitch, this.instrument);
     }
     
     @Override
@@ -2,11 +2,17 @@ package karaoke.sound;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Represents an entire musical piece with instruments and lyrics. Contains all info about the piece
@@ -16,11 +22,17 @@ public class Piece implements Music {
 
     private final Map<String, Music> voiceToMusic;
     private final Header header;
+    // voices whose lyrics are not empty, found once at construction
+    private final Set<String> voicesWithLyrics;
+    // lyrics of each voice, built the first time they are asked for
+    private final ConcurrentMap<String, String> voiceToLyrics = new ConcurrentHashMap<>();
     
     // Abstraction function: 
     //    AF(music, header) = a new Music that stores all the information from the given header in a Header object, and has a map voiceToMusic that maps unique voices to the musics they're associated with
     // Rep invariant:
     //    duration >= 0
+    //    voicesWithLyrics contains exactly the voices v of voiceToMusic with voiceToMusic.get(v).hasLyrics(v)
+    //    voiceToLyrics maps voices v of voiceToMusic to voiceToMusic.get(v).getLyrics(v)
     // Safety from rep exposure:
     //    All fields private and final
     //    Defensive copy of map is created and never altered.
@@ -33,6 +45,8 @@ public class Piece implements Music {
     //       - music points to an immutable object
     //       - header points to a mutable Map object, but that Map is encapsulated
     //         in this object, not shared with any other object or exposed to a client
+    //       - voiceToLyrics is a cache: it is a thread safe map, and every thread that fills
+    //         an entry fills it with the same immutable string
     
     /**
      * Creates a new piece
@@ -40,8 +54,27 @@ public class Piece implements Music {
      * @param header A map holding the information from the header of a music file
      */
     public Piece(Map<String, Music> voiceToMusic, Header header) {
-        this.voiceToMusic = new HashMap<String, Music>(voiceToMusic);
+        this(new HashMap<String, Music>(voiceToMusic), header, null);
+    }
+
+    /**
+     * Creates a new piece that owns voiceToMusic
+     * @param voiceToMusic is a dictionary mapping each voice to its music, not shared with any other object
+     * @param header A map holding the information from the header of a music file
+     * @param voicesWithLyrics the voices of voiceToMusic that have lyrics, or null to find them
+     */
+    private Piece(Map<String, Music> voiceToMusic, Header header, Set<String> voicesWithLyrics) {
+        this.voiceToMusic = voiceToMusic;
         this.header = header;
+        if (voicesWithLyrics == null) {
+            voicesWithLyrics = new HashSet<>();
+            for (Map.Entry<String, Music> entry : voiceToMusic.entrySet()) {
+                if (entry.getValue().hasLyrics(entry.getKey())) {
+                    voicesWithLyrics.add(entry.getKey());
+                }
+            }
+        }
+        this.voicesWithLyrics = voicesWithLyrics;
         checkRep();
     }
     
@@ -60,8 +93,13 @@ public class Piece implements Music {
     }
     
     @Override
-    public double duration() {
-        return voiceToMusic.values().stream().map(music -> music.duration()).reduce(0.0, (a, b) -> Math.max(a, b));
+    public Rational exactDuration() {
+        return voiceToMusic.values().stream().map(music -> music.exactDuration()).reduce(Rational.ZERO, (a, b) -> a.compareTo(b) >= 0 ? a : b);
+    }
+
+    @Override
+    public long ticksPerBeat() {
+        return voiceToMusic.values().stream().map(music -> music.ticksPerBeat()).reduce(1L, Rational::lcm);
     }
 
     @Override
@@ -93,20 +131,19 @@ public class Piece implements Music {
             newVoiceToMusic.put(key, voiceToMusic.get(key).transpose(semitonesUp));
         }
         checkRep();
-        return new Piece (newVoiceToMusic, header);
+        // transposing changes no lyrics
+        return new Piece(newVoiceToMusic, header, voicesWithLyrics);
+    }
+
+    @Override
+    public void write(MusicWriter writer) throws IOException {
+        writer.piece(this.header, Collections.unmodifiableMap(this.voiceToMusic));
     }
 
     @Override
     public String toString() {
-        String result = "";
-        String headerString = "X:" + this.header.getIndex() + "T:" + this.header.getTitle() + "C:" + this.header.getComposer() + "M:" + this.header.getMeter() + "L:" + this.header.getNoteLength() + "V:" + this.header.getVoices() + "K:" + this.header.getKey() + '\n'; 
-        result += headerString;
-        for (String voice : voiceToMusic.keySet()) {
-            String bodyString = voice + ": " + voiceToMusic.get(voice) + "\n";
-            result += bodyString;
-        }
         checkRep();
-        return result;
+        return MusicText.of(this);
     }
     
     @Override
@@ -117,7 +154,15 @@ public class Piece implements Music {
     
     @Override
     public String getLyrics(String voice) {
-        return voiceToMusic.get(voice).getLyrics(voice);
+        if (!voicesWithLyrics.contains(voice)) {
+            return "";
+        }
+        return voiceToLyrics.computeIfAbsent(voice, v -> voiceToMusic.get(v).getLyrics(v));
+    }
+
+    @Override
+    public boolean hasLyrics(String voice) {
+        return voicesWithLyrics.contains(voice);
     }
 
 }
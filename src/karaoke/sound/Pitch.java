@@ -41,14 +41,26 @@ public class Pitch {
     };
     
     /**
-     * Middle C.
+     * Number of pitches in an octave.
      */
-    public static final Pitch MIDDLE_C = new Pitch('C');
+    public static final int OCTAVE = 12;
+
+    // the range of values covered by MIDI note numbers 0-127, where middle C is note 60
+    private static final int LOWEST_INTERNED = -60;
+    private static final int HIGHEST_INTERNED = 67;
+
+    // shared instances for every pitch in the MIDI range, indexed by value - LOWEST_INTERNED
+    private static final Pitch[] INTERNED = new Pitch[HIGHEST_INTERNED - LOWEST_INTERNED + 1];
+    static {
+        for (int i = 0; i < INTERNED.length; i++) {
+            INTERNED[i] = new Pitch(i + LOWEST_INTERNED);
+        }
+    }
 
     /**
-     * Number of pitches in an octave.
+     * Middle C.
      */
-    public static final int OCTAVE = 12;
+    public static final Pitch MIDDLE_C = valueOf('C');
 
     private Pitch(int value) {
         this.value = value;
@@ -67,6 +79,31 @@ public class Pitch {
         }
     }
 
+    /**
+     * Get the Pitch named c in the middle octave of the piano keyboard.
+     * Unlike the constructor, this returns a shared instance.
+     * @param c letter in {'A',...,'G'}
+     * @return the pitch named c, for example Pitch.valueOf('C') is middle C
+     */
+    public static Pitch valueOf(char c) {
+        try {
+            return valueOf(SCALE[c-'A']);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException(c + " must be in the range A-G", e);
+        }
+    }
+
+    /**
+     * @param value semitones above middle C
+     * @return the shared instance for value if it is in the MIDI range, otherwise a new Pitch
+     */
+    private static Pitch valueOf(int value) {
+        if (value >= LOWEST_INTERNED && value <= HIGHEST_INTERNED) {
+            return INTERNED[value - LOWEST_INTERNED];
+        }
+        return new Pitch(value);
+    }
+
     /**
      * @param semitonesUp 
      * @return pitch made by transposing this pitch by semitonesUp semitones;
@@ -74,7 +111,7 @@ public class Pitch {
      *         E transposed by -1 semitones is E flat
      */
     public Pitch transpose(int semitonesUp) {
-        return new Pitch(value + semitonesUp);
+        return semitonesUp == 0 ? this : valueOf(value + semitonesUp);
     }
 
     /**
@@ -0,0 +1,220 @@
+package karaoke.sound;
+
+import java.math.BigInteger;
+
+/**
+ * An exact fraction of beats, so that note lengths such as the thirds of a triplet add up without rounding.
+ * Immutable and thread safe data type.
+ */
+public final class Rational implements Comparable<Rational> {
+
+    /**
+     * Zero beats.
+     */
+    public static final Rational ZERO = new Rational(0, 1);
+
+    // the magnitude of the smallest double that does not fit in a long
+    private static final double TWO_TO_THE_63 = 0x1p63;
+
+    private final long numerator;
+    private final long denominator;
+
+    // Abstraction function:
+    //    AF(numerator, denominator) = the rational number numerator / denominator
+    // Rep invariant:
+    //    denominator > 0
+    //    gcd(|numerator|, denominator) == 1, so that equal numbers have equal reps
+    // Safety from rep exposure:
+    //    All fields are private, final, and primitive
+    // Thread safety argument:
+    //    This class is thread safe because it is immutable:
+    //       - There are no mutator methods in this class
+    //       - All fields are private, final, and primitive
+
+    private Rational(long numerator, long denominator) {
+        this.numerator = numerator;
+        this.denominator = denominator;
+        checkRep();
+    }
+
+    /**
+     * Checks the rep invariant
+     */
+    private void checkRep() {
+        assert denominator > 0;
+        assert gcd(Math.abs(numerator), denominator) == 1;
+    }
+
+    /**
+     * @param numerator the numerator
+     * @param denominator the denominator, != 0
+     * @return the fraction numerator / denominator in lowest terms
+     * @throws IllegalArgumentException if denominator is 0
+     * @throws ArithmeticException if the fraction cannot be represented with long numerator and denominator
+     */
+    public static Rational of(long numerator, long denominator) {
+        if (denominator == 0) {
+            throw new IllegalArgumentException("zero denominator");
+        }
+        if (denominator < 0) {
+            numerator = Math.negateExact(numerator);
+            denominator = Math.negateExact(denominator);
+        }
+        final long divisor = gcd(Math.abs(numerator), denominator);
+        return new Rational(numerator / divisor, denominator / divisor);
+    }
+
+    /**
+     * @param value an integer
+     * @return value / 1
+     */
+    public static Rational of(long value) {
+        return value == 0 ? ZERO : new Rational(value, 1);
+    }
+
+    /**
+     * Convert a double exactly; every finite double is a fraction whose denominator is a power of two.
+     * @param value a finite number
+     * @return the fraction equal to value, with no rounding
+     * @throws ArithmeticException if value is not finite, or is too large or too small to represent
+     */
+    public static Rational valueOf(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new ArithmeticException(value + " is not a fraction");
+        }
+        // doubling a double is exact, so this finds the smallest power of two that makes value an integer
+        double scaled = value;
+        long denominator = 1;
+        while (scaled != Math.rint(scaled)) {
+            if (denominator > Long.MAX_VALUE / 2) {
+                throw new ArithmeticException(value + " is too small to represent");
+            }
+            scaled *= 2;
+            denominator *= 2;
+        }
+        if (Math.abs(scaled) >= TWO_TO_THE_63) {
+            throw new ArithmeticException(value + " is too large to represent");
+        }
+        return of((long) scaled, denominator);
+    }
+
+    /**
+     * @return the numerator of this fraction in lowest terms
+     */
+    public long numerator() {
+        return numerator;
+    }
+
+    /**
+     * @return the denominator of this fraction in lowest terms, > 0
+     */
+    public long denominator() {
+        return denominator;
+    }
+
+    /**
+     * @param that a fraction
+     * @return this + that
+     * @throws ArithmeticException if the result cannot be represented
+     */
+    public Rational plus(Rational that) {
+        if (that.numerator == 0) {
+            return this;
+        }
+        if (this.numerator == 0) {
+            return that;
+        }
+        final long common = lcm(this.denominator, that.denominator);
+        return of(Math.addExact(Math.multiplyExact(this.numerator, common / this.denominator),
+                                Math.multiplyExact(that.numerator, common / that.denominator)),
+                  common);
+    }
+
+    /**
+     * @param that a fraction
+     * @return this * that
+     * @throws ArithmeticException if the result cannot be represented
+     */
+    public Rational times(Rational that) {
+        // cross-cancel first so that products of fractions in lowest terms only overflow when the result does
+        final long g1 = gcd(Math.abs(this.numerator), that.denominator);
+        final long g2 = gcd(Math.abs(that.numerator), this.denominator);
+        return of(Math.multiplyExact(this.numerator / g1, that.numerator / g2),
+                  Math.multiplyExact(this.denominator / g2, that.denominator / g1));
+    }
+
+    /**
+     * @param factor an integer
+     * @return this * factor
+     * @throws ArithmeticException if the result cannot be represented
+     */
+    public Rational times(long factor) {
+        return times(of(factor));
+    }
+
+    /**
+     * @param divisor an integer, != 0
+     * @return this / divisor
+     * @throws IllegalArgumentException if divisor is 0
+     * @throws ArithmeticException if the result cannot be represented
+     */
+    public Rational dividedBy(long divisor) {
+        return times(of(1, divisor));
+    }
+
+    /**
+     * @return the double nearest to this fraction
+     */
+    public double doubleValue() {
+        return (double) numerator / (double) denominator;
+    }
+
+    /**
+     * @param a a positive integer
+     * @param b a positive integer
+     * @return the least common multiple of a and b
+     * @throws ArithmeticException if the result does not fit in a long
+     */
+    public static long lcm(long a, long b) {
+        return Math.multiplyExact(a / gcd(a, b), b);
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            final long remainder = a % b;
+            a = b;
+            b = remainder;
+        }
+        return a == 0 ? 1 : a;
+    }
+
+    @Override
+    public int compareTo(Rational that) {
+        try {
+            return Long.compare(Math.multiplyExact(this.numerator, that.denominator),
+                                Math.multiplyExact(that.numerator, this.denominator));
+        } catch (ArithmeticException e) {
+            return BigInteger.valueOf(this.numerator).multiply(BigInteger.valueOf(that.denominator))
+                    .compareTo(BigInteger.valueOf(that.numerator).multiply(BigInteger.valueOf(this.denominator)));
+        }
+    }
+
+    @Override
+    public boolean equals(Object that) {
+        return that instanceof Rational && sameVal((Rational) that);
+    }
+
+    private boolean sameVal(Rational that) {
+        return this.numerator == that.numerator && this.denominator == that.denominator;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(numerator) * 31 + Long.hashCode(denominator);
+    }
+
+    @Override
+    public String toString() {
+        return denominator == 1 ? Long.toString(numerator) : numerator + "/" + denominator;
+    }
+}
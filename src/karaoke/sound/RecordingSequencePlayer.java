@@ -0,0 +1,294 @@
+package karaoke.sound;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * SequencePlayer that records every note and callback scheduled, instead of playing them through the synthesizer,
+ * and plays on a virtual clock: callbacks are called at once, in beat order, as the clock is advanced.
+ * A whole song's lyrics can be checked, or the cost of its events measured, without a sound device and without
+ * waiting for it to play.
+ * Mutable and not thread safe.
+ */
+public class RecordingSequencePlayer implements SequencePlayer {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // notes, in the order scheduled
+    private int notes = 0;
+    private double[] noteStarts = new double[INITIAL_CAPACITY];
+    private double[] noteDurations = new double[INITIAL_CAPACITY];
+    private int[] noteInstruments = new int[INITIAL_CAPACITY];
+    private int[] noteSemitones = new int[INITIAL_CAPACITY];
+
+    // callbacks, in the order scheduled
+    private int events = 0;
+    private double[] eventBeats = new double[INITIAL_CAPACITY];
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Consumer<Double>[] callbacks = new Consumer[INITIAL_CAPACITY];
+
+    // events [0, queued) are either called, or waiting in sorted or in heap; those scheduled since are not yet
+    private int queued = 0;
+    // events waiting since they were sorted in one batch, in the order they are called
+    private int[] sorted = new int[0];
+    private int next = 0;
+    // events waiting since they were queued one at a time, as a binary min-heap in the order they are called
+    private int[] heap = new int[INITIAL_CAPACITY];
+    private int heapSize = 0;
+    private int called = 0;
+    private double beat = 0;
+
+    // Abstraction function:
+    //    AF(notes, noteStarts, noteDurations, noteInstruments, noteSemitones, events, eventBeats, callbacks,
+    //       queued, sorted, next, heap, heapSize, called, beat) =
+    //       the notes i in [0, notes), each of Instrument.values()[noteInstruments[i]] at the pitch
+    //       noteSemitones[i] above middle C, from beat noteStarts[i] for noteDurations[i] beats,
+    //       and the callbacks i in [0, events), each scheduled at eventBeats[i], of which called have been called
+    //       and those in sorted[next..sorted.length), heap[0..heapSize) and [queued, events) have not,
+    //       on a virtual clock now at beat
+    // Rep invariant:
+    //    the note arrays have the same length >= notes, and the event arrays the same length >= events
+    //    0 <= next <= sorted.length, 0 <= heapSize <= heap.length, and 0 <= queued <= events
+    //    called + (sorted.length - next) + heapSize == queued
+    //    sorted[next..sorted.length) is ordered by beat, then by index
+    //    heap[0..heapSize) is a binary heap: no event in it comes before its parent, by beat then by index
+    // Safety from rep exposure:
+    //    All fields are private; no array is returned or taken from a client
+    // Thread safety argument:
+    //    This class is not thread safe
+
+    private void checkRep() {
+        assert noteStarts.length == noteDurations.length && noteStarts.length == noteInstruments.length
+                && noteStarts.length == noteSemitones.length && notes <= noteStarts.length;
+        assert eventBeats.length == callbacks.length && events <= eventBeats.length;
+        assert 0 <= next && next <= sorted.length && 0 <= heapSize && heapSize <= heap.length;
+        assert 0 <= queued && queued <= events;
+        assert called + (sorted.length - next) + heapSize == queued;
+    }
+
+    @Override
+    public void addNote(Instrument instr, Pitch pitch, double startBeat, double numBeats) {
+        if (notes == noteStarts.length) {
+            noteStarts = Arrays.copyOf(noteStarts, notes * 2);
+            noteDurations = Arrays.copyOf(noteDurations, notes * 2);
+            noteInstruments = Arrays.copyOf(noteInstruments, notes * 2);
+            noteSemitones = Arrays.copyOf(noteSemitones, notes * 2);
+        }
+        noteStarts[notes] = startBeat;
+        noteDurations[notes] = numBeats;
+        noteInstruments[notes] = instr.ordinal();
+        noteSemitones[notes] = pitch.difference(Pitch.MIDDLE_C);
+        notes++;
+    }
+
+    /**
+     * Schedule a callback when the virtual clock reaches a beat.
+     * @param atBeat beat at which to call the callback
+     * @param callback function to call, with exactly atBeat
+     */
+    @Override
+    public void addEvent(double atBeat, Consumer<Double> callback) {
+        if (events == eventBeats.length) {
+            eventBeats = Arrays.copyOf(eventBeats, events * 2);
+            callbacks = Arrays.copyOf(callbacks, events * 2);
+        }
+        eventBeats[events] = atBeat;
+        callbacks[events] = callback;
+        events++;
+    }
+
+    /**
+     * Advance the virtual clock past every event, calling each callback not called yet in beat order,
+     * and those at the same beat in the order they were scheduled.
+     */
+    @Override
+    public void play() {
+        advanceTo(Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Advance the virtual clock to a beat, calling each callback not called yet that is scheduled at or before it,
+     * in beat order, and those at the same beat in the order they were scheduled. A callback may schedule more,
+     * which are called in turn if they are due.
+     * @param toBeat beat to advance to; if it is before the clock, the clock stays where it is
+     */
+    public void advanceTo(double toBeat) {
+        while (true) {
+            if (queued < events) {
+                queue();
+            }
+            final int event;
+            if (next < sorted.length && (heapSize == 0 || before(sorted[next], heap[0]))) {
+                event = sorted[next];
+            } else if (heapSize > 0) {
+                event = heap[0];
+            } else {
+                break;
+            }
+            if (eventBeats[event] > toBeat) {
+                break;
+            }
+            if (next < sorted.length && event == sorted[next]) {
+                next++;
+            } else {
+                removeFirstFromHeap();
+            }
+            called++;
+            beat = Math.max(beat, eventBeats[event]);
+            callbacks[event].accept(eventBeats[event]);
+        }
+        if (toBeat != Double.POSITIVE_INFINITY) {
+            beat = Math.max(beat, toBeat);
+        }
+        checkRep();
+    }
+
+    /**
+     * Queue the events scheduled since the last call. If nothing else is waiting, as when a whole song was scheduled
+     * before playing, they are sorted in one batch; otherwise, as when a callback schedules more, each is added to
+     * the heap, so that no event already waiting is sorted again.
+     */
+    private void queue() {
+        if (next < sorted.length || heapSize > 0) {
+            for (; queued < events; queued++) {
+                addToHeap(queued);
+            }
+            return;
+        }
+        // sort primitive keys, each the rank of the event's beat among the batch's beats and then its index, so
+        // that events at the same beat stay in the order they were scheduled
+        final double[] beats = Arrays.copyOfRange(eventBeats, queued, events);
+        Arrays.sort(beats);
+        final long[] keys = new long[events - queued];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = (long) Arrays.binarySearch(beats, eventBeats[queued + i]) << Integer.SIZE | i;
+        }
+        Arrays.sort(keys);
+        sorted = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            sorted[i] = queued + (int) keys[i];
+        }
+        next = 0;
+        queued = events;
+    }
+
+    /**
+     * @return true iff event a is called before event b: it is at an earlier beat, or at the same beat and
+     *         scheduled first
+     */
+    private boolean before(int a, int b) {
+        final int byBeat = Double.compare(eventBeats[a], eventBeats[b]);
+        return byBeat < 0 || byBeat == 0 && a < b;
+    }
+
+    private void addToHeap(int event) {
+        if (heapSize == heap.length) {
+            heap = Arrays.copyOf(heap, heapSize * 2);
+        }
+        int child = heapSize++;
+        while (child > 0 && before(event, heap[(child - 1) / 2])) {
+            heap[child] = heap[(child - 1) / 2];
+            child = (child - 1) / 2;
+        }
+        heap[child] = event;
+    }
+
+    private void removeFirstFromHeap() {
+        final int last = heap[--heapSize];
+        int parent = 0;
+        while (2 * parent + 1 < heapSize) {
+            int child = 2 * parent + 1;
+            if (child + 1 < heapSize && before(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!before(heap[child], last)) {
+                break;
+            }
+            heap[parent] = heap[child];
+            parent = child;
+        }
+        heap[parent] = last;
+    }
+
+    /**
+     * @return the beat the virtual clock is at: the beat of the last callback called, or the last beat advanced to
+     *         if that is later
+     */
+    public double getBeat() {
+        return beat;
+    }
+
+    /**
+     * @return number of notes scheduled so far
+     */
+    public int noteCount() {
+        return notes;
+    }
+
+    /**
+     * @param i index in [0, noteCount()), in the order scheduled
+     * @return the instrument of note i
+     */
+    public Instrument noteInstrument(int i) {
+        return Instrument.values()[noteInstruments[checkIndex(i, notes)]];
+    }
+
+    /**
+     * @param i index in [0, noteCount()), in the order scheduled
+     * @return the pitch of note i
+     */
+    public Pitch notePitch(int i) {
+        return Pitch.MIDDLE_C.transpose(noteSemitones[checkIndex(i, notes)]);
+    }
+
+    /**
+     * @param i index in [0, noteCount()), in the order scheduled
+     * @return the beat at which note i starts
+     */
+    public double noteStart(int i) {
+        return noteStarts[checkIndex(i, notes)];
+    }
+
+    /**
+     * @param i index in [0, noteCount()), in the order scheduled
+     * @return the number of beats note i is played
+     */
+    public double noteDuration(int i) {
+        return noteDurations[checkIndex(i, notes)];
+    }
+
+    /**
+     * @return number of callbacks scheduled so far
+     */
+    public int eventCount() {
+        return events;
+    }
+
+    /**
+     * @param i index in [0, eventCount()), in the order scheduled
+     * @return the beat at which callback i is scheduled
+     */
+    public double eventBeat(int i) {
+        return eventBeats[checkIndex(i, events)];
+    }
+
+    /**
+     * @return number of callbacks called so far
+     */
+    public int calledCount() {
+        return called;
+    }
+
+    private static int checkIndex(int i, int size) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("index " + i + " of " + size);
+        }
+        return i;
+    }
+
+    @Override
+    public String toString() {
+        return "RecordingSequencePlayer(" + notes + " notes, " + called + "/" + events + " callbacks called, at beat "
+                + beat + ")";
+    }
+}
@@ -0,0 +1,119 @@
+package karaoke.sound;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A Music object representing a repeated section: the body, then the first ending, then the body again.
+ * The body is shared rather than copied, and is only played twice when events are scheduled.
+ * A second ending, if any, is simply the music that follows the repeat.
+ */
+
+public class Repeat implements Music {
+
+    // ending of a repeat without alternate endings; compared by identity so that it is not printed
+    private static final Music NO_ENDING = new Rest(0);
+
+    private final Music body;
+    private final Music firstEnding;
+
+    // Abstraction function:
+    //    AF(body, firstEnding) = the music body, followed by firstEnding, followed by body again,
+    //       for a duration of 2 * body.duration() + firstEnding.duration()
+    // Rep invariant:
+    //    duration >= 0
+    // Safety from rep exposure:
+    //    All fields are private, final, and immutable
+    // Thread safety argument:
+    //    This class is thread safe because it is immutable:
+    //       - There are no mutator methods in this class
+    //       - All fields are private, final, and immutable, so both the fields' object types and references are immutable
+    //       - The rep is not exposed to the client
+    //       - No mutation of any kind occurs
+
+    /**
+     * Creates a new Repeat object without alternate endings
+     * @param body the music played twice in succession
+     */
+    public Repeat(Music body) {
+        this(body, NO_ENDING);
+    }
+
+    /**
+     * Creates a new Repeat object
+     * @param body the music played twice
+     * @param firstEnding the music played between the two passes of body
+     */
+    public Repeat(Music body, Music firstEnding) {
+        this.body = body;
+        this.firstEnding = firstEnding;
+        checkRep();
+    }
+
+    /**
+     * Checks the rep invariant
+     */
+    private void checkRep() {
+        assert this.duration() >= 0;
+    }
+
+    @Override
+    public Rational exactDuration() {
+        return body.exactDuration().times(2).plus(firstEnding.exactDuration());
+    }
+
+    @Override
+    public long ticksPerBeat() {
+        return Rational.lcm(body.ticksPerBeat(), firstEnding.ticksPerBeat());
+    }
+
+    @Override
+    public void play(SequencePlayer player, double atBeat, OutputStream lyricStream, String voice) throws InterruptedException {
+        // offsets are summed exactly and converted to beats once, as Tuplet does
+        final Rational endingOffset = this.body.exactDuration();
+        final Rational secondOffset = endingOffset.plus(this.firstEnding.exactDuration());
+        this.body.play(player, atBeat, lyricStream, voice);
+        this.firstEnding.play(player, atBeat + endingOffset.doubleValue(), lyricStream, voice);
+        this.body.play(player, atBeat + secondOffset.doubleValue(), lyricStream, voice);
+    }
+
+    @Override
+    public Music transpose(int semitonesUp) {
+        checkRep();
+        return semitonesUp == 0 ? this : new Transposed(this, semitonesUp);
+    }
+
+    @Override
+    public void write(MusicWriter writer) throws IOException {
+        if (this.firstEnding == NO_ENDING) {
+            writer.repeat(this.body);
+        } else {
+            writer.repeat(this.body, this.firstEnding);
+        }
+    }
+
+    @Override
+    public String toString() {
+        checkRep();
+        return MusicText.of(this);
+    }
+
+    @Override
+    public String[] getVoices() {
+        final List<String> bodyVoices = Arrays.asList(body.getVoices());
+        List<String> voices = new ArrayList<>(bodyVoices);
+        voices.addAll(Arrays.asList(firstEnding.getVoices()));
+        voices.addAll(bodyVoices);
+        checkRep();
+        return voices.toArray(new String[voices.size()]);
+    }
+
+    @Override
+    public String getLyrics(String voice) {
+        return LyricText.of(this, voice);
+    }
+
+}
@@ -1,5 +1,6 @@
 package karaoke.sound;
 
+import java.io.IOException;
 import java.io.OutputStream;
 
 /**
@@ -8,7 +9,7 @@ import java.io.OutputStream;
 
 public class Rest implements Music {
 
-    private final double duration;
+    private final Rational duration;
     
     // Abstraction function:
     //    AF(duration) = a Rest object that plays nothing for the given amount of time duration
@@ -29,6 +30,14 @@ public class Rest implements Music {
      * @param duration How long the rest will play for 
      */
     public Rest(double duration) {
+        this(Rational.valueOf(duration));
+    }
+
+    /**
+     * Creates a new rest object
+     * @param duration How long the rest will play for, in exact beats
+     */
+    public Rest(Rational duration) {
         this.duration = duration;
         checkRep();
     }
@@ -41,23 +50,33 @@ public class Rest implements Music {
     }
     
     @Override
-    public double duration() {
+    public Rational exactDuration() {
         return this.duration;
     }
 
+    @Override
+    public long ticksPerBeat() {
+        return this.duration.denominator();
+    }
+
     @Override
     public void play(SequencePlayer player, double atBeat, OutputStream lyricStream, String voice) {}
 
     @Override
     public Music transpose(int semitonesUp) {
         checkRep();
-        return new Rest(this.duration);
+        return this;
     }
     
+    @Override
+    public void write(MusicWriter writer) throws IOException {
+        writer.rest(this.duration);
+    }
+
     @Override
     public String toString() {
         checkRep();
-        return "z" + this.duration();
+        return MusicText.of(this);
     }
     
     @Override
@@ -66,7 +85,7 @@ public class Rest implements Music {
     }
     
     private boolean sameVal(Rest that) {
-        return this.duration == that.duration;
+        return this.duration.equals(that.duration);
     }
     
     @Override
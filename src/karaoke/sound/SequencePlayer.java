@@ -1,5 +1,13 @@
 package karaoke.sound;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.Map;
 import java.util.function.Consumer;
 
 /**
@@ -30,6 +38,65 @@ public interface SequencePlayer {
      */
     public void addEvent(double atBeat, Consumer<Double> callback);
 
+    /**
+     * Schedule a line of lyrics to be written when the synthesizer reaches a time.
+     * Blank lines (empty or a single space) are not written.
+     * @param atBeat beat at which to write the lyric
+     * @param lyric the line to write
+     * @param lyricStream the output stream for lyrics
+     */
+    public default void addLyric(double atBeat, String lyric, OutputStream lyricStream) {
+        PrintWriter lyricOut = new PrintWriter(new OutputStreamWriter(lyricStream, UTF_8), true);
+        addEvent(atBeat, x -> {
+            if (!lyric.isEmpty() && !lyric.equals(" ")) {
+                lyricOut.write(lyric + "<br>");
+                lyricOut.flush();
+            }
+        });
+    }
+
+    /**
+     * Schedule every note and lyric of a compiled music.
+     * @param compiled the compiled music
+     * @param atBeat the beat at which the compiled music starts
+     * @param lyricStream the output stream for lyrics
+     */
+    public default void addCompiled(CompiledMusic compiled, double atBeat, OutputStream lyricStream) {
+        final double ticksPerBeat = compiled.ticksPerBeat();
+        for (int i = 0; i < compiled.noteCount(); i++) {
+            addNote(compiled.instrument(compiled.channel(i)), compiled.pitch(i),
+                    atBeat + compiled.startTick(i) / ticksPerBeat, compiled.durationTicks(i) / ticksPerBeat);
+        }
+        addLyrics(compiled, atBeat, Collections.singletonMap(lyricStream, LyricTimingListener.NONE));
+    }
+
+    /**
+     * Schedule every lyric line of a compiled music for several subscribers at once.
+     * At each tick that has lyrics, the lines due are encoded once, and each subscriber's stream gets all of them
+     * in one write and one flush.
+     * The default implementation does not tell the listeners anything.
+     * @param compiled the compiled music, whose notes are not scheduled
+     * @param atBeat the beat at which the compiled music starts
+     * @param subscribers the output stream of each subscriber, with the listener told about its writes;
+     *                    an IOException from a stream is ignored, as PrintWriter would
+     */
+    public default void addLyrics(CompiledMusic compiled, double atBeat, Map<OutputStream, LyricTimingListener> subscribers) {
+        final double ticksPerBeat = compiled.ticksPerBeat();
+        for (int i = 0; i < compiled.lyricCount(); i = compiled.lyricTickEnd(i)) {
+            final byte[] lines = compiled.lyricBytes(i, compiled.lyricTickEnd(i));
+            addEvent(atBeat + compiled.lyricTick(i) / ticksPerBeat, x -> {
+                for (OutputStream lyricStream : subscribers.keySet()) {
+                    try {
+                        lyricStream.write(lines);
+                        lyricStream.flush();
+                    } catch (IOException e) {
+                        // the subscriber is gone; the others still get their lines
+                    }
+                }
+            });
+        }
+    }
+
     /**
      * Play the scheduled music.
      */
@@ -0,0 +1,126 @@
+package karaoke.sound;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.Consumer;
+
+/**
+ * Music object that plays another music raised or lowered by a number of semitones.
+ * The underlying music is shared, not copied, so changing key costs the same no matter how long the song is.
+ */
+
+public class Transposed implements Music {
+
+    private final Music music;
+    private final int semitonesUp;
+
+    // Abstraction function:
+    //    AF(music, semitonesUp) = the music played with every pitch shifted by semitonesUp semitones
+    // Rep invariant:
+    //    music is not itself a Transposed (offsets are combined instead of nested)
+    //    semitonesUp != 0
+    // Safety from rep exposure:
+    //    All fields are private, final, and immutable
+    // Thread safety argument:
+    //    This class is thread safe because it is immutable:
+    //       - There are no mutator methods in this class
+    //       - All fields are private, final, and immutable, so both the fields' object types and references are immutable
+    //       - The rep is not exposed to the client
+    //       - No mutation of any kind occurs
+
+    /**
+     * Creates a new Transposed object
+     * @param music the music to transpose, must not be a Transposed
+     * @param semitonesUp the number of semitones to raise the pitch, nonzero
+     */
+    Transposed(Music music, int semitonesUp) {
+        this.music = music;
+        this.semitonesUp = semitonesUp;
+        checkRep();
+    }
+
+    /**
+     * Checks the rep invariant
+     */
+    private void checkRep() {
+        assert !(this.music instanceof Transposed);
+        assert this.semitonesUp != 0;
+    }
+
+    @Override
+    public Rational exactDuration() {
+        return this.music.exactDuration();
+    }
+
+    @Override
+    public long ticksPerBeat() {
+        return this.music.ticksPerBeat();
+    }
+
+    @Override
+    public void play(SequencePlayer player, double atBeat, OutputStream lyricStream, String voice) throws InterruptedException {
+        this.music.play(new TransposingPlayer(player, this.semitonesUp), atBeat, lyricStream, voice);
+    }
+
+    @Override
+    public Music transpose(int semitonesUp) {
+        checkRep();
+        final int total = this.semitonesUp + semitonesUp;
+        return total == 0 ? this.music : new Transposed(this.music, total);
+    }
+
+    @Override
+    public void write(MusicWriter writer) throws IOException {
+        writer.transposed(this.music, this.semitonesUp);
+    }
+
+    @Override
+    public String toString() {
+        checkRep();
+        return MusicText.of(this);
+    }
+
+    @Override
+    public String[] getVoices() {
+        return this.music.getVoices();
+    }
+
+    @Override
+    public String getLyrics(String voice) {
+        return this.music.getLyrics(voice);
+    }
+
+    /**
+     * SequencePlayer that shifts the pitch of every note by a fixed offset on its way to another player
+     */
+    private static class TransposingPlayer implements SequencePlayer {
+
+        private final SequencePlayer player;
+        private final int semitonesUp;
+
+        TransposingPlayer(SequencePlayer player, int semitonesUp) {
+            this.player = player;
+            this.semitonesUp = semitonesUp;
+        }
+
+        @Override
+        public void addNote(Instrument instr, Pitch pitch, double startBeat, double numBeats) {
+            this.player.addNote(instr, pitch.transpose(this.semitonesUp), startBeat, numBeats);
+        }
+
+        @Override
+        public void addEvent(double atBeat, Consumer<Double> callback) {
+            this.player.addEvent(atBeat, callback);
+        }
+
+        @Override
+        public void addLyric(double atBeat, String lyric, OutputStream lyricStream) {
+            this.player.addLyric(atBeat, lyric, lyricStream);
+        }
+
+        @Override
+        public void play() {
+            this.player.play();
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package karaoke.sound;
 
+import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -61,19 +61,19 @@ public class Tuplet implements Music {
     }
     
     @Override
-    public double duration() {
+    public Rational exactDuration() {
         switch(notes.size()) {
             case TWO:
                 {
-                    return notes.get(0).duration() * THREE;
+                    return notes.get(0).exactDuration().times(THREE);
                 }
             case THREE:
                 {
-                    return notes.get(0).duration() * TWO;
+                    return notes.get(0).exactDuration().times(TWO);
                 }
             case FOUR:
                 {
-                    return notes.get(0).duration() * THREE;
+                    return notes.get(0).exactDuration().times(THREE);
                 }
             default:
                 {
@@ -83,32 +83,45 @@ public class Tuplet implements Music {
     }
 
     @Override
-    public void play(SequencePlayer player, double atBeat, OutputStream lyricStream, String voice) throws InterruptedException {
-        double length = this.duration() / this.notes.size();
+    public long ticksPerBeat() {
+        long ticksPerBeat = this.length().denominator();
         for (Music music: this.notes) {
-            music.play(player, atBeat, lyricStream, voice);
-            atBeat += length;
+            ticksPerBeat = Rational.lcm(ticksPerBeat, music.ticksPerBeat());
         }
+        return ticksPerBeat;
+    }
+
+    /**
+     * @return the exact time between the starts of consecutive notes of this tuplet
+     */
+    private Rational length() {
+        return this.exactDuration().dividedBy(this.notes.size());
     }
 
     @Override
-    public Music transpose(int semitonesUp) {
-        List<Music> newNotes = new ArrayList<>();
-        for (Music note : this.notes) {
-            newNotes.add(note.transpose(semitonesUp));
+    public void play(SequencePlayer player, double atBeat, OutputStream lyricStream, String voice) throws InterruptedException {
+        // each note's offset is computed exactly, so a triplet's thirds do not accumulate rounding error
+        final Rational length = this.length();
+        for (int i = 0; i < this.notes.size(); i++) {
+            this.notes.get(i).play(player, atBeat + length.times(i).doubleValue(), lyricStream, voice);
         }
+    }
+
+    @Override
+    public Music transpose(int semitonesUp) {
         checkRep();
-        return new Tuplet(newNotes);
+        return semitonesUp == 0 ? this : new Transposed(this, semitonesUp);
     }
     
-    @Override 
+    @Override
+    public void write(MusicWriter writer) throws IOException {
+        writer.tuplet(this.notes, this.exactDuration());
+    }
+
+    @Override
     public String toString() {
-        String result = "(" + this.notes.size();
-        for (Music note : this.notes) {
-            result += note.toString();
-        }
         checkRep();
-        return result + this.duration();
+        return MusicText.of(this);
     }
     
     @Override
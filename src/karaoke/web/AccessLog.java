@@ -0,0 +1,283 @@
+package karaoke.web;
+
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous log of requests and server messages.
+ *
+ * Request threads copy their fields into a preallocated slot of a fixed-size ring buffer and return
+ * immediately; a single background thread formats the slots and writes them to the output stream,
+ * flushing it once it has caught up, and sleeps while there is nothing to write.
+ * If the buffer is full, the entry is dropped and counted rather than blocking the caller.
+ */
+public class AccessLog implements Closeable {
+
+    /**
+     * Default number of entries that can wait to be written.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    // the writer is woken by each entry published, so this only bounds how long a missed wakeup could delay it
+    private static final long IDLE_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private final Entry[] slots;
+    // published[i] == sequence + 1 once the entry with that sequence number is ready in slots[i]
+    private final AtomicLongArray published;
+    // next sequence number to hand to a producer
+    private final AtomicLong claimed = new AtomicLong();
+    // next sequence number the writer will read; only written by the writer thread
+    private volatile long consumed = 0;
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final PrintStream out;
+    private final Thread writer;
+    private volatile boolean running = true;
+    // true while the writer is parked or about to park, so producers must unpark it
+    private volatile boolean sleeping = false;
+
+    // Abstraction function:
+    //    AF(slots, published, claimed, consumed, dropped, out) = a queue of the log entries with sequence numbers
+    //       consumed..claimed-1, each stored in slots[sequence % slots.length] and visible once published,
+    //       being written in order to out; dropped entries were discarded because the queue was full
+    // Rep invariant:
+    //    0 <= claimed - consumed <= slots.length
+    // Safety from rep exposure:
+    //    All fields are private; slots are never returned
+    // Thread safety argument:
+    //    producers reserve distinct sequence numbers with compareAndSet on claimed, so no two write the same slot;
+    //    a slot is only reused after the writer has advanced consumed past it;
+    //    published.set and consumed are the happens-before edges between a producer's writes and the writer's reads;
+    //    the writer sets sleeping before checking published a last time, and a producer reads sleeping after
+    //    publishing, so either the writer sees the entry or the producer unparks it
+
+    /**
+     * Make a log with the default capacity and start its writer thread.
+     * @param out destination for formatted entries
+     */
+    public AccessLog(PrintStream out) {
+        this(DEFAULT_CAPACITY, out);
+    }
+
+    /**
+     * Make a log and start its writer thread.
+     * @param capacity the number of entries that can wait to be written, > 0
+     * @param out destination for formatted entries
+     */
+    public AccessLog(int capacity, PrintStream out) {
+        this.slots = new Entry[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Entry();
+        }
+        this.published = new AtomicLongArray(capacity);
+        this.out = out;
+        this.writer = new Thread(this::drain, "access-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        checkRep();
+    }
+
+    private void checkRep() {
+        final long pending = claimed.get() - consumed;
+        assert pending >= 0 && pending <= slots.length;
+    }
+
+    /**
+     * Log a completed request.
+     * @param method HTTP method
+     * @param path request path
+     * @param voice the voice streamed, or "" if none
+     * @param status HTTP status code sent
+     * @param bytes number of bytes in the response body
+     * @param durationNanos time spent handling the request, in nanoseconds
+     */
+    public void request(String method, String path, String voice, int status, long bytes, long durationNanos) {
+        final long sequence = claim();
+        if (sequence < 0) {
+            return;
+        }
+        Entry entry = slots[index(sequence)];
+        entry.set(System.currentTimeMillis(), method, path, voice, status, bytes, durationNanos, null, null);
+        publish(sequence);
+    }
+
+    /**
+     * Log a message.
+     * @param message text of the message
+     */
+    public void message(String message) {
+        error(message, null);
+    }
+
+    /**
+     * Log a message with an exception, whose stack trace is written too.
+     * @param message text of the message
+     * @param error the exception, or null for none
+     */
+    public void error(String message, Throwable error) {
+        final long sequence = claim();
+        if (sequence < 0) {
+            return;
+        }
+        Entry entry = slots[index(sequence)];
+        entry.set(System.currentTimeMillis(), null, null, null, 0, 0, 0, message, error);
+        publish(sequence);
+    }
+
+    /**
+     * @return the number of entries discarded because the buffer was full
+     */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Write every entry logged so far, then stop the writer thread.
+     * Entries logged after this returns are discarded.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return a sequence number reserved for the caller, or -1 if the buffer is full or closed
+     */
+    private long claim() {
+        while (running) {
+            final long sequence = claimed.get();
+            if (sequence - consumed >= slots.length) {
+                dropped.incrementAndGet();
+                return -1;
+            }
+            if (claimed.compareAndSet(sequence, sequence + 1)) {
+                return sequence;
+            }
+        }
+        dropped.incrementAndGet();
+        return -1;
+    }
+
+    /**
+     * Make the entry with a claimed sequence number visible to the writer, and wake the writer if it is asleep.
+     * @param sequence a sequence number returned by claim(), whose slot has been set
+     */
+    private void publish(long sequence) {
+        published.set(index(sequence), sequence + 1);
+        if (sleeping) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % slots.length);
+    }
+
+    /**
+     * Body of the writer thread: format published entries in order until closed and drained.
+     */
+    private void drain() {
+        final StringBuilder line = new StringBuilder();
+        long reportedDrops = 0;
+        boolean written = false;
+        while (true) {
+            final long sequence = consumed;
+            final int index = index(sequence);
+            if (published.get(index) == sequence + 1) {
+                slots[index].format(line);
+                slots[index].clear();
+                consumed = sequence + 1;
+                out.append(line).append('\n');
+                line.setLength(0);
+                written = true;
+            } else if (running || sequence < claimed.get()) {
+                // nothing ready: report drops, flush what was written, and sleep until an entry is published
+                final long drops = dropped.get();
+                if (drops != reportedDrops) {
+                    out.append("access log dropped ").append(String.valueOf(drops - reportedDrops)).append(" entries\n");
+                    reportedDrops = drops;
+                    written = true;
+                }
+                if (written) {
+                    out.flush();
+                    written = false;
+                }
+                sleeping = true;
+                if (published.get(index) != sequence + 1 && running) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+                sleeping = false;
+            } else {
+                out.flush();
+                return;
+            }
+        }
+    }
+
+    /**
+     * A reusable slot in the ring buffer.
+     * Either a request (method != null) or a message.
+     */
+    private static class Entry {
+        private long timeMillis;
+        private String method;
+        private String path;
+        private String voice;
+        private int status;
+        private long bytes;
+        private long durationNanos;
+        private String message;
+        private Throwable error;
+
+        void set(long timeMillis, String method, String path, String voice, int status, long bytes,
+                long durationNanos, String message, Throwable error) {
+            this.timeMillis = timeMillis;
+            this.method = method;
+            this.path = path;
+            this.voice = voice;
+            this.status = status;
+            this.bytes = bytes;
+            this.durationNanos = durationNanos;
+            this.message = message;
+            this.error = error;
+        }
+
+        /**
+         * Drop references so that logged objects can be collected.
+         */
+        void clear() {
+            set(0, null, null, null, 0, 0, 0, null, null);
+        }
+
+        void format(StringBuilder line) {
+            line.append("ts=").append(timeMillis);
+            if (method != null) {
+                line.append(" method=").append(method)
+                    .append(" path=").append(path)
+                    .append(" voice=").append(voice)
+                    .append(" status=").append(status)
+                    .append(" bytes=").append(bytes)
+                    .append(" duration_ms=").append(durationNanos / NANOS_PER_MILLI);
+            } else {
+                line.append(" msg=\"").append(message).append('"');
+                if (error != null) {
+                    line.append(" error=").append(error);
+                    for (StackTraceElement frame : error.getStackTrace()) {
+                        line.append("\n\tat ").append(frame);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package karaoke.web;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe histogram of durations with log-linear buckets, in the style of HdrHistogram:
+ * every power of two from 1 microsecond to about 67 seconds is split into SUB_BUCKETS
+ * equal-width buckets, so a reported quantile is within 1/SUB_BUCKETS (about 3%) of the true value at every scale.
+ * Recording is lock free and allocates nothing.
+ */
+public class LatencyHistogram {
+
+    private static final long LOWEST_NANOS = 1000;
+    private static final int OCTAVES = 26;
+    private static final int SUB_BUCKETS = 32;
+    // Prometheus gets every PROMETHEUS_STRIDE-th bound, two per power of two, to keep the exposition small
+    private static final int PROMETHEUS_STRIDE = SUB_BUCKETS / 2;
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    // UPPER_BOUNDS[i] is the largest value counted in bucket i; the final bucket has no upper bound
+    private static final long[] UPPER_BOUNDS = new long[OCTAVES * SUB_BUCKETS + 1];
+    static {
+        UPPER_BOUNDS[0] = LOWEST_NANOS;
+        for (int octave = 0; octave < OCTAVES; octave++) {
+            final long base = LOWEST_NANOS << octave;
+            for (int sub = 1; sub <= SUB_BUCKETS; sub++) {
+                UPPER_BOUNDS[octave * SUB_BUCKETS + sub] = base + base * sub / SUB_BUCKETS;
+            }
+        }
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(UPPER_BOUNDS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong(Long.MIN_VALUE);
+
+    // Abstraction function:
+    //    AF(counts, count, sumNanos, maxNanos) = a multiset of count durations whose total is sumNanos and largest
+    //       is maxNanos, where counts[i] durations were at most UPPER_BOUNDS[i] and more than UPPER_BOUNDS[i-1],
+    //       and counts[UPPER_BOUNDS.length] durations were larger than every bound
+    // Rep invariant:
+    //    count == sum of counts, once every concurrent record() has returned
+    // Safety from rep exposure:
+    //    All fields are private and final, and no method returns a reference to them
+    // Thread safety argument:
+    //    Every field is an atomic, and record() only updates each with a single atomic operation;
+    //    readers may see a recording that is only partly applied, which is acceptable for monitoring
+
+    /**
+     * Record one duration.
+     * @param nanos the duration in nanoseconds; negative durations are counted in the lowest bucket
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(bucketFor(nanos));
+        count.incrementAndGet();
+        sumNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    private static int bucketFor(long nanos) {
+        final int found = Arrays.binarySearch(UPPER_BOUNDS, Math.max(0, nanos));
+        return found >= 0 ? found : -found - 1;
+    }
+
+    /**
+     * @return the number of durations recorded
+     */
+    public long count() {
+        return count.get();
+    }
+
+    /**
+     * @return the largest duration recorded in nanoseconds, or 0 if none have been recorded
+     */
+    public long maxNanos() {
+        return count() == 0 ? 0 : maxNanos.get();
+    }
+
+    /**
+     * @param quantile between 0 and 1, e.g. 0.99 for the 99th percentile
+     * @return an upper bound on the duration at the given quantile in nanoseconds, at most 1/32 more than it
+     *         for durations of 1 microsecond or more, or 0 if nothing has been recorded
+     */
+    public long valueAtQuantile(double quantile) {
+        final long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < UPPER_BOUNDS.length; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(UPPER_BOUNDS[i], maxNanos());
+            }
+        }
+        return maxNanos();
+    }
+
+    /**
+     * Append this histogram in the Prometheus text exposition format, without HELP or TYPE lines,
+     * with buckets at 1 microsecond and at one and a half times and twice every power of two above it.
+     * @param out destination
+     * @param name metric name, ending in _seconds
+     * @param labels label pairs already formatted as name="value", separated by commas; may be empty
+     */
+    public void writePrometheus(StringBuilder out, String name, String labels) {
+        final String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < UPPER_BOUNDS.length; i++) {
+            cumulative += counts.get(i);
+            if (i % PROMETHEUS_STRIDE != 0) {
+                continue;
+            }
+            out.append(name).append("_bucket{").append(prefix).append("le=\"")
+               .append(UPPER_BOUNDS[i] / NANOS_PER_SECOND).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += counts.get(UPPER_BOUNDS.length);
+        out.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+        out.append(name).append("_sum{").append(labels).append("} ").append(sumNanos.get() / NANOS_PER_SECOND).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+    }
+}
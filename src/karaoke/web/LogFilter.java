@@ -3,30 +3,79 @@
  */
 package karaoke.web;
 
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 import com.sun.net.httpserver.Filter;
 import com.sun.net.httpserver.HttpExchange;
 
 /**
- * Logging filter that reports request URLs, exceptions, and response codes to
- * the console.
+ * Logging filter that reports each request's method, path, voice, response code,
+ * response size, and duration, along with any exception, to an AccessLog.
  * 
  * <p>PS4 instructions: you may use, modify, or remove this class.
  */
 public class LogFilter extends Filter {
     
+    private final AccessLog log;
+    
+    /**
+     * Make a filter that logs requests.
+     * @param log destination for request entries
+     */
+    public LogFilter(AccessLog log) {
+        this.log = log;
+    }
+    
     @Override public String description() { return "Log requests"; }
     
     @Override public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
-        System.err.println(" -> " + exchange.getRequestMethod() + " " + exchange.getRequestURI());
+        final long start = System.nanoTime();
+        final CountingOutputStream body = new CountingOutputStream(exchange.getResponseBody());
+        exchange.setStreams(exchange.getRequestBody(), body);
         try {
             chain.doFilter(exchange);
         } catch (IOException | RuntimeException e) {
-            System.err.print(" !! ");
-            e.printStackTrace();
+            log.error(exchange.getRequestMethod() + " " + exchange.getRequestURI(), e);
             throw e; // after logging, let the exception continue
+        } finally {
+            log.request(exchange.getRequestMethod(), exchange.getRequestURI().getPath(), voiceOf(exchange),
+                    exchange.getResponseCode(), body.count, System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * @param exchange request/reply object
+     * @return the last segment of the request path, without slashes, e.g. the voice of /soprano/ or /room/1/soprano/
+     */
+    private static String voiceOf(HttpExchange exchange) {
+        final String path = exchange.getRequestURI().getPath();
+        int end = path.length();
+        while (end > 0 && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        return path.substring(path.lastIndexOf('/', end - 1) + 1, end);
+    }
+    
+    /**
+     * Output stream that counts the bytes written through it.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
+        
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+        
+        @Override public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
         }
-        System.err.println(" <- " + exchange.getResponseCode());
     }
 }
@@ -0,0 +1,431 @@
+package karaoke.web;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import karaoke.sound.Header;
+import karaoke.sound.Instrument;
+import karaoke.sound.Music;
+import karaoke.sound.MusicWriter;
+import karaoke.sound.Piece;
+import karaoke.sound.Pitch;
+import karaoke.sound.Rational;
+
+/**
+ * A full-text index of the lyrics of a catalog of songs, for finding songs by a remembered line.
+ *
+ * A query matches a run of consecutive syllables of a voice, in the order they are sung, when the query's words
+ * spell out the run: each word is one syllable or several whole syllables in a row, ignoring case and every
+ * character other than letters and digits. So "Hello, world" matches the syllables hel-lo world.
+ */
+public class LyricIndex {
+
+    private static final String MARK = "<mark>";
+    private static final String END_MARK = "</mark>";
+    private static final String DEFAULT_VOICE = "default";
+
+    // the syllables of every voice indexed, numbered by their position in this list
+    private final List<Voice> voices = new ArrayList<>();
+    // the voice number and syllable position of every occurrence of each syllable
+    private final Map<String, Postings> postings = new HashMap<>();
+
+    // Abstraction function:
+    //    AF(voices, postings) = an index of the sung syllables of every voice in voices, where each syllable s
+    //       of voice number v at position i is listed as (v, i) in postings.get(s)
+    // Rep invariant:
+    //    every syllable of every voice is nonempty, lowercase, and only letters and digits
+    //    postings lists each (v, i) with 0 <= v < voices.size() and 0 <= i < voices.get(v).syllables.length
+    //       under exactly voices.get(v).syllables[i], in increasing order
+    // Safety from rep exposure:
+    //    All fields are private and final; the voices and postings are never returned,
+    //    and search returns new immutable Matches
+    // Thread safety argument:
+    //    voices and postings are only accessed while holding this object's lock
+
+    /**
+     * The syllables of one voice of a song, in the order they are sung.
+     */
+    private static class Voice {
+        private final String song;
+        private final String title;
+        private final String voice;
+        private final String[] syllables;
+        // the line each syllable is sung in, as an index into lines
+        private final int[] lineOf;
+        private final List<String> lines;
+
+        Voice(String song, String title, String voice, String[] syllables, int[] lineOf, List<String> lines) {
+            this.song = song;
+            this.title = title;
+            this.voice = voice;
+            this.syllables = syllables;
+            this.lineOf = lineOf;
+            this.lines = lines;
+        }
+    }
+
+    /**
+     * Growable list of (voice, position) pairs.
+     */
+    private static class Postings {
+        private int[] entries = new int[2];
+        private int size = 0;
+
+        void add(int voice, int position) {
+            if (size * 2 == entries.length) {
+                entries = Arrays.copyOf(entries, entries.length * 2);
+            }
+            entries[size * 2] = voice;
+            entries[size * 2 + 1] = position;
+            size++;
+        }
+    }
+
+    /**
+     * A place in the catalog where a query was found.
+     * Immutable.
+     */
+    public static final class Match {
+        private final String song;
+        private final String title;
+        private final String voice;
+        private final String line;
+
+        private Match(String song, String title, String voice, String line) {
+            this.song = song;
+            this.title = title;
+            this.voice = voice;
+            this.line = line;
+        }
+
+        /**
+         * @return the name the song was added to the index under
+         */
+        public String getSong() {
+            return song;
+        }
+
+        /**
+         * @return the title of the song
+         */
+        public String getTitle() {
+            return title;
+        }
+
+        /**
+         * @return the voice that sings the match
+         */
+        public String getVoice() {
+            return voice;
+        }
+
+        /**
+         * @return the lyric line the match starts in
+         */
+        public String getLine() {
+            return line;
+        }
+
+        @Override
+        public String toString() {
+            return song + "\t" + title + "\t" + voice + "\t" + line;
+        }
+    }
+
+    /**
+     * Make an empty index.
+     */
+    public LyricIndex() {
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert postings.isEmpty() || !voices.isEmpty();
+    }
+
+    /**
+     * @param text any text
+     * @return text lowercased, with everything but letters and digits removed
+     */
+    private static String normalize(String text) {
+        final StringBuilder normalized = new StringBuilder(text.length());
+        for (char c : text.toCharArray()) {
+            if (Character.isLetterOrDigit(c)) {
+                normalized.append(Character.toLowerCase(c));
+            }
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Index the lyrics of every voice of a song.
+     * @param song name of the song, reported with each match
+     * @param music the song
+     */
+    public void add(String song, Music music) {
+        final SyllableCollector collector = new SyllableCollector(song);
+        try {
+            if (music instanceof Piece) {
+                music.write(collector);
+            } else {
+                // a music without a header is a single voice
+                collector.voice(song, DEFAULT_VOICE, music);
+            }
+        } catch (IOException e) {
+            throw new AssertionError("collecting syllables cannot fail", e);
+        }
+        synchronized (this) {
+            for (Voice voice : collector.voices) {
+                final int number = voices.size();
+                voices.add(voice);
+                for (int i = 0; i < voice.syllables.length; i++) {
+                    postings.computeIfAbsent(voice.syllables[i], s -> new Postings()).add(number, i);
+                }
+            }
+            checkRep();
+        }
+    }
+
+    /**
+     * Find the places in the catalog that sing a phrase.
+     * @param query words of the phrase
+     * @param limit the most matches to return, >= 0
+     * @return up to limit matches of query, in the order the songs were added and then about the order they are sung;
+     *         empty if query has no letters or digits
+     */
+    public List<Match> search(String query, int limit) {
+        // the query without spaces, and where each of its words starts in it
+        final StringBuilder text = new StringBuilder();
+        final List<Integer> wordStarts = new ArrayList<>();
+        for (String word : query.trim().split("\\s+")) {
+            final String normalized = normalize(word);
+            if (!normalized.isEmpty()) {
+                wordStarts.add(text.length());
+                text.append(normalized);
+            }
+        }
+        if (wordStarts.isEmpty() || limit == 0) {
+            return Collections.emptyList();
+        }
+        final String phrase = text.toString();
+        final boolean[] startsWord = new boolean[phrase.length() + 1];
+        for (int start : wordStarts) {
+            startsWord[start] = true;
+        }
+        startsWord[phrase.length()] = true;
+
+        final List<Match> matches = new ArrayList<>();
+        synchronized (this) {
+            // a match has a syllable starting each word, and that syllable is a prefix of the word,
+            // so look up the word whose prefixes occur least often
+            int anchor = 0;
+            long fewest = Long.MAX_VALUE;
+            for (int w = 0; w < wordStarts.size(); w++) {
+                final long count = prefixPostings(phrase, wordStarts.get(w), startsWord).stream().mapToLong(p -> p.size).sum();
+                if (count < fewest) {
+                    anchor = w;
+                    fewest = count;
+                }
+            }
+            final int anchorStart = wordStarts.get(anchor);
+            // merge the candidates in order of (voice, position), so that the first matches found are returned
+            final List<Postings> candidates = prefixPostings(phrase, anchorStart, startsWord);
+            final int[] next = new int[candidates.size()];
+            while (matches.size() < limit) {
+                int earliest = -1;
+                for (int c = 0; c < candidates.size(); c++) {
+                    if (next[c] < candidates.get(c).size
+                            && (earliest < 0 || compare(candidates.get(c), next[c], candidates.get(earliest), next[earliest]) < 0)) {
+                        earliest = c;
+                    }
+                }
+                if (earliest < 0) {
+                    break;
+                }
+                final Postings found = candidates.get(earliest);
+                final Voice voice = voices.get(found.entries[next[earliest] * 2]);
+                final int position = found.entries[next[earliest] * 2 + 1];
+                next[earliest]++;
+                final int start = matchStart(voice.syllables, position, phrase, anchorStart, startsWord);
+                if (start >= 0) {
+                    matches.add(new Match(voice.song, voice.title, voice.voice, voice.lines.get(voice.lineOf[start])));
+                }
+            }
+        }
+        return Collections.unmodifiableList(matches);
+    }
+
+    /**
+     * @return negative, zero, or positive as entry i of a is before, the same as, or after entry j of b
+     */
+    private static int compare(Postings a, int i, Postings b, int j) {
+        final int byVoice = Integer.compare(a.entries[i * 2], b.entries[j * 2]);
+        return byVoice != 0 ? byVoice : Integer.compare(a.entries[i * 2 + 1], b.entries[j * 2 + 1]);
+    }
+
+    /**
+     * @return the postings of every syllable that fits in phrase from start to the start of the next word
+     */
+    private List<Postings> prefixPostings(String phrase, int start, boolean[] startsWord) {
+        final List<Postings> found = new ArrayList<>();
+        for (int end = start + 1; end <= phrase.length(); end++) {
+            final Postings candidates = postings.get(phrase.substring(start, end));
+            if (candidates != null) {
+                found.add(candidates);
+            }
+            if (startsWord[end]) {
+                break;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @param syllables the syllables of a voice
+     * @param position where in syllables a syllable starting phrase[offset] is sung
+     * @param phrase the query without spaces
+     * @param offset the start of a word in phrase
+     * @param startsWord whether each index of phrase starts a word, or is its end
+     * @return the position of the syllable that starts phrase, if syllables around position spell out phrase
+     *         with no syllable crossing the start of a word, otherwise -1
+     */
+    private static int matchStart(String[] syllables, int position, String phrase, int offset, boolean[] startsWord) {
+        int end = offset;
+        for (int i = position; end < phrase.length(); i++) {
+            if (i >= syllables.length || !fits(syllables[i], phrase, end, startsWord)) {
+                return -1;
+            }
+            end += syllables[i].length();
+        }
+        int start = offset;
+        int first = position;
+        while (start > 0) {
+            first--;
+            if (first < 0 || syllables[first].length() > start
+                    || !fits(syllables[first], phrase, start - syllables[first].length(), startsWord)) {
+                return -1;
+            }
+            start -= syllables[first].length();
+        }
+        return first;
+    }
+
+    /**
+     * @return true iff syllable is in phrase at offset without crossing the start of a word
+     */
+    private static boolean fits(String syllable, String phrase, int offset, boolean[] startsWord) {
+        if (!phrase.startsWith(syllable, offset)) {
+            return false;
+        }
+        for (int i = offset + 1; i < offset + syllable.length(); i++) {
+            if (startsWord[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * MusicWriter that collects the marked syllables of each voice of a song in the order they are sung.
+     */
+    private static class SyllableCollector implements MusicWriter {
+
+        private final String song;
+        private final List<Voice> voices = new ArrayList<>();
+        private final List<String> syllables = new ArrayList<>();
+        private final List<Integer> lineOf = new ArrayList<>();
+        private final List<String> lines = new ArrayList<>();
+
+        SyllableCollector(String song) {
+            this.song = song;
+        }
+
+        void voice(String title, String name, Music music) throws IOException {
+            syllables.clear();
+            lineOf.clear();
+            lines.clear();
+            music.write(this);
+            final int[] lineIndexes = new int[lineOf.size()];
+            for (int i = 0; i < lineIndexes.length; i++) {
+                lineIndexes[i] = lineOf.get(i);
+            }
+            voices.add(new Voice(song, title, name, syllables.toArray(new String[0]), lineIndexes,
+                    Collections.unmodifiableList(new ArrayList<>(lines))));
+        }
+
+        @Override
+        public void piece(Header header, Map<String, Music> voiceToMusic) throws IOException {
+            for (Map.Entry<String, Music> voice : voiceToMusic.entrySet()) {
+                voice(header.getTitle(), voice.getKey(), voice.getValue());
+            }
+        }
+
+        @Override
+        public void lyric(String lyric, Rational duration) {
+            final int mark = lyric.indexOf(MARK);
+            final int end = lyric.indexOf(END_MARK, mark + 1);
+            if (mark < 0 || end < 0) {
+                return;
+            }
+            final String syllable = normalize(lyric.substring(mark + MARK.length(), end));
+            if (syllable.isEmpty()) {
+                return;
+            }
+            final String line = lyric.replace(MARK, "").replace(END_MARK, "").trim().replaceAll("\\s+", " ");
+            if (lines.isEmpty() || !lines.get(lines.size() - 1).equals(line)) {
+                lines.add(line);
+            }
+            syllables.add(syllable);
+            lineOf.add(lines.size() - 1);
+        }
+
+        @Override
+        public void note(Pitch pitch, Rational duration, Instrument instrument) {}
+
+        @Override
+        public void rest(Rational duration) {}
+
+        @Override
+        public void chord(List<Music> notes) {}
+
+        @Override
+        public void tuplet(List<Music> notes, Rational duration) {}
+
+        @Override
+        public void concat(List<Music> parts) throws IOException {
+            for (Music part : parts) {
+                part.write(this);
+            }
+        }
+
+        @Override
+        public void component(List<Music> parts) throws IOException {
+            for (Music part : parts) {
+                part.write(this);
+            }
+        }
+
+        @Override
+        public void transposed(Music music, int semitonesUp) throws IOException {
+            music.write(this);
+        }
+
+        @Override
+        public void repeat(Music body) throws IOException {
+            body.write(this);
+            body.write(this);
+        }
+
+        @Override
+        public void repeat(Music body, Music firstEnding) throws IOException {
+            body.write(this);
+            firstEnding.write(this);
+            body.write(this);
+        }
+    }
+}
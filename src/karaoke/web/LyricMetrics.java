@@ -0,0 +1,192 @@
+package karaoke.web;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import karaoke.sound.LyricTimingListener;
+
+/**
+ * Lyric timing measurements for the current playback session of one room, grouped by voice.
+ */
+public class LyricMetrics {
+
+    private static final String DISPATCH_LAG = "karaoke_lyric_dispatch_lag_seconds";
+    private static final String WRITE_LATENCY = "karaoke_lyric_write_seconds";
+    private static final String FIRST_LYRIC = "karaoke_time_to_first_lyric_seconds";
+
+    private final String room;
+    private volatile Session current = new Session(0);
+
+    // Abstraction function:
+    //    AF(room, current) = the dispatch lag, write latency, and time to first lyric of every subscriber
+    //       to playback session number current.number of room, for each voice in current.byVoice
+    // Rep invariant:
+    //    current.number >= 0
+    // Safety from rep exposure:
+    //    All fields are private; room is immutable, and sessions and their histograms are never returned
+    // Thread safety argument:
+    //    current is volatile and replaced rather than mutated when a session starts,
+    //    byVoice is a thread safe map whose entries are created atomically by computeIfAbsent,
+    //    and LatencyHistogram is thread safe
+
+    /**
+     * Make metrics for a room that has not played yet.
+     * @param room name of the room, used as a label
+     */
+    public LyricMetrics(String room) {
+        this.room = room;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert current.number >= 0;
+    }
+
+    /**
+     * Discard the measurements so far and start recording a new session.
+     * @return the new session's number
+     */
+    public synchronized int startSession() {
+        current = new Session(current.number + 1);
+        checkRep();
+        return current.number;
+    }
+
+    /**
+     * @return the current session's number
+     */
+    public int getSession() {
+        return current.number;
+    }
+
+    /**
+     * Make a recorder for one subscriber; each subscriber needs its own so that its first lyric is recognized.
+     * @param voice the voice the subscriber is streaming
+     * @return a recorder that adds the subscriber's measurements to the current session under voice
+     */
+    public Subscriber subscriber(String voice) {
+        return new Subscriber(voice);
+    }
+
+    /**
+     * @return every histogram of the current session in the Prometheus text exposition format
+     */
+    public String toPrometheus() {
+        return toPrometheus(Collections.singletonList(this));
+    }
+
+    /**
+     * @param rooms metrics of rooms with distinct names
+     * @return every histogram of the current session of every room in the Prometheus text exposition format,
+     *         with each metric's HELP and TYPE lines written once
+     */
+    public static String toPrometheus(Collection<LyricMetrics> rooms) {
+        StringBuilder out = new StringBuilder();
+        writeMetric(out, rooms, DISPATCH_LAG, "How late each lyric callback started compared to its scheduled time.", Which.DISPATCH_LAG);
+        writeMetric(out, rooms, WRITE_LATENCY, "Time to write and flush the lyric lines waiting for one subscriber's connection.", Which.WRITE_LATENCY);
+        writeMetric(out, rooms, FIRST_LYRIC, "Time from the start of playback until a subscriber's first lyric line is sent.", Which.FIRST_LYRIC);
+        return out.toString();
+    }
+
+    private enum Which { DISPATCH_LAG, WRITE_LATENCY, FIRST_LYRIC }
+
+    private static void writeMetric(StringBuilder out, Collection<LyricMetrics> rooms, String name, String help, Which which) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" histogram\n");
+        for (LyricMetrics metrics : rooms) {
+            final Session session = metrics.current;
+            for (Map.Entry<String, VoiceMetrics> entry : session.byVoice.entrySet()) {
+                final String labels = "room=\"" + escape(metrics.room) + "\",session=\"" + session.number
+                        + "\",voice=\"" + escape(entry.getKey()) + "\"";
+                entry.getValue().get(which).writePrometheus(out, name, labels);
+            }
+        }
+    }
+
+    /**
+     * @param value label value
+     * @return value with backslashes, quotes, and newlines escaped for a Prometheus label
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Records the measurements of one subscriber into whichever session is current.
+     */
+    public class Subscriber implements LyricTimingListener {
+
+        private final String voice;
+        // number of the last session in which this subscriber's first lyric was recorded
+        private volatile int firstLyricSession = -1;
+
+        private Subscriber(String voice) {
+            this.voice = voice;
+        }
+
+        /**
+         * Records dispatch lag, and time to first lyric if these are the subscriber's first lines of the session.
+         * writeNanos is not recorded here: it is only the time to hand the line to the subscriber's stream,
+         * and the time to actually send it is reported by recordWrite.
+         */
+        @Override
+        public void lyricWritten(long dispatchLagNanos, long writeNanos, long sinceStartNanos) {
+            final Session session = current;
+            final VoiceMetrics metrics = session.forVoice(voice);
+            metrics.dispatchLag.record(dispatchLagNanos);
+            if (firstLyricSession != session.number) {
+                firstLyricSession = session.number;
+                metrics.firstLyric.record(sinceStartNanos);
+            }
+        }
+
+        /**
+         * Record the time taken to write and flush to the subscriber's connection the lyric lines waiting for it,
+         * which are sent together.
+         * @param nanos duration in nanoseconds
+         */
+        public void recordWrite(long nanos) {
+            current.forVoice(voice).writeLatency.record(nanos);
+        }
+    }
+
+    /**
+     * The measurements of one playback session.
+     */
+    private static class Session {
+        private final int number;
+        private final Map<String, VoiceMetrics> byVoice = new ConcurrentSkipListMap<>();
+
+        Session(int number) {
+            this.number = number;
+        }
+
+        VoiceMetrics forVoice(String voice) {
+            return byVoice.computeIfAbsent(voice, v -> new VoiceMetrics());
+        }
+    }
+
+    /**
+     * The three histograms kept for each voice.
+     */
+    private static class VoiceMetrics {
+        private final LatencyHistogram dispatchLag = new LatencyHistogram();
+        private final LatencyHistogram writeLatency = new LatencyHistogram();
+        private final LatencyHistogram firstLyric = new LatencyHistogram();
+
+        LatencyHistogram get(Which which) {
+            switch (which) {
+                case DISPATCH_LAG:
+                    return dispatchLag;
+                case WRITE_LATENCY:
+                    return writeLatency;
+                case FIRST_LYRIC:
+                    return firstLyric;
+                default:
+                    throw new RuntimeException("Should not get here");
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package karaoke.web;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import karaoke.sound.CompiledMusic;
+import karaoke.sound.SequencePlayer;
+
+/**
+ * Sends a subscriber the lyrics of its voice ahead of time: each write holds every line due in a window of
+ * several seconds, with the time it is due, and script() in the page shows each line on time by the client's clock.
+ * A subscriber gets one write per window instead of one per lyric line, and network delays up to a window long
+ * do not move any line on its screen.
+ *
+ * Each batch is a script element that calls karaoke.schedule(SENT, [[DUE, "LINE"], ...]), where SENT and DUE are
+ * milliseconds since the start of playback: SENT when the batch was sent, and DUE when LINE is shown.
+ */
+public class LyricSchedule {
+
+    /**
+     * Default number of seconds of lyrics in each batch.
+     */
+    public static final double DEFAULT_WINDOW_SECONDS = 10;
+
+    // number of clock synchronization exchanges the page makes, keeping the one with the shortest round trip
+    private static final int SYNC_EXCHANGES = 5;
+
+    private static final String SCRIPT = "<div id=\"lyrics\"></div><script>\n"
+            + "var karaoke = (function () {\n"
+            + "  var clock = CLOCK;\n"
+            + "  var lines = [], next = 0, latest = 0, start = null, anchor = null, timer = null;\n"
+            + "  var syncing = false, again = false;\n"
+            + "  function position() {\n"
+            + "    var now = performance.now();\n"
+            + "    return anchor === null ? now - start : anchor.at + (now - anchor.local) * anchor.rate;\n"
+            + "  }\n"
+            + "  function show() {\n"
+            + "    timer = null;\n"
+            + "    var now = position();\n"
+            + "    for (; next < lines.length && lines[next][0] <= now; next++) {\n"
+            + "      document.getElementById('lyrics').insertAdjacentHTML('beforeend', lines[next][1] + '<br>');\n"
+            + "    }\n"
+            + "    var rate = anchor === null ? 1 : anchor.rate;\n"
+            + "    if (next < lines.length && rate > 0) {\n"
+            + "      timer = setTimeout(show, (lines[next][0] - now) / rate);\n"
+            + "    }\n"
+            + "  }\n"
+            + "  function reschedule() {\n"
+            + "    if (timer !== null) { clearTimeout(timer); }\n"
+            + "    show();\n"
+            + "  }\n"
+            + "  function sync(tries, best) {\n"
+            + "    var t0 = performance.now();\n"
+            + "    var request = new XMLHttpRequest();\n"
+            + "    request.onload = function () {\n"
+            + "      var t3 = performance.now();\n"
+            + "      var reply = JSON.parse(request.responseText);\n"
+            + "      var roundTrip = (t3 - t0) - (reply.sent - reply.received) / 1e6;\n"
+            + "      var ahead = ((reply.received / 1e6 - t0) + (reply.sent / 1e6 - t3)) / 2;\n"
+            + "      if (reply.positionNanos !== null && (best === null || roundTrip < best.roundTrip)) {\n"
+            + "        best = { roundTrip: roundTrip, anchor: {\n"
+            + "          local: reply.positionNanos / 1e6 - ahead,\n"
+            + "          at: reply.positionBeat * 60000 / reply.baseBeatsPerMinute,\n"
+            + "          rate: reply.paused ? 0 : reply.beatsPerMinute / reply.baseBeatsPerMinute } };\n"
+            + "      }\n"
+            + "      if (tries > 1) {\n"
+            + "        sync(tries - 1, best);\n"
+            + "        return;\n"
+            + "      }\n"
+            + "      syncing = false;\n"
+            + "      if (best !== null) { anchor = best.anchor; reschedule(); }\n"
+            + "      if (again) { again = false; resync(); }\n"
+            + "    };\n"
+            + "    request.open('GET', clock);\n"
+            + "    request.send();\n"
+            + "  }\n"
+            + "  function resync() {\n"
+            + "    if (syncing) { again = true; return; }\n"
+            + "    syncing = true;\n"
+            + "    sync(" + SYNC_EXCHANGES + ", null);\n"
+            + "  }\n"
+            + "  return { schedule: function (sent, batch) {\n"
+            + "    if (sent < latest) {\n"
+            + "      // playback went back to the start, and the batches come again\n"
+            + "      lines = []; next = 0; start = null; anchor = null;\n"
+            + "      resync();\n"
+            + "    }\n"
+            + "    latest = sent;\n"
+            + "    var estimate = performance.now() - sent;\n"
+            + "    if (anchor === null && (start === null || estimate < start)) { start = estimate; }\n"
+            + "    if (anchor === null && !syncing) { resync(); }\n"
+            + "    lines = lines.concat(batch);\n"
+            + "    reschedule();\n"
+            + "  }, resync: resync };\n"
+            + "})();\n"
+            + "</script>\n";
+
+    /**
+     * Script element that makes a page whose script() is running synchronize with its room's clock again,
+     * sent when the room's playback is paused, resumed, restarted or played at another tempo.
+     */
+    public static final String RESYNC = "<script>karaoke.resync();</script>\n";
+
+    /**
+     * Script that a page must have before its first batch, which shows each line, followed by a line break,
+     * when it is due. Until the page has synchronized with the server's clock, it estimates when playback started
+     * by its own clock from when each batch arrives, keeping the earliest estimate since network delay can only
+     * make it later. When the first batch arrives, it makes a few exchanges with clock, and from then on times lines
+     * from where the room's playback was and how fast it was moving, by the exchange with the shortest round trip,
+     * so that every page in the room shows each line at the same moment. It synchronizes again each time it gets
+     * RESYNC, so that lines stop while playback is paused and follow it to another tempo; when a batch is sent
+     * earlier in playback than the one before, playback was restarted, and it drops the lines it has not shown.
+     * @param clock path of the clock synchronization endpoint for the subscriber's room, as WebServer serves it
+     * @return the script
+     */
+    public static String script(String clock) {
+        final StringBuilder literal = new StringBuilder();
+        appendString(literal, clock);
+        return SCRIPT.replace("CLOCK", literal);
+    }
+
+    private static final double MILLIS_PER_MINUTE = 60_000;
+
+    private final CompiledMusic compiled;
+    private final double millisPerTick;
+    private final long windowTicks;
+
+    // Abstraction function:
+    //    AF(compiled, millisPerTick, windowTicks) = the lyrics of compiled played at millisPerTick milliseconds per tick,
+    //       split into batches of windowTicks ticks: batch k holds the lines due in [k * windowTicks, (k+1) * windowTicks)
+    // Rep invariant:
+    //    millisPerTick > 0
+    //    windowTicks > 0
+    // Safety from rep exposure:
+    //    All fields are private and final; compiled is immutable
+    // Thread safety argument:
+    //    This class is thread safe because it is immutable
+
+    /**
+     * Make the schedule of a voice's lyrics.
+     * @param compiled the voice whose lyrics are sent
+     * @param beatsPerMinute tempo of playback, > 0
+     * @param windowSeconds how many seconds of lyrics each batch holds, > 0; at least one tick
+     */
+    public LyricSchedule(CompiledMusic compiled, int beatsPerMinute, double windowSeconds) {
+        this.compiled = compiled;
+        this.millisPerTick = MILLIS_PER_MINUTE / beatsPerMinute / compiled.ticksPerBeat();
+        this.windowTicks = Math.max(1, Math.round(windowSeconds * 1000 / millisPerTick));
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert millisPerTick > 0;
+        assert windowTicks > 0;
+    }
+
+    /**
+     * @return the number of windows up to the last lyric line, each of which has a batch, possibly empty
+     */
+    public int batchCount() {
+        final int lines = compiled.lyricCount();
+        return lines == 0 ? 0 : (int) (compiled.lyricTick(lines - 1) / windowTicks) + 1;
+    }
+
+    /**
+     * @param batch 0 <= batch < batchCount()
+     * @param sentMillis when the batch is sent, in milliseconds since the start of playback
+     * @return the script element that schedules the lines due in window batch, or "" if there are none
+     */
+    public String batch(int batch, double sentMillis) {
+        final long from = batch * windowTicks;
+        final long until = from + windowTicks;
+        int line = firstLineAtOrAfter(from);
+        if (line == compiled.lyricCount() || compiled.lyricTick(line) >= until) {
+            return "";
+        }
+        final StringBuilder script = new StringBuilder("<script>karaoke.schedule(")
+                .append(Math.round(sentMillis)).append(", [");
+        for (; line < compiled.lyricCount() && compiled.lyricTick(line) < until; line++) {
+            if (script.charAt(script.length() - 1) == ']') {
+                script.append(", ");
+            }
+            script.append('[').append(Math.round(compiled.lyricTick(line) * millisPerTick)).append(", ");
+            appendString(script, compiled.lyric(line));
+            script.append(']');
+        }
+        return script.append("]);</script>\n").toString();
+    }
+
+    /**
+     * Schedule every batch on a player: batches 0 and 1 as playback starts, and each later batch when the window
+     * before it starts, so that the subscriber always has the rest of the current window and all of the next.
+     * Each batch is written and flushed to out as one chunk.
+     * @param player plays at this schedule's tempo and ticks per beat, starting this schedule at its beat 0
+     * @param out the subscriber's stream
+     */
+    public void addTo(SequencePlayer player, OutputStream out) {
+        final PrintWriter batchOut = new PrintWriter(new OutputStreamWriter(out, UTF_8), true);
+        final double millisPerBeat = millisPerTick * compiled.ticksPerBeat();
+        final int batches = batchCount();
+        if (batches == 0) {
+            return;
+        }
+        player.addEvent(0, beat -> send(batchOut, beat * millisPerBeat, 0, Math.min(1, batches - 1)));
+        for (int window = 1; window + 1 < batches; window++) {
+            final int next = window + 1;
+            final double atBeat = window * windowTicks / (double) compiled.ticksPerBeat();
+            player.addEvent(atBeat, beat -> send(batchOut, beat * millisPerBeat, next, next));
+        }
+    }
+
+    /**
+     * Write and flush batches as one chunk, unless they are all empty
+     * @param out the subscriber's stream
+     * @param sentMillis when the batches are sent, in milliseconds since the start of playback
+     * @param first the first batch to send, 0 <= first <= last
+     * @param last the last batch to send, < batchCount()
+     */
+    private void send(PrintWriter out, double sentMillis, int first, int last) {
+        final StringBuilder batches = new StringBuilder();
+        for (int batch = first; batch <= last; batch++) {
+            batches.append(batch(batch, sentMillis));
+        }
+        if (batches.length() > 0) {
+            out.write(batches.toString());
+            out.flush();
+        }
+    }
+
+    /**
+     * @param tick a tick >= 0
+     * @return the index of the first lyric line at or after tick, or lyricCount() if there is none
+     */
+    private int firstLineAtOrAfter(long tick) {
+        int low = 0;
+        int high = compiled.lyricCount();
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (compiled.lyricTick(middle) < tick) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Append a JavaScript string literal that can also appear inside a script element.
+     * @param script where to append
+     * @param text the value of the literal
+     */
+    private static void appendString(StringBuilder script, String text) {
+        script.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                script.append('\\').append(c);
+            } else if (c == '<' || c < ' ' || c == '\u2028' || c == '\u2029') {
+                // "<" is escaped so that "</script>" in a lyric cannot end the element
+                final String hex = Integer.toHexString(c);
+                script.append("\\u");
+                for (int digit = hex.length(); digit < 4; digit++) {
+                    script.append('0');
+                }
+                script.append(hex);
+            } else {
+                script.append(c);
+            }
+        }
+        script.append('"');
+    }
+}
@@ -0,0 +1,18 @@
+package karaoke.web;
+
+/**
+ * What a subscriber's outbound queue does when a new line arrives and the queue is already full.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Discard the lines still waiting to be sent and keep only the newest one,
+     * so a slow subscriber falls behind by at most one line.
+     */
+    SKIP_TO_LATEST,
+
+    /**
+     * Discard everything waiting and stop sending to the subscriber.
+     */
+    DISCONNECT
+}
@@ -0,0 +1,97 @@
+package karaoke.web;
+
+/**
+ * Where a room's playback is: the beat it was at at some moment, and how fast it has moved since.
+ * Immutable.
+ */
+public class PlaybackPosition {
+
+    private static final double NANOS_PER_MINUTE = 60e9;
+
+    private final long nanos;
+    private final double beat;
+    private final int beatsPerMinute;
+    private final boolean paused;
+
+    // Abstraction function:
+    //    AF(nanos, beat, beatsPerMinute, paused) = playback that was at beat when System.nanoTime() was nanos,
+    //       and has stayed there since if paused, or else has moved at beatsPerMinute
+    // Rep invariant:
+    //    beat >= 0
+    //    beatsPerMinute > 0
+    // Safety from rep exposure:
+    //    All fields are private, final and immutable
+    // Thread safety argument:
+    //    This class is thread safe because it is immutable
+
+    /**
+     * Make a position.
+     * @param nanos a value of System.nanoTime()
+     * @param beat the beat playback was at then, >= 0
+     * @param beatsPerMinute tempo of playback from then on, > 0
+     * @param paused true iff playback stays at beat
+     */
+    public PlaybackPosition(long nanos, double beat, int beatsPerMinute, boolean paused) {
+        this.nanos = nanos;
+        this.beat = beat;
+        this.beatsPerMinute = beatsPerMinute;
+        this.paused = paused;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert beat >= 0;
+        assert beatsPerMinute > 0;
+    }
+
+    /**
+     * @return the value of System.nanoTime() at which this position was taken
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * @return the beat playback was at when this position was taken
+     */
+    public double getBeat() {
+        return beat;
+    }
+
+    /**
+     * @return tempo of playback from this position on, whether or not it is paused
+     */
+    public int getBeatsPerMinute() {
+        return beatsPerMinute;
+    }
+
+    /**
+     * @return true iff playback stays at this position's beat
+     */
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * @param nanos a value of System.nanoTime() at or after this position's
+     * @return the beat playback is at then, if nothing changes until then
+     */
+    public double beatAt(long nanos) {
+        return paused ? beat : beat + (nanos - this.nanos) * beatsPerMinute / NANOS_PER_MINUTE;
+    }
+
+    /**
+     * @param nanos a value of System.nanoTime() at or after this position's
+     * @param beatsPerMinute the new tempo, > 0
+     * @param paused whether playback is paused from then on
+     * @return the position of playback at nanos, moving from then on at beatsPerMinute unless paused
+     */
+    public PlaybackPosition changedAt(long nanos, int beatsPerMinute, boolean paused) {
+        return new PlaybackPosition(nanos, beatAt(nanos), beatsPerMinute, paused);
+    }
+
+    @Override
+    public String toString() {
+        return "beat " + beat + (paused ? " (paused)" : " at " + beatsPerMinute + " bpm");
+    }
+}
@@ -0,0 +1,404 @@
+package karaoke.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+
+import karaoke.sound.CompiledMusic;
+import karaoke.sound.LyricTimingListener;
+import karaoke.sound.MidiSequencePlayer;
+import karaoke.sound.Music;
+
+/**
+ * A karaoke room: one song, the clients streaming its voices, and its own playback sessions.
+ * Rooms on the same server play independently of each other.
+ * Each session is played by one player, which plays the notes of every voice of the song once, however many clients
+ * stream it, and writes every subscriber's lyrics.
+ * A session can be paused, resumed, restarted and played at another tempo while it plays; its notes and the lyrics
+ * written as they are due change together.
+ */
+public class Room {
+
+    private final String id;
+    private final Music music;
+    private final SongLibrary library;
+    private final int beatsPerMinute;
+    private final AccessLog log;
+    private final LyricMetrics metrics;
+    // clients wait on this until a playback session starts
+    private final Object sessionLock = new Object();
+    private int session = 0;
+    // where session is, if session > 0
+    private PlaybackPosition position = null;
+    // the player of session, if session > 0, which plays its controls
+    private MidiSequencePlayer player = null;
+    // the sessions that have played to the end
+    private final BitSet ended = new BitSet();
+    // told when each session that has not ended yet plays to the end
+    private final Map<Integer, List<Runnable>> endListeners = new HashMap<>();
+    // lyric subscribers of session number session + 1, by voice, each with its listener
+    private final Map<String, Map<OutputStream, LyricTimingListener>> subscribers = new HashMap<>();
+    // subscribers of session number session + 1 sent lyrics ahead of time, each with its schedule
+    private final Map<OutputStream, LyricSchedule> aheadSubscribers = new LinkedHashMap<>();
+    // told after each control of a session
+    private final List<Runnable> controlListeners = new CopyOnWriteArrayList<>();
+
+    // Abstraction function:
+    //    AF(id, music, library, beatsPerMinute, metrics, session, position, player, ended, endListeners,
+    //       subscribers, aheadSubscribers, controlListeners) =
+    //       the room named id playing music, with players made at beatsPerMinute, whose most recent playback session
+    //       is number session (0 if it has never played), played by player and now at position, of whose sessions
+    //       those in ended have played to the end and the others will tell endListeners.get(session) when they do,
+    //       and whose next session plays the notes of every voice and writes the
+    //       lyrics of each voice to subscribers.get(voice) and the batches of each schedule in aheadSubscribers
+    //       to its stream, with the compiled voices of music shared through library, lyric timing recorded in
+    //       metrics, and controlListeners told whenever the session is controlled
+    // Rep invariant:
+    //    id is nonempty and contains no '/'
+    //    beatsPerMinute > 0
+    //    session >= 0
+    //    position == null iff session == 0, and player == null iff session == 0
+    //    no key of endListeners is in ended
+    // Safety from rep exposure:
+    //    All fields are private; music is immutable, and metrics is returned deliberately so that
+    //    clients can record to it and report it
+    // Thread safety argument:
+    //    session, position, player, ended, endListeners, subscribers and aheadSubscribers are guarded by
+    //       sessionLock, and end listeners are told without it;
+    //       a session's subscribers are handed to its player before it plays and are not mutated afterwards;
+    //       player is controlled while holding sessionLock, so that position changes in the same order
+    //    controlListeners is a thread safe list
+    //    all other fields are final and refer to immutable or thread safe objects
+
+    /**
+     * Make a room that has not played yet.
+     * @param id name of the room, nonempty and without '/'
+     * @param music the song the room plays
+     * @param library compiles the song's voices, shared with other rooms
+     * @param beatsPerMinute tempo of playback, > 0
+     * @param log where playback sessions are logged
+     */
+    public Room(String id, Music music, SongLibrary library, int beatsPerMinute, AccessLog log) {
+        this.id = id;
+        this.music = music;
+        this.library = library;
+        this.beatsPerMinute = beatsPerMinute;
+        this.log = log;
+        this.metrics = new LyricMetrics(id);
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert !id.isEmpty() && id.indexOf('/') < 0;
+        assert beatsPerMinute > 0;
+        synchronized (sessionLock) {
+            assert session >= 0;
+            assert (position == null) == (session == 0);
+            assert (player == null) == (session == 0);
+        }
+    }
+
+    /**
+     * @return the name of this room
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the song this room plays
+     */
+    public Music getMusic() {
+        return music;
+    }
+
+    /**
+     * @return tempo in beats per minute that the room's player is made with, and that each beat of
+     *         its music is timed at; the tempo of playback is getPosition()'s
+     */
+    public int getBeatsPerMinute() {
+        return beatsPerMinute;
+    }
+
+    /**
+     * @return where this room's current playback session is, or empty if the room has never played
+     */
+    public Optional<PlaybackPosition> getPosition() {
+        synchronized (sessionLock) {
+            return Optional.ofNullable(position);
+        }
+    }
+
+    /**
+     * @return lyric timing of this room's current playback session
+     */
+    public LyricMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param voice a voice of this room's song, or "" for every voice without lyrics
+     * @return the voice compiled by the library
+     */
+    public CompiledMusic compiled(String voice) {
+        return library.compiled(music, voice);
+    }
+
+    /**
+     * @param voice a voice name
+     * @return true iff this room's song has the voice
+     */
+    public boolean hasVoice(String voice) {
+        for (String candidate : music.getVoices()) {
+            if (candidate.equals(voice)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Block until this room's next playback session starts.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitPlayback() throws InterruptedException {
+        synchronized (sessionLock) {
+            final int current = session;
+            while (session == current) {
+                sessionLock.wait();
+            }
+        }
+    }
+
+    /**
+     * Block until a playback session has started.
+     * @param session the number of a playback session, as returned by subscribe
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitPlayback(int session) throws InterruptedException {
+        synchronized (sessionLock) {
+            while (this.session < session) {
+                sessionLock.wait();
+            }
+        }
+    }
+
+    /**
+     * Be told when a playback session has played to the end.
+     * @param session the number of a playback session, as returned by subscribe
+     * @param listener called once, on the session's playback thread when it ends, or at once if it has ended;
+     *                 it must not block
+     */
+    public void whenEnded(int session, Runnable listener) {
+        synchronized (sessionLock) {
+            if (!ended.get(session)) {
+                endListeners.computeIfAbsent(session, s -> new ArrayList<>()).add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    /**
+     * Subscribe to the lyrics of a voice in this room's next playback session.
+     * The session's own player writes them: at each tick that has lyrics, the lines due are encoded once,
+     * and every subscriber of the voice gets them in one write and one flush, so the room has one timing event
+     * per tick however many subscribers it has.
+     * @param voice a voice of this room's song
+     * @param lyricStream where to write the voice's lyrics; it should not block, like a SubscriberStream
+     * @param listener told about every write to lyricStream
+     * @return the number of the session subscribed to, to pass to awaitPlayback and whenEnded
+     */
+    public int subscribe(String voice, OutputStream lyricStream, LyricTimingListener listener) {
+        synchronized (sessionLock) {
+            subscribers.computeIfAbsent(voice, v -> new LinkedHashMap<>()).put(lyricStream, listener);
+            return session + 1;
+        }
+    }
+
+    /**
+     * Subscribe to the lyrics of a voice in this room's next playback session, sent ahead of time in the batches
+     * of a schedule, which the session's own player writes.
+     * @param voice a voice of this room's song
+     * @param schedule the voice's lyrics, timed at getBeatsPerMinute()
+     * @param lyricStream where to write the batches; it should not block, like a SubscriberStream
+     * @return the number of the session subscribed to, to pass to awaitPlayback and whenEnded
+     */
+    public int subscribeAhead(String voice, LyricSchedule schedule, OutputStream lyricStream) {
+        synchronized (sessionLock) {
+            aheadSubscribers.put(lyricStream, schedule);
+            return session + 1;
+        }
+    }
+
+    /**
+     * Pause the current playback session where it is.
+     * @throws IllegalStateException if this room has never played, or its current session has ended
+     */
+    public void pause() {
+        synchronized (sessionLock) {
+            requirePlaying();
+            requireApplied(player.pause());
+            position = position.changedAt(System.nanoTime(), position.getBeatsPerMinute(), true);
+        }
+        controlled("paused");
+    }
+
+    /**
+     * Resume the current playback session from where it was paused.
+     * @throws IllegalStateException if this room has never played, or its current session has ended
+     */
+    public void resume() {
+        synchronized (sessionLock) {
+            requirePlaying();
+            requireApplied(player.resume());
+            position = position.changedAt(System.nanoTime(), position.getBeatsPerMinute(), false);
+        }
+        controlled("resumed");
+    }
+
+    /**
+     * Change the tempo of the current playback session, and of the sessions after it.
+     * @param beatsPerMinute the new tempo, > 0
+     * @throws IllegalStateException if this room has never played, or its current session has ended
+     */
+    public void setTempo(int beatsPerMinute) {
+        synchronized (sessionLock) {
+            requirePlaying();
+            requireApplied(player.setBeatsPerMinute(beatsPerMinute));
+            position = position.changedAt(System.nanoTime(), beatsPerMinute, position.isPaused());
+        }
+        controlled("tempo " + beatsPerMinute + " bpm");
+    }
+
+    /**
+     * Move the current playback session back to its first beat, keeping whether it is paused.
+     * Lyrics already written are written again as playback reaches them.
+     * @throws IllegalStateException if this room has never played, or its current session has ended
+     */
+    public void restart() {
+        synchronized (sessionLock) {
+            requirePlaying();
+            requireApplied(player.seek(0));
+            position = new PlaybackPosition(System.nanoTime(), 0, position.getBeatsPerMinute(), position.isPaused());
+        }
+        controlled("restarted");
+    }
+
+    /**
+     * @param listener called after each pause, resume, tempo change and restart of this room's sessions,
+     *                 on the thread that made it
+     */
+    public void addControlListener(Runnable listener) {
+        controlListeners.add(listener);
+    }
+
+    /**
+     * @param listener a listener added by addControlListener, which is no longer called
+     */
+    public void removeControlListener(Runnable listener) {
+        controlListeners.remove(listener);
+    }
+
+    /**
+     * Requires sessionLock.
+     * @throws IllegalStateException if this room has never played, or its current session has ended
+     */
+    private void requirePlaying() {
+        if (position == null) {
+            throw new IllegalStateException("room " + id + " has not played yet");
+        }
+        requireApplied(!ended.get(session));
+    }
+
+    /**
+     * Requires sessionLock; so that position only changes when playback does, call before changing it.
+     * @param applied whether a control was applied to player, which it is not once player has finished
+     * @throws IllegalStateException if the control was not applied
+     */
+    private void requireApplied(boolean applied) {
+        if (!applied) {
+            throw new IllegalStateException("room " + id + " has finished playing session " + session);
+        }
+    }
+
+    /**
+     * Log a control of the current session and tell the control listeners.
+     * @param what the control
+     */
+    private void controlled(String what) {
+        checkRep();
+        log.message("room " + id + " " + what);
+        for (Runnable listener : controlListeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Start a new playback session: play the notes of every voice once, however many clients subscribed to it, and
+     * the lyrics of every subscriber, and release every waiting client.
+     * @return the number of the new session
+     */
+    public int startPlayback() {
+        // every voice's notes, without lyrics
+        final CompiledMusic notes = compiled("");
+        final MidiSequencePlayer musicPlayer;
+        try {
+            musicPlayer = new MidiSequencePlayer(beatsPerMinute, notes.ticksPerBeat());
+        } catch (MidiUnavailableException | InvalidMidiDataException e) {
+            throw new RuntimeException("MidiSequencePlayer could not be created", e);
+        }
+        musicPlayer.setFailureListener(failure -> log.error("room " + id + " playback callback failed", failure));
+        musicPlayer.addCompiled(notes, 0, new ByteArrayOutputStream());
+        final int started;
+        synchronized (sessionLock) {
+            for (Map.Entry<String, Map<OutputStream, LyricTimingListener>> voice : subscribers.entrySet()) {
+                musicPlayer.addLyrics(compiled(voice.getKey()), 0,
+                        Collections.unmodifiableMap(new LinkedHashMap<>(voice.getValue())));
+            }
+            for (Map.Entry<OutputStream, LyricSchedule> subscriber : aheadSubscribers.entrySet()) {
+                subscriber.getValue().addTo(musicPlayer, subscriber.getKey());
+            }
+            subscribers.clear();
+            aheadSubscribers.clear();
+            started = metrics.startSession();
+            session = started;
+            musicPlayer.addEvent(music.duration(), beat -> {
+                final List<Runnable> listeners;
+                synchronized (sessionLock) {
+                    ended.set(started);
+                    listeners = endListeners.remove(started);
+                }
+                for (Runnable listener : listeners == null ? Collections.<Runnable>emptyList() : listeners) {
+                    listener.run();
+                }
+            });
+            // a tempo chosen for an earlier session carries on into this one
+            final int tempo = position == null ? beatsPerMinute : position.getBeatsPerMinute();
+            position = new PlaybackPosition(System.nanoTime(), 0, tempo, false);
+            musicPlayer.setBeatsPerMinute(tempo);
+            player = musicPlayer;
+            player.play();
+            sessionLock.notifyAll();
+        }
+        log.message("room " + id + " playback session " + started + " started");
+        checkRep();
+        return started;
+    }
+
+    @Override
+    public String toString() {
+        return "Room(" + id + ")";
+    }
+}
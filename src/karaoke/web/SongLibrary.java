@@ -0,0 +1,123 @@
+package karaoke.web;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.sound.CompiledMusic;
+import karaoke.sound.Music;
+import karaoke.sound.NormalizedMusic;
+
+/**
+ * The songs loaded by a server, shared by every room that plays them.
+ * Each file is parsed and normalized once, and each voice of each song is compiled once, no matter how many rooms pick it.
+ * The lyrics of every song are indexed as it is added, so that songs can be found by a line of their lyrics.
+ */
+public class SongLibrary {
+
+    // ticksPerBeat of a library that compiles each song at its own resolution
+    private static final int PER_SONG = 0;
+
+    private final int ticksPerBeat;
+    // parsed songs by canonical file path
+    private final Map<String, Music> songs = new ConcurrentHashMap<>();
+    // compiled voices by song; Music does not override equals, so songs are compared by identity
+    private final Map<Music, Map<String, CompiledMusic>> compiled = new ConcurrentHashMap<>();
+    // songs whose lyrics are in lyrics, compared by identity
+    private final Set<Music> indexed = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final LyricIndex lyrics = new LyricIndex();
+
+    // Abstraction function:
+    //    AF(ticksPerBeat, songs, compiled, indexed, lyrics) = a cache of the song parsed from each file in songs,
+    //       and of every voice of each song in compiled, compiled at ticksPerBeat ticks per beat,
+    //       or at CompiledMusic.ticksPerBeat(song) if ticksPerBeat is PER_SONG;
+    //       with a catalog of the lyrics of the songs in indexed
+    // Rep invariant:
+    //    ticksPerBeat > 0 or ticksPerBeat == PER_SONG
+    // Safety from rep exposure:
+    //    All fields are private and final; the maps are never returned,
+    //    and Music and CompiledMusic are immutable
+    // Thread safety argument:
+    //    songs and compiled are thread safe maps whose entries are only added, never replaced;
+    //    load is synchronized so that a file is parsed at most once,
+    //    and computeIfAbsent compiles each voice at most once
+    //    indexed is guarded by this object's lock, and LyricIndex is thread safe
+
+    /**
+     * Make an empty library that compiles each song at the fewest ticks per beat that plays it exactly,
+     * so that no note of any song is moved or shortened to fit a fixed resolution.
+     */
+    public SongLibrary() {
+        this.ticksPerBeat = PER_SONG;
+        checkRep();
+    }
+
+    /**
+     * Make an empty library that compiles every song at the same resolution.
+     * @param ticksPerBeat the number of MIDI ticks per beat to compile songs at, > 0
+     */
+    public SongLibrary(int ticksPerBeat) {
+        this.ticksPerBeat = ticksPerBeat;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert ticksPerBeat > 0 || ticksPerBeat == PER_SONG;
+    }
+
+    /**
+     * @param file an abc file
+     * @return the song in file, parsed and normalized by NormalizedMusic only the first time it is loaded
+     * @throws UnableToParseException if the file does not match the grammar
+     * @throws IOException if the file cannot be read
+     */
+    public synchronized Music load(File file) throws UnableToParseException, IOException {
+        final String path = file.getCanonicalPath();
+        Music music = songs.get(path);
+        if (music == null) {
+            music = NormalizedMusic.of(Music.parseFromFile(file)).music();
+            songs.put(path, music);
+            add(path, music);
+        }
+        return music;
+    }
+
+    /**
+     * Add a song that was not loaded from a file to the catalog searched by search.
+     * @param name name of the song, reported when its lyrics match
+     * @param music the song; nothing is added if it is already in the catalog
+     */
+    public synchronized void add(String name, Music music) {
+        if (indexed.add(music)) {
+            lyrics.add(name, music);
+        }
+    }
+
+    /**
+     * @param query words of a line of lyrics
+     * @param limit the most matches to return, >= 0
+     * @return up to limit places where songs in the catalog sing query, as for LyricIndex.search
+     */
+    public List<LyricIndex.Match> search(String query, int limit) {
+        return lyrics.search(query, limit);
+    }
+
+    /**
+     * @param music a song
+     * @param voice a voice of the song, or "" for every voice without lyrics
+     * @return the song's voice compiled at this library's ticks per beat, compiled at most once;
+     *         every voice of a song is compiled at the same ticks per beat
+     */
+    public CompiledMusic compiled(Music music, String voice) {
+        return compiled.computeIfAbsent(music, m -> new ConcurrentHashMap<>())
+                .computeIfAbsent(voice, v -> ticksPerBeat == PER_SONG
+                        ? CompiledMusic.compile(music, v)
+                        : CompiledMusic.compile(music, v, ticksPerBeat));
+    }
+}
@@ -0,0 +1,77 @@
+package karaoke.web;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Times the phases of starting a server, such as binding its port or loading its first song,
+ * from the moment the timer is made.
+ */
+public class StartupTimer {
+
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private final long originNanos = System.nanoTime();
+    // phases in the order they were first done, with the System.nanoTime() - originNanos when they were done
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+
+    // Abstraction function:
+    //    AF(originNanos, phases) = the startup that began at originNanos, in which each phase in phases
+    //       was done phases.get(phase) nanoseconds later
+    // Rep invariant:
+    //    every value of phases is >= 0, and values do not decrease in iteration order
+    // Safety from rep exposure:
+    //    All fields are private; phases is never returned
+    // Thread safety argument:
+    //    phases is guarded by this object's lock
+
+    /**
+     * Make a timer whose startup begins now.
+     */
+    public StartupTimer() {
+        checkRep();
+    }
+
+    private synchronized void checkRep() {
+        long previous = 0;
+        for (long done : phases.values()) {
+            assert done >= previous;
+            previous = done;
+        }
+    }
+
+    /**
+     * Record that a phase is done. Only the first time a phase is done counts.
+     * @param phase name of the phase
+     * @return milliseconds from the beginning of startup until phase was first done, to a tenth of a millisecond
+     */
+    public synchronized double done(String phase) {
+        phases.putIfAbsent(phase, System.nanoTime() - originNanos);
+        checkRep();
+        return millis(phases.get(phase));
+    }
+
+    /**
+     * @return every phase done so far in the order they were done, as "phase: X ms", separated by ", "
+     */
+    @Override
+    public synchronized String toString() {
+        final StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            if (report.length() > 0) {
+                report.append(", ");
+            }
+            report.append(phase.getKey()).append(": ").append(millis(phase.getValue())).append(" ms");
+        }
+        return report.toString();
+    }
+
+    /**
+     * @param nanos a duration in nanoseconds
+     * @return the duration in milliseconds, rounded to a tenth of a millisecond
+     */
+    static double millis(long nanos) {
+        final int tenthsPerMilli = 10;
+        return Math.round(nanos / NANOS_PER_MILLI * tenthsPerMilli) / (double) tenthsPerMilli;
+    }
+}
@@ -0,0 +1,247 @@
+package karaoke.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * Output stream to one subscriber that never blocks its writer on the network.
+ *
+ * Bytes written are buffered until flush(), which appends them to a bounded queue as one chunk and returns.
+ * Chunks are written to the underlying stream by a task on a shared executor, which takes every chunk waiting
+ * at once and flushes them together, so a connection that falls behind catches up in one flush instead of one per
+ * chunk, and a stalled connection only delays its own lines. When the queue is full, the OverflowPolicy decides
+ * whether older lines are skipped or the subscriber is dropped; a dropped subscriber's connection is closed at once,
+ * which also ends a write stalled on it.
+ */
+public class SubscriberStream extends OutputStream {
+
+    /**
+     * Default number of chunks that can wait to be sent.
+     */
+    public static final int DEFAULT_CAPACITY = 16;
+
+    private static final long CLOSE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final OutputStream out;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final Executor executor;
+    private final LongConsumer writeTimer;
+
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final Deque<byte[]> queue = new ArrayDeque<>();
+    private boolean draining = false;
+    private boolean open = true;
+    private long skipped = 0;
+    // told once when the stream stops sending
+    private Runnable dropListener = () -> {};
+
+    // Abstraction function:
+    //    AF(out, capacity, policy, pending, queue, draining, open, skipped, dropListener) = a connection to a
+    //       subscriber through out, with the chunks in queue waiting to be sent in order, the bytes in pending not yet
+    //       flushed into a chunk, a drain task running iff draining, and skipped chunks discarded by SKIP_TO_LATEST;
+    //       if !open, the subscriber has been dropped or closed and nothing more will be sent, and dropListener
+    //       has been told
+    // Rep invariant:
+    //    capacity > 0
+    //    queue.size() <= capacity
+    //    !open implies queue is empty
+    //    skipped >= 0
+    // Safety from rep exposure:
+    //    All fields are private; chunks are copied into the queue and never returned
+    // Thread safety argument:
+    //    every mutable field is guarded by this object's lock;
+    //    the drain task only holds the lock to take the chunks from the queue, never while writing to out,
+    //    and at most one drain task runs at a time (draining), so out is only used by one thread at a time
+
+    /**
+     * Make a stream to a subscriber.
+     * @param out the subscriber's connection
+     * @param capacity the number of chunks that can wait to be sent, > 0
+     * @param policy what to do when a chunk arrives and capacity chunks are already waiting
+     * @param executor runs the tasks that write to out
+     * @param writeTimer told how many nanoseconds each flush to out took, with the writes of the chunks it sends
+     */
+    public SubscriberStream(OutputStream out, int capacity, OverflowPolicy policy, Executor executor, LongConsumer writeTimer) {
+        this.out = out;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.executor = executor;
+        this.writeTimer = writeTimer;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert capacity > 0;
+        assert queue.size() <= capacity;
+        assert open || queue.isEmpty();
+        assert skipped >= 0;
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        if (open) {
+            pending.write(b);
+        }
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        if (open) {
+            pending.write(b, off, len);
+        }
+    }
+
+    /**
+     * Queue the bytes written since the last flush to be sent, without waiting for them to be sent.
+     */
+    @Override
+    public synchronized void flush() {
+        if (!open || pending.size() == 0) {
+            return;
+        }
+        if (queue.size() == capacity) {
+            switch (policy) {
+                case SKIP_TO_LATEST:
+                    skipped += queue.size();
+                    queue.clear();
+                    break;
+                case DISCONNECT:
+                    drop();
+                    // off the writer's thread, since closing a connection can block too
+                    executor.execute(this::disconnect);
+                    return;
+                default:
+                    throw new RuntimeException("Should not get here");
+            }
+        }
+        queue.addLast(pending.toByteArray());
+        pending.reset();
+        if (!draining) {
+            draining = true;
+            executor.execute(this::drain);
+        }
+        checkRep();
+    }
+
+    /**
+     * @return true iff this stream is still sending to the subscriber
+     */
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Set what to do when this stream stops sending, because the subscriber was dropped or the stream was closed.
+     * @param listener called once, with this stream's lock held, so it must not block; called at once if the
+     *                 stream has already stopped
+     */
+    public void setDropListener(Runnable listener) {
+        synchronized (this) {
+            if (open) {
+                dropListener = listener;
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    /**
+     * @return the number of chunks discarded because the queue was full
+     */
+    public synchronized long skipped() {
+        return skipped;
+    }
+
+    /**
+     * Send everything flushed so far, waiting a bounded time for a slow subscriber, then close the connection.
+     * Chunks still waiting after the timeout are discarded.
+     * @throws IOException if the connection cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            flush();
+            final long deadline = System.nanoTime() + CLOSE_TIMEOUT_NANOS;
+            long remaining = CLOSE_TIMEOUT_NANOS;
+            while (draining && remaining > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                remaining = deadline - System.nanoTime();
+            }
+            drop();
+        }
+        out.close();
+    }
+
+    /**
+     * Stop sending: discard everything waiting and ignore later writes.
+     * Requires the lock.
+     */
+    private void drop() {
+        final boolean wasOpen = open;
+        open = false;
+        queue.clear();
+        pending.reset();
+        checkRep();
+        if (wasOpen) {
+            dropListener.run();
+        }
+    }
+
+    /**
+     * Close the connection of a dropped subscriber, making a drain task blocked writing to it fail.
+     */
+    private void disconnect() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            // already broken, which is as good as closed
+        }
+    }
+
+    /**
+     * Body of the drain task: until the queue is empty, take every queued chunk and send them in order
+     * with one flush.
+     */
+    private void drain() {
+        final List<byte[]> chunks = new ArrayList<>();
+        while (true) {
+            chunks.clear();
+            synchronized (this) {
+                if (queue.isEmpty()) {
+                    draining = false;
+                    notifyAll();
+                    return;
+                }
+                chunks.addAll(queue);
+                queue.clear();
+            }
+            final long start = System.nanoTime();
+            try {
+                for (byte[] chunk : chunks) {
+                    out.write(chunk);
+                }
+                out.flush();
+            } catch (IOException e) {
+                synchronized (this) {
+                    drop();
+                }
+                continue;
+            }
+            writeTimer.accept(System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.parser.AbcParser;
+import karaoke.parser.MusicParser;
+
+/**
+ * Tests for AbcParser
+ */
+public class AbcParserTest {
+
+    // Testing strategy:
+    //
+    // Partition the inputs to parse as follows:
+    //    source: a sample file, a string
+    //    body: notes, chords, tuplets, rests, repeats, voices, lyrics, comments
+    //    last line: ends with a newline, does not
+    //    input: matches the grammar, does not
+    //
+    // Files that match the grammar must parse to the same music as MusicParser, compared by toString,
+    // which covers every note, lyric and header field.
+
+    private static final String HEADER = "X:1\nT:test\nL:1/4\nK:C\n";
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // covers: source -> sample file, every kind of body element, last line -> both
+    @Test public void testSameAsMusicParserOnSamples() throws UnableToParseException, IOException {
+        final File[] samples = new File("sample-abc").listFiles((dir, name) -> name.endsWith(".abc"));
+        assertTrue(samples.length > 0);
+        for (File sample : samples) {
+            final Music expected = new MusicParser().parseFromFile(sample);
+            final Music actual = AbcParser.parseFromFile(sample);
+            assertEquals(sample.getName(), expected.toString(), actual.toString());
+            assertEquals(sample.getName(), expected.duration(), actual.duration(), 0);
+        }
+    }
+
+    // covers: source -> string, accidentals and octaves, spaces inside a note
+    @Test public void testParseAccidentalsLastUntilBarline() throws UnableToParseException {
+        final Music music = AbcParser.parse(HEADER + "^C C c ' D2|C|\n");
+        assertEquals("X:1T:testC:UnknownM:1.0L:0.25V:[default]K:C\n"
+                + "default: {z0.0^C0.25^C0.25C''0.25D0.5C0.25}\n", music.toString());
+    }
+
+    // covers: comments, lyrics
+    @Test public void testParseLyrics() throws UnableToParseException {
+        final Music music = AbcParser.parse(HEADER + "% first line\nC D|\nw: hel-lo\n");
+        final Music expected = AbcParser.parse(HEADER + "% first line\nC D|\nw:hel-lo\n");
+        assertEquals(expected.toString(), music.toString());
+        assertTrue(music.toString().contains("<mark>hel</mark>"));
+    }
+
+    // covers: input -> does not match, missing barline after a bar
+    @Test(expected=UnableToParseException.class)
+    public void testParseMissingBarline() throws UnableToParseException {
+        AbcParser.parse(HEADER + "C D|E F\n");
+    }
+
+    // covers: input -> does not match, blank line in the body
+    @Test(expected=UnableToParseException.class)
+    public void testParseBlankLine() throws UnableToParseException {
+        AbcParser.parse(HEADER + "C D|\n\nE F|\n");
+    }
+}
@@ -0,0 +1,92 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.parser.AbcParser;
+import karaoke.parser.AbcWriter;
+import karaoke.parser.MusicParser;
+
+/**
+ * Tests for AbcWriter
+ */
+public class AbcWriterTest {
+
+    // Testing strategy:
+    //
+    // Partition the music to write as follows:
+    //    source: a sample file, a string, a music that is not a piece
+    //    music: parsed directly, transposed
+    //    body: notes, accidentals, chords, tuplets, rests, repeats with and without endings, voices, lyrics
+    //
+    // Written music is parsed back and compared with the music written: the notes it plays through CompiledMusic,
+    // and where the lyrics line up with the notes, its toString.
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    /**
+     * @return every note music plays, as start tick/duration ticks/MIDI key, sorted
+     */
+    private static List<String> notes(Music music, int ticksPerBeat) {
+        final CompiledMusic compiled = CompiledMusic.compile(music, "", ticksPerBeat);
+        final List<String> notes = new ArrayList<>();
+        for (int i = 0; i < compiled.noteCount(); i++) {
+            notes.add(compiled.startTick(i) + "/" + compiled.durationTicks(i) + "/" + compiled.midiKey(i));
+        }
+        Collections.sort(notes);
+        return notes;
+    }
+
+    // covers: source -> sample file, music -> both, every kind of body element
+    @Test public void testWriteSamplesPlaysSameNotes() throws UnableToParseException, IOException {
+        final File[] samples = new File("sample-abc").listFiles((dir, name) -> name.endsWith(".abc"));
+        assertTrue(samples.length > 0);
+        for (File sample : samples) {
+            for (int semitonesUp : new int[] { 0, 5 }) {
+                final Music music = AbcParser.parseFromFile(sample).transpose(semitonesUp);
+                final Music written = AbcParser.parse(AbcWriter.toAbc(music));
+                final String message = sample.getName() + " up " + semitonesUp;
+                final int ticksPerBeat = CompiledMusic.ticksPerBeat(music);
+                assertEquals(message, notes(music, ticksPerBeat), notes(written, ticksPerBeat));
+                assertEquals(message, ((Piece) music).getHeader().toString(), ((Piece) written).getHeader().toString());
+            }
+        }
+    }
+
+    // covers: source -> sample file, same music as MusicParser reads
+    @Test public void testWriteSampleSameMusic() throws UnableToParseException, IOException {
+        final Music music = new MusicParser().parseFromFile(new File("sample-abc/fur_elise.abc"));
+        assertEquals(music.toString(), AbcParser.parse(AbcWriter.toAbc(music)).toString());
+    }
+
+    // covers: source -> string, accidentals, repeat with ending, tuplet, chord, lyrics
+    @Test public void testWriteLyricsOnSameNotes() throws UnableToParseException {
+        final Music music = AbcParser.parse("X:1\nT:test\nL:1/4\nK:F\n"
+                + "|:C ^D D/2 E/2|[1 (3FGA:|[C2E2G2] B,, c'|\nw: hel-lo world_ a b c d e\n");
+        final String abc = AbcWriter.toAbc(music);
+        assertTrue(abc, abc.contains("|:") && abc.contains("[1") && abc.contains(":|"));
+        assertTrue(abc, abc.contains(" B,, "));
+        assertEquals(music.toString(), AbcParser.parse(abc).toString());
+    }
+
+    // covers: source -> music that is not a piece, music -> transposed
+    @Test public void testWriteNotPiece() throws UnableToParseException {
+        final Music music = new Concat(Note.of(Rational.of(1, 8), Pitch.MIDDLE_C, Instrument.PIANO),
+                                       new Rest(Rational.of(3, 8))).transpose(1);
+        final String abc = AbcWriter.toAbc(music);
+        assertEquals("X:1\nT:untitled\nL:1/8\nK:C\n|^C z3|\n", abc);
+        assertEquals(Rational.of(1, 2), AbcParser.parse(abc).exactDuration());
+    }
+}
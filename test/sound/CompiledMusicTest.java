@@ -0,0 +1,151 @@
+package karaoke.sound;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.parser.AbcParser;
+
+/**
+ * Tests for CompiledMusic
+ */
+public class CompiledMusicTest {
+
+    // Testing strategy:
+    //
+    // Partition the inputs to compile as follows:
+    //    # of notes: 1, > 1
+    //    notes starting at the same tick: no, yes (chord)
+    //    voice: "", a voice with lyrics
+    //    music: parsed directly, transposed, built from repeats, tuplets and components
+    //    ticks per beat: given, chosen from the music, coarser than the music
+    //
+    // Partition lyricTickEnd and lyricBytes as follows:
+    //    # of lyric lines at the tick: 1, > 1
+    //
+    // Each test compiles a small sample piece and checks the arrays through the accessors.
+
+    private static final int TICKS_PER_BEAT = 64;
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // covers: # of notes -> 1, voice -> with lyrics
+    @Test public void testCompileNoteWithLyric() throws UnableToParseException, IOException {
+        Music music = Music.parseFromFile(new File("sample-abc/note.abc"));
+        CompiledMusic compiled = CompiledMusic.compile(music, "default", TICKS_PER_BEAT);
+        assertEquals(1, compiled.noteCount());
+        assertEquals(0, compiled.startTick(0));
+        assertEquals(12, compiled.durationTicks(0));
+        assertEquals(60, compiled.midiKey(0));
+        assertEquals(Pitch.MIDDLE_C, compiled.pitch(0));
+        assertEquals(Instrument.PIANO, compiled.instrument(compiled.channel(0)));
+        assertEquals(1, compiled.lyricCount());
+        assertEquals(0, compiled.lyricTick(0));
+        assertTrue(compiled.lyric(0).contains("<mark>hi</mark>"));
+    }
+
+    // covers: voice -> ""
+    @Test public void testCompileNoVoiceHasNoLyrics() throws UnableToParseException, IOException {
+        Music music = Music.parseFromFile(new File("sample-abc/note.abc"));
+        CompiledMusic compiled = CompiledMusic.compile(music, "", TICKS_PER_BEAT);
+        assertEquals(1, compiled.noteCount());
+        assertEquals(0, compiled.lyricCount());
+    }
+
+    // covers: # of notes -> > 1, same tick -> yes, transposed
+    @Test public void testCompileTransposedChord() throws UnableToParseException, IOException {
+        Music music = Music.parseFromFile(new File("sample-abc/chord.abc"));
+        CompiledMusic compiled = CompiledMusic.compile(music.transpose(2), "", TICKS_PER_BEAT);
+        assertEquals(3, compiled.noteCount());
+        assertEquals(1, compiled.channelCount());
+        int[] expectedKeys = { 69, 73, 81 };
+        for (int i = 0; i < compiled.noteCount(); i++) {
+            assertEquals(0, compiled.startTick(i));
+            assertEquals(16, compiled.durationTicks(i));
+            assertEquals(expectedKeys[i], compiled.midiKey(i));
+        }
+    }
+
+    // covers: # of notes -> > 1, ticks per beat -> chosen from the music, triplet
+    @Test public void testCompileTripletAtExactTicks() throws UnableToParseException {
+        Music music = AbcParser.parse("X:1\nT:triplet\nL:1/8\nK:C\n(3CDE|\n");
+        assertEquals(Rational.of(1, 4), music.exactDuration());
+        assertEquals(24, music.ticksPerBeat());
+        assertEquals(72, CompiledMusic.ticksPerBeat(music));
+        CompiledMusic compiled = CompiledMusic.compile(music, "");
+        assertEquals(72, compiled.ticksPerBeat());
+        assertEquals(3, compiled.noteCount());
+        for (int i = 0; i < compiled.noteCount(); i++) {
+            assertEquals(6 * i, compiled.startTick(i));
+            assertEquals(9, compiled.durationTicks(i));
+        }
+    }
+
+    // covers: music -> built from repeats, tuplets and components; voice -> a voice with lyrics
+    @Test public void testCompilesWhatPlayingSchedules() throws InterruptedException {
+        Note c = Note.of(1, new Pitch('C'), Instrument.PIANO);
+        Note e = Note.of(1, new Pitch('E'), Instrument.PIANO);
+        Music triplet = new Tuplet(Arrays.asList(c, e, c));
+        Music voice = new Repeat(new Concat(triplet, e), new Concat(new Rest(0.5), c)).transpose(3);
+        Music music = new Component(Arrays.asList(voice, new Concat(new Lyric("*la*", 3), new Lyric("*lo*", 1))));
+        RecordingSequencePlayer recorder = new RecordingSequencePlayer();
+        music.play(recorder, 0, new ByteArrayOutputStream(), "v");
+        CompiledMusic compiled = CompiledMusic.compile(music, "v", TICKS_PER_BEAT);
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < recorder.noteCount(); i++) {
+            final long start = Math.round(recorder.noteStart(i) * TICKS_PER_BEAT);
+            final long end = Math.round((recorder.noteStart(i) + recorder.noteDuration(i)) * TICKS_PER_BEAT);
+            expected.add(start + " " + (end - start) + " " + recorder.notePitch(i));
+        }
+        List<String> actual = new ArrayList<>();
+        for (int i = 0; i < compiled.noteCount(); i++) {
+            actual.add(compiled.startTick(i) + " " + compiled.durationTicks(i) + " " + compiled.pitch(i));
+        }
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+        assertEquals(Arrays.asList(0L, 192L), Arrays.asList(compiled.lyricTick(0), compiled.lyricTick(1)));
+    }
+
+    // covers: ticks per beat -> coarser than the music
+    @Test public void testLongChainRoundsEachNoteExactly() {
+        final int notes = 3000;
+        Music music = new Rest(0);
+        for (int i = 0; i < notes; i++) {
+            music = new Concat(music, Note.of(Rational.of(1, 6), new Pitch('C'), Instrument.PIANO));
+        }
+        CompiledMusic compiled = CompiledMusic.compile(music, "", 3);
+        assertEquals(notes, compiled.noteCount());
+        for (int i = 0; i < notes; i++) {
+            // note i starts at i/2 ticks, so every other start is a half tick, which rounds up
+            assertEquals((i + 1) / 2, compiled.startTick(i));
+            assertEquals((i + 2) / 2 - (i + 1) / 2, compiled.durationTicks(i));
+        }
+    }
+
+    // covers: # of lyric lines at the tick -> 1, > 1
+    @Test public void testLinesAtTheSameTickWrittenTogether() throws UnableToParseException, IOException {
+        Music music = Music.parseFromFile(new File("sample-abc/star_spangled_banner.abc"));
+        CompiledMusic compiled = CompiledMusic.compile(music, "default", TICKS_PER_BEAT);
+        assertEquals(1, compiled.lyricTickEnd(0));
+        assertEquals(compiled.lyric(0) + "<br>", new String(compiled.lyricBytes(0, 1), UTF_8));
+        assertEquals(73, compiled.lyricTickEnd(71));
+        assertEquals(compiled.lyricTick(71), compiled.lyricTick(72));
+        assertEquals(compiled.lyric(71) + "<br>" + compiled.lyric(72) + "<br>", new String(compiled.lyricBytes(71, 73), UTF_8));
+    }
+}
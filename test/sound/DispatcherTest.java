@@ -0,0 +1,210 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.LongSummaryStatistics;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+import org.junit.Test;
+
+/**
+ * Tests for Dispatcher
+ */
+public class DispatcherTest {
+
+    // Testing strategy:
+    //
+    // Partition playback as follows:
+    //    events: fit in one window, span several windows
+    //    events at the same tick: no, yes
+    //    kinds of events: messages only, messages and actions
+    //    control: none, pause then resume, seek back, after playback has finished
+    //    actions: return, throw
+    //
+    // Each test plays a small timeline at a millisecond per tick to a receiver that records what it is sent.
+
+    private static final double NANOS_PER_TICK = 1e6;
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final Consumer<RuntimeException> IGNORE = failure -> {};
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    /**
+     * Sends every MIDI message to a list, as its note number, and counts down when closed.
+     */
+    private static class RecordingReceiver implements Receiver {
+        final List<Integer> notes = new ArrayList<>();
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public synchronized void send(MidiMessage message, long timeStamp) {
+            final ShortMessage shortMessage = (ShortMessage) message;
+            if (shortMessage.getCommand() == ShortMessage.NOTE_ON) {
+                notes.add(shortMessage.getData1());
+            }
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+
+        synchronized List<Integer> notes() {
+            return new ArrayList<>(notes);
+        }
+    }
+
+    /**
+     * Timeline of the events of a sorted buffer.
+     */
+    private static class BufferTimeline implements Dispatcher.Timeline {
+        private final EventBuffer events;
+        private int next = 0;
+
+        BufferTimeline(EventBuffer events) {
+            events.sort();
+            this.events = events;
+        }
+
+        @Override
+        public void seek(long tick) {
+            next = events.firstAt(tick);
+        }
+
+        @Override
+        public boolean fill(EventBuffer window, long until) {
+            for (; next < events.size() && events.tick(next) < until; next++) {
+                window.add(events, next);
+            }
+            return next < events.size();
+        }
+    }
+
+    private static int noteOn(int note) {
+        return Dispatcher.shortMessage(ShortMessage.NOTE_ON, note, 100);
+    }
+
+    // covers: events -> span several windows, at the same tick -> yes, kinds -> messages only, control -> none
+    @Test public void testDispatchesInTickOrderOnce() throws InterruptedException {
+        EventBuffer events = new EventBuffer();
+        events.add(30, noteOn(64));
+        events.add(0, noteOn(60));
+        events.add(10, noteOn(62));
+        events.add(10, noteOn(61));
+        events.add(25, noteOn(63));
+        RecordingReceiver receiver = new RecordingReceiver();
+        Dispatcher dispatcher = new Dispatcher(receiver, new BufferTimeline(events), 8, IGNORE);
+        dispatcher.start(0, NANOS_PER_TICK, false);
+        assertTrue(receiver.closed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(60, 62, 61, 63, 64), receiver.notes());
+        assertEquals(5, dispatcher.getLateness().getCount());
+    }
+
+    // covers: events -> fit in one window, kinds -> messages and actions
+    @Test public void testActionsRunWhenDue() throws InterruptedException {
+        EventBuffer events = new EventBuffer();
+        List<Long> ticks = new ArrayList<>();
+        List<Long> lateness = new ArrayList<>();
+        Dispatcher.Action action = (tick, dueNanos) -> {
+            ticks.add(tick);
+            lateness.add(System.nanoTime() - dueNanos);
+        };
+        events.add(20, action);
+        events.add(5, action);
+        events.add(10, noteOn(60));
+        RecordingReceiver receiver = new RecordingReceiver();
+        Dispatcher dispatcher = new Dispatcher(receiver, new BufferTimeline(events), 100, IGNORE);
+        dispatcher.start(0, NANOS_PER_TICK, false);
+        assertTrue(receiver.closed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(5L, 20L), ticks);
+        assertEquals(Arrays.asList(60), receiver.notes());
+        for (long late : lateness) {
+            assertTrue("ran early: " + late, late >= 0);
+        }
+        LongSummaryStatistics stats = dispatcher.getLateness();
+        assertEquals(3, stats.getCount());
+        assertTrue(stats.getMin() >= 0);
+    }
+
+    // covers: control -> pause then resume
+    @Test public void testPausedDispatchesNothing() throws InterruptedException {
+        EventBuffer events = new EventBuffer();
+        events.add(0, noteOn(60));
+        events.add(10, noteOn(62));
+        RecordingReceiver receiver = new RecordingReceiver();
+        Dispatcher dispatcher = new Dispatcher(receiver, new BufferTimeline(events), 100, IGNORE);
+        dispatcher.start(0, NANOS_PER_TICK, true);
+        Thread.sleep(50);
+        assertEquals(Arrays.asList(), receiver.notes());
+        dispatcher.resume();
+        assertTrue(receiver.closed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(60, 62), receiver.notes());
+    }
+
+    // covers: control -> seek back
+    @Test public void testSeekBackDispatchesAgain() throws InterruptedException {
+        EventBuffer events = new EventBuffer();
+        CountDownLatch reached = new CountDownLatch(1);
+        events.add(0, noteOn(60));
+        events.add(10, noteOn(62));
+        events.add(20, (tick, dueNanos) -> reached.countDown());
+        events.add(1000, noteOn(64));
+        RecordingReceiver receiver = new RecordingReceiver();
+        Dispatcher dispatcher = new Dispatcher(receiver, new BufferTimeline(events), 100, IGNORE);
+        dispatcher.start(0, NANOS_PER_TICK, false);
+        assertTrue(reached.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        dispatcher.seek(10);
+        dispatcher.setNanosPerTick(NANOS_PER_TICK / 10);
+        assertTrue(receiver.closed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(60, 62, 62, 64), receiver.notes());
+    }
+
+    // covers: actions -> throw
+    @Test public void testThrowingActionIsReportedAndPlaybackGoesOn() throws InterruptedException {
+        EventBuffer events = new EventBuffer();
+        List<Long> ran = new ArrayList<>();
+        events.add(0, (tick, dueNanos) -> {
+            throw new IllegalStateException("broken callback");
+        });
+        events.add(5, (tick, dueNanos) -> ran.add(tick));
+        events.add(10, noteOn(60));
+        List<RuntimeException> failures = new ArrayList<>();
+        RecordingReceiver receiver = new RecordingReceiver();
+        Dispatcher dispatcher = new Dispatcher(receiver, new BufferTimeline(events), 100, failures::add);
+        dispatcher.start(0, NANOS_PER_TICK, false);
+        assertTrue(receiver.closed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, failures.size());
+        assertEquals("broken callback", failures.get(0).getMessage());
+        assertEquals(Arrays.asList(5L), ran);
+        assertEquals(Arrays.asList(60), receiver.notes());
+    }
+
+    // covers: control -> after playback has finished
+    @Test public void testControlsAfterFinishAreNotApplied() throws InterruptedException {
+        EventBuffer events = new EventBuffer();
+        events.add(0, noteOn(60));
+        RecordingReceiver receiver = new RecordingReceiver();
+        Dispatcher dispatcher = new Dispatcher(receiver, new BufferTimeline(events), 100, IGNORE);
+        dispatcher.start(0, NANOS_PER_TICK, false);
+        assertTrue(receiver.closed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertFalse(dispatcher.pause());
+        assertFalse(dispatcher.resume());
+        assertFalse(dispatcher.setNanosPerTick(NANOS_PER_TICK));
+        assertFalse(dispatcher.seek(0));
+        assertEquals(Arrays.asList(60), receiver.notes());
+    }
+}
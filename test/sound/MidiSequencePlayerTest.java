@@ -0,0 +1,137 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+
+import org.junit.Test;
+
+/**
+ * Tests for MidiSequencePlayer
+ */
+public class MidiSequencePlayerTest {
+
+    // Testing strategy:
+    //
+    // Partition players sharing one receiver and channel pool as follows:
+    //    instruments: different
+    //    control of one player: none, pause then resume
+    //
+    // Each test plays to a receiver that keeps the notes sounding on each channel and the instrument of each
+    // channel, as a synthesizer would.
+
+    private static final int CHANNELS = 16;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    /**
+     * Keeps how many times each key of each channel is sounding and the program of each channel, and counts down
+     * when closed.
+     */
+    private static class SynthesizerReceiver implements Receiver {
+        final int[][] sounding = new int[CHANNELS][128];
+        final Map<Integer, Integer> programs = new HashMap<>();
+        final CountDownLatch closed;
+        int allNotesOff = 0;
+
+        SynthesizerReceiver(int players) {
+            this.closed = new CountDownLatch(players);
+        }
+
+        @Override
+        public synchronized void send(MidiMessage message, long timeStamp) {
+            final ShortMessage shortMessage = (ShortMessage) message;
+            final int channel = shortMessage.getChannel();
+            switch (shortMessage.getCommand()) {
+            case ShortMessage.NOTE_ON:
+                sounding[channel][shortMessage.getData1()]++;
+                break;
+            case ShortMessage.NOTE_OFF:
+                sounding[channel][shortMessage.getData1()] = 0;
+                break;
+            case ShortMessage.PROGRAM_CHANGE:
+                programs.put(channel, shortMessage.getData1());
+                break;
+            case ShortMessage.CONTROL_CHANGE:
+                allNotesOff++;
+                break;
+            default:
+                break;
+            }
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+
+        synchronized int sounding(int channel, int key) {
+            return sounding[channel][key];
+        }
+    }
+
+    /**
+     * @return a latch counted down when the player reaches a beat
+     */
+    private static CountDownLatch reached(MidiSequencePlayer player, double beat) {
+        final CountDownLatch reached = new CountDownLatch(1);
+        player.addEvent(beat, b -> reached.countDown());
+        return reached;
+    }
+
+    // covers: instruments -> different, control -> none, pause then resume
+    @Test public void testPausingOnePlayerLeavesTheOtherSounding() throws InterruptedException {
+        ChannelPool pool = new ChannelPool(CHANNELS);
+        SynthesizerReceiver receiver = new SynthesizerReceiver(2);
+        MidiSequencePlayer piano = new MidiSequencePlayer(pool, receiver, 600, 64);
+        MidiSequencePlayer organ = new MidiSequencePlayer(pool, receiver, 600, 64);
+        piano.addNote(Instrument.PIANO, new Pitch('C'), 0, 8);
+        organ.addNote(Instrument.CHURCH_ORGAN, new Pitch('E'), 0, 8);
+        CountDownLatch pianoPlaying = reached(piano, 1);
+        CountDownLatch organPlaying = reached(organ, 1);
+        organ.play();
+        piano.play();
+        assertTrue(pianoPlaying.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(organPlaying.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        int pianoChannel = -1;
+        int organChannel = -1;
+        synchronized (receiver) {
+            for (Map.Entry<Integer, Integer> program : receiver.programs.entrySet()) {
+                if (program.getValue() == Instrument.PIANO.ordinal()) {
+                    pianoChannel = program.getKey();
+                } else if (program.getValue() == Instrument.CHURCH_ORGAN.ordinal()) {
+                    organChannel = program.getKey();
+                }
+            }
+        }
+        assertTrue(pianoChannel != organChannel);
+        assertTrue(pianoChannel >= 0 && organChannel >= 0);
+        assertEquals(1, receiver.sounding(pianoChannel, 60));
+        assertEquals(1, receiver.sounding(organChannel, 64));
+
+        piano.pause();
+        assertEquals(0, receiver.sounding(pianoChannel, 60));
+        assertEquals(1, receiver.sounding(organChannel, 64));
+        synchronized (receiver) {
+            assertEquals(0, receiver.allNotesOff);
+        }
+
+        piano.resume();
+        assertTrue(receiver.closed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(0, pool.holders(pianoChannel));
+        assertEquals(0, pool.holders(organChannel));
+    }
+}
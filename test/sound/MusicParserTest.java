@@ -1,6 +1,8 @@
 package karaoke.sound;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
@@ -27,7 +29,7 @@ public class MusicParserTest {
     //    Tuplet: # of tuplets -> 1, > 1
     //    Repeat: same ending, different ending
     //    Voice: # voices -> 1, > 1
-    //    Lyric: lyrics are tested within these tests
+    //    Lyric: lyrics are tested within these tests; getLyrics and hasLyrics on a voice with and without lyrics, transposed
     //    Component: a component of chords
     //
     // After sufficient testing of the variants, we will test each of the sample pieces manually to make sure everything is complete
@@ -156,6 +158,20 @@ public class MusicParserTest {
             e.printStackTrace();
         }
     }
+    // covers: repeat --> different ending, played body, first ending, body, second ending in order
+    @Test public void testPlayRepeatDifferent() throws UnableToParseException, IOException {
+        Music music = karaoke.sound.Music.parseFromFile(new File("sample-abc/repeat_2.abc"));
+        final int ticksPerBeat = 4;
+        CompiledMusic compiled = CompiledMusic.compile(music, "", ticksPerBeat);
+        String expectedOrder = "CDEFGABc" + "GABB" + "CDEF" + "FEDC";
+        assertEquals(expectedOrder.length(), compiled.noteCount());
+        assertEquals(expectedOrder.length(), music.duration() * ticksPerBeat, 0.001);
+        for (int i = 0; i < compiled.noteCount(); i++) {
+            assertEquals(i, compiled.startTick(i));
+            assertEquals(Pitch.valueOf(Character.toUpperCase(expectedOrder.charAt(i))).transpose(
+                    Character.isLowerCase(expectedOrder.charAt(i)) ? Pitch.OCTAVE : 0), compiled.pitch(i));
+        }
+    }
     // covers: voice --> 1
     @Test public void testParseVoiceOne() throws MidiUnavailableException, InvalidMidiDataException {
         try {
@@ -189,4 +205,15 @@ public class MusicParserTest {
             e.printStackTrace();
         }
     }
+    // covers: lyric --> with and without lyrics, transposed
+    @Test public void testGetLyricsAndHasLyrics() throws UnableToParseException, IOException {
+        Music withLyrics = karaoke.sound.Music.parseFromFile(new File("sample-abc/note.abc"));
+        Music withoutLyrics = karaoke.sound.Music.parseFromFile(new File("sample-abc/note_2.abc"));
+        assertEquals(" <mark>hi</mark>    ", withLyrics.getLyrics("default"));
+        assertTrue(withLyrics.hasLyrics("default"));
+        assertEquals(withLyrics.getLyrics("default"), withLyrics.transpose(2).getLyrics("default"));
+        assertTrue(withLyrics.transpose(2).hasLyrics("default"));
+        assertEquals("", withoutLyrics.getLyrics("default"));
+        assertFalse(withoutLyrics.hasLyrics("default"));
+    }
 }
@@ -0,0 +1,119 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+
+/**
+ * Tests for NormalizedMusic
+ */
+public class NormalizedMusicTest {
+
+    // Testing strategy:
+    //
+    // Partition NormalizedMusic.of as follows:
+    //    zero-length rests: none, at the start, between parts, the whole music
+    //    adjacent rests: none, > 1
+    //    blank lyrics: none, of no length, lasting a while
+    //    nesting: none, concatenation of concatenations, component of components
+    //    equal subtrees: none, > 1
+    //    music: built directly, a whole parsed song with lyrics
+    //
+    // Each test checks the normalized music plays like the original, and the node counts before and after.
+
+    private static final Note C = Note.of(1, new Pitch('C'), Instrument.PIANO);
+    private static final Note E = Note.of(1, new Pitch('E'), Instrument.PIANO);
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // covers: zero-length rests -> none, adjacent rests -> none, blank lyrics -> none, nesting -> none,
+    //         equal subtrees -> none
+    @Test public void testAlreadyNormal() {
+        Music music = new Concat(C, new Concat(new Rest(1), E));
+        NormalizedMusic normalized = NormalizedMusic.of(music);
+        assertEquals(music.toString(), normalized.music().toString());
+        assertEquals(5, normalized.nodesBefore());
+        assertEquals(5, normalized.nodesAfter());
+    }
+
+    // covers: zero-length rests -> at the start, between parts; adjacent rests -> > 1;
+    //         nesting -> concatenation of concatenations
+    @Test public void testStripsZeroRestsAndMergesRests() {
+        Music music = new Concat(new Concat(new Concat(new Rest(0), C), new Rest(0.5)),
+                new Concat(new Rest(0), new Concat(new Rest(0.25), E)));
+        NormalizedMusic normalized = NormalizedMusic.of(music);
+        assertEquals(new Concat(C, new Concat(new Rest(0.75), E)).toString(), normalized.music().toString());
+        assertEquals(music.exactDuration(), normalized.music().exactDuration());
+        assertEquals(11, normalized.nodesBefore());
+        assertEquals(5, normalized.nodesAfter());
+        assertTrue(normalized.toString().contains("11"));
+    }
+
+    // covers: zero-length rests -> the whole music
+    @Test public void testAllZeroRests() {
+        Music music = new Concat(new Rest(0), new Concat(new Rest(0), new Rest(0)));
+        Music normalized = NormalizedMusic.of(music).music();
+        assertEquals(new Rest(0), normalized);
+        assertEquals(1, NormalizedMusic.of(music).nodesAfter());
+    }
+
+    // covers: blank lyrics -> of no length, lasting a while; nesting -> component of components
+    @Test public void testDropsBlankLyricsAndFlattensComponents() {
+        Music lyrics = new Concat(new Lyric(" ", 0), new Concat(new Lyric("*C* E", 1), new Lyric(" ", 1)));
+        Music voice = new Concat(C, E);
+        Music music = new Component(Arrays.asList(new Component(Arrays.asList(voice, lyrics)), new Rest(0)));
+        NormalizedMusic normalized = NormalizedMusic.of(music);
+        assertEquals(new Component(Arrays.asList(voice, new Concat(new Lyric("*C* E", 1), new Rest(1)))).toString(),
+                normalized.music().toString());
+        assertEquals(music.getLyrics("v").trim(), normalized.music().getLyrics("v").trim());
+        assertTrue(normalized.music().hasLyrics("v"));
+        assertTrue(normalized.nodesAfter() < normalized.nodesBefore());
+    }
+
+    // covers: equal subtrees -> > 1
+    @Test public void testSharesEqualSubtrees() {
+        Music music = new Concat(new Chord(Arrays.asList(C, E)),
+                new Concat(new Chord(Arrays.asList(C, E)), new Chord(Arrays.asList(C, E))));
+        NormalizedMusic normalized = NormalizedMusic.of(music);
+        assertEquals(music.toString(), normalized.music().toString());
+        assertEquals(7, normalized.nodesBefore());
+        assertEquals(5, normalized.nodesAfter());
+    }
+
+    // covers: music -> a whole parsed song with lyrics
+    @Test public void testWholeSongPlaysTheSame() throws UnableToParseException, IOException {
+        Music music = Music.parseFromFile(new File("sample-abc/piece3.abc"));
+        NormalizedMusic normalized = NormalizedMusic.of(music);
+        assertTrue(normalized.nodesAfter() < normalized.nodesBefore());
+        assertEquals(Arrays.asList(music.getVoices()), Arrays.asList(normalized.music().getVoices()));
+        for (String voice : music.getVoices()) {
+            assertEquals(music.hasLyrics(voice), normalized.music().hasLyrics(voice));
+            CompiledMusic expected = CompiledMusic.compile(music, voice);
+            CompiledMusic actual = CompiledMusic.compile(normalized.music(), voice);
+            assertEquals(expected.toString(), actual.toString());
+            assertEquals(expected.noteCount(), actual.noteCount());
+            for (int i = 0; i < expected.noteCount(); i++) {
+                assertEquals(expected.startTick(i), actual.startTick(i));
+                assertEquals(expected.durationTicks(i), actual.durationTicks(i));
+                assertEquals(expected.midiKey(i), actual.midiKey(i));
+            }
+            assertEquals(expected.lyricCount(), actual.lyricCount());
+            for (int i = 0; i < expected.lyricCount(); i++) {
+                assertEquals(expected.lyricTick(i), actual.lyricTick(i));
+                assertEquals(expected.lyric(i), actual.lyric(i));
+            }
+        }
+        assertFalse(normalized.music().toString().contains("z0.0"));
+    }
+}
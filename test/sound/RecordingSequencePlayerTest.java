@@ -0,0 +1,142 @@
+package karaoke.sound;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+
+/**
+ * Tests for RecordingSequencePlayer
+ */
+public class RecordingSequencePlayerTest {
+
+    // Testing strategy:
+    //
+    // Partition addNote and the note accessors as follows:
+    //    # of notes: 0, > initial capacity
+    //
+    // Partition advanceTo and play as follows:
+    //    events scheduled: in beat order, out of beat order, at the same beat
+    //    clock: advanced part of the way, all the way
+    //    callbacks: schedule nothing, schedule more, each schedule one more many times
+    //
+    // Partition the music played as follows:
+    //    a whole song with lyrics, through Music.play, through addCompiled
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // covers: # of notes -> 0
+    @Test public void testEmpty() {
+        RecordingSequencePlayer player = new RecordingSequencePlayer();
+        player.play();
+        assertEquals(0, player.noteCount());
+        assertEquals(0, player.eventCount());
+        assertEquals(0, player.getBeat(), 0);
+    }
+
+    // covers: # of notes -> > initial capacity
+    @Test public void testRecordsNotes() {
+        RecordingSequencePlayer player = new RecordingSequencePlayer();
+        for (int i = 0; i < 100; i++) {
+            player.addNote(Instrument.PIANO, Pitch.MIDDLE_C.transpose(i % 12), i / 2.0, 0.5);
+        }
+        player.addNote(Instrument.VIOLIN, new Pitch('A'), 1.25, 3);
+        assertEquals(101, player.noteCount());
+        assertEquals(Pitch.MIDDLE_C.transpose(99 % 12), player.notePitch(99));
+        assertEquals(49.5, player.noteStart(99), 0);
+        assertEquals(Instrument.VIOLIN, player.noteInstrument(100));
+        assertEquals(new Pitch('A'), player.notePitch(100));
+        assertEquals(1.25, player.noteStart(100), 0);
+        assertEquals(3, player.noteDuration(100), 0);
+    }
+
+    // covers: events -> out of beat order, at the same beat; clock -> advanced part of the way, all the way
+    @Test public void testCallsInBeatOrder() {
+        RecordingSequencePlayer player = new RecordingSequencePlayer();
+        List<String> calls = new ArrayList<>();
+        player.addEvent(3, beat -> calls.add("c" + beat));
+        player.addEvent(1, beat -> calls.add("a" + beat));
+        player.addEvent(2, beat -> calls.add("b" + beat));
+        player.addEvent(1, beat -> calls.add("A" + beat));
+        player.advanceTo(1.5);
+        assertEquals(Arrays.asList("a1.0", "A1.0"), calls);
+        assertEquals(1.5, player.getBeat(), 0);
+        assertEquals(2, player.calledCount());
+        player.play();
+        assertEquals(Arrays.asList("a1.0", "A1.0", "b2.0", "c3.0"), calls);
+        assertEquals(3, player.getBeat(), 0);
+    }
+
+    // covers: events -> in beat order; callbacks -> schedule more
+    @Test public void testCallbackSchedulesMore() {
+        RecordingSequencePlayer player = new RecordingSequencePlayer();
+        List<Double> beats = new ArrayList<>();
+        player.addEvent(0, beat -> {
+            beats.add(beat);
+            player.addEvent(0.5, beats::add);
+        });
+        player.addEvent(1, beats::add);
+        player.play();
+        assertEquals(Arrays.asList(0.0, 0.5, 1.0), beats);
+    }
+
+    // covers: events -> at the same beat; callbacks -> each schedule one more many times
+    @Test public void testLongChainOfCallbacks() {
+        RecordingSequencePlayer player = new RecordingSequencePlayer();
+        final int links = 200_000;
+        List<Double> beats = new ArrayList<>();
+        for (int i = 0; i < links; i += 1000) {
+            player.addEvent(i, beats::add);
+        }
+        // each link is at the same beat as an event scheduled before playing, which must still be called first
+        @SuppressWarnings("unchecked")
+        final Consumer<Double>[] link = new Consumer[1];
+        link[0] = beat -> {
+            beats.add(-beat);
+            if (beat < links - 1) {
+                player.addEvent(beat + 1, link[0]);
+            }
+        };
+        player.addEvent(0, link[0]);
+        player.play();
+        assertEquals(links + links / 1000, player.calledCount());
+        assertEquals(Arrays.asList(0.0, -0.0, -1.0, -2.0), beats.subList(0, 4));
+        assertEquals(Arrays.asList(-999.0, 1000.0, -1000.0), beats.subList(1000, 1003));
+        assertEquals(links - 1, player.getBeat(), 0);
+    }
+
+    // covers: music -> a whole song with lyrics, through Music.play, through addCompiled
+    @Test public void testWholeSongLyrics() throws UnableToParseException, IOException, InterruptedException {
+        Music music = Music.parseFromFile(new File("sample-abc/piece3.abc"));
+        CompiledMusic compiled = CompiledMusic.compile(music, "default", MidiSequencePlayer.DEFAULT_TICKS_PER_BEAT);
+
+        RecordingSequencePlayer played = new RecordingSequencePlayer();
+        ByteArrayOutputStream playedLyrics = new ByteArrayOutputStream();
+        music.play(played, 0, playedLyrics, "default");
+        played.play();
+
+        RecordingSequencePlayer fromArrays = new RecordingSequencePlayer();
+        ByteArrayOutputStream compiledLyrics = new ByteArrayOutputStream();
+        fromArrays.addCompiled(compiled, 0, compiledLyrics);
+        fromArrays.play();
+
+        assertEquals(new String(compiled.lyricBytes(0, compiled.lyricCount()), UTF_8), compiledLyrics.toString("UTF-8"));
+        // Music.play writes blank space before the first line, which compiling drops
+        assertEquals(compiledLyrics.toString("UTF-8").trim(), playedLyrics.toString("UTF-8").trim());
+        assertEquals(compiled.noteCount(), fromArrays.noteCount());
+        assertEquals(compiled.noteCount(), played.noteCount());
+    }
+}
@@ -0,0 +1,95 @@
+package karaoke.web;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests for AccessLog
+ */
+public class AccessLogTest {
+
+    // Testing strategy:
+    //
+    // Partition the entries logged as follows:
+    //    kind: request, message, message with exception
+    //    buffer: has room, full
+    //    writer: idle, woken by an entry
+    
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // covers: kind -> request, message, message with exception; buffer -> has room
+    @Test public void testEntriesWrittenInOrder() throws UnsupportedEncodingException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AccessLog log = new AccessLog(8, new PrintStream(bytes, true, "UTF-8"));
+        log.request("GET", "/soprano/", "soprano", 200, 1234, 5_000_000);
+        log.message("hello");
+        log.error("oops", new IllegalStateException("bad"));
+        log.close();
+        String text = new String(bytes.toByteArray(), UTF_8);
+        int request = text.indexOf("method=GET path=/soprano/ voice=soprano status=200 bytes=1234 duration_ms=5.0");
+        int message = text.indexOf("msg=\"hello\"");
+        int error = text.indexOf("msg=\"oops\" error=java.lang.IllegalStateException: bad");
+        assertTrue(text, request >= 0 && message > request && error > message);
+        assertEquals(0, log.dropped());
+    }
+
+    // covers: writer -> idle, woken by an entry
+    @Test public void testIdleWriterSleepsUntilLogged() throws InterruptedException {
+        AtomicInteger flushes = new AtomicInteger();
+        CountDownLatch flushed = new CountDownLatch(1);
+        OutputStream counting = new OutputStream() {
+            @Override public void write(int b) {}
+            @Override public void flush() {
+                flushes.incrementAndGet();
+                flushed.countDown();
+            }
+        };
+        AccessLog log = new AccessLog(8, new PrintStream(counting));
+        Thread.sleep(100);
+        assertEquals("flushed with nothing written", 0, flushes.get());
+        log.message("wake up");
+        // well within the writer's idle timeout, so it must have been woken
+        assertTrue(flushed.await(500, TimeUnit.MILLISECONDS));
+        log.close();
+    }
+
+    // covers: buffer -> full
+    @Test public void testDropsWhenFull() throws InterruptedException {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        OutputStream stalled = new OutputStream() {
+            @Override public void write(int b) throws IOException {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+        AccessLog log = new AccessLog(2, new PrintStream(stalled));
+        log.message("first");
+        writing.await(); // the writer has taken "first" and is stuck writing it
+        log.message("second");
+        log.message("third");
+        log.message("fourth");
+        assertEquals(1, log.dropped());
+        release.countDown();
+        log.close();
+    }
+}
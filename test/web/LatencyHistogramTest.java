@@ -0,0 +1,117 @@
+package karaoke.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests for LatencyHistogram and LyricMetrics
+ */
+public class LatencyHistogramTest {
+
+    // Testing strategy:
+    //
+    // Partition the recorded values as follows:
+    //    # of values: 0, 1, > 1
+    //    value: negative, below 1 microsecond, within range, above the largest bucket
+    //
+    // Partition valueAtQuantile as follows:
+    //    quantile: 0, between 0 and 1, 1
+    //    values: one repeated, spread over several powers of two
+    //
+    // Partition the Prometheus output as follows:
+    //    # of voices: 0, 1
+    //    # of rooms: 1, > 1
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // covers: # of values -> 0
+    @Test public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.maxNanos());
+        assertEquals(0, histogram.valueAtQuantile(0.99));
+    }
+
+    // covers: # of values -> > 1, value -> negative, below 1 microsecond, within range, quantile -> 0, between, 1
+    @Test public void testQuantiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(500);
+        for (int i = 0; i < 98; i++) {
+            histogram.record(1_000_000);
+        }
+        assertEquals(100, histogram.count());
+        assertEquals(1_000_000, histogram.maxNanos());
+        assertEquals(1000, histogram.valueAtQuantile(0));
+        long median = histogram.valueAtQuantile(0.5);
+        assertTrue("median " + median, median >= 1_000_000 && median <= 1_000_000 * 33 / 32);
+        assertEquals(1_000_000, histogram.valueAtQuantile(1));
+    }
+
+    // covers: values -> spread over several powers of two
+    @Test public void testQuantilesWithinStatedError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1, 2, ..., 10000 microseconds, so the exact p50 is 5000 and the exact p99 is 9900 microseconds
+        for (long micros = 1; micros <= 10_000; micros++) {
+            histogram.record(micros * 1000);
+        }
+        long p50 = histogram.valueAtQuantile(0.5);
+        long p99 = histogram.valueAtQuantile(0.99);
+        assertTrue("p50 " + p50, p50 >= 5_000_000 && p50 <= 5_000_000 * 33 / 32);
+        assertTrue("p99 " + p99, p99 >= 9_900_000 && p99 <= 9_900_000 * 33 / 32);
+    }
+
+    // covers: # of values -> 1, value -> above the largest bucket
+    @Test public void testHugeValue() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE / 2);
+        assertEquals(Long.MAX_VALUE / 2, histogram.valueAtQuantile(0.5));
+        StringBuilder out = new StringBuilder();
+        histogram.writePrometheus(out, "test_seconds", "");
+        assertTrue(out.toString().contains("test_seconds_bucket{le=\"+Inf\"} 1\n"));
+        assertTrue(out.toString().contains("test_seconds_count{} 1\n"));
+    }
+
+    // covers: # of voices -> 0
+    @Test public void testMetricsNoVoices() {
+        String text = new LyricMetrics("main").toPrometheus();
+        assertTrue(text.contains("# TYPE karaoke_lyric_dispatch_lag_seconds histogram"));
+        assertTrue(!text.contains("_bucket"));
+    }
+
+    // covers: # of voices -> 1, # of rooms -> 1
+    @Test public void testMetricsOneVoice() {
+        LyricMetrics metrics = new LyricMetrics("main");
+        LyricMetrics.Subscriber subscriber = metrics.subscriber("sop\"rano");
+        metrics.startSession();
+        metrics.startSession();
+        subscriber.lyricWritten(2_000_000, 10_000, 50_000_000);
+        subscriber.lyricWritten(3_000_000, 10_000, 60_000_000);
+        subscriber.recordWrite(10_000);
+        String text = metrics.toPrometheus();
+        assertTrue(text.contains("karaoke_lyric_write_seconds_count{room=\"main\",session=\"2\",voice=\"sop\\\"rano\"} 1\n"));
+        assertTrue(text.contains("karaoke_lyric_dispatch_lag_seconds_count{room=\"main\",session=\"2\",voice=\"sop\\\"rano\"} 2\n"));
+        assertTrue(text.contains("karaoke_time_to_first_lyric_seconds_count{room=\"main\",session=\"2\",voice=\"sop\\\"rano\"} 1\n"));
+    }
+
+    // covers: # of rooms -> > 1
+    @Test public void testMetricsManyRooms() {
+        LyricMetrics first = new LyricMetrics("first");
+        LyricMetrics second = new LyricMetrics("second");
+        second.startSession();
+        first.subscriber("alto").lyricWritten(1_000_000, 10_000, 20_000_000);
+        second.subscriber("alto").lyricWritten(1_000_000, 10_000, 20_000_000);
+        String text = LyricMetrics.toPrometheus(Arrays.asList(first, second));
+        assertEquals(text.indexOf("# TYPE karaoke_lyric_dispatch_lag_seconds"),
+                text.lastIndexOf("# TYPE karaoke_lyric_dispatch_lag_seconds"));
+        assertTrue(text.contains("karaoke_lyric_dispatch_lag_seconds_count{room=\"first\",session=\"0\",voice=\"alto\"} 1\n"));
+        assertTrue(text.contains("karaoke_lyric_dispatch_lag_seconds_count{room=\"second\",session=\"1\",voice=\"alto\"} 1\n"));
+    }
+}
@@ -0,0 +1,82 @@
+package karaoke.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.parser.AbcParser;
+import karaoke.sound.Music;
+
+/**
+ * Tests for LyricIndex
+ */
+public class LyricIndexTest {
+
+    // Testing strategy:
+    //
+    // Partition search as follows:
+    //    # of words in query: 0, 1, > 1
+    //    each word: one syllable, several syllables, ends inside a syllable
+    //    case and punctuation: same as the song, different
+    //    # of matches: 0, 1, > 1 and below limit, above limit
+    //    song: parsed from a string, a sample file with repeats
+
+    private static final String SONG = "X:1\nT:Greeting\nL:1/4\nK:C\n"
+            + "|:C D E F:|\nw: Hel-lo, dear world\n|G A B c|\nw: good-bye for now\n";
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    private static LyricIndex index(String name, String abc) throws UnableToParseException {
+        final LyricIndex index = new LyricIndex();
+        index.add(name, AbcParser.parse(abc));
+        return index;
+    }
+
+    // covers: words -> several syllables and one syllable, case and punctuation -> different, matches -> > 1 (repeat)
+    @Test public void testSearchPhraseAcrossSyllables() throws UnableToParseException {
+        final List<LyricIndex.Match> matches = index("greeting.abc", SONG).search("HELLO dear", 10);
+        assertEquals(2, matches.size());
+        final LyricIndex.Match match = matches.get(0);
+        assertEquals("greeting.abc", match.getSong());
+        assertEquals("Greeting", match.getTitle());
+        assertEquals("default", match.getVoice());
+        assertTrue(match.getLine(), match.getLine().startsWith("Hel lo, dear world"));
+    }
+
+    // covers: query spans two lines, matches -> 1
+    @Test public void testSearchAcrossLines() throws UnableToParseException {
+        final List<LyricIndex.Match> matches = index("greeting.abc", SONG).search("world, goodbye!", 10);
+        assertEquals(1, matches.size());
+        assertTrue(matches.get(0).getLine(), matches.get(0).getLine().contains("world"));
+    }
+
+    // covers: words -> end inside a syllable, # of words -> 0, matches -> 0, above limit
+    @Test public void testSearchWholeSyllablesOnly() throws UnableToParseException {
+        final LyricIndex index = index("greeting.abc", SONG);
+        assertEquals(0, index.search("hell o", 10).size());
+        assertEquals(2, index.search("hel", 10).size());
+        assertEquals(0, index.search("wor", 10).size());
+        assertEquals(0, index.search(" ,. ", 10).size());
+        assertEquals(1, index.search("dear", 1).size());
+    }
+
+    // covers: song -> sample file, # of words -> > 1
+    @Test public void testSearchSample() throws UnableToParseException, IOException {
+        final LyricIndex index = new LyricIndex();
+        index.add("star", Music.parseFromFile(new File("sample-abc/star_spangled_banner.abc")));
+        index.add("waxies", Music.parseFromFile(new File("sample-abc/waxies_dargle.abc")));
+        final List<LyricIndex.Match> matches = index.search("the twilight's last gleaming", 10);
+        assertEquals(1, matches.size());
+        assertEquals("star", matches.get(0).getSong());
+        assertEquals("waxies", index.search("ask him for a half a crown", 10).get(0).getSong());
+    }
+}
@@ -0,0 +1,141 @@
+package karaoke.web;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.parser.AbcParser;
+import karaoke.sound.CompiledMusic;
+import karaoke.sound.Instrument;
+import karaoke.sound.Pitch;
+import karaoke.sound.SequencePlayer;
+
+/**
+ * Tests for LyricSchedule
+ */
+public class LyricScheduleTest {
+
+    // Testing strategy:
+    //
+    // Partition the schedule as follows:
+    //    # of lyric lines: 0, > 0
+    //    # of batches: 1, > 2
+    //    lyric text: plain, with characters that must be escaped
+    //
+    // Partition script as follows:
+    //    clock path: plain, with characters that must be escaped
+    //
+    // The schedule is played by a player that runs each event in order of beat, and each chunk flushed to the
+    // subscriber's stream is recorded.
+
+    private static final int BEATS_PER_MINUTE = 60;
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    /**
+     * SequencePlayer that runs every event, in order of beat, when played.
+     */
+    private static class EventPlayer implements SequencePlayer {
+        private final Map<Double, List<Consumer<Double>>> events = new TreeMap<>();
+
+        @Override public void addNote(Instrument instr, Pitch pitch, double startBeat, double numBeats) {}
+
+        @Override public void addEvent(double atBeat, Consumer<Double> callback) {
+            events.computeIfAbsent(atBeat, beat -> new ArrayList<>()).add(callback);
+        }
+
+        @Override public void play() {
+            events.forEach((beat, callbacks) -> callbacks.forEach(callback -> callback.accept(beat)));
+        }
+    }
+
+    /**
+     * @return every chunk flushed to the stream by playing schedule
+     */
+    private static List<String> chunks(LyricSchedule schedule) {
+        final List<String> chunks = new ArrayList<>();
+        final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        final OutputStream out = new OutputStream() {
+            @Override public void write(int b) {
+                pending.write(b);
+            }
+            @Override public void flush() {
+                if (pending.size() > 0) {
+                    chunks.add(new String(pending.toByteArray(), UTF_8));
+                    pending.reset();
+                }
+            }
+        };
+        final EventPlayer player = new EventPlayer();
+        schedule.addTo(player, out);
+        player.play();
+        return chunks;
+    }
+
+    // covers: # of lyric lines -> 0
+    @Test public void testNoLyrics() throws UnableToParseException, IOException {
+        CompiledMusic compiled = CompiledMusic.compile(AbcParser.parseFromFile(new File("sample-abc/note_2.abc")), "default");
+        LyricSchedule schedule = new LyricSchedule(compiled, BEATS_PER_MINUTE, LyricSchedule.DEFAULT_WINDOW_SECONDS);
+        assertEquals(0, schedule.batchCount());
+        assertEquals(0, chunks(schedule).size());
+    }
+
+    // covers: # of lyric lines -> > 0, # of batches -> 1, lyric text -> with characters that must be escaped
+    @Test public void testOneBatch() throws UnableToParseException {
+        CompiledMusic compiled = CompiledMusic.compile(AbcParser.parse("X:1\nT:t\nL:1/4\nK:C\nC D|\nw: \"a</script> b\n"), "default");
+        LyricSchedule schedule = new LyricSchedule(compiled, BEATS_PER_MINUTE, LyricSchedule.DEFAULT_WINDOW_SECONDS);
+        assertEquals(1, schedule.batchCount());
+        List<String> chunks = chunks(schedule);
+        assertEquals(1, chunks.size());
+        String batch = chunks.get(0);
+        assertTrue(batch, batch.startsWith("<script>karaoke.schedule(0, [[0, \""));
+        assertTrue(batch, batch.contains("[250, \""));
+        assertFalse(batch, batch.contains("</script>b") || batch.contains("</script> b"));
+        assertTrue(batch, batch.contains("\\\"a\\u003c/script>"));
+        assertTrue(batch, batch.endsWith("]);</script>\n"));
+    }
+
+    // covers: # of lyric lines -> > 0, # of batches -> > 2, lyric text -> plain
+    @Test public void testBatchesSentOneWindowAhead() throws UnableToParseException {
+        CompiledMusic compiled = CompiledMusic.compile(AbcParser.parse("X:1\nT:t\nL:1/4\nK:C\nC D E F|G A B c|\nw: a b c d e f g h\n"), "default");
+        LyricSchedule schedule = new LyricSchedule(compiled, BEATS_PER_MINUTE, 0.5);
+        assertEquals(4, schedule.batchCount());
+        List<String> chunks = chunks(schedule);
+        // a quarter note is 250 ms; batches 0 and 1 at the start, then batch 2 at 500 ms and batch 3 at 1000 ms
+        assertEquals(3, chunks.size());
+        assertTrue(chunks.get(0), chunks.get(0).startsWith("<script>karaoke.schedule(0, [[0, "));
+        assertTrue(chunks.get(0), chunks.get(0).contains("<script>karaoke.schedule(0, [[500, "));
+        assertTrue(chunks.get(1), chunks.get(1).startsWith("<script>karaoke.schedule(500, [[1000, "));
+        assertTrue(chunks.get(2), chunks.get(2).startsWith("<script>karaoke.schedule(1000, [[1500, "));
+        int lines = 0;
+        for (String chunk : chunks) {
+            lines += chunk.split("\\], \\[|\\[\\[").length - 1;
+        }
+        assertEquals(compiled.lyricCount(), lines);
+    }
+
+    // covers: clock path -> plain, with characters that must be escaped
+    @Test public void testScriptSynchronizesWithClock() {
+        assertTrue(LyricSchedule.script("/clock?room=default").contains("var clock = \"/clock?room=default\";"));
+        String script = LyricSchedule.script("/clock?room=\"</script>");
+        assertTrue(script, script.contains("var clock = \"/clock?room=\\\"\\u003c/script>\";"));
+        assertEquals(script.indexOf("</script>"), script.lastIndexOf("</script>"));
+    }
+}
@@ -0,0 +1,55 @@
+package karaoke.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for PlaybackPosition
+ */
+public class PlaybackPositionTest {
+
+    // Testing strategy:
+    //
+    // Partition beatAt as follows:
+    //    position: paused, moving
+    //    nanos: at the position, after it
+    //
+    // Partition changedAt as follows:
+    //    change: pause, resume, tempo
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // covers: position -> moving, nanos -> at the position, after it
+    @Test public void testMovingAtTempo() {
+        PlaybackPosition position = new PlaybackPosition(5 * SECOND, 2, 60, false);
+        assertEquals(2, position.beatAt(5 * SECOND), 0);
+        assertEquals(4.5, position.beatAt(7 * SECOND + SECOND / 2), 1e-9);
+    }
+
+    // covers: position -> paused, nanos -> after it; change -> pause, resume
+    @Test public void testPausedStaysPut() {
+        PlaybackPosition paused = new PlaybackPosition(0, 0, 120, false).changedAt(SECOND, 120, true);
+        assertTrue(paused.isPaused());
+        assertEquals(2, paused.getBeat(), 1e-9);
+        assertEquals(2, paused.beatAt(10 * SECOND), 1e-9);
+        PlaybackPosition resumed = paused.changedAt(10 * SECOND, 120, false);
+        assertFalse(resumed.isPaused());
+        assertEquals(4, resumed.beatAt(11 * SECOND), 1e-9);
+    }
+
+    // covers: change -> tempo
+    @Test public void testTempoFromTheChangeOn() {
+        PlaybackPosition faster = new PlaybackPosition(0, 0, 60, false).changedAt(2 * SECOND, 120, false);
+        assertEquals(2, faster.getBeat(), 1e-9);
+        assertEquals(120, faster.getBeatsPerMinute());
+        assertEquals(6, faster.beatAt(4 * SECOND), 1e-9);
+    }
+}
@@ -0,0 +1,70 @@
+package karaoke.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.sound.CompiledMusic;
+import karaoke.sound.Music;
+
+/**
+ * Tests for SongLibrary
+ */
+public class SongLibraryTest {
+
+    // Testing strategy:
+    //
+    // Partition load as follows:
+    //    file: loaded for the first time, loaded before through the same path, loaded before through another path
+    //
+    // Partition compiled as follows:
+    //    voice: compiled for the first time, compiled before
+    //    song: loaded from a file, transposed (a different Music)
+    //
+    // Partition search as follows:
+    //    song: loaded from a file, added, added again
+
+    private static final int TICKS_PER_BEAT = 64;
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // covers: file -> first time, same path, another path
+    @Test public void testLoadParsesOnce() throws UnableToParseException, IOException {
+        SongLibrary library = new SongLibrary(TICKS_PER_BEAT);
+        Music first = library.load(new File("sample-abc/note.abc"));
+        assertSame(first, library.load(new File("sample-abc/note.abc")));
+        assertSame(first, library.load(new File("sample-abc/../sample-abc/note.abc")));
+        assertNotSame(first, library.load(new File("sample-abc/chord.abc")));
+    }
+
+    // covers: voice -> first time, compiled before; song -> loaded, transposed
+    @Test public void testCompiledOncePerSongAndVoice() throws UnableToParseException, IOException {
+        SongLibrary library = new SongLibrary(TICKS_PER_BEAT);
+        Music music = library.load(new File("sample-abc/note.abc"));
+        CompiledMusic compiled = library.compiled(music, "default");
+        assertEquals(TICKS_PER_BEAT, compiled.ticksPerBeat());
+        assertSame(compiled, library.compiled(music, "default"));
+        assertNotSame(compiled, library.compiled(music, ""));
+        assertNotSame(compiled, library.compiled(music.transpose(1), "default"));
+    }
+
+    // covers: song -> loaded, added, added again
+    @Test public void testSearchLoadedAndAddedSongs() throws UnableToParseException, IOException {
+        SongLibrary library = new SongLibrary(TICKS_PER_BEAT);
+        Music music = library.load(new File("sample-abc/note.abc"));
+        assertEquals(1, library.search("hi", 10).size());
+        library.add("again", music);
+        assertEquals(1, library.search("hi", 10).size());
+        library.add("transposed", music.transpose(1));
+        assertEquals("transposed", library.search("hi", 10).get(1).getSong());
+    }
+}
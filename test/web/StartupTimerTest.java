@@ -0,0 +1,42 @@
+package karaoke.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for StartupTimer
+ */
+public class StartupTimerTest {
+
+    // Testing strategy:
+    //
+    // Partition done as follows:
+    //    phase: done for the first time, done again
+    //
+    // Partition toString as follows:
+    //    # of phases done: 0, > 1
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // covers: # of phases done -> 0
+    @Test public void testNoPhases() {
+        assertEquals("", new StartupTimer().toString());
+    }
+
+    // covers: phase -> first time, again; # of phases done -> > 1
+    @Test public void testPhasesInOrder() throws InterruptedException {
+        StartupTimer startup = new StartupTimer();
+        double bind = startup.done("bind");
+        assertTrue("bind " + bind, bind >= 0);
+        Thread.sleep(2);
+        double song = startup.done("song");
+        assertTrue("song " + song, song >= bind + 1);
+        assertEquals(bind, startup.done("bind"), 0);
+        assertEquals("bind: " + bind + " ms, song: " + song + " ms", startup.toString());
+    }
+}
@@ -0,0 +1,191 @@
+package karaoke.web;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests for SubscriberStream
+ */
+public class SubscriberStreamTest {
+
+    // Testing strategy:
+    //
+    // Partition the inputs as follows:
+    //    connection: keeps up, stalled until released, stalled until closed, fails
+    //    queue: has room, full with policy SKIP_TO_LATEST, full with policy DISCONNECT
+    //
+    // A stalled connection blocks in write until released or closed, so the queue fills while it is blocked.
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // covers: connection -> keeps up; queue -> has room
+    @Test public void testChunksSentInOrder() throws IOException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AtomicInteger writes = new AtomicInteger();
+        SubscriberStream stream = new SubscriberStream(bytes, 4, OverflowPolicy.SKIP_TO_LATEST, executor,
+                nanos -> writes.incrementAndGet());
+        stream.write("one ".getBytes(UTF_8));
+        stream.flush();
+        stream.write("two".getBytes(UTF_8));
+        stream.close();
+        executor.shutdown();
+        assertEquals("one two", new String(bytes.toByteArray(), UTF_8));
+        // both chunks are sent in one flush if the second is queued before the first is taken
+        assertTrue("writes " + writes.get(), writes.get() == 1 || writes.get() == 2);
+        assertEquals(0, stream.skipped());
+    }
+
+    // covers: connection -> stalled until released; queue -> has room
+    @Test public void testQueuedChunksSentInOneFlush() throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        StalledStream stalled = new StalledStream();
+        AtomicInteger writes = new AtomicInteger();
+        SubscriberStream stream = new SubscriberStream(stalled, 4, OverflowPolicy.SKIP_TO_LATEST, executor,
+                nanos -> writes.incrementAndGet());
+        writeLine(stream, "a");
+        stalled.writing.await();
+        // "a" is being written; b and c wait, then are sent together
+        writeLine(stream, "b");
+        writeLine(stream, "c");
+        stalled.release.countDown();
+        stream.close();
+        executor.shutdown();
+        assertEquals("abc", new String(stalled.bytes.toByteArray(), UTF_8));
+        assertEquals(2, writes.get());
+    }
+
+    // covers: connection -> stalled until released; queue -> full with policy SKIP_TO_LATEST
+    @Test public void testSkipToLatestWhenFull() throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        StalledStream stalled = new StalledStream();
+        SubscriberStream stream = new SubscriberStream(stalled, 2, OverflowPolicy.SKIP_TO_LATEST, executor, nanos -> {});
+        writeLine(stream, "a");
+        stalled.writing.await();
+        // "a" is being written; the queue holds b and c, then d replaces them
+        writeLine(stream, "b");
+        writeLine(stream, "c");
+        writeLine(stream, "d");
+        assertEquals(2, stream.skipped());
+        stalled.release.countDown();
+        stream.close();
+        executor.shutdown();
+        assertEquals("ad", new String(stalled.bytes.toByteArray(), UTF_8));
+    }
+
+    // covers: connection -> stalled until released; queue -> full with policy DISCONNECT
+    @Test public void testDisconnectWhenFull() throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        StalledStream stalled = new StalledStream();
+        SubscriberStream stream = new SubscriberStream(stalled, 1, OverflowPolicy.DISCONNECT, executor, nanos -> {});
+        writeLine(stream, "a");
+        stalled.writing.await();
+        writeLine(stream, "b");
+        assertTrue(stream.isOpen());
+        writeLine(stream, "c");
+        assertFalse(stream.isOpen());
+        writeLine(stream, "d");
+        stalled.release.countDown();
+        stream.close();
+        executor.shutdown();
+        assertEquals("a", new String(stalled.bytes.toByteArray(), UTF_8));
+    }
+
+    // covers: connection -> stalled until closed; queue -> full with policy DISCONNECT
+    @Test public void testDisconnectClosesStalledConnection() throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        BlockingStream blocking = new BlockingStream();
+        CountDownLatch dropped = new CountDownLatch(1);
+        SubscriberStream stream = new SubscriberStream(blocking, 1, OverflowPolicy.DISCONNECT, executor, nanos -> {});
+        stream.setDropListener(dropped::countDown);
+        writeLine(stream, "a");
+        blocking.writing.await();
+        writeLine(stream, "b");
+        assertEquals(1, blocking.closed.getCount());
+        writeLine(stream, "c");
+        // the overflow closes the connection, which ends the stalled write, without waiting for the song to end
+        assertTrue(blocking.closed.await(1, TimeUnit.SECONDS));
+        assertTrue(dropped.await(1, TimeUnit.SECONDS));
+        assertFalse(stream.isOpen());
+        stream.close();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+    }
+
+    // covers: connection -> fails
+    @Test public void testClosedAfterWriteFails() throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        OutputStream broken = new OutputStream() {
+            @Override public void write(int b) throws IOException {
+                throw new IOException("connection reset");
+            }
+        };
+        SubscriberStream stream = new SubscriberStream(broken, 4, OverflowPolicy.SKIP_TO_LATEST, executor, nanos -> {});
+        writeLine(stream, "a");
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.SECONDS);
+        assertFalse(stream.isOpen());
+    }
+
+    private static void writeLine(SubscriberStream stream, String line) throws IOException {
+        stream.write(line.getBytes(UTF_8));
+        stream.flush();
+    }
+
+    /**
+     * Stream whose first write blocks until released.
+     */
+    private static class StalledStream extends OutputStream {
+        private final CountDownLatch writing = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        @Override public void write(int b) throws IOException {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            bytes.write(b);
+        }
+    }
+
+    /**
+     * Stream whose writes block until it is closed, as a socket to a phone that stopped reading does.
+     */
+    private static class BlockingStream extends OutputStream {
+        private final CountDownLatch writing = new CountDownLatch(1);
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override public void write(int b) throws IOException {
+            writing.countDown();
+            try {
+                closed.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            throw new IOException("connection closed");
+        }
+
+        @Override public void close() {
+            closed.countDown();
+        }
+    }
+}